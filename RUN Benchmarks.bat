@@ -0,0 +1,2 @@
+java -Xmx2G -cp "bin;./lib/*;properties" dk/itu/ejuuragr/benchmark/Benchmarks %*
+pause
\ No newline at end of file
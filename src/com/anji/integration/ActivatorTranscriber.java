@@ -47,6 +47,12 @@ public final static String RECURRENT_CYCLES_KEY = "recurrent.cycles";
  */
 public final static String ANJI_TYPE = "anji";
 
+/**
+ * enumerated type constant for ANJI ANN compiled to flat arrays; see
+ * <code>CompiledActivator</code>
+ */
+public final static String ANJI_COMPILED_TYPE = "anji-compiled";
+
 /**
  * enumerated type constant for JOONE ANN
  */
@@ -81,6 +87,8 @@ public Activator newActivator( Chromosome ch ) throws TranscriberException {
 	Activator result = null;
 	if ( ANJI_TYPE.equals( type ) ) {
 		result = new AnjiActivator( transcriber.newAnjiNet( ch ), recurrentCycles );
+	} else if ( ANJI_COMPILED_TYPE.equals( type ) ) {
+		result = transcriber.newCompiledActivator( ch, recurrentCycles );
 	} else if ( JOONE_TYPE.equals( type ) ) {
 		throw new TranscriberException( "JOONE not implemented" );
 	} else
@@ -20,16 +20,19 @@
 package com.anji.integration;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.SortedMap;
 
 import org.apache.log4j.Logger;
+import org.jgap.Allele;
 import org.jgap.Chromosome;
 
 import com.anji.neat.ConnectionAllele;
@@ -39,6 +42,7 @@ import com.anji.neat.NeuronType;
 import com.anji.nn.ActivationFunctionFactory;
 import com.anji.nn.AnjiNet;
 import com.anji.nn.CacheNeuronConnection;
+import com.anji.nn.CompiledNet;
 import com.anji.nn.Neuron;
 import com.anji.nn.NeuronConnection;
 import com.anji.nn.RecurrencyPolicy;
@@ -58,8 +62,17 @@ public class AnjiNetTranscriber implements Transcriber, Configurable {
 
 private final static Logger logger = Logger.getLogger( AnjiNetTranscriber.class );
 
+/**
+ * properties key for the number of topologies to keep compiled nets for; 0 disables reuse
+ * @see #newCompiledActivator(Chromosome, int)
+ */
+public final static String TOPOLOGY_CACHE_SIZE_KEY = "ann.topology.cache.size";
+
 private RecurrencyPolicy recurrencyPolicy = RecurrencyPolicy.BEST_GUESS;
 
+// innovation IDs of all alleles -> CompiledTopology, least recently used first
+private Map topologyCache = null;
+
 /**
  * ctor
  */
@@ -80,6 +93,16 @@ public AnjiNetTranscriber( RecurrencyPolicy aPolicy ) {
  */
 public void init( Properties props ) {
 	recurrencyPolicy = RecurrencyPolicy.load( props );
+	final int topologyCacheSize = props.getIntProperty( TOPOLOGY_CACHE_SIZE_KEY, 0 );
+	if ( topologyCacheSize > 0 )
+		topologyCache = new LinkedHashMap( 16, 0.75f, true ) {
+
+			private static final long serialVersionUID = 1L;
+
+			protected boolean removeEldestEntry( Map.Entry eldest ) {
+				return size() > topologyCacheSize;
+			}
+		};
 }
 
 /**
@@ -212,6 +235,130 @@ public AnjiNet newAnjiNet( Chromosome genotype ) throws TranscriberException {
 			.getId().toString() );
 }
 
+/**
+ * Transcribes <code>genotype</code> and compiles the resulting net to flat arrays. If
+ * <code>ann.topology.cache.size</code> is set, the compiled net is kept by the innovation IDs of
+ * all alleles, and a chromosome with exactly the same neurons and connections (e.g. one that
+ * only had its weights mutated) gets a copy of it with its own weights written in, instead of
+ * being transcribed and compiled again. Neuron and connection genes are identified by their
+ * innovation ID, so the structure is the same.
+ * 
+ * @param genotype
+ * @param numCycles number of times input pattern is "shown" to network before a result is
+ * returned
+ * @return <code>CompiledActivator</code> giving the same responses as an
+ * <code>AnjiActivator</code> built from the same genotype
+ * @throws TranscriberException if the net can not be built or compiled
+ * @see CompiledActivator
+ */
+public CompiledActivator newCompiledActivator( Chromosome genotype, int numCycles )
+		throws TranscriberException {
+	if ( topologyCache == null )
+		return compile( newAnjiNet( genotype ), numCycles );
+
+	TopologyKey key = new TopologyKey( genotype );
+	CompiledTopology topology;
+	synchronized ( topologyCache ) {
+		topology = (CompiledTopology) topologyCache.get( key );
+	}
+
+	if ( topology == null ) {
+		CompiledActivator result = compile( newAnjiNet( genotype ), numCycles );
+		topology = new CompiledTopology( result.getCompiledNet().copy( key.toString() ),
+				key.connIds );
+		synchronized ( topologyCache ) {
+			topologyCache.put( key, topology );
+		}
+		return result;
+	}
+
+	CompiledNet compiled = topology.template.copy( genotype.getId().toString() );
+	int i = 0;
+	Iterator it = genotype.getAlleles().iterator();
+	while ( it.hasNext() ) {
+		Allele allele = (Allele) it.next();
+		if ( allele instanceof ConnectionAllele ) {
+			int slot = topology.weightSlots[ i++ ];
+			if ( slot != CompiledNet.NO_WEIGHT_SLOT )
+				compiled.setWeight( slot, ( (ConnectionAllele) allele ).getWeight() );
+		}
+	}
+	return new CompiledActivator( compiled, numCycles, this, genotype );
+}
+
+private static CompiledActivator compile( AnjiNet net, int numCycles )
+		throws TranscriberException {
+	try {
+		return new CompiledActivator( net, numCycles );
+	}
+	catch ( IllegalArgumentException e ) {
+		throw new TranscriberException( "can not compile net " + net.getName(), e );
+	}
+}
+
+/**
+ * innovation IDs of all alleles of a chromosome, in their sorted order
+ */
+private static class TopologyKey {
+
+private long[] innovationIds;
+
+private long[] connIds;
+
+private int hash;
+
+private TopologyKey( Chromosome genotype ) {
+	Collection alleles = genotype.getAlleles();
+	innovationIds = new long[ alleles.size() ];
+	int connCount = 0;
+	Iterator it = alleles.iterator();
+	for ( int i = 0; it.hasNext(); ++i ) {
+		Allele allele = (Allele) it.next();
+		innovationIds[ i ] = allele.getInnovationId().longValue();
+		if ( allele instanceof ConnectionAllele )
+			++connCount;
+	}
+
+	connIds = new long[ connCount ];
+	int k = 0;
+	it = alleles.iterator();
+	while ( it.hasNext() ) {
+		Allele allele = (Allele) it.next();
+		if ( allele instanceof ConnectionAllele )
+			connIds[ k++ ] = allele.getInnovationId().longValue();
+	}
+	hash = Arrays.hashCode( innovationIds );
+}
+
+public int hashCode() {
+	return hash;
+}
+
+public boolean equals( Object o ) {
+	return ( o instanceof TopologyKey )
+			&& Arrays.equals( innovationIds, ( (TopologyKey) o ).innovationIds );
+}
+
+public String toString() {
+	return "topology " + hash;
+}
+}
+
+/**
+ * compiled net of a topology, and where each connection allele's weight goes in it
+ */
+private static class CompiledTopology {
+
+private CompiledNet template;
+
+private int[] weightSlots;
+
+private CompiledTopology( CompiledNet aTemplate, long[] connIds ) {
+	template = aTemplate;
+	weightSlots = aTemplate.getWeightSlots( connIds );
+}
+}
+
 /**
  * @see com.anji.integration.Transcriber#getPhenotypeClass()
  */
@@ -0,0 +1,229 @@
+package com.anji.integration;
+
+import org.jgap.Chromosome;
+
+import com.anji.nn.AnjiNet;
+import com.anji.nn.CompiledNet;
+
+/**
+ * Activator backed by a <code>CompiledNet</code>. Produces exactly the same responses as an
+ * <code>AnjiActivator</code> wrapping the same <code>AnjiNet</code>, but evaluates each step as
+ * one pass over primitive arrays instead of walking <code>Neuron</code> and
+ * <code>Connection</code> objects. The only allocation per call is the returned response array.
+ *
+ * @see com.anji.integration.AnjiActivator
+ */
+public class CompiledActivator implements Activator {
+
+private AnjiNet net;
+
+private AnjiNetTranscriber transcriber;
+
+private Chromosome genotype;
+
+private CompiledNet compiled;
+
+private int numCycles = 1;
+
+private int outputDimension;
+
+private double minResponseValue;
+
+private double maxResponseValue;
+
+/**
+ * @param aNet ANN; used for XML only, activation runs on its compiled form
+ * @param aNumCycles number of times input pattern is "shown" to network before a result is
+ * returned; this allows for recurrent connections to take effect
+ * @throws IllegalArgumentException if <code>aNet</code> can not be compiled, or min and max
+ * values for response nodes differ
+ */
+public CompiledActivator( AnjiNet aNet, int aNumCycles ) throws IllegalArgumentException {
+	this( new CompiledNet( aNet ), aNumCycles );
+	net = aNet;
+}
+
+/**
+ * @param aCompiled compiled ANN, e.g. a copy of one with the same topology
+ * @param aNumCycles number of times input pattern is "shown" to network before a result is
+ * returned
+ * @param aTranscriber transcribes <code>aGenotype</code> when the <code>AnjiNet</code> is
+ * needed for XML; may be null, in which case <code>toXml()</code> is not supported
+ * @param aGenotype chromosome <code>aCompiled</code> was built from; may be null, as
+ * <code>aTranscriber</code>
+ * @throws IllegalArgumentException if min and max values for response nodes differ
+ */
+public CompiledActivator( CompiledNet aCompiled, int aNumCycles, AnjiNetTranscriber aTranscriber,
+		Chromosome aGenotype ) throws IllegalArgumentException {
+	this( aCompiled, aNumCycles );
+	transcriber = aTranscriber;
+	genotype = aGenotype;
+}
+
+private CompiledActivator( CompiledNet aCompiled, int aNumCycles ) throws IllegalArgumentException {
+	super();
+	setNumCycles( aNumCycles );
+	compiled = aCompiled;
+	outputDimension = aCompiled.getOutputDimension();
+
+	// verify consistent response ranges
+	minResponseValue = compiled.getOutputFunction( 0 ).getMinValue();
+	maxResponseValue = compiled.getOutputFunction( 0 ).getMaxValue();
+	for ( int i = 1; i < outputDimension; ++i )
+		if ( minResponseValue != compiled.getOutputFunction( i ).getMinValue()
+				|| maxResponseValue != compiled.getOutputFunction( i ).getMaxValue() )
+			throw new IllegalArgumentException( "min and max values for response nodes differ" );
+}
+
+/**
+ * @return the <code>AnjiNet</code> this activator was compiled from, transcribing it if needed
+ * @throws IllegalStateException if there is no net and no transcriber and genotype to make one
+ */
+private AnjiNet getNet() {
+	if ( net == null ) {
+		if ( transcriber == null || genotype == null )
+			throw new IllegalStateException( "no AnjiNet, transcriber or genotype for "
+					+ compiled + ", can not produce XML" );
+		try {
+			net = transcriber.newAnjiNet( genotype );
+		}
+		catch ( TranscriberException e ) {
+			throw new IllegalStateException( "can not transcribe " + genotype.getId() + ": "
+					+ e.getMessage() );
+		}
+	}
+	return net;
+}
+
+/**
+ * @return compiled net this activator runs on
+ */
+CompiledNet getCompiledNet() {
+	return compiled;
+}
+
+/**
+ * @see com.anji.integration.Activator#next()
+ */
+public double[] next() {
+	return next( (double[]) null );
+}
+
+/**
+ * @see com.anji.integration.Activator#next(double[])
+ */
+public double[] next( double[] newInputValues ) {
+	if ( newInputValues != null )
+		compiled.setInputs( newInputValues );
+
+	for ( int cycle = 0; cycle < numCycles; ++cycle )
+		compiled.step();
+
+	double[] result = new double[ outputDimension ];
+	for ( int idx = 0; idx < outputDimension; ++idx )
+		result[ idx ] = compiled.getOutputValue( idx );
+	return result;
+}
+
+/**
+ * @see com.anji.integration.Activator#next(double[][])
+ */
+public double[][] next( double[][] newInputValues ) {
+	double[][] result = new double[ newInputValues.length ][];
+	for ( int i = 0; i < newInputValues.length; ++i ) {
+		result[ i ] = next( newInputValues[ i ] );
+	}
+	return result;
+}
+
+/**
+ * clear all memory in network, including neurons and recurrent connections
+ */
+public void reset() {
+	compiled.reset();
+}
+
+/**
+ * @see java.lang.Object#toString()
+ */
+public String toString() {
+	return compiled.toString();
+}
+
+/**
+ * @see com.anji.integration.Activator#toXml()
+ * @throws IllegalStateException if this was made from a <code>CompiledNet</code> without a
+ * transcriber and genotype
+ */
+public String toXml() {
+	return getNet().toXml();
+}
+
+/**
+ * @see com.anji.integration.Activator#getName()
+ */
+public String getName() {
+	return compiled.toString();
+}
+
+/**
+ * @param aNumCycles number of times input pattern is "shown" to network before a result is
+ * returned; this allows for recurrent connections to take effect
+ * @throws IllegalArgumentException
+ */
+public void setNumCycles( int aNumCycles ) throws IllegalArgumentException {
+	if ( aNumCycles < 1 )
+		throw new IllegalArgumentException( "numCycles must be >= 1" );
+	numCycles = aNumCycles;
+}
+
+/**
+ * @return dimension of input pattern
+ */
+public int getInputDimension() {
+	return compiled.getInputDimension();
+}
+
+/**
+ * @return dimension of output pattern
+ */
+public int getOutputDimension() {
+	return outputDimension;
+}
+
+/**
+ * @return true if network contains any recurrent connections, false otherwise
+ */
+public boolean isRecurrent() {
+	return compiled.isRecurrent();
+}
+
+/**
+ * @return min response
+ */
+public double getMinResponse() {
+	return minResponseValue;
+}
+
+/**
+ * @return max responses
+ */
+public double getMaxResponse() {
+	return maxResponseValue;
+}
+
+/**
+ * @see com.anji.util.XmlPersistable#getXmlRootTag()
+ */
+public String getXmlRootTag() {
+	return "network";
+}
+
+/**
+ * @see com.anji.util.XmlPersistable#getXmld()
+ */
+public String getXmld() {
+	return compiled.toString();
+}
+
+}
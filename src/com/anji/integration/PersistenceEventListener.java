@@ -21,6 +21,7 @@ package com.anji.integration;
 
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.Iterator;
 
 import org.apache.log4j.Logger;
@@ -32,12 +33,17 @@ import org.jgap.event.GeneticEvent;
 import org.jgap.event.GeneticEventListener;
 
 import com.anji.neat.NeatConfiguration;
+import com.anji.persistence.AsyncPersistenceWriter;
+import com.anji.persistence.FilePersistence;
 import com.anji.persistence.Persistence;
 import com.anji.run.Run;
 import com.anji.util.Properties;
 
 /**
- * Writes genetic algorithm data, including chromosomes and run, to persistent storage.
+ * Writes genetic algorithm data, including chromosomes and run, to persistent storage. With
+ * <code>persist.async</code> the writing is done on a background thread by an
+ * <code>AsyncPersistenceWriter</code>, which must get <code>RUN_COMPLETED_EVENT</code> so it
+ * can finish before the program exits.
  * 
  * @author Philip Tucker
  */
@@ -60,6 +66,22 @@ public final static String PERSIST_CHAMPIONS_KEY = "persist.champions";
  */
 public final static String PERSIST_LAST_GEN_KEY = "persist.last";
 
+/**
+ * properties key, whether or not to write on a background thread
+ */
+public final static String PERSIST_ASYNC_KEY = "persist.async";
+
+/**
+ * properties key, number of chromosomes waiting to be written on the background thread before
+ * evolution waits for it
+ */
+public final static String PERSIST_ASYNC_QUEUE_SIZE_KEY = "persist.async.queue.size";
+
+/**
+ * default number of chromosomes waiting to be written on the background thread
+ */
+public final static int DEFAULT_PERSIST_ASYNC_QUEUE_SIZE = 1000;
+
 private boolean persistAllChroms = false;
 
 private boolean persistChamps = false;
@@ -68,6 +90,10 @@ private boolean persistLastGen = false;
 
 private Persistence db = null;
 
+private AsyncPersistenceWriter writer = null;
+
+private int generation = 0;
+
 private Collection previousGeneration = new ArrayList();
 
 private Collection champs = new ArrayList();
@@ -97,12 +123,29 @@ public void init( Properties props ) {
 	persistAllChroms = props.getBooleanProperty( PERSIST_ALL_CHROMOSOMES_KEY );
 	persistChamps = props.getBooleanProperty( PERSIST_CHAMPIONS_KEY );
 	persistLastGen = props.getBooleanProperty( PERSIST_LAST_GEN_KEY );
+	if ( props.getBooleanProperty( PERSIST_ASYNC_KEY, false ) )
+		writer = new AsyncPersistenceWriter( db, props.getIntProperty(
+				PERSIST_ASYNC_QUEUE_SIZE_KEY, DEFAULT_PERSIST_ASYNC_QUEUE_SIZE ) );
+}
+
+/**
+ * Sets the number of the next generation to be evaluated, when a run is continued from a
+ * checkpoint. Generation archives of that generation and later are deleted, since they were
+ * written after the checkpoint and will be written again.
+ * 
+ * @param first number of generations done before this run
+ */
+public void setFirstGeneration( int first ) {
+	generation = first;
+	if ( writer != null && persistAllChroms && db instanceof FilePersistence )
+		( (FilePersistence) db ).deleteGenerations( first );
 }
 
 /**
  * @param event <code>GeneticEvent.GENOTYPE_EVALUATED_EVENT</code> writes chromosomes and
  * updates run; <code>GeneticEvent.GENOTYPE_START_GENETIC_OPERATORS_EVENT</code> loads config;
- * <code>GeneticEvent.GENOTYPE_FINISH_GENETIC_OPERATORS_EVEN</code> stores config
+ * <code>GeneticEvent.GENOTYPE_FINISH_GENETIC_OPERATORS_EVEN</code> stores config;
+ * <code>GeneticEvent.RUN_COMPLETED_EVENT</code> waits for background writes to finish
  */
 public void geneticEventFired( GeneticEvent event ) {
 	Genotype genotype = (Genotype) event.getSource();
@@ -113,7 +156,14 @@ public void geneticEventFired( GeneticEvent event ) {
 		genotypeFinishGeneticOperatorsEvent();
 	}
 	else if ( GeneticEvent.GENOTYPE_EVALUATED_EVENT.equals( event.getEventName() ) ) {
-		genotypeEvaluatedEvent( genotype );
+		if ( writer != null )
+			genotypeEvaluatedEventAsync( genotype );
+		else
+			genotypeEvaluatedEvent( genotype );
+	}
+	else if ( GeneticEvent.RUN_COMPLETED_EVENT.equals( event.getEventName() ) ) {
+		if ( writer != null )
+			writer.close();
 	}
 }
 
@@ -182,6 +232,56 @@ private void genotypeEvaluatedEvent( Genotype genotype ) {
 	previousGeneration.addAll( currentGeneration );
 }
 
+/**
+ * Like <code>genotypeEvaluatedEvent()</code>, but queues the writes on <code>writer</code>.
+ * With <code>persist.all</code> and a <code>FilePersistence</code> each generation is appended
+ * to one generation archive instead of a file per chromosome. Champions and, with
+ * <code>persist.last</code>, the latest generation are still stored as a file per chromosome,
+ * and the files of earlier generations are deleted as without <code>persist.all</code>.
+ * 
+ * @param genotype
+ */
+private void genotypeEvaluatedEventAsync( Genotype genotype ) {
+	Collection currentGeneration = new ArrayList( genotype.getChromosomes() );
+	boolean archive = persistAllChroms && db instanceof FilePersistence;
+
+	// persist generation
+	if ( archive )
+		writer.storeGeneration( Integer.toString( generation ), currentGeneration );
+	if ( persistLastGen || ( persistAllChroms && !archive ) )
+		writer.store( currentGeneration );
+	++generation;
+
+	// persist champ
+	Chromosome c = genotype.getFittestChromosome();
+	champs.add( c );
+	if ( persistChamps )
+		writer.store( Collections.singletonList( c ) );
+
+	// persist run
+	try {
+		writer.store( run );
+	}
+	catch ( Exception e ) {
+		logger.error( "PersistenceEventListener: error storing run", e );
+	}
+
+	// delete chromosomes we don't want to persist; archived chromosomes can still be loaded
+	if ( !persistAllChroms || ( archive && persistLastGen ) ) {
+		previousGeneration.removeAll( currentGeneration );
+		if ( persistChamps )
+			previousGeneration.removeAll( champs );
+		Collection ids = new ArrayList();
+		Iterator it = previousGeneration.iterator();
+		while ( it.hasNext() )
+			ids.add( ( (Chromosome) it.next() ).getId().toString() );
+		writer.delete( ids );
+	}
+
+	previousGeneration.clear();
+	previousGeneration.addAll( currentGeneration );
+}
+
 /**
  * stores chromosome <code>chrom<code>
  * @param chrom
@@ -19,10 +19,17 @@
  */
 package com.anji.neat;
 
+import java.io.File;
 import java.text.DateFormat;
 import java.text.SimpleDateFormat;
+import java.util.ArrayList;
 import java.util.Calendar;
 import java.util.Date;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
 
 import org.apache.log4j.Logger;
 import org.jgap.BulkFitnessFunction;
@@ -34,14 +41,21 @@ import com.anji.Copyright;
 import com.anji.integration.LogEventListener;
 import com.anji.integration.PersistenceEventListener;
 import com.anji.integration.PresentationEventListener;
+import com.anji.persistence.EvolutionCheckpoint;
+import com.anji.persistence.FilePersistence;
 import com.anji.persistence.Persistence;
 import com.anji.run.Run;
+import com.anji.util.Checkpointable;
 import com.anji.util.Configurable;
 import com.anji.util.Properties;
+import com.anji.util.Randomizer;
 import com.anji.util.Reset;
 
 /**
- * Configures and performs an ANJI evolutionary run.
+ * Configures and performs an ANJI evolutionary run. With <code>checkpoint.interval</code> set,
+ * an <code>EvolutionCheckpoint</code> is written on a background thread every that many
+ * generations, and with <code>checkpoint.resume</code> a run continues from the checkpoint
+ * file, if there is one, exactly as if it had not been stopped.
  * 
  * @author Philip Tucker
  */
@@ -68,6 +82,21 @@ private static final String RESET_KEY = "run.reset";
  */
 public static final String FITNESS_TARGET_KEY = "fitness.target";
 
+/**
+ * properties key, number of generations between checkpoints; 0 for none
+ */
+public static final String CHECKPOINT_INTERVAL_KEY = "checkpoint.interval";
+
+/**
+ * properties key, checkpoint file; defaults to checkpoint.bin in the persistence base directory
+ */
+public static final String CHECKPOINT_FILE_KEY = "checkpoint.file";
+
+/**
+ * properties key, whether or not to continue from the checkpoint file if it exists
+ */
+public static final String CHECKPOINT_RESUME_KEY = "checkpoint.resume";
+
 private NeatConfiguration config = null;
 
 private Chromosome champ = null;
@@ -84,6 +113,21 @@ private int maxFitness = 0;
 
 private Persistence db = null;
 
+private int firstGeneration = 0;
+
+private int checkpointInterval = 0;
+
+private File checkpointFile = null;
+
+/**
+ * <code>Checkpointable</code> objects saved in each checkpoint, in order
+ */
+private List checkpointParts = new ArrayList();
+
+private ExecutorService checkpointWriter = null;
+
+private Future pendingCheckpoint = null;
+
 /**
  * ctor; must call <code>init()</code> before using this object
  */
@@ -113,6 +157,10 @@ public void init( Properties props ) throws Exception {
 	numEvolutions = props.getIntProperty( NUM_GENERATIONS_KEY );
 	targetFitness = props.getDoubleProperty( FITNESS_TARGET_KEY, 1.0d );
 	thresholdFitness = props.getDoubleProperty( FITNESS_THRESHOLD_KEY, targetFitness );
+	checkpointInterval = props.getIntProperty( CHECKPOINT_INTERVAL_KEY, 0 );
+	checkpointFile = new File( props.getProperty( CHECKPOINT_FILE_KEY, props.getProperty(
+			Persistence.PERSISTENCE_CLASS_KEY + "." + FilePersistence.BASE_DIR_KEY, "." )
+			+ File.separator + "checkpoint.bin" ) );
 
 	//
 	// event listeners
@@ -138,6 +186,7 @@ public void init( Properties props ) throws Exception {
 	config.getEventManager().addEventListener(
 			GeneticEvent.GENOTYPE_FINISH_GENETIC_OPERATORS_EVENT, dbListener );
 	config.getEventManager().addEventListener( GeneticEvent.GENOTYPE_EVALUATED_EVENT, dbListener );
+	config.getEventManager().addEventListener( GeneticEvent.RUN_COMPLETED_EVENT, dbListener );
 
 	// presentation
 	PresentationEventListener presListener = new PresentationEventListener( run );
@@ -152,13 +201,33 @@ public void init( Properties props ) throws Exception {
 	config.setBulkFitnessFunction( fitnessFunc );
 	maxFitness = fitnessFunc.getMaxFitnessValue();
 
-	// load population, either from previous run or random
-	genotype = db.loadGenotype( config );
-	if ( genotype != null )
-		logger.info( "genotype from previous run" );
+	// checkpoints
+	checkpointParts.add( props.singletonObjectProperty( Randomizer.class ) );
+	if ( fitnessFunc instanceof Checkpointable )
+		checkpointParts.add( fitnessFunc );
+	EvolutionCheckpoint checkpoint = null;
+	if ( props.getBooleanProperty( CHECKPOINT_RESUME_KEY, false ) ) {
+		checkpoint = EvolutionCheckpoint.read( checkpointFile, config );
+		if ( checkpoint == null )
+			logger.warn( "no checkpoint to resume from: " + checkpointFile );
+	}
+
+	// load population, either from checkpoint, previous run or random
+	if ( checkpoint != null ) {
+		genotype = checkpoint.restore( config, checkpointParts );
+		firstGeneration = checkpoint.getGeneration();
+		run.skipGenerations( firstGeneration );
+		dbListener.setFirstGeneration( firstGeneration );
+		logger.info( "genotype from checkpoint after generation " + firstGeneration );
+	}
 	else {
-		genotype = Genotype.randomInitialGenotype( config );
-		logger.info( "random genotype" );
+		genotype = db.loadGenotype( config );
+		if ( genotype != null )
+			logger.info( "genotype from previous run" );
+		else {
+			genotype = Genotype.randomInitialGenotype( config );
+			logger.info( "random genotype" );
+		}
 	}
 
 }
@@ -188,7 +257,7 @@ public void run() throws Exception {
 			.getFitnessValue() );
 
 	// generations
-	for ( int generation = 0; ( generation < numEvolutions && adjustedFitness < targetFitness ); ++generation ) {
+	for ( int generation = firstGeneration; ( generation < numEvolutions && adjustedFitness < targetFitness ); ++generation ) {
 		// generation start time
 		Date generationStartDate = Calendar.getInstance().getTime();
 		logger.info( "Generation " + generation + ": start" );
@@ -203,6 +272,9 @@ public void run() throws Exception {
 		if ( adjustedFitness >= thresholdFitness && generationOfFirstSolution == -1 )
 			generationOfFirstSolution = generation;
 
+		if ( checkpointInterval > 0 && ( generation + 1 ) % checkpointInterval == 0 )
+			writeCheckpoint( generation + 1 );
+
 		// generation finish
 		Date generationEndDate = Calendar.getInstance().getTime();
 		long durationMillis = generationEndDate.getTime() - generationStartDate.getTime();
@@ -211,6 +283,7 @@ public void run() throws Exception {
 	}
 
 	// run finish
+	finishCheckpoint();
 	config.getEventManager().fireGeneticEvent(
 			new GeneticEvent( GeneticEvent.RUN_COMPLETED_EVENT, genotype ) );
 	logConclusion( generationOfFirstSolution, champ );
@@ -220,6 +293,55 @@ public void run() throws Exception {
 			+ "] [" + durationMillis + "]" );
 }
 
+/**
+ * Captures the state after <code>generation</code> generations and writes it on the checkpoint
+ * thread, after waiting for the previous checkpoint to be written.
+ * 
+ * @param generation
+ * @throws Exception
+ */
+private void writeCheckpoint( int generation ) throws Exception {
+	finishCheckpoint();
+	final EvolutionCheckpoint checkpoint = EvolutionCheckpoint.capture( config, genotype,
+			generation, checkpointParts );
+	if ( checkpointWriter == null ) {
+		checkpointWriter = Executors.newSingleThreadExecutor( new ThreadFactory() {
+
+			public Thread newThread( Runnable r ) {
+				Thread thread = new Thread( r, "checkpoint-writer" );
+				thread.setDaemon( true );
+				return thread;
+			}
+		} );
+	}
+	pendingCheckpoint = checkpointWriter.submit( new Runnable() {
+
+		public void run() {
+			try {
+				long start = System.currentTimeMillis();
+				checkpoint.write( checkpointFile );
+				logger.info( "checkpoint after generation " + checkpoint.getGeneration() + " written to "
+						+ checkpointFile + " [" + ( System.currentTimeMillis() - start ) + "]" );
+			}
+			catch ( Exception e ) {
+				logger.error( "error writing checkpoint " + checkpointFile, e );
+			}
+		}
+	} );
+}
+
+/**
+ * Waits for the checkpoint being written, if any.
+ * 
+ * @throws Exception
+ */
+private void finishCheckpoint() throws Exception {
+	if ( pendingCheckpoint != null ) {
+		pendingCheckpoint.get();
+		pendingCheckpoint = null;
+	}
+}
+
 /**
  * Log summary data of run including generation in which the first solution occurred, and the
  * champion of the final generation.
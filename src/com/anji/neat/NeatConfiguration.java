@@ -19,6 +19,7 @@
  */
 package com.anji.neat;
 
+import java.io.ByteArrayInputStream;
 import java.io.IOException;
 
 import org.apache.log4j.Logger;
@@ -28,6 +29,7 @@ import org.jgap.Configuration;
 import org.jgap.IdFactory;
 import org.jgap.InvalidConfigurationException;
 import org.jgap.NaturalSelector;
+import org.jgap.SpeciationParms;
 import org.jgap.event.EventManager;
 import org.jgap.impl.CloneReproductionOperator;
 import org.jgap.impl.WeightedRouletteSelector;
@@ -123,6 +125,11 @@ public final static String CHROM_COMPAT_COMMON_COEFF_KEY = "chrom.compat.common.
  */
 public final static String SPECIATION_THRESHOLD_KEY = "speciation.threshold";
 
+/**
+ * properties key, number of threads used for speciation
+ */
+public final static String SPECIATION_THREADS_KEY = "speciation.threads";
+
 /**
  * properties key, elitism enabled
  */
@@ -358,6 +365,8 @@ private void initSpeciationParms() {
 	catch ( RuntimeException e ) {
 		logger.info( "no speciation compatibility threshold specified", e );
 	}
+	getSpeciationParms().setSpeciationThreads(
+			props.getIntProperty( SPECIATION_THREADS_KEY, SpeciationParms.DEFAULT_SPECIATION_THREADS ) );
 }
 
 /**
@@ -483,6 +492,33 @@ public void store() throws InvalidConfigurationException {
 	}
 }
 
+/**
+ * @return XML of the NEAT innovation ID map, as stored by <code>store()</code>
+ * @throws InvalidConfigurationException
+ */
+public String neatIdMapToXml() throws InvalidConfigurationException {
+	load();
+	return neatIdMap.toXml();
+}
+
+/**
+ * Replaces the NEAT innovation ID map, e.g. when resuming a run from a checkpoint.
+ * 
+ * @param xml from <code>neatIdMapToXml()</code>
+ * @throws InvalidConfigurationException
+ */
+public void loadNeatIdMap( String xml ) throws InvalidConfigurationException {
+	neatIdMap = new NeatIdMap( props );
+	try {
+		neatIdMap.load( new ByteArrayInputStream( xml.getBytes( "UTF-8" ) ) );
+	}
+	catch ( Exception e ) {
+		String msg = "error loading ID map";
+		logger.error( msg, e );
+		throw new InvalidConfigurationException( msg );
+	}
+}
+
 /**
  * log stats for id maps
  * 
@@ -211,6 +211,18 @@ public class NeatIdMap {
 		}
 	}
 
+	/**
+	 * Load ID maps from <code>in</code> instead of the file, e.g. from a checkpoint.
+	 * 
+	 * @param in XML as written by <code>toXml()</code>
+	 * @throws Exception
+	 */
+	public void load( InputStream in ) throws Exception {
+		connectionToNeuronId.clear();
+		connectionToConnectionId.clear();
+		neatIdMapFromXml( in );
+	}
+
 	/**
 	 * Persist ID factories and maps.
 	 * @return true if file is stored
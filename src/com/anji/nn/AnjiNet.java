@@ -120,6 +120,14 @@ public int getInputDimension() {
 //		return allNeurons;
 //	}
 
+/**
+ * @return <code>List</code> contains all <code>Neuron</code> objects, in the order they are
+ * stepped and activated; package access only, for <code>CompiledNet</code>
+ */
+List getAllNeurons() {
+	return allNeurons;
+}
+
 /**
  * @param idx
  * @return output neuron at position <code>idx</code>
@@ -0,0 +1,420 @@
+package com.anji.nn;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Flat, array based form of an <code>AnjiNet</code>. Neurons are laid out in topological order of
+ * their non-recurrent connections, and every connection is reduced to a source index, a weight
+ * and a source type, so a time step is a single pass over primitive arrays. Values are
+ * bit-identical to those produced by <code>AnjiNet</code> and its lazily evaluated
+ * <code>Neuron</code>s, including the cached values of <code>CacheNeuronConnection</code>s.
+ * <p>
+ * Input neuron <code>i</code> reads <code>inputs[i]</code> after its other incoming
+ * connections, the same way <code>AnjiActivator</code> wires a <code>Pattern</code> to the net.
+ * The source net must not already be bound to a <code>Pattern</code>.
+ * <p>
+ * The structure of a compiled net never changes, so <code>copy()</code> shares it and only
+ * duplicates weights and state; together with <code>setWeight()</code> this lets nets with the
+ * same topology be created without transcribing and compiling again.
+ * <p>
+ * <code>com.anji_ahni.nn.CompiledNet</code> is a different thing for the AHNI copy of these
+ * classes: it activates a reset, feed-forward net for many patterns at once.
+ */
+public class CompiledNet {
+
+/**
+ * weight slot of a connection that is not part of the net
+ * @see #getWeightSlots(long[])
+ */
+public final static int NO_WEIGHT_SLOT = Integer.MIN_VALUE;
+
+private final static byte SRC_NEURON = 0;
+
+private final static byte SRC_INPUT = 1;
+
+private final static byte SRC_CACHE = 2;
+
+private final static byte FUNC_LINEAR = 0;
+
+private final static byte FUNC_OTHER = 1;
+
+private String name;
+
+// per neuron, in topological order
+private byte[] funcIds;
+
+private ActivationFunction[] funcs;
+
+private int[] connStart;
+
+private double[] values;
+
+private boolean[] dirty;
+
+// per incoming connection, grouped by destination neuron
+private byte[] connTypes;
+
+private int[] connSrcs;
+
+private double[] connWeights;
+
+private long[] connIds;
+
+// per recurrent connection, in the order AnjiNet steps them
+private int[] cacheSrcs;
+
+private double[] cacheWeights;
+
+private long[] cacheIds;
+
+private double[] cacheValues;
+
+private int[] outIdxs;
+
+private double[] inputs;
+
+// true until the first step after construction or reset; see stepLazily()
+private boolean pristine;
+
+/**
+ * @param aNet network to compile; it is not modified
+ * @throws IllegalArgumentException if <code>aNet</code> contains a loop of non-recurrent
+ * connections, a connection type other than <code>NeuronConnection</code> and
+ * <code>CacheNeuronConnection</code>, or is already bound to an input <code>Pattern</code>
+ */
+public CompiledNet( AnjiNet aNet ) throws IllegalArgumentException {
+	super();
+	name = aNet.getName();
+	List allNeurons = aNet.getAllNeurons();
+	int numNeurons = allNeurons.size();
+
+	// recurrent connections keep AnjiNet's step order
+	Map cacheSlots = new IdentityHashMap();
+	Collection recurrentConns = aNet.getRecurrentConns();
+	cacheSrcs = new int[ recurrentConns.size() ];
+	cacheWeights = new double[ recurrentConns.size() ];
+	cacheValues = new double[ recurrentConns.size() ];
+	cacheIds = new long[ recurrentConns.size() ];
+	Iterator it = recurrentConns.iterator();
+	while ( it.hasNext() )
+		cacheSlots.put( it.next(), new Integer( cacheSlots.size() ) );
+
+	// topological order over non-recurrent connections
+	Map order = new IdentityHashMap();
+	Map visiting = new IdentityHashMap();
+	Neuron[] sorted = new Neuron[ numNeurons ];
+	int connCount = aNet.getInputDimension();
+	it = allNeurons.iterator();
+	while ( it.hasNext() ) {
+		Neuron n = (Neuron) it.next();
+		connCount += n.getIncomingConns().size();
+		visit( n, order, visiting, sorted );
+	}
+
+	Map inputIdxs = new IdentityHashMap();
+	for ( int i = 0; i < aNet.getInputDimension(); ++i )
+		inputIdxs.put( aNet.getInputNeuron( i ), new Integer( i ) );
+
+	funcIds = new byte[ numNeurons ];
+	funcs = new ActivationFunction[ numNeurons ];
+	connStart = new int[ numNeurons + 1 ];
+	values = new double[ numNeurons ];
+	dirty = new boolean[ numNeurons ];
+	connTypes = new byte[ connCount ];
+	connSrcs = new int[ connCount ];
+	connWeights = new double[ connCount ];
+	connIds = new long[ connCount ];
+
+	int k = 0;
+	for ( int i = 0; i < numNeurons; ++i ) {
+		Neuron n = sorted[ i ];
+		funcs[ i ] = n.getFunc();
+		funcIds[ i ] = ( n.getFunc() instanceof LinearActivationFunction ) ? FUNC_LINEAR
+				: FUNC_OTHER;
+		connStart[ i ] = k;
+		Iterator connIter = n.getIncomingConns().iterator();
+		while ( connIter.hasNext() ) {
+			Connection c = (Connection) connIter.next();
+			if ( c instanceof CacheNeuronConnection ) {
+				CacheNeuronConnection cacheConn = (CacheNeuronConnection) c;
+				Integer slot = (Integer) cacheSlots.get( cacheConn );
+				if ( slot == null )
+					throw new IllegalArgumentException( "recurrent connection not stepped by net: "
+							+ cacheConn );
+				cacheSrcs[ slot.intValue() ] = indexOf( cacheConn.getIncomingNode(), order );
+				cacheWeights[ slot.intValue() ] = cacheConn.getWeight();
+				cacheIds[ slot.intValue() ] = cacheConn.getId();
+				connTypes[ k ] = SRC_CACHE;
+				connSrcs[ k ] = slot.intValue();
+			}
+			else if ( c instanceof NeuronConnection ) {
+				NeuronConnection neuronConn = (NeuronConnection) c;
+				connTypes[ k ] = SRC_NEURON;
+				connSrcs[ k ] = indexOf( neuronConn.getIncomingNode(), order );
+				connWeights[ k ] = neuronConn.getWeight();
+				connIds[ k ] = neuronConn.getId();
+			}
+			else if ( c instanceof Pattern.PatternConnection )
+				throw new IllegalArgumentException( "net is already bound to an input pattern" );
+			else
+				throw new IllegalArgumentException( "unsupported connection type: "
+						+ c.getClass().getName() );
+			++k;
+		}
+		Integer inputIdx = (Integer) inputIdxs.get( n );
+		if ( inputIdx != null ) {
+			connTypes[ k ] = SRC_INPUT;
+			connSrcs[ k ] = inputIdx.intValue();
+			connIds[ k ] = -1;
+			++k;
+		}
+	}
+	connStart[ numNeurons ] = k;
+
+	outIdxs = new int[ aNet.getOutputDimension() ];
+	for ( int i = 0; i < outIdxs.length; ++i )
+		outIdxs[ i ] = indexOf( aNet.getOutputNeuron( i ), order );
+
+	inputs = new double[ aNet.getInputDimension() ];
+	reset();
+}
+
+/**
+ * @param template net to share structure with
+ * @param aName name of the new net
+ */
+private CompiledNet( CompiledNet template, String aName ) {
+	super();
+	name = aName;
+	funcIds = template.funcIds;
+	funcs = template.funcs;
+	connStart = template.connStart;
+	connTypes = template.connTypes;
+	connSrcs = template.connSrcs;
+	connIds = template.connIds;
+	cacheSrcs = template.cacheSrcs;
+	cacheIds = template.cacheIds;
+	outIdxs = template.outIdxs;
+	connWeights = (double[]) template.connWeights.clone();
+	cacheWeights = (double[]) template.cacheWeights.clone();
+	values = new double[ template.values.length ];
+	dirty = new boolean[ template.dirty.length ];
+	cacheValues = new double[ template.cacheValues.length ];
+	inputs = new double[ template.inputs.length ];
+	reset();
+}
+
+/**
+ * @param aName name of the copy
+ * @return new net with the same structure and weights as this one, in its reset state; the
+ * structure is shared, so copying is cheap
+ */
+public CompiledNet copy( String aName ) {
+	return new CompiledNet( this, aName );
+}
+
+/**
+ * @param someConnIds ids of connections, as set by <code>NeuronConnection.setId()</code>
+ * @return for each id, the slot to pass to <code>setWeight()</code> to change the weight of
+ * that connection, or <code>NO_WEIGHT_SLOT</code> if the net has no such connection
+ */
+public int[] getWeightSlots( long[] someConnIds ) {
+	Map slots = new HashMap();
+	for ( int k = 0; k < connIds.length; ++k )
+		if ( connTypes[ k ] == SRC_NEURON )
+			slots.put( new Long( connIds[ k ] ), new Integer( k ) );
+	for ( int c = 0; c < cacheIds.length; ++c )
+		slots.put( new Long( cacheIds[ c ] ), new Integer( -1 - c ) );
+
+	int[] result = new int[ someConnIds.length ];
+	for ( int i = 0; i < someConnIds.length; ++i ) {
+		Integer slot = (Integer) slots.get( new Long( someConnIds[ i ] ) );
+		result[ i ] = ( slot == null ) ? NO_WEIGHT_SLOT : slot.intValue();
+	}
+	return result;
+}
+
+/**
+ * @param slot weight slot of a connection, from <code>getWeightSlots()</code>
+ * @param aWeight new weight of the connection
+ */
+public void setWeight( int slot, double aWeight ) {
+	if ( slot >= 0 )
+		connWeights[ slot ] = aWeight;
+	else
+		cacheWeights[ -1 - slot ] = aWeight;
+}
+
+/**
+ * @param idx
+ * @return activation function of output neuron at position <code>idx</code>
+ */
+public ActivationFunction getOutputFunction( int idx ) {
+	return funcs[ outIdxs[ idx ] ];
+}
+
+private static void visit( Neuron n, Map order, Map visiting, Neuron[] sorted ) {
+	if ( order.containsKey( n ) )
+		return;
+	if ( visiting.containsKey( n ) )
+		throw new IllegalArgumentException( "loop of non-recurrent connections through neuron "
+				+ n.getId() );
+	visiting.put( n, n );
+	Iterator it = n.getIncomingConns().iterator();
+	while ( it.hasNext() ) {
+		Object c = it.next();
+		if ( c instanceof NeuronConnection && !( c instanceof CacheNeuronConnection ) )
+			visit( ( (NeuronConnection) c ).getIncomingNode(), order, visiting, sorted );
+	}
+	visiting.remove( n );
+	sorted[ order.size() ] = n;
+	order.put( n, new Integer( order.size() ) );
+}
+
+private static int indexOf( Neuron n, Map order ) {
+	Integer idx = (Integer) order.get( n );
+	if ( idx == null )
+		throw new IllegalArgumentException( "connection from neuron outside net: " + n.getId() );
+	return idx.intValue();
+}
+
+/**
+ * @param someValues new input values; like <code>Pattern.setValues()</code>, the array is
+ * referenced, not copied
+ * @throws IllegalArgumentException if dimension does not match the input dimension
+ */
+public void setInputs( double[] someValues ) throws IllegalArgumentException {
+	if ( someValues.length != inputs.length )
+		throw new IllegalArgumentException( "can not change array dimension (from "
+				+ inputs.length + " to " + someValues.length + ")" );
+	inputs = someValues;
+}
+
+/**
+ * Equivalent to <code>AnjiNet.step()</code> followed by <code>AnjiNet.fullyActivate()</code>:
+ * recurrent connections cache values from the previous step, then every neuron is activated
+ * once, in topological order.
+ */
+public void step() {
+	if ( pristine )
+		stepLazily();
+	else {
+		for ( int c = 0; c < cacheValues.length; ++c )
+			cacheValues[ c ] = Math.min( Math.max( cacheWeights[ c ] * values[ cacheSrcs[ c ] ],
+					-Double.MAX_VALUE ), Double.MAX_VALUE );
+	}
+
+	for ( int i = 0; i < values.length; ++i )
+		values[ i ] = activate( i );
+}
+
+/**
+ * Right after construction or reset, every <code>Neuron</code> is dirty, so when
+ * <code>AnjiNet</code> steps its recurrent connections their source neurons are evaluated on
+ * demand, against the current inputs and whichever cached values have been updated so far. That
+ * one step is reproduced here with explicit dirty flags; afterwards all neurons are clean at
+ * the start of every step and the plain forward pass applies.
+ */
+private void stepLazily() {
+	for ( int c = 0; c < cacheValues.length; ++c )
+		cacheValues[ c ] = Math.min( Math.max( cacheWeights[ c ] * lazyValue( cacheSrcs[ c ] ),
+				-Double.MAX_VALUE ), Double.MAX_VALUE );
+	pristine = false;
+}
+
+private double lazyValue( int i ) {
+	if ( dirty[ i ] ) {
+		double sum = 0.0f;
+		for ( int k = connStart[ i ]; k < connStart[ i + 1 ]; ++k ) {
+			switch ( connTypes[ k ] ) {
+			case SRC_NEURON:
+				sum += connWeights[ k ] * lazyValue( connSrcs[ k ] );
+				break;
+			case SRC_INPUT:
+				sum += inputs[ connSrcs[ k ] ];
+				break;
+			default:
+				sum += cacheValues[ connSrcs[ k ] ];
+			}
+		}
+		values[ i ] = clamp( i, sum );
+		dirty[ i ] = false;
+	}
+	return values[ i ];
+}
+
+private double activate( int i ) {
+	double sum = 0.0f;
+	for ( int k = connStart[ i ]; k < connStart[ i + 1 ]; ++k ) {
+		switch ( connTypes[ k ] ) {
+		case SRC_NEURON:
+			sum += connWeights[ k ] * values[ connSrcs[ k ] ];
+			break;
+		case SRC_INPUT:
+			sum += inputs[ connSrcs[ k ] ];
+			break;
+		default:
+			sum += cacheValues[ connSrcs[ k ] ];
+		}
+	}
+	return clamp( i, sum );
+}
+
+private double clamp( int i, double sum ) {
+	double result = ( funcIds[ i ] == FUNC_LINEAR ) ? sum : funcs[ i ].apply( sum );
+	return Math.min( Math.max( result, -Double.MAX_VALUE ), Double.MAX_VALUE );
+}
+
+/**
+ * @param idx
+ * @return value of output neuron at position <code>idx</code> after the last step
+ */
+public double getOutputValue( int idx ) {
+	return values[ outIdxs[ idx ] ];
+}
+
+/**
+ * clear all memory in network, including neurons and recurrent connections
+ */
+public void reset() {
+	Arrays.fill( values, 0.0d );
+	Arrays.fill( dirty, true );
+	Arrays.fill( cacheValues, 0.0d );
+	pristine = true;
+}
+
+/**
+ * @return number of input values
+ */
+public int getInputDimension() {
+	return inputs.length;
+}
+
+/**
+ * @return number of output neurons
+ */
+public int getOutputDimension() {
+	return outIdxs.length;
+}
+
+/**
+ * @return true if network contains any recurrent connections, false otherwise
+ */
+public boolean isRecurrent() {
+	return cacheValues.length > 0;
+}
+
+/**
+ * @see java.lang.Object#toString()
+ */
+public String toString() {
+	return name;
+}
+
+}
@@ -0,0 +1,303 @@
+package com.anji.persistence;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+
+import org.apache.log4j.Logger;
+import org.jgap.Chromosome;
+
+import com.anji.integration.XmlPersistableRun;
+import com.anji.run.Run;
+import com.anji.util.XmlPersistable;
+
+/**
+ * Writes to a <code>Persistence</code> on a background thread, so evolution does not wait for
+ * the disk. Work is done in the order it was queued. Chromosomes are not copied, since their
+ * material does not change once they are created; the run is changed every generation, so it is
+ * turned into XML when it is queued. At most <code>maxQueuedChromosomes</code> chromosomes can
+ * be waiting to be written; more block the evolution until the writer catches up.
+ * <p>
+ * If writing fails the error is logged, and the next call on the writer throws an
+ * <code>IllegalStateException</code>.
+ */
+public class AsyncPersistenceWriter {
+
+private static Logger logger = Logger.getLogger( AsyncPersistenceWriter.class );
+
+private final Persistence db;
+
+private final int maxQueuedChromosomes;
+
+private final Semaphore queueSpace;
+
+private final BlockingQueue queue = new LinkedBlockingQueue();
+
+private final Thread thread;
+
+private volatile Exception failure = null;
+
+private boolean closed = false;
+
+/**
+ * Work for the writer thread, holding <code>size</code> permits of <code>queueSpace</code>
+ * while queued.
+ */
+private abstract static class Task {
+
+private final int size;
+
+private Task( int aSize ) {
+	size = aSize;
+}
+
+abstract void write() throws Exception;
+}
+
+/**
+ * A task that is run even after writing has failed, so whoever is waiting on it is woken.
+ */
+private abstract static class Barrier extends Task {
+
+private Barrier() {
+	super( 0 );
+}
+}
+
+/**
+ * XML of an object taken when it was queued.
+ */
+private static class XmlSnapshot implements XmlPersistable {
+
+private final String xml;
+
+private final String rootTag;
+
+private final String id;
+
+private XmlSnapshot( XmlPersistable xp ) {
+	xml = xp.toXml();
+	rootTag = xp.getXmlRootTag();
+	id = xp.getXmld();
+}
+
+public String toXml() {
+	return xml;
+}
+
+public String getXmlRootTag() {
+	return rootTag;
+}
+
+public String getXmld() {
+	return id;
+}
+}
+
+/**
+ * Marks the end of the queue.
+ */
+private final Task stop = new Task( 0 ) {
+
+void write() {
+	// never written
+}
+};
+
+/**
+ * ctor; starts the writer thread
+ *
+ * @param aDb where to write
+ * @param aMaxQueuedChromosomes number of chromosomes that can be waiting to be written
+ */
+public AsyncPersistenceWriter( Persistence aDb, int aMaxQueuedChromosomes ) {
+	if ( aMaxQueuedChromosomes < 1 )
+		throw new IllegalArgumentException( "queue size must be at least 1" );
+	db = aDb;
+	maxQueuedChromosomes = aMaxQueuedChromosomes;
+	queueSpace = new Semaphore( aMaxQueuedChromosomes );
+	thread = new Thread( new Runnable() {
+
+		public void run() {
+			writeLoop();
+		}
+	}, "persistence-writer" );
+	thread.setDaemon( true );
+	thread.start();
+}
+
+private void writeLoop() {
+	while ( true ) {
+		Task task;
+		try {
+			task = (Task) queue.take();
+		}
+		catch ( InterruptedException e ) {
+			logger.warn( "persistence writer interrupted" );
+			return;
+		}
+		if ( task == stop )
+			return;
+		try {
+			if ( failure == null || task instanceof Barrier )
+				task.write();
+		}
+		catch ( Exception e ) {
+			logger.error( "error writing to persistence", e );
+			failure = e;
+		}
+		finally {
+			queueSpace.release( task.size );
+		}
+	}
+}
+
+/**
+ * Queues <code>task</code>, waiting while the queue is full.
+ *
+ * @param task
+ */
+private synchronized void enqueue( Task task ) {
+	checkFailure();
+	if ( closed )
+		throw new IllegalStateException( "persistence writer closed" );
+	queueSpace.acquireUninterruptibly( task.size );
+	queue.add( task );
+}
+
+private void checkFailure() {
+	if ( failure != null )
+		throw new IllegalStateException( "error writing to persistence: " + failure );
+}
+
+/**
+ * @param chroms <code>Chromosome</code> objects to store one at a time with
+ * <code>Persistence.store()</code>
+ */
+public void store( Collection chroms ) {
+	final Collection snapshot = new ArrayList( chroms );
+	enqueue( new Task( Math.max( 1, Math.min( snapshot.size(), maxQueuedChromosomes ) ) ) {
+
+		void write() throws Exception {
+			Iterator iter = snapshot.iterator();
+			while ( iter.hasNext() )
+				db.store( (Chromosome) iter.next() );
+		}
+	} );
+}
+
+/**
+ * @param key generation
+ * @param chroms <code>Chromosome</code> objects to append to one generation archive
+ * @throws IllegalStateException if this does not write to a <code>FilePersistence</code>
+ * @see FilePersistence#storeGeneration(String, Collection)
+ */
+public void storeGeneration( final String key, Collection chroms ) {
+	if ( !( db instanceof FilePersistence ) )
+		throw new IllegalStateException( "generation archives need a FilePersistence" );
+	final Collection snapshot = new ArrayList( chroms );
+	enqueue( new Task( Math.max( 1, Math.min( snapshot.size(), maxQueuedChromosomes ) ) ) {
+
+		void write() throws Exception {
+			( (FilePersistence) db ).storeGeneration( key, snapshot );
+		}
+	} );
+}
+
+/**
+ * Stores the current state of <code>run</code>. With a <code>FilePersistence</code> the XML is
+ * taken now and written later; otherwise the queue is flushed and the run is stored before
+ * returning.
+ *
+ * @param run
+ * @throws Exception
+ */
+public void store( Run run ) throws Exception {
+	if ( db instanceof FilePersistence ) {
+		final XmlSnapshot snapshot = new XmlSnapshot( new XmlPersistableRun( run ) );
+		enqueue( new Task( 1 ) {
+
+			void write() throws Exception {
+				( (FilePersistence) db ).storeXml( snapshot );
+			}
+		} );
+	}
+	else {
+		flush();
+		db.store( run );
+	}
+}
+
+/**
+ * @param ids <code>String</code> IDs of chromosomes to delete
+ */
+public void delete( Collection ids ) {
+	final Collection snapshot = new ArrayList( ids );
+	enqueue( new Task( 1 ) {
+
+		void write() throws Exception {
+			Iterator iter = snapshot.iterator();
+			while ( iter.hasNext() )
+				db.deleteChromosome( (String) iter.next() );
+		}
+	} );
+}
+
+/**
+ * Waits until everything queued so far has been written.
+ *
+ * @throws IllegalStateException if writing failed
+ */
+public void flush() {
+	final CountDownLatch done = new CountDownLatch( 1 );
+	enqueue( new Barrier() {
+
+		void write() {
+			done.countDown();
+		}
+	} );
+	boolean interrupted = false;
+	while ( done.getCount() > 0 ) {
+		try {
+			done.await();
+		}
+		catch ( InterruptedException e ) {
+			interrupted = true;
+		}
+	}
+	if ( interrupted )
+		Thread.currentThread().interrupt();
+	checkFailure();
+}
+
+/**
+ * Writes everything queued and stops the writer thread. Nothing can be queued afterwards.
+ *
+ * @throws IllegalStateException if writing failed
+ */
+public void close() {
+	synchronized ( this ) {
+		if ( closed )
+			return;
+		closed = true;
+		queue.add( stop );
+	}
+	boolean interrupted = false;
+	while ( thread.isAlive() ) {
+		try {
+			thread.join();
+		}
+		catch ( InterruptedException e ) {
+			interrupted = true;
+		}
+	}
+	if ( interrupted )
+		Thread.currentThread().interrupt();
+	checkFailure();
+}
+
+}
@@ -0,0 +1,272 @@
+package com.anji.persistence;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.InflaterInputStream;
+
+import org.jgap.Allele;
+import org.jgap.Chromosome;
+import org.jgap.ChromosomeMaterial;
+import org.jgap.Configuration;
+
+import com.anji.neat.ConnectionAllele;
+import com.anji.neat.ConnectionGene;
+import com.anji.neat.NeuronAllele;
+import com.anji.neat.NeuronGene;
+import com.anji.neat.NeuronType;
+import com.anji.nn.ActivationFunctionType;
+
+/**
+ * Compact binary form of a NEAT chromosome, holding the same data as
+ * <code>XmlPersistableChromosome</code>. Layout, version 1:
+ * <ul>
+ * <li>4 bytes <code>MAGIC</code>, 1 byte <code>VERSION</code>, 1 byte flags; if
+ * <code>FLAG_COMPRESSED</code> is set the rest is deflated</li>
+ * <li>chromosome ID, primary and secondary parent ID as varints, 0 meaning none and otherwise
+ * the ID plus 1</li>
+ * <li>table of neuron type and activation function names: varint count, then each as UTF</li>
+ * <li>varint allele count, then for each allele in innovation ID order: 1 byte kind, varint
+ * difference from the previous innovation ID, and for neurons the varint indexes of the type
+ * and activation function names, for connections the varint source and destination neuron
+ * IDs</li>
+ * <li>the weights of all connections in the same order, packed as 8 byte doubles</li>
+ * </ul>
+ * Weights are stored exactly, so converting to and from XML gives the same chromosome.
+ *
+ * @see FilePersistence
+ * @see BinaryFilePersistence
+ */
+public class BinaryChromosome {
+
+/**
+ * first bytes of every binary chromosome
+ */
+public final static byte[] MAGIC = { 'A', 'N', 'J', 'C' };
+
+/**
+ * current version of the format; older versions are still read
+ */
+public final static byte VERSION = 1;
+
+/**
+ * flag, data after the header is deflated
+ */
+public final static byte FLAG_COMPRESSED = 1;
+
+private final static byte KIND_NEURON = 0;
+
+private final static byte KIND_CONNECTION = 1;
+
+private BinaryChromosome() {
+	// no instances
+}
+
+/**
+ * @param c chromosome with <code>NeuronAllele</code>s and <code>ConnectionAllele</code>s
+ * @param out stream to write to, not closed
+ * @param compress true if the data after the header should be deflated
+ * @throws IOException
+ */
+public static void write( Chromosome c, OutputStream out, boolean compress ) throws IOException {
+	out.write( MAGIC );
+	out.write( VERSION );
+	out.write( compress ? FLAG_COMPRESSED : 0 );
+
+	DeflaterOutputStream deflater = compress ? new DeflaterOutputStream( out ) : null;
+	DataOutputStream data = new DataOutputStream( compress ? deflater : out );
+
+	writeOptionalId( data, c.getId() );
+	writeOptionalId( data, c.getPrimaryParentId() );
+	writeOptionalId( data, c.getSecondaryParentId() );
+
+	// collect the names and the weights
+	List names = new ArrayList();
+	List alleles = new ArrayList( c.getAlleles() );
+	int connCount = 0;
+	Iterator iter = alleles.iterator();
+	while ( iter.hasNext() ) {
+		Allele allele = (Allele) iter.next();
+		if ( allele instanceof NeuronAllele ) {
+			NeuronAllele neuron = (NeuronAllele) allele;
+			if ( !names.contains( neuron.getType().toString() ) )
+				names.add( neuron.getType().toString() );
+			if ( !names.contains( neuron.getActivationType().toString() ) )
+				names.add( neuron.getActivationType().toString() );
+		}
+		else if ( allele instanceof ConnectionAllele )
+			++connCount;
+		else
+			throw new IllegalArgumentException( "can not write allele: " + allele );
+	}
+	writeVarLong( data, names.size() );
+	for ( int i = 0; i < names.size(); ++i )
+		data.writeUTF( (String) names.get( i ) );
+
+	// topology
+	writeVarLong( data, alleles.size() );
+	long lastId = 0;
+	double[] weights = new double[ connCount ];
+	int weightIdx = 0;
+	iter = alleles.iterator();
+	while ( iter.hasNext() ) {
+		Allele allele = (Allele) iter.next();
+		long id = allele.getInnovationId().longValue();
+		if ( allele instanceof NeuronAllele ) {
+			NeuronAllele neuron = (NeuronAllele) allele;
+			data.writeByte( KIND_NEURON );
+			writeVarLong( data, zigZag( id - lastId ) );
+			writeVarLong( data, names.indexOf( neuron.getType().toString() ) );
+			writeVarLong( data, names.indexOf( neuron.getActivationType().toString() ) );
+		}
+		else {
+			ConnectionAllele conn = (ConnectionAllele) allele;
+			data.writeByte( KIND_CONNECTION );
+			writeVarLong( data, zigZag( id - lastId ) );
+			writeVarLong( data, conn.getSrcNeuronId().longValue() );
+			writeVarLong( data, conn.getDestNeuronId().longValue() );
+			weights[ weightIdx++ ] = conn.getWeight();
+		}
+		lastId = id;
+	}
+
+	// weights
+	for ( int i = 0; i < weights.length; ++i )
+		data.writeDouble( weights[ i ] );
+
+	data.flush();
+	if ( deflater != null )
+		deflater.finish();
+}
+
+/**
+ * @param config used for a new ID if the chromosome was stored without one
+ * @param in stream to read from, not closed
+ * @return chromosome read from <code>in</code>
+ * @throws IOException if the data is not a binary chromosome of a known version
+ */
+public static Chromosome read( Configuration config, InputStream in ) throws IOException {
+	DataInputStream header = new DataInputStream( in );
+	byte[] magic = new byte[ MAGIC.length ];
+	header.readFully( magic );
+	for ( int i = 0; i < MAGIC.length; ++i )
+		if ( magic[ i ] != MAGIC[ i ] )
+			throw new IOException( "not a binary chromosome" );
+	byte version = header.readByte();
+	if ( version < 1 || version > VERSION )
+		throw new IOException( "unsupported binary chromosome version: " + version );
+	byte flags = header.readByte();
+
+	DataInputStream data = ( ( flags & FLAG_COMPRESSED ) != 0 ) ? new DataInputStream(
+			new InflaterInputStream( in ) ) : header;
+
+	Long id = readOptionalId( data );
+	Long primaryParentId = readOptionalId( data );
+	Long secondaryParentId = readOptionalId( data );
+
+	String[] names = new String[ (int) readVarLong( data ) ];
+	for ( int i = 0; i < names.length; ++i )
+		names[ i ] = data.readUTF();
+
+	int alleleCount = (int) readVarLong( data );
+	List alleles = new ArrayList( alleleCount );
+	List connections = new ArrayList();
+	long lastId = 0;
+	for ( int i = 0; i < alleleCount; ++i ) {
+		byte kind = data.readByte();
+		Long innovationId = Long.valueOf( lastId + unZigZag( readVarLong( data ) ) );
+		lastId = innovationId.longValue();
+		if ( kind == KIND_NEURON ) {
+			String typeName = names[ (int) readVarLong( data ) ];
+			NeuronType type = NeuronType.valueOf( typeName );
+			if ( type == null )
+				throw new IOException( "invalid neuron type: " + typeName );
+			String activationName = names[ (int) readVarLong( data ) ];
+			ActivationFunctionType activationType = ActivationFunctionType.valueOf( activationName );
+			if ( activationType == null )
+				throw new IOException( "invalid activation function type: " + activationName );
+			alleles.add( new NeuronAllele( new NeuronGene( type, innovationId, activationType ) ) );
+		}
+		else if ( kind == KIND_CONNECTION ) {
+			Long srcId = Long.valueOf( readVarLong( data ) );
+			Long destId = Long.valueOf( readVarLong( data ) );
+			ConnectionAllele conn = new ConnectionAllele( new ConnectionGene( innovationId, srcId,
+					destId ) );
+			alleles.add( conn );
+			connections.add( conn );
+		}
+		else
+			throw new IOException( "invalid allele kind: " + kind );
+	}
+
+	Iterator iter = connections.iterator();
+	while ( iter.hasNext() )
+		( (ConnectionAllele) iter.next() ).setWeight( data.readDouble() );
+
+	ChromosomeMaterial material = new ChromosomeMaterial( alleles, primaryParentId,
+			secondaryParentId );
+	return ( id == null ) ? new Chromosome( material, config.nextChromosomeId() )
+			: new Chromosome( material, id );
+}
+
+/**
+ * @param data
+ * @param id written as 0 if null, else as <code>id</code> + 1
+ * @throws IOException
+ */
+private static void writeOptionalId( DataOutputStream data, Long id ) throws IOException {
+	writeVarLong( data, ( id == null ) ? 0 : id.longValue() + 1 );
+}
+
+private static Long readOptionalId( DataInputStream data ) throws IOException {
+	long value = readVarLong( data );
+	return ( value == 0 ) ? null : Long.valueOf( value - 1 );
+}
+
+/**
+ * Writes 7 bits at a time, least significant first, with the high bit set on all bytes but the
+ * last.
+ *
+ * @param data
+ * @param value treated as unsigned
+ * @throws IOException
+ */
+private static void writeVarLong( DataOutputStream data, long value ) throws IOException {
+	while ( ( value & ~0x7FL ) != 0 ) {
+		data.writeByte( (int) ( ( value & 0x7F ) | 0x80 ) );
+		value >>>= 7;
+	}
+	data.writeByte( (int) value );
+}
+
+private static long readVarLong( DataInputStream data ) throws IOException {
+	long result = 0;
+	for ( int shift = 0; shift < 64; shift += 7 ) {
+		int b = data.readUnsignedByte();
+		result |= (long) ( b & 0x7F ) << shift;
+		if ( ( b & 0x80 ) == 0 )
+			return result;
+	}
+	throw new EOFException( "malformed varint" );
+}
+
+/**
+ * @param value
+ * @return <code>value</code> mapped so small negative numbers also get short varints
+ */
+private static long zigZag( long value ) {
+	return ( value << 1 ) ^ ( value >> 63 );
+}
+
+private static long unZigZag( long value ) {
+	return ( value >>> 1 ) ^ -( value & 1 );
+}
+
+}
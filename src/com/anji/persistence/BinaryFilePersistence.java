@@ -0,0 +1,70 @@
+package com.anji.persistence;
+
+import java.io.BufferedOutputStream;
+import java.io.FileOutputStream;
+import java.io.OutputStream;
+
+import org.jgap.Chromosome;
+import org.jgap.Configuration;
+
+import com.anji.integration.XmlPersistableChromosome;
+import com.anji.util.Properties;
+
+/**
+ * File-based persistence like <code>FilePersistence</code>, except chromosomes are stored in the
+ * compact binary format of <code>BinaryChromosome</code> as
+ * <code>baseDir</code>/chromosome/chromosome<code>id</code>.bin. Runs and activators are still
+ * stored as XML, and chromosomes stored as XML are still loaded, so existing directories can be
+ * continued. <code>ChromosomeFormatConverter</code> converts a directory between the formats.
+ */
+public class BinaryFilePersistence extends FilePersistence {
+
+/**
+ * properties key, true if binary chromosomes are compressed
+ */
+public final static String COMPRESS_KEY = "binary.compress";
+
+private boolean compress = true;
+
+/**
+ * @see com.anji.persistence.FilePersistence#init(com.anji.util.Properties)
+ */
+public void init( Properties props ) {
+	super.init( props );
+	compress = props.getBooleanProperty( COMPRESS_KEY, true );
+}
+
+/**
+ * @see com.anji.persistence.FilePersistence#isBinaryCompressed()
+ */
+protected boolean isBinaryCompressed() {
+	return compress;
+}
+
+/**
+ * @see com.anji.persistence.Persistence#store(org.jgap.Chromosome)
+ */
+public void store( Chromosome c ) throws Exception {
+	String key = ( c.getId() == null ) ? "" : c.getId().toString();
+	OutputStream out = null;
+	try {
+		out = new BufferedOutputStream( new FileOutputStream( fullPath(
+				XmlPersistableChromosome.XML_CHROMOSOME_TAG, key, BINARY_EXTENSION ) ) );
+		BinaryChromosome.write( c, out, compress );
+	}
+	finally {
+		if ( out != null )
+			out.close();
+	}
+}
+
+/**
+ * @see com.anji.persistence.Persistence#loadChromosome(java.lang.String,
+ * org.jgap.Configuration)
+ */
+public Chromosome loadChromosome( String id, Configuration config ) {
+	Chromosome result = loadBinaryChromosome( id, config );
+	return ( result != null ) ? result : super.loadChromosome( id, config );
+}
+
+}
@@ -0,0 +1,110 @@
+package com.anji.persistence;
+
+import java.io.File;
+
+import org.apache.log4j.Logger;
+import org.jgap.Chromosome;
+
+import com.anji.Copyright;
+import com.anji.integration.XmlPersistableChromosome;
+import com.anji.util.DummyConfiguration;
+import com.anji.util.Properties;
+
+/**
+ * Converts all chromosomes in a persistence directory between the XML format of
+ * <code>FilePersistence</code> and the binary format of <code>BinaryFilePersistence</code>, e.g.
+ * to use tools reading the XML files directly on a run stored in binary. The original files are
+ * kept.
+ */
+public class ChromosomeFormatConverter {
+
+private static Logger logger = Logger.getLogger( ChromosomeFormatConverter.class );
+
+/**
+ * format argument, convert to XML
+ */
+public final static String TO_XML = "xml";
+
+/**
+ * format argument, convert to binary
+ */
+public final static String TO_BINARY = "binary";
+
+private final FilePersistence xmlDb = new FilePersistence();
+
+private final BinaryFilePersistence binaryDb = new BinaryFilePersistence();
+
+private final File chromosomeDir;
+
+/**
+ * @param baseDir persistence base directory, as in <code>persistence.base.dir</code>
+ * @param compress true if binary chromosomes should be compressed
+ */
+public ChromosomeFormatConverter( String baseDir, boolean compress ) {
+	Properties props = new Properties();
+	props.setProperty( FilePersistence.BASE_DIR_KEY, baseDir );
+	props.setProperty( BinaryFilePersistence.COMPRESS_KEY, Boolean.toString( compress ) );
+	xmlDb.init( props );
+	binaryDb.init( props );
+	chromosomeDir = new File( baseDir, XmlPersistableChromosome.XML_CHROMOSOME_TAG );
+}
+
+/**
+ * @param toBinary true to convert XML chromosomes to binary, false for the opposite
+ * @return number of chromosomes converted
+ * @throws Exception
+ */
+public int convert( boolean toBinary ) throws Exception {
+	String prefix = XmlPersistableChromosome.XML_CHROMOSOME_TAG;
+	String extension = toBinary ? FilePersistence.XML_EXTENSION
+			: FilePersistence.BINARY_EXTENSION;
+	FilePersistence from = toBinary ? xmlDb : binaryDb;
+	FilePersistence to = toBinary ? binaryDb : xmlDb;
+
+	File[] files = chromosomeDir.listFiles();
+	if ( files == null )
+		throw new IllegalArgumentException( "no chromosome directory: " + chromosomeDir );
+
+	int count = 0;
+	for ( int i = 0; i < files.length; ++i ) {
+		String name = files[ i ].getName();
+		if ( !name.startsWith( prefix ) || !name.endsWith( extension ) )
+			continue;
+		String id = name.substring( prefix.length(), name.length() - extension.length() );
+		Chromosome c = from.loadChromosome( id, new DummyConfiguration() );
+		if ( c == null ) {
+			logger.warn( "could not load chromosome " + id );
+			continue;
+		}
+		to.store( c );
+		++count;
+	}
+	return count;
+}
+
+/**
+ * @param args base directory, <code>TO_XML</code> or <code>TO_BINARY</code>, and optionally
+ * false to not compress binary chromosomes
+ * @throws Exception
+ */
+public static void main( String[] args ) throws Exception {
+	System.out.println( Copyright.STRING );
+	if ( args.length < 2 || !( TO_XML.equals( args[ 1 ] ) || TO_BINARY.equals( args[ 1 ] ) ) ) {
+		printUsage();
+		System.exit( -1 );
+	}
+
+	boolean compress = ( args.length > 2 ) ? Boolean.valueOf( args[ 2 ] ).booleanValue() : true;
+	ChromosomeFormatConverter converter = new ChromosomeFormatConverter( args[ 0 ], compress );
+	int count = converter.convert( TO_BINARY.equals( args[ 1 ] ) );
+	logger.info( "converted " + count + " chromosomes to " + args[ 1 ] );
+}
+
+/**
+ * command line usage
+ */
+private static void printUsage() {
+	System.err.println( "<cmd> base-dir " + TO_XML + "|" + TO_BINARY + " [compress]" );
+}
+
+}
@@ -0,0 +1,350 @@
+package com.anji.persistence;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.InflaterInputStream;
+
+import org.jgap.Chromosome;
+import org.jgap.Configuration;
+import org.jgap.Genotype;
+import org.jgap.Specie;
+
+import com.anji.neat.NeatConfiguration;
+import com.anji.util.Checkpointable;
+
+/**
+ * Everything needed to continue an evolutionary run between two generations exactly as if it
+ * had not been stopped: the population in order with fitness values, the species with their
+ * representatives and members in order, the next chromosome/innovation ID, the NEAT innovation
+ * ID map, the number of generations done, and the state of any <code>Checkpointable</code>
+ * parts such as the <code>Randomizer</code> and the fitness function.
+ * <p>
+ * <code>capture()</code> copies everything that changes from one generation to the next, so the
+ * checkpoint can be written on another thread while evolution continues. Chromosomes are not
+ * copied, since their material does not change once they are created. Layout, version 1: 4
+ * bytes <code>MAGIC</code>, 1 byte <code>VERSION</code>, then deflated the generation count,
+ * next ID, ID map XML, part states, chromosomes as <code>BinaryChromosome</code> each with
+ * fitness and selection flag, and species as indexes into the chromosomes.
+ *
+ * @see com.anji.neat.Evolver
+ */
+public class EvolutionCheckpoint {
+
+/**
+ * first bytes of every checkpoint
+ */
+public final static byte[] MAGIC = { 'A', 'N', 'J', 'K' };
+
+/**
+ * current version of the format
+ */
+public final static byte VERSION = 1;
+
+private final int generation;
+
+private final long nextId;
+
+private final String neatIdMapXml;
+
+private final byte[][] partStates;
+
+/**
+ * population first, then the representatives that have died from it
+ */
+private final Chromosome[] chromosomes;
+
+private final int populationSize;
+
+private final int[] fitnessValues;
+
+private final boolean[] selected;
+
+private final int[] representatives;
+
+private final int[][] members;
+
+private EvolutionCheckpoint( int aGeneration, long aNextId, String aNeatIdMapXml,
+		byte[][] somePartStates, Chromosome[] someChromosomes, int aPopulationSize,
+		int[] someFitnessValues, boolean[] someSelected, int[] someRepresentatives,
+		int[][] someMembers ) {
+	generation = aGeneration;
+	nextId = aNextId;
+	neatIdMapXml = aNeatIdMapXml;
+	partStates = somePartStates;
+	chromosomes = someChromosomes;
+	populationSize = aPopulationSize;
+	fitnessValues = someFitnessValues;
+	selected = someSelected;
+	representatives = someRepresentatives;
+	members = someMembers;
+}
+
+/**
+ * Takes a checkpoint between generations, i.e. not while <code>genotype</code> is evolving.
+ *
+ * @param config
+ * @param genotype
+ * @param generation number of generations done
+ * @param parts <code>Checkpointable</code> objects whose state is saved, in the same order as
+ * given to <code>restore()</code>
+ * @return new checkpoint
+ * @throws Exception
+ */
+public static EvolutionCheckpoint capture( NeatConfiguration config, Genotype genotype,
+		int generation, List parts ) throws Exception {
+	byte[][] partStates = new byte[ parts.size() ][];
+	for ( int i = 0; i < partStates.length; ++i ) {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		DataOutputStream out = new DataOutputStream( bytes );
+		( (Checkpointable) parts.get( i ) ).writeState( out );
+		out.flush();
+		partStates[ i ] = bytes.toByteArray();
+	}
+
+	List chroms = new ArrayList( genotype.getChromosomes() );
+	int populationSize = chroms.size();
+	Map indexes = new IdentityHashMap();
+	for ( int i = 0; i < chroms.size(); ++i )
+		indexes.put( chroms.get( i ), Integer.valueOf( i ) );
+
+	List species = genotype.getSpecies();
+	int[] representatives = new int[ species.size() ];
+	int[][] members = new int[ species.size() ][];
+	for ( int i = 0; i < species.size(); ++i ) {
+		Specie specie = (Specie) species.get( i );
+		Chromosome rep = specie.getRepresentative();
+		if ( !indexes.containsKey( rep ) ) {
+			indexes.put( rep, Integer.valueOf( chroms.size() ) );
+			chroms.add( rep );
+		}
+		representatives[ i ] = ( (Integer) indexes.get( rep ) ).intValue();
+		List specieChroms = specie.getChromosomes();
+		members[ i ] = new int[ specieChroms.size() ];
+		for ( int j = 0; j < members[ i ].length; ++j ) {
+			Integer idx = (Integer) indexes.get( specieChroms.get( j ) );
+			if ( idx == null )
+				throw new IllegalStateException( "specie member not in population: "
+						+ specieChroms.get( j ) );
+			members[ i ][ j ] = idx.intValue();
+		}
+	}
+
+	int[] fitnessValues = new int[ chroms.size() ];
+	boolean[] selected = new boolean[ chroms.size() ];
+	for ( int i = 0; i < fitnessValues.length; ++i ) {
+		Chromosome c = (Chromosome) chroms.get( i );
+		fitnessValues[ i ] = c.getFitnessValue();
+		selected[ i ] = c.isSelectedForNextGeneration();
+	}
+
+	return new EvolutionCheckpoint( generation, config.getIdFactory().peek(), config
+			.neatIdMapToXml(), partStates, (Chromosome[]) chroms.toArray( new Chromosome[ chroms
+			.size() ] ), populationSize, fitnessValues, selected, representatives, members );
+}
+
+/**
+ * @return number of generations done when the checkpoint was taken
+ */
+public int getGeneration() {
+	return generation;
+}
+
+/**
+ * Restores the state of <code>config</code> and <code>parts</code>.
+ *
+ * @param config
+ * @param parts <code>Checkpointable</code> objects as given to <code>capture()</code>
+ * @return population as it was
+ * @throws Exception
+ */
+public Genotype restore( NeatConfiguration config, List parts ) throws Exception {
+	if ( parts.size() != partStates.length )
+		throw new IllegalArgumentException( "checkpoint has " + partStates.length
+				+ " parts, not " + parts.size() );
+	for ( int i = 0; i < partStates.length; ++i )
+		( (Checkpointable) parts.get( i ) ).readState( new DataInputStream(
+				new ByteArrayInputStream( partStates[ i ] ) ) );
+	config.getIdFactory().setNextId( nextId );
+	config.loadNeatIdMap( neatIdMapXml );
+
+	for ( int i = 0; i < chromosomes.length; ++i ) {
+		if ( fitnessValues[ i ] > 0 )
+			chromosomes[ i ].setFitnessValue( fitnessValues[ i ] );
+		chromosomes[ i ].setIsSelectedForNextGeneration( selected[ i ] );
+	}
+
+	List chroms = new ArrayList( populationSize );
+	for ( int i = 0; i < populationSize; ++i )
+		chroms.add( chromosomes[ i ] );
+	List species = new ArrayList( representatives.length );
+	for ( int i = 0; i < representatives.length; ++i ) {
+		List specieChroms = new ArrayList( members[ i ].length );
+		for ( int j = 0; j < members[ i ].length; ++j )
+			specieChroms.add( chromosomes[ members[ i ][ j ] ] );
+		species.add( new Specie( config.getSpeciationParms(), chromosomes[ representatives[ i ] ],
+				specieChroms ) );
+	}
+	return new Genotype( config, chroms, species );
+}
+
+/**
+ * @param out stream to write to, not closed
+ * @throws IOException
+ */
+public void write( OutputStream out ) throws IOException {
+	out.write( MAGIC );
+	out.write( VERSION );
+	DeflaterOutputStream deflater = new DeflaterOutputStream( out );
+	DataOutputStream data = new DataOutputStream( new BufferedOutputStream( deflater, 65536 ) );
+
+	data.writeInt( generation );
+	data.writeLong( nextId );
+	writeBytes( data, neatIdMapXml.getBytes( "UTF-8" ) );
+	data.writeInt( partStates.length );
+	for ( int i = 0; i < partStates.length; ++i )
+		writeBytes( data, partStates[ i ] );
+
+	data.writeInt( chromosomes.length );
+	data.writeInt( populationSize );
+	ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+	for ( int i = 0; i < chromosomes.length; ++i ) {
+		bytes.reset();
+		BinaryChromosome.write( chromosomes[ i ], bytes, false );
+		writeBytes( data, bytes.toByteArray() );
+		data.writeInt( fitnessValues[ i ] );
+		data.writeBoolean( selected[ i ] );
+	}
+
+	data.writeInt( representatives.length );
+	for ( int i = 0; i < representatives.length; ++i ) {
+		data.writeInt( representatives[ i ] );
+		data.writeInt( members[ i ].length );
+		for ( int j = 0; j < members[ i ].length; ++j )
+			data.writeInt( members[ i ][ j ] );
+	}
+
+	data.flush();
+	deflater.finish();
+}
+
+/**
+ * Writes to a temporary file synced to disk and then replaces <code>file</code> with it, so a
+ * run stopped while writing still has the previous checkpoint.
+ *
+ * @param file
+ * @throws IOException
+ */
+public void write( File file ) throws IOException {
+	File tmp = new File( file.getPath() + ".tmp" );
+	FileOutputStream out = new FileOutputStream( tmp );
+	try {
+		write( out );
+		out.flush();
+		out.getFD().sync();
+	}
+	finally {
+		out.close();
+	}
+	Files.move( tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING,
+			StandardCopyOption.ATOMIC_MOVE );
+}
+
+/**
+ * @param in stream to read from, not closed
+ * @param config used to read the chromosomes
+ * @return checkpoint read from <code>in</code>
+ * @throws IOException if the data is not a checkpoint of a known version
+ */
+public static EvolutionCheckpoint read( InputStream in, Configuration config )
+		throws IOException {
+	DataInputStream header = new DataInputStream( in );
+	byte[] magic = new byte[ MAGIC.length ];
+	header.readFully( magic );
+	for ( int i = 0; i < MAGIC.length; ++i )
+		if ( magic[ i ] != MAGIC[ i ] )
+			throw new IOException( "not a checkpoint" );
+	byte version = header.readByte();
+	if ( version < 1 || version > VERSION )
+		throw new IOException( "unsupported checkpoint version: " + version );
+	DataInputStream data = new DataInputStream( new BufferedInputStream( new InflaterInputStream(
+			in ), 65536 ) );
+
+	int generation = data.readInt();
+	long nextId = data.readLong();
+	String neatIdMapXml = new String( readBytes( data ), "UTF-8" );
+	byte[][] partStates = new byte[ data.readInt() ][];
+	for ( int i = 0; i < partStates.length; ++i )
+		partStates[ i ] = readBytes( data );
+
+	Chromosome[] chromosomes = new Chromosome[ data.readInt() ];
+	int populationSize = data.readInt();
+	int[] fitnessValues = new int[ chromosomes.length ];
+	boolean[] selected = new boolean[ chromosomes.length ];
+	for ( int i = 0; i < chromosomes.length; ++i ) {
+		chromosomes[ i ] = BinaryChromosome.read( config, new ByteArrayInputStream(
+				readBytes( data ) ) );
+		fitnessValues[ i ] = data.readInt();
+		selected[ i ] = data.readBoolean();
+	}
+
+	int[] representatives = new int[ data.readInt() ];
+	int[][] members = new int[ representatives.length ][];
+	for ( int i = 0; i < representatives.length; ++i ) {
+		representatives[ i ] = data.readInt();
+		members[ i ] = new int[ data.readInt() ];
+		for ( int j = 0; j < members[ i ].length; ++j )
+			members[ i ][ j ] = data.readInt();
+	}
+
+	return new EvolutionCheckpoint( generation, nextId, neatIdMapXml, partStates, chromosomes,
+			populationSize, fitnessValues, selected, representatives, members );
+}
+
+/**
+ * @param file
+ * @param config used to read the chromosomes
+ * @return checkpoint read from <code>file</code>, or null if there is no such file
+ * @throws IOException
+ */
+public static EvolutionCheckpoint read( File file, Configuration config ) throws IOException {
+	if ( !file.exists() )
+		return null;
+	InputStream in = new BufferedInputStream( new FileInputStream( file ) );
+	try {
+		return read( in, config );
+	}
+	finally {
+		in.close();
+	}
+}
+
+private static void writeBytes( DataOutputStream data, byte[] bytes ) throws IOException {
+	data.writeInt( bytes.length );
+	data.write( bytes );
+}
+
+private static byte[] readBytes( DataInputStream data ) throws IOException {
+	byte[] result = new byte[ data.readInt() ];
+	data.readFully( result );
+	return result;
+}
+
+}
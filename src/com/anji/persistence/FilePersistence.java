@@ -19,6 +19,7 @@
  */
 package com.anji.persistence;
 
+import java.io.BufferedInputStream;
 import java.io.ByteArrayInputStream;
 import java.io.File;
 import java.io.FileInputStream;
@@ -27,8 +28,12 @@ import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
 
 import javax.xml.parsers.DocumentBuilder;
 import javax.xml.parsers.DocumentBuilderFactory;
@@ -60,6 +65,11 @@ import com.anji.util.XmlPersistable;
  * objects stores must implement <code>XmlPersistable</code>.<code>type</code> is derived
  * from <code>XmlPersistable.getXmlRootTag()</code>, and <code>key</code> is derived from
  * <code>XmlPersistable.getId()</code>.
+ * <p>
+ * Chromosomes stored in the binary format of <code>BinaryChromosome</code> (by
+ * <code>BinaryFilePersistence</code>) are also loaded, when there is no XML file for them, as
+ * are chromosomes in the <code>GenerationArchive</code> files written by
+ * <code>storeGeneration()</code>.
  * 
  * @author Philip Tucker
  */
@@ -72,10 +82,29 @@ private final static Logger logger = Logger.getLogger( FilePersistence.class );
  */
 public final static String BASE_DIR_KEY = "base.dir";
 
+/**
+ * file extension of objects stored as XML
+ */
+protected final static String XML_EXTENSION = ".xml";
+
+/**
+ * file extension of chromosomes stored by <code>BinaryChromosome</code>
+ */
+protected final static String BINARY_EXTENSION = ".bin";
+
+/**
+ * type of the <code>GenerationArchive</code> files
+ */
+public final static String GENERATION_ARCHIVE_TYPE = "generation";
+
 private File baseDir = null;
 
 private String runId = null;
 
+private Map archiveIndex = null;
+
+private int indexedArchiveCount = 0;
+
 /**
  * See <a href=" {@docRoot}/params.htm" target="anji_params">Parameter Details </a> for
  * specific property settings.
@@ -103,7 +132,13 @@ private InputStream loadStream( String type, String key ) throws IOException {
 	return new FileInputStream( fullPath( type, key ) );
 }
 
-private void storeXml( XmlPersistable xp ) throws IOException {
+/**
+ * Stores <code>xp</code> as XML, e.g. a snapshot of a run taken while it was not changing.
+ * 
+ * @param xp
+ * @throws IOException
+ */
+public void storeXml( XmlPersistable xp ) throws IOException {
 	FileOutputStream out = null;
 
 	try {
@@ -125,6 +160,19 @@ private void storeXml( XmlPersistable xp ) throws IOException {
  * @return String resulting path
  */
 protected String fullPath( String type, String key ) {
+	return fullPath( type, key, XML_EXTENSION );
+}
+
+/**
+ * Construct full path of file based on <code>type</code>, <code>key</code> and
+ * <code>extension</code>.
+ * 
+ * @param type
+ * @param key
+ * @param extension
+ * @return String resulting path
+ */
+protected String fullPath( String type, String key, String extension ) {
 	StringBuffer result = new StringBuffer( baseDir.getAbsolutePath() );
 	result.append( File.separatorChar ).append( type );
 
@@ -135,14 +183,15 @@ protected String fullPath( String type, String key ) {
 		collectionDir.mkdir();
 	}
 
-	result.append( File.separatorChar ).append( type ).append( key ).append( ".xml" );
+	result.append( File.separatorChar ).append( type ).append( key ).append( extension );
 	return result.toString();
 }
 
 /**
  * @see com.anji.persistence.Persistence#reset()
  */
-public void reset() {
+public synchronized void reset() {
+	archiveIndex = null;
 	reset( Priority.DEBUG );
 }
 
@@ -269,6 +318,30 @@ public Chromosome loadChromosome( String id, Configuration config ) {
 		Document doc = builder.parse( in );
 		return chromosomeFromXml( config, doc.getFirstChild() );
 	}
+	catch ( FileNotFoundException e ) {
+		Chromosome result = loadBinaryChromosome( id, config );
+		return ( result != null ) ? result : loadArchivedChromosome( id, config );
+	}
+	catch ( Exception e ) {
+		String msg = "error loading chromosome " + id;
+		logger.error( msg, e );
+		throw new IllegalStateException( msg + ": " + e );
+	}
+}
+
+/**
+ * @param id
+ * @param config
+ * @return chromosome stored in binary format with <code>id</code>, or null if there is none
+ * @see BinaryChromosome
+ */
+protected Chromosome loadBinaryChromosome( String id, Configuration config ) {
+	InputStream in = null;
+	try {
+		in = new BufferedInputStream( new FileInputStream( fullPath(
+				XmlPersistableChromosome.XML_CHROMOSOME_TAG, id, BINARY_EXTENSION ) ) );
+		return BinaryChromosome.read( config, in );
+	}
 	catch ( FileNotFoundException e ) {
 		return null;
 	}
@@ -277,6 +350,115 @@ public Chromosome loadChromosome( String id, Configuration config ) {
 		logger.error( msg, e );
 		throw new IllegalStateException( msg + ": " + e );
 	}
+	finally {
+		if ( in != null ) {
+			try {
+				in.close();
+			}
+			catch ( IOException e ) {
+				logger.warn( "error closing chromosome " + id, e );
+			}
+		}
+	}
+}
+
+/**
+ * @return true if the chromosomes in generation archives should be deflated
+ */
+protected boolean isBinaryCompressed() {
+	return true;
+}
+
+/**
+ * Appends <code>chroms</code> to the <code>GenerationArchive</code>
+ * <code>baseDir</code>/generation/generation<code>key</code>.bin. Chromosomes stored this way
+ * are still found by <code>loadChromosome()</code>, but are not removed by
+ * <code>deleteChromosome()</code>.
+ * 
+ * @param key generation
+ * @param chroms <code>Chromosome</code> objects
+ * @throws IOException
+ */
+public void storeGeneration( String key, Collection chroms ) throws IOException {
+	GenerationArchive.append( new File( fullPath( GENERATION_ARCHIVE_TYPE, key, BINARY_EXTENSION ) ),
+			chroms, isBinaryCompressed() );
+}
+
+/**
+ * Deletes the generation archives of generation <code>first</code> and later, e.g. those
+ * written after the checkpoint a run is resumed from, so the generations are not appended to
+ * them a second time.
+ * 
+ * @param first
+ */
+public synchronized void deleteGenerations( int first ) {
+	File[] archives = archiveFiles();
+	for ( int i = 0; i < archives.length; ++i ) {
+		String name = archives[ i ].getName();
+		String key = name.substring( GENERATION_ARCHIVE_TYPE.length(), name.length()
+				- BINARY_EXTENSION.length() );
+		try {
+			if ( Integer.parseInt( key ) >= first && !archives[ i ].delete() )
+				logger.warn( "could not delete generation archive " + archives[ i ] );
+		}
+		catch ( NumberFormatException e ) {
+			// not a generation archive
+		}
+	}
+	archiveIndex = null;
+}
+
+/**
+ * Looks <code>id</code> up in the generation archives. The archives are indexed the first time,
+ * and again when a chromosome is not found and archives have been added since.
+ * 
+ * @param id
+ * @param config
+ * @return chromosome with <code>id</code> from a generation archive, or null if there is none
+ */
+protected synchronized Chromosome loadArchivedChromosome( String id, Configuration config ) {
+	try {
+		Long chromId = Long.valueOf( id );
+		File archive = ( archiveIndex == null ) ? null : (File) archiveIndex.get( chromId );
+		if ( archive == null ) {
+			File[] archives = archiveFiles();
+			if ( archiveIndex != null && archives.length == indexedArchiveCount )
+				return null;
+			archiveIndex = new HashMap();
+			for ( int i = 0; i < archives.length; ++i ) {
+				Iterator iter = GenerationArchive.readIds( archives[ i ] ).iterator();
+				while ( iter.hasNext() )
+					archiveIndex.put( iter.next(), archives[ i ] );
+			}
+			indexedArchiveCount = archives.length;
+			archive = (File) archiveIndex.get( chromId );
+			if ( archive == null )
+				return null;
+		}
+		return GenerationArchive.read( archive, chromId, config );
+	}
+	catch ( NumberFormatException e ) {
+		return null;
+	}
+	catch ( Exception e ) {
+		String msg = "error loading chromosome " + id;
+		logger.error( msg, e );
+		throw new IllegalStateException( msg + ": " + e );
+	}
+}
+
+/**
+ * @return all generation archive files, empty if there are none
+ */
+protected File[] archiveFiles() {
+	File[] result = new File( baseDir, GENERATION_ARCHIVE_TYPE ).listFiles();
+	if ( result == null )
+		return new File[ 0 ];
+	List archives = new ArrayList();
+	for ( int i = 0; i < result.length; ++i )
+		if ( result[ i ].getName().endsWith( BINARY_EXTENSION ) )
+			archives.add( result[ i ] );
+	return (File[]) archives.toArray( new File[ archives.size() ] );
 }
 
 /**
@@ -284,6 +466,10 @@ public Chromosome loadChromosome( String id, Configuration config ) {
  */
 public void deleteChromosome( String id ) throws Exception {
 	deleteXml( XmlPersistableChromosome.XML_CHROMOSOME_TAG, id );
+	File file = new File( fullPath( XmlPersistableChromosome.XML_CHROMOSOME_TAG, id,
+			BINARY_EXTENSION ) );
+	if ( file.exists() )
+		file.delete();
 }
 
 /**
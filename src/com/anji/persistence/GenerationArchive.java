@@ -0,0 +1,194 @@
+package com.anji.persistence;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+
+import org.apache.log4j.Logger;
+import org.jgap.Chromosome;
+import org.jgap.Configuration;
+
+/**
+ * Append-only file holding the chromosomes of one generation, so a generation is written with
+ * one file and one sync instead of one file per chromosome. The file is a sequence of records,
+ * each an 8 byte chromosome ID, a 4 byte length and that many bytes of
+ * <code>BinaryChromosome</code>. The IDs are outside the chromosome data so they can be listed
+ * without reading the chromosomes. If the last record was only partly written, e.g. because
+ * the program stopped while appending, it is ignored with a warning.
+ *
+ * @see FilePersistence#storeGeneration(String, Collection)
+ */
+public class GenerationArchive {
+
+private static Logger logger = Logger.getLogger( GenerationArchive.class );
+
+private GenerationArchive() {
+	// no instances
+}
+
+/**
+ * Appends <code>chroms</code> to <code>file</code> and syncs it to disk before returning.
+ *
+ * @param file created if it does not exist
+ * @param chroms <code>Chromosome</code> objects
+ * @param compress true if the chromosome data should be deflated
+ * @throws IOException
+ */
+public static void append( File file, Collection chroms, boolean compress ) throws IOException {
+	FileOutputStream fileOut = new FileOutputStream( file, true );
+	try {
+		DataOutputStream out = new DataOutputStream( new BufferedOutputStream( fileOut, 65536 ) );
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		Iterator iter = chroms.iterator();
+		while ( iter.hasNext() ) {
+			Chromosome c = (Chromosome) iter.next();
+			bytes.reset();
+			BinaryChromosome.write( c, bytes, compress );
+			out.writeLong( c.getId().longValue() );
+			out.writeInt( bytes.size() );
+			bytes.writeTo( out );
+		}
+		out.flush();
+		fileOut.getFD().sync();
+	}
+	finally {
+		fileOut.close();
+	}
+}
+
+/**
+ * @param file
+ * @return <code>Long</code> IDs of the chromosomes in <code>file</code>, in the order they were
+ * written
+ * @throws IOException
+ */
+public static List readIds( File file ) throws IOException {
+	List result = new ArrayList();
+	DataInputStream in = new DataInputStream( new BufferedInputStream( new FileInputStream( file ) ) );
+	try {
+		while ( !atEnd( in ) ) {
+			try {
+				Long id = Long.valueOf( in.readLong() );
+				skipFully( in, in.readInt() );
+				result.add( id );
+			}
+			catch ( EOFException e ) {
+				warnTruncated( file );
+				break;
+			}
+		}
+	}
+	finally {
+		in.close();
+	}
+	return result;
+}
+
+/**
+ * @param file
+ * @param id
+ * @param config
+ * @return chromosome with <code>id</code> from <code>file</code>, or null if it is not there
+ * @throws IOException
+ */
+public static Chromosome read( File file, Long id, Configuration config ) throws IOException {
+	DataInputStream in = new DataInputStream( new BufferedInputStream( new FileInputStream( file ) ) );
+	try {
+		while ( !atEnd( in ) ) {
+			byte[] data;
+			try {
+				Long nextId = Long.valueOf( in.readLong() );
+				int length = in.readInt();
+				if ( !nextId.equals( id ) ) {
+					skipFully( in, length );
+					continue;
+				}
+				data = readData( in, length );
+			}
+			catch ( EOFException e ) {
+				warnTruncated( file );
+				break;
+			}
+			return BinaryChromosome.read( config, new ByteArrayInputStream( data ) );
+		}
+		return null;
+	}
+	finally {
+		in.close();
+	}
+}
+
+/**
+ * @param file
+ * @param config
+ * @return all <code>Chromosome</code> objects in <code>file</code>
+ * @throws IOException
+ */
+public static List readAll( File file, Configuration config ) throws IOException {
+	List result = new ArrayList();
+	DataInputStream in = new DataInputStream( new BufferedInputStream( new FileInputStream( file ) ) );
+	try {
+		while ( !atEnd( in ) ) {
+			byte[] data;
+			try {
+				in.readLong();
+				data = readData( in, in.readInt() );
+			}
+			catch ( EOFException e ) {
+				warnTruncated( file );
+				break;
+			}
+			result.add( BinaryChromosome.read( config, new ByteArrayInputStream( data ) ) );
+		}
+	}
+	finally {
+		in.close();
+	}
+	return result;
+}
+
+private static byte[] readData( DataInputStream in, int length ) throws IOException {
+	byte[] data = new byte[ length ];
+	in.readFully( data );
+	return data;
+}
+
+/**
+ * @param in buffered, so it supports <code>mark()</code>
+ * @return true if there are no more records in <code>in</code>
+ * @throws IOException
+ */
+private static boolean atEnd( DataInputStream in ) throws IOException {
+	in.mark( 1 );
+	int b = in.read();
+	in.reset();
+	return b < 0;
+}
+
+private static void warnTruncated( File file ) {
+	logger.warn( "ignoring incomplete last record of generation archive " + file );
+}
+
+private static void skipFully( DataInputStream in, int length ) throws IOException {
+	int skipped = 0;
+	while ( skipped < length ) {
+		int n = in.skipBytes( length - skipped );
+		if ( n <= 0 )
+			throw new EOFException( "truncated generation archive" );
+		skipped += n;
+	}
+}
+
+}
@@ -98,6 +98,16 @@ public class Run implements GeneticEventListener, Configurable {
 		generations.add(new Generation(genotype, currentGenerationNumber++, currentGenerationNumber == numGenerations));
 	}
 
+	/**
+	 * Continues the generation numbers of a run resumed from a checkpoint.
+	 * 
+	 * @param count
+	 *            generations added before the run was stopped
+	 */
+	public void skipGenerations(int count) {
+		currentGenerationNumber += count;
+	}
+
 	/**
 	 * @see java.lang.Object#toString()
 	 */
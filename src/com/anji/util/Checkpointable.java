@@ -0,0 +1,26 @@
+package com.anji.util;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+/**
+ * Object with state that must be saved in a checkpoint for a resumed run to continue exactly as
+ * the original, e.g. a random sequence or a generation counter.
+ * 
+ * @see com.anji.persistence.EvolutionCheckpoint
+ */
+public interface Checkpointable {
+
+/**
+ * @param out where to write the current state
+ * @throws IOException
+ */
+public void writeState( DataOutput out ) throws IOException;
+
+/**
+ * @param in state written by <code>writeState()</code>
+ * @throws IOException
+ */
+public void readState( DataInput in ) throws IOException;
+}
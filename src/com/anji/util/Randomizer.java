@@ -11,20 +11,25 @@
  */
 package com.anji.util;
 
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
 import java.util.Random;
 
 /**
  * Singleton holder of <code>Random</code> object to ensure all of system is using same random
  * sequence. This is important for testing and diagnostics since it can guarantee
- * reproducability.
+ * reproducability. The position in the sequence can be saved and restored with
+ * <code>writeState()</code> and <code>readState()</code>, so a resumed run continues the same
+ * sequence.
  * 
  * @author Philip Tucker
  */
-public class Randomizer implements Configurable {
+public class Randomizer implements Configurable, Checkpointable {
 
 private static final String RANDOM_SEED_KEY = "random.seed";
 
-private Random rand = new Random();
+private StateRandom rand = new StateRandom();
 
 private long seed = 0;
 
@@ -59,4 +64,89 @@ public Random getRand() {
 public long getSeed() {
 	return seed;
 }
+
+/**
+ * @see com.anji.util.Checkpointable#writeState(java.io.DataOutput)
+ */
+public void writeState( DataOutput out ) throws IOException {
+	rand.writeState( out );
+}
+
+/**
+ * @see com.anji.util.Checkpointable#readState(java.io.DataInput)
+ */
+public void readState( DataInput in ) throws IOException {
+	rand.readState( in );
+}
+
+/**
+ * Same sequence as <code>java.util.Random</code>, whose state is private, but with the state
+ * kept here so it can be saved and restored.
+ */
+private static class StateRandom extends Random {
+
+private static final long serialVersionUID = 1L;
+
+private final static long MULTIPLIER = 0x5DEECE66DL;
+
+private final static long ADDEND = 0xBL;
+
+private final static long MASK = ( 1L << 48 ) - 1;
+
+// not initialized here, since the super ctor calls setSeed() first
+private long state;
+
+private double nextNextGaussian;
+
+private boolean haveNextNextGaussian;
+
+/**
+ * @see java.util.Random#setSeed(long)
+ */
+public synchronized void setSeed( long aSeed ) {
+	state = ( aSeed ^ MULTIPLIER ) & MASK;
+	haveNextNextGaussian = false;
+}
+
+/**
+ * @see java.util.Random#next(int)
+ */
+protected synchronized int next( int bits ) {
+	state = ( state * MULTIPLIER + ADDEND ) & MASK;
+	return (int) ( state >>> ( 48 - bits ) );
+}
+
+/**
+ * @see java.util.Random#nextGaussian()
+ */
+public synchronized double nextGaussian() {
+	if ( haveNextNextGaussian ) {
+		haveNextNextGaussian = false;
+		return nextNextGaussian;
+	}
+	double v1, v2, s;
+	do {
+		v1 = 2 * nextDouble() - 1;
+		v2 = 2 * nextDouble() - 1;
+		s = v1 * v1 + v2 * v2;
+	} while ( s >= 1 || s == 0 );
+	double multiplier = StrictMath.sqrt( -2 * StrictMath.log( s ) / s );
+	nextNextGaussian = v2 * multiplier;
+	haveNextNextGaussian = true;
+	return v1 * multiplier;
+}
+
+private synchronized void writeState( DataOutput out ) throws IOException {
+	out.writeLong( state );
+	out.writeBoolean( haveNextNextGaussian );
+	out.writeDouble( nextNextGaussian );
+}
+
+private synchronized void readState( DataInput in ) throws IOException {
+	state = in.readLong();
+	haveNextNextGaussian = in.readBoolean();
+	nextNextGaussian = in.readDouble();
+}
+}
+
 }
@@ -23,6 +23,7 @@ import java.awt.Graphics2D;
 import java.util.Arrays;
 
 import com.anji_ahni.nn.AnjiNet;
+import com.anji_ahni.nn.CompiledNet;
 import com.anji_ahni.nn.Neuron;
 import com.anji_ahni.nn.Pattern;
 import com.ojcoleman.ahni.util.ArrayUtil;
@@ -46,6 +47,10 @@ public class AnjiActivator implements Activator {
 
 	private double maxResponseValue;
 
+	private CompiledNet compiledNet = null;
+
+	private boolean compiled = false;
+
 	/**
 	 * @param aNet ANN
 	 * @param aNumCycles number of times input pattern is "shown" to network before a result is returned; this allows
@@ -109,6 +114,41 @@ public class AnjiActivator implements Activator {
 		return result;
 	}
 
+	/**
+	 * Activate the network for a batch of input patterns, each from a reset network. Feed-forward networks are
+	 * compiled (see {@link CompiledNet}) the first time this is called, so the network is walked once for the
+	 * whole batch; the weights must not be changed afterwards. Other networks are reset and activated once for each
+	 * pattern. Either way the results are the same as calling {@link #reset()} and {@link #next(double[])} for each
+	 * pattern.
+	 * 
+	 * @param inputColumns One array per input, each holding the values of that input for <code>count</code> patterns.
+	 * @param count The number of patterns.
+	 * @param outputColumns Arrays to put the results in, one per output with room for <code>count</code> values, or
+	 *            null to create new ones.
+	 * @return One array per output, holding the values of that output for each pattern.
+	 */
+	public double[][] nextBatch(double[][] inputColumns, int count, double[][] outputColumns) {
+		if (!compiled) {
+			compiledNet = CompiledNet.compile(net);
+			compiled = true;
+		}
+		if (compiledNet != null)
+			return compiledNet.activate(inputColumns, count, outputColumns);
+
+		if (outputColumns == null || outputColumns.length < outputDimension || (outputDimension > 0 && outputColumns[0].length < count))
+			outputColumns = new double[outputDimension][count];
+		double[] input = new double[inputColumns.length];
+		for (int k = 0; k < count; ++k) {
+			for (int i = 0; i < input.length; ++i)
+				input[i] = inputColumns[i][k];
+			reset();
+			double[] output = next(input);
+			for (int o = 0; o < outputDimension; ++o)
+				outputColumns[o][k] = output[o];
+		}
+		return outputColumns;
+	}
+
 	public double[][] nextSequence(double[][] newInputValues) {
 		double[][] result = new double[newInputValues.length][];
 		for (int i = 0; i < newInputValues.length; ++i) {
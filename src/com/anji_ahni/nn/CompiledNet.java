@@ -0,0 +1,212 @@
+package com.anji_ahni.nn;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.anji_ahni.nn.activationfunction.ActivationFunction;
+import com.anji_ahni.nn.activationfunction.ActivationFunctionNonIntegrating;
+
+/**
+ * A feed-forward {@link AnjiNet} flattened into arrays, so that many input patterns can be activated in one walk
+ * over the neurons instead of one walk per pattern. Inputs and outputs are given as columns: one array per input or
+ * output holding the value for each pattern. Each neuron computes exactly the same sums, in the same order, as
+ * {@link Neuron#getValue()}, so the outputs are identical to activating each pattern on its own from a reset
+ * network.
+ *
+ * Only networks without recurrent connections whose connections are all {@link NeuronConnection}s,
+ * {@link BiasConnection}s or input pattern connections can be compiled, see {@link #compile(AnjiNet)}.
+ *
+ * This is not a copy of com.anji.nn.CompiledNet. That one is built from the separate com.anji.nn classes and steps
+ * one pattern at a time, keeping the state of recurrent connections from step to step as an ANN controller needs.
+ * This one activates many patterns at once from a reset network, as the queries of a CPPN need. The two packages
+ * have no classes in common, so the two can't share code.
+ */
+public class CompiledNet {
+	// Sources of a connection that are not neurons.
+	private static final int SOURCE_BIAS = -1;
+
+	private final int inputCount;
+	// Neurons in the order they are activated, each one after all its sources.
+	private final ActivationFunction[] funcs;
+	private final boolean[] nonIntegrating;
+	private final double[] biases;
+	// For each neuron and each incoming connection, the index of the source neuron or SOURCE_BIAS, and the weight.
+	private final int[][] sources;
+	private final double[][] weights;
+	// For neurons fed by the input pattern, the input index of each incoming connection, otherwise -1.
+	private final int[][] inputSources;
+	private final int[] outputs;
+
+	private CompiledNet(int inputCount, List<Neuron> order, Map<Neuron, Integer> index, List<Neuron> outputNeurons) {
+		this.inputCount = inputCount;
+		int n = order.size();
+		funcs = new ActivationFunction[n];
+		nonIntegrating = new boolean[n];
+		biases = new double[n];
+		sources = new int[n][];
+		weights = new double[n][];
+		inputSources = new int[n][];
+		for (int i = 0; i < n; i++) {
+			Neuron neuron = order.get(i);
+			funcs[i] = neuron.getFunc();
+			nonIntegrating[i] = funcs[i] instanceof ActivationFunctionNonIntegrating;
+			biases[i] = neuron.getBias();
+			Collection<Connection> conns = neuron.getIncomingConns();
+			sources[i] = new int[conns.size()];
+			weights[i] = new double[conns.size()];
+			inputSources[i] = new int[conns.size()];
+			int c = 0;
+			for (Connection conn : conns) {
+				inputSources[i][c] = -1;
+				if (conn instanceof Pattern.PatternConnection) {
+					inputSources[i][c] = ((Pattern.PatternConnection) conn).getIdx();
+				} else if (conn instanceof NeuronConnection) {
+					NeuronConnection nc = (NeuronConnection) conn;
+					sources[i][c] = index.get(nc.getIncomingNode());
+					weights[i][c] = nc.getWeight();
+				} else {
+					sources[i][c] = SOURCE_BIAS;
+				}
+				c++;
+			}
+		}
+		outputs = new int[outputNeurons.size()];
+		for (int o = 0; o < outputs.length; o++) {
+			outputs[o] = index.get(outputNeurons.get(o));
+		}
+	}
+
+	/**
+	 * @param net The network to compile. It must already be connected to its input pattern, e.g. by the
+	 *            {@link com.anji_ahni.integration.AnjiActivator} wrapping it.
+	 * @return The compiled network, or null if the network is recurrent or has connections other than
+	 *         {@link NeuronConnection}s, {@link BiasConnection}s and input pattern connections.
+	 */
+	public static CompiledNet compile(AnjiNet net) {
+		if (net.isRecurrent())
+			return null;
+		List<Neuron> order = new ArrayList<Neuron>();
+		Map<Neuron, Integer> index = new IdentityHashMap<Neuron, Integer>();
+		List<Neuron> outputNeurons = new ArrayList<Neuron>();
+		for (int o = 0; o < net.getOutputDimension(); o++) {
+			Neuron out = net.getOutputNeuron(o);
+			outputNeurons.add(out);
+			if (!addInOrder(out, order, index, new IdentityHashMap<Neuron, Boolean>()))
+				return null;
+		}
+		return new CompiledNet(net.getInputDimension(), order, index, outputNeurons);
+	}
+
+	/**
+	 * Adds the sources of a neuron and then the neuron itself to the activation order.
+	 *
+	 * @return false if the neuron can not be compiled.
+	 */
+	private static boolean addInOrder(Neuron neuron, List<Neuron> order, Map<Neuron, Integer> index, Map<Neuron, Boolean> visiting) {
+		if (index.containsKey(neuron))
+			return true;
+		if (visiting.put(neuron, Boolean.TRUE) != null)
+			return false; // A cycle.
+		for (Connection conn : neuron.getIncomingConns()) {
+			if (conn instanceof CacheNeuronConnection) {
+				return false;
+			} else if (conn instanceof NeuronConnection) {
+				if (!addInOrder(((NeuronConnection) conn).getIncomingNode(), order, index, visiting))
+					return false;
+			} else if (!(conn instanceof BiasConnection) && !(conn instanceof Pattern.PatternConnection)) {
+				return false;
+			}
+		}
+		visiting.remove(neuron);
+		index.put(neuron, order.size());
+		order.add(neuron);
+		return true;
+	}
+
+	/**
+	 * @return The number of inputs.
+	 */
+	public int getInputCount() {
+		return inputCount;
+	}
+
+	/**
+	 * @return The number of outputs.
+	 */
+	public int getOutputCount() {
+		return outputs.length;
+	}
+
+	/**
+	 * Activate the network for a batch of input patterns.
+	 *
+	 * @param inputs One column per input, each holding at least <code>count</code> values.
+	 * @param count The number of patterns.
+	 * @param outputs One column per output to put the results in, each with room for at least <code>count</code>
+	 *            values. If null or too small new columns are created.
+	 * @return The output columns.
+	 */
+	public double[][] activate(double[][] inputs, int count, double[][] outputs) {
+		if (outputs == null || outputs.length < this.outputs.length || (outputs.length > 0 && outputs[0].length < count)) {
+			outputs = new double[this.outputs.length][count];
+		}
+		double[][] values = new double[funcs.length][];
+		for (int i = 0; i < funcs.length; i++) {
+			double[] value = new double[count];
+			int[] src = sources[i];
+			int[] inSrc = inputSources[i];
+			double[] w = weights[i];
+			if (nonIntegrating[i]) {
+				ActivationFunctionNonIntegrating func = (ActivationFunctionNonIntegrating) funcs[i];
+				double[] nonIntegratingInput = new double[src.length];
+				for (int k = 0; k < count; k++) {
+					for (int c = 0; c < src.length; c++) {
+						nonIntegratingInput[c] = read(inSrc[c], src[c], w[c], inputs, values, k);
+					}
+					value[k] = func.apply(nonIntegratingInput, biases[i]);
+				}
+			} else {
+				// Add up one connection at a time over all the patterns, in the same order as Neuron.getValue().
+				Arrays.fill(value, 0, count, biases[i]);
+				for (int c = 0; c < src.length; c++) {
+					if (inSrc[c] >= 0) {
+						double[] column = inputs[inSrc[c]];
+						for (int k = 0; k < count; k++)
+							value[k] += column[k];
+					} else if (src[c] == SOURCE_BIAS) {
+						for (int k = 0; k < count; k++)
+							value[k] += 1;
+					} else {
+						double[] column = values[src[c]];
+						double weight = w[c];
+						for (int k = 0; k < count; k++)
+							value[k] += weight * column[k];
+					}
+				}
+				ActivationFunction func = funcs[i];
+				for (int k = 0; k < count; k++)
+					value[k] = func.apply(value[k]);
+			}
+			values[i] = value;
+		}
+		for (int o = 0; o < this.outputs.length; o++) {
+			System.arraycopy(values[this.outputs[o]], 0, outputs[o], 0, count);
+		}
+		return outputs;
+	}
+
+	/**
+	 * The value carried by a connection, as {@link Connection#read()} would give it.
+	 */
+	private static double read(int inputSource, int source, double weight, double[][] inputs, double[][] values, int k) {
+		if (inputSource >= 0)
+			return inputs[inputSource][k];
+		if (source == SOURCE_BIAS)
+			return 1;
+		return weight * values[source][k];
+	}
+}
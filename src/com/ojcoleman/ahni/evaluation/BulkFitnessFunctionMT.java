@@ -11,16 +11,20 @@ import java.text.DecimalFormat;
 import java.text.NumberFormat;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Random;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
-import org.apache.commons.collections.primitives.ArrayDoubleList;
 import org.apache.commons.io.IOUtils;
 import org.apache.commons.lang3.ArrayUtils;
 import org.apache.log4j.Logger;
@@ -39,8 +43,6 @@ import com.ojcoleman.ahni.hyperneat.HyperNEATEvolver;
 import com.ojcoleman.ahni.hyperneat.Properties;
 import com.ojcoleman.ahni.util.ArrayUtil;
 import com.ojcoleman.ahni.util.CircularFifoBuffer;
-import com.ojcoleman.ahni.util.Parallel;
-import com.ojcoleman.ahni.util.Parallel.Operation;
 
 /**
  * <p>
@@ -57,7 +59,9 @@ import com.ojcoleman.ahni.util.Parallel.Operation;
  * the initial instance of AHNI controls one or more minion instances and doesn't perform any transcriptions or
  * evaluations itself. The controller and minions communicate via sockets, with each minion instance acting as a server
  * which waits for requests from the controlling instance The controller automatically load-balances between the minions 
- * and is robust to minions failing. See {@link #MINION_HOSTS}.
+ * and is robust to minions failing: minions are given small batches of Chromosomes as they finish previous ones, idle
+ * minions help out with the Chromosomes still being evaluated by slower minions, and Chromosomes being evaluated by a
+ * minion that fails are given to other minions. See {@link #MINION_HOSTS} and {@link #MINION_BATCH_SIZE}.
  * </p>
  * <p>
  * See {@link com.ojcoleman.ahni.evaluation.TargetFitnessFunctionMT} for an example.
@@ -116,6 +120,8 @@ public abstract class BulkFitnessFunctionMT extends AHNIFitnessFunction implemen
 	 * in the definition. If no port is specified then minion.default_port will be used. Minions create a log file
 	 * called &lt;output.dir&gt;/minion.&lt;hostname&gt;.log relative to the file system on the machine they're running
 	 * on.</p>
+	 * <p>Several minions may be run on the same machine on different ports, for example localhost:5001,localhost:5002
+	 * to test a minion set-up on one machine.</p>
 	 * <p>Alternatively this can be set to "[htcondor]" to indicate that Minions should be managed by HTCondor. Use of  
 	 * HTCondor forces minion.autostart=TRUE. NOTE: use of HTCondor was an experiment that couldn't be completed due 
 	 * to the restrictions of the HT Condor system available for testing. There's no technical reason it shouldn't work, 
@@ -138,6 +144,26 @@ public abstract class BulkFitnessFunctionMT extends AHNIFitnessFunction implemen
 	 * The default port for minion instances.
 	 */
 	public static final String MINION_DEFAULT_PORT = "minion.default_port";
+	
+	/**
+	 * The number of Chromosomes sent to a minion at a time. A minion is sent another batch whenever it has fewer than
+	 * minion.batch.inflight batches that it hasn't returned, so faster minions evaluate more Chromosomes. If 0 (the
+	 * default) then the batch size is chosen so that each minion is sent about 8 batches per generation.
+	 */
+	public static final String MINION_BATCH_SIZE = "minion.batch.size";
+	
+	/**
+	 * The maximum number of batches sent to a minion that it hasn't returned yet. Default is 2, so that a minion can
+	 * start on the next batch while the results of the previous batch are on their way back.
+	 */
+	public static final String MINION_BATCH_IN_FLIGHT = "minion.batch.inflight";
+	
+	/**
+	 * If true (the default) then a minion that has nothing left to evaluate will also evaluate Chromosomes that are
+	 * still being evaluated by another minion, and whichever result arrives first is used. This stops a slow or stalled
+	 * minion from holding up the generation.
+	 */
+	public static final String MINION_BATCH_STEAL = "minion.batch.steal";
 
 	
 	protected Properties props;
@@ -156,6 +182,13 @@ public abstract class BulkFitnessFunctionMT extends AHNIFitnessFunction implemen
 	protected NoveltySearch[] noveltyArchives;
 	protected boolean forcePerfFitness;
 	protected ArrayList<MinionHandler> minions = null;
+	protected int minionBatchSize;
+	protected int minionBatchesInFlight;
+	protected boolean minionBatchSteal;
+	// Runs the evaluation of a generation on each minion.
+	private ExecutorService minionExecutor;
+	// The minions that are currently evaluating (possibly still finishing off a previous generation).
+	private final Set<MinionHandler> minionsEvaluating = Collections.newSetFromMap(new ConcurrentHashMap<MinionHandler, Boolean>());
 	
 	/**
 	 * This RNG should be used by all sub-classes for all randomness.
@@ -311,6 +344,18 @@ public abstract class BulkFitnessFunctionMT extends AHNIFitnessFunction implemen
 			}
 			logger.info("Using " + minions.size() + " Minions for transcription and evaluation.");
 			
+			minionBatchSize = props.getIntProperty(MINION_BATCH_SIZE, 0);
+			minionBatchesInFlight = Math.max(1, props.getIntProperty(MINION_BATCH_IN_FLIGHT, 2));
+			minionBatchSteal = props.getBooleanProperty(MINION_BATCH_STEAL, true);
+			minionExecutor = Executors.newCachedThreadPool(new ThreadFactory() {
+				@Override
+				public Thread newThread(Runnable r) {
+					Thread t = new Thread(r, "Minion evaluation");
+					t.setDaemon(true);
+					return t;
+				}
+			});
+			
 			if (usingCondor || props.getBooleanProperty(MINION_AUTOSTART, false)) {
 				Runtime.getRuntime().addShutdownHook(new Thread() {
 		            @Override
@@ -590,83 +635,37 @@ public abstract class BulkFitnessFunctionMT extends AHNIFitnessFunction implemen
 	private void evaluateFitnessViaMinions(List<Chromosome> genotypes) {
 		assert !isMinionInstance;
 		
-		List<Chromosome> stillToEvaluate = new ArrayList<Chromosome>(genotypes);
+		final MinionWorkQueue queue = new MinionWorkQueue(genotypes, minionBatchSteal);
+		final int batchSize = minionBatchSize > 0 ? minionBatchSize : Math.max(1, genotypes.size() / (minions.size() * 8));
 		
 		long startTime = System.currentTimeMillis();
-		while (!stillToEvaluate.isEmpty()) {
-			// For each minion, update generation number, initialise evaluation in fitness functions, and check if it's still active. 
-			ArrayList<MinionHandler> activeMinions = new ArrayList<MinionHandler>();
-			ArrayDoubleList relativePerformanceList = new ArrayDoubleList();
-			double avgPerformance = 0;
-			int avgPerformanceCount = 0;
-			while (activeMinions.isEmpty()) {
-				for (MinionHandler minion : minions) {
-					if (!activeMinions.contains(minion) && minion.isConnected() && minion.initialiseEvaluation()) {
-						activeMinions.add(minion);
-						if (minion.getAverageEvalTimePerChrom() != 0) {
-							double perf = 1.0 / minion.getAverageEvalTimePerChrom();
-							relativePerformanceList.add(perf);
-							avgPerformance += perf;
-							avgPerformanceCount++;
-						}
-						else {
-							relativePerformanceList.add(0);
+		while (!queue.isFinished()) {
+			// Start evaluation on each connected minion that isn't already evaluating. A minion that fails stops 
+			// evaluating and is started again here once it has reconnected.
+			for (final MinionHandler minion : minions) {
+				if (minion.isConnected() && minionsEvaluating.add(minion)) {
+					minionExecutor.execute(new Runnable() {
+						@Override
+						public void run() {
+							try {
+								if (minion.initialiseEvaluation()) {
+									minion.evaluate(queue, batchSize, minionBatchesInFlight);
+								}
+							} finally {
+								minionsEvaluating.remove(minion);
+								queue.wake();
+							}
 						}
-					}
+					});
 				}
 			}
-			avgPerformance /= avgPerformanceCount;
-			
-			// Assign chromosomes to Minions proportional to their observed performance.
-			double[] relativePerformance = relativePerformanceList.toArray();
-			if (avgPerformanceCount == 0) avgPerformance = 1;
-			// If any Minions have not yet had their performance calculated, assign them an average performance value. 
-			for (int i = 0; i < relativePerformance.length; i++) {
-				if (relativePerformance[i] == 0) {
-					relativePerformance[i] = avgPerformance;
-				}
-			}
-			ArrayUtil.normaliseSum(relativePerformance);
-			int minionIndex = 0;
-			double chromIndex = 0;
-			for (MinionHandler minion : activeMinions) {
-				double nextChromIndex = chromIndex + relativePerformance[minionIndex] * stillToEvaluate.size();
-				int chromIndexRnd = (int) Math.round(chromIndex);
-				int nextChromIndexRnd = (int) Math.round(nextChromIndex);
-				List<Chromosome> chroms = new ArrayList<Chromosome>(stillToEvaluate.subList(chromIndexRnd, nextChromIndexRnd));
-				logger.debug("Gave " + minion + " " + chroms.size() + " Chromosomes to evaluate.");
-				minion.setChromosomesToEvaluate(chroms);
-				chromIndex = nextChromIndex;
-				minionIndex++;
-			}
-			
-			// Start evaluation on all active minions.
-			Parallel.foreach(activeMinions, activeMinions.size(), new Operation<MinionHandler>() {
-				@Override
-				public void perform(MinionHandler minion) {
-					minion.evaluateChroms();
-				}
-			});
-			
-			// Check if evaluation was successful for each minion, compile 
-			// list of chromosomes still to evaluate if any minions failed.
-			stillToEvaluate.clear();
-			int failCount = 0, activeMinionCount = activeMinions.size();
-			for (MinionHandler minion : activeMinions) {
-				if (minion.lastEvalFailed()) {
-					// Add them back to the still-to-evaluate list.
-					stillToEvaluate.addAll(minion.getChromosomesToEvaluate());
-					failCount++;
-				}
-			}
-			// If they all failed it might be because the evaluation time has suddenly increased.
-			if (failCount == activeMinionCount) {
-				for (MinionHandler minion : minions) {
-					// Increases the allowed eval time by 10.
-					minion.increaseAverageMinionEvalTime();
-				}
+			try {
+				queue.await(1000);
+			} catch (InterruptedException e) {
+				e.printStackTrace();
 			}
 		}
+		logger.debug("Minions evaluated " + genotypes.size() + " Chromosomes in " + (System.currentTimeMillis() - startTime) + "ms, with batch size " + batchSize + ", " + queue.getRetryCount() + " retried and " + queue.getStolenCount() + " stolen.");
 	}
 	
 	// Evaluate novelty over all individuals (this must be done after fitness/performance evaluation is complete for 
@@ -1116,6 +1115,9 @@ public abstract class BulkFitnessFunctionMT extends AHNIFitnessFunction implemen
 	 * Sub-classes may override this method to dispose of resources upon disposal of this object.
 	 */
 	public void dispose() {
+		if (minionExecutor != null) {
+			minionExecutor.shutdownNow();
+		}
 		if (evaluators != null) {
 			for (Evaluator e : evaluators) {
 				e.dispose();
@@ -0,0 +1,394 @@
+package com.ojcoleman.ahni.evaluation;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.commons.math3.linear.ArrayRealVector;
+import org.jgapcustomised.Allele;
+import org.jgapcustomised.Chromosome;
+import org.jgapcustomised.ChromosomeMaterial;
+import org.jgapcustomised.EvaluationData;
+
+import com.ojcoleman.ahni.evaluation.novelty.Behaviour;
+import com.ojcoleman.ahni.evaluation.novelty.RealVectorBehaviour;
+
+/**
+ * <p>
+ * Binary encoding of the Chromosomes sent to a minion and of the evaluation results sent back, used instead of Java
+ * serialisation of whole Chromosomes. A Chromosome is sent as its id and an array of (innovation id, value) pairs for
+ * its alleles, with each innovation id sent as a variable length difference from the previous one. The first time an innovation id is sent over a connection a copy of the allele (including its gene) is
+ * sent with Java serialisation, and the minion creates the alleles for that innovation id by cloning this prototype and
+ * setting the value. Only the fitness values, performance values and behaviours are sent back.
+ * </p>
+ * <p>
+ * The minion keeps the Chromosomes it has been sent, so a Chromosome it already has (for example an elite from the
+ * previous generation) is sent as just its id. Chromosomes that weren't sent to the minion in the previous evaluation
+ * are forgotten at the start of each evaluation. The controller keeps track of which Chromosomes the minion has by
+ * applying the same rule, so the {@link Sender} and {@link Receiver} for a connection must see the same sequence of
+ * batches and calls to startEvaluation(), and both must be replaced when the connection is.
+ * </p>
+ */
+class ChromosomeCodec {
+	// Chromosome flags.
+	private static final int CACHED = 1;
+	private static final int ELITE = 2;
+	private static final int STABLE = 4;
+	private static final int PRUNED = 8;
+	private static final int HAS_PRIMARY_PARENT = 16;
+	private static final int HAS_SECONDARY_PARENT = 32;
+
+	// Behaviour kinds.
+	private static final byte NULL_BEHAVIOUR = 0;
+	private static final byte REAL_VECTOR_BEHAVIOUR = 1;
+	private static final byte SERIALISED_BEHAVIOUR = 2;
+
+	/**
+	 * Keeps track of which Chromosomes a minion has, mirroring the minion's {@link Receiver}.
+	 */
+	private static class ChromosomeCache<T> {
+		Map<Long, T> current = new HashMap<Long, T>();
+		Map<Long, T> previous = new HashMap<Long, T>();
+
+		T get(Long id) {
+			T c = current.get(id);
+			if (c == null) {
+				c = previous.remove(id);
+				if (c != null) {
+					current.put(id, c);
+				}
+			}
+			return c;
+		}
+
+		void put(Long id, T c) {
+			current.put(id, c);
+		}
+
+		void startEvaluation() {
+			previous = current;
+			current = new HashMap<Long, T>();
+		}
+	}
+
+	/**
+	 * Encodes batches of Chromosomes and decodes the results, for the controller.
+	 */
+	static class Sender {
+		private final Set<Long> sentPrototypes = new HashSet<Long>();
+		// The value isn't needed, only which ids the minion has.
+		private final ChromosomeCache<Boolean> minionHas = new ChromosomeCache<Boolean>();
+
+		/**
+		 * Must be called whenever an INITIALISE_EVALUATION request is sent.
+		 */
+		void startEvaluation() {
+			minionHas.startEvaluation();
+		}
+
+		byte[] encode(List<Chromosome> chroms) throws IOException {
+			ArrayList<Allele> prototypes = new ArrayList<Allele>();
+			ByteArrayOutputStream chromBytes = new ByteArrayOutputStream();
+			DataOutputStream out = new DataOutputStream(chromBytes);
+			out.writeInt(chroms.size());
+			for (Chromosome chrom : chroms) {
+				boolean cached = minionHas.get(chrom.getId()) != null;
+				Long primaryParent = chrom.getPrimaryParentId();
+				Long secondaryParent = chrom.getSecondaryParentId();
+				int flags = (cached ? CACHED : 0) | (chrom.isElite ? ELITE : 0) | (chrom.isEvaluationDataStable() ? STABLE : 0);
+				if (!cached) {
+					flags |= (chrom.getMaterial().pruned ? PRUNED : 0) | (primaryParent != null ? HAS_PRIMARY_PARENT : 0) | (secondaryParent != null ? HAS_SECONDARY_PARENT : 0);
+				}
+				out.writeLong(chrom.getId());
+				out.writeByte(flags);
+				if (!cached) {
+					if (primaryParent != null)
+						out.writeLong(primaryParent);
+					if (secondaryParent != null)
+						out.writeLong(secondaryParent);
+					out.writeInt(chrom.getFitnessValues().length);
+					out.writeInt(chrom.behaviours == null ? 0 : chrom.behaviours.length);
+					out.writeInt(chrom.size());
+					long previousId = 0;
+					for (Allele allele : chrom.getAlleles()) {
+						long innovationId = allele.getInnovationId();
+						if (sentPrototypes.add(innovationId)) {
+							prototypes.add(allele.cloneAllele());
+						}
+						// Alleles are sorted by innovation id so the differences are small.
+						writeVarLong(out, innovationId - previousId);
+						out.writeDouble(allele.getValue());
+						previousId = innovationId;
+					}
+					minionHas.put(chrom.getId(), Boolean.TRUE);
+				}
+				// Evaluation data is normally reset before evaluation, unless it's stable.
+				if (chrom.isEvaluationDataStable()) {
+					writeEvaluationData(out, chrom);
+				}
+			}
+			out.flush();
+
+			ByteArrayOutputStream result = new ByteArrayOutputStream(chromBytes.size() + 64);
+			DataOutputStream resultOut = new DataOutputStream(result);
+			writeSerialised(resultOut, prototypes.isEmpty() ? null : prototypes);
+			chromBytes.writeTo(resultOut);
+			resultOut.flush();
+			return result.toByteArray();
+		}
+
+		/**
+		 * @return The evaluation data for each of the Chromosomes in the batch, in the same order.
+		 */
+		List<EvaluationData> decodeResults(byte[] data, List<Chromosome> chroms) throws IOException {
+			DataInputStream in = new DataInputStream(new ByteArrayInputStream(data));
+			int count = in.readInt();
+			if (count != chroms.size()) {
+				throw new IOException("Expected results for " + chroms.size() + " Chromosomes, got " + count);
+			}
+			List<EvaluationData> results = new ArrayList<EvaluationData>(count);
+			for (Chromosome chrom : chroms) {
+				long id = in.readLong();
+				if (id != chrom.getId()) {
+					throw new IOException("Expected results for Chromosome " + chrom.getId() + ", got " + id);
+				}
+				results.add(readEvaluationData(in));
+			}
+			return results;
+		}
+	}
+
+	/**
+	 * Decodes batches of Chromosomes and encodes the results, for the minion.
+	 */
+	static class Receiver {
+		private final Map<Long, Allele> prototypes = new HashMap<Long, Allele>();
+		private final ChromosomeCache<Chromosome> chromosomes = new ChromosomeCache<Chromosome>();
+
+		/**
+		 * Must be called whenever an INITIALISE_EVALUATION request is received.
+		 */
+		void startEvaluation() {
+			chromosomes.startEvaluation();
+		}
+
+		@SuppressWarnings("unchecked")
+		List<Chromosome> decode(byte[] data) throws IOException {
+			DataInputStream in = new DataInputStream(new ByteArrayInputStream(data));
+			List<Allele> newPrototypes = (List<Allele>) readSerialised(in);
+			if (newPrototypes != null) {
+				for (Allele allele : newPrototypes) {
+					prototypes.put(allele.getInnovationId(), allele);
+				}
+			}
+			int count = in.readInt();
+			List<Chromosome> chroms = new ArrayList<Chromosome>(count);
+			for (int c = 0; c < count; c++) {
+				Long id = in.readLong();
+				int flags = in.readUnsignedByte();
+				Chromosome chrom;
+				if ((flags & CACHED) != 0) {
+					chrom = chromosomes.get(id);
+					if (chrom == null) {
+						throw new IOException("Chromosome " + id + " was not sent previously.");
+					}
+					chrom.resetEvaluationData();
+				} else {
+					Long primaryParent = (flags & HAS_PRIMARY_PARENT) != 0 ? in.readLong() : null;
+					Long secondaryParent = (flags & HAS_SECONDARY_PARENT) != 0 ? in.readLong() : null;
+					int objectiveCount = in.readInt();
+					int behaviourCount = in.readInt();
+					int alleleCount = in.readInt();
+					List<Allele> alleles = new ArrayList<Allele>(alleleCount);
+					long innovationId = 0;
+					for (int a = 0; a < alleleCount; a++) {
+						innovationId += readVarLong(in);
+						Allele prototype = prototypes.get(innovationId);
+						if (prototype == null) {
+							throw new IOException("Allele for innovation " + innovationId + " was not sent previously.");
+						}
+						Allele allele = prototype.cloneAllele();
+						allele.setValue(in.readDouble());
+						alleles.add(allele);
+					}
+					ChromosomeMaterial material = new ChromosomeMaterial(alleles, primaryParent, secondaryParent);
+					material.pruned = (flags & PRUNED) != 0;
+					chrom = new Chromosome(material, id, objectiveCount, behaviourCount);
+					chromosomes.put(id, chrom);
+				}
+				chrom.isElite = (flags & ELITE) != 0;
+				if ((flags & STABLE) != 0) {
+					copyEvaluationData(readEvaluationData(in), chrom);
+					chrom.setEvaluationDataStable();
+				}
+				chroms.add(chrom);
+			}
+			return chroms;
+		}
+
+		byte[] encodeResults(List<Chromosome> chroms) throws IOException {
+			ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+			DataOutputStream out = new DataOutputStream(bytes);
+			out.writeInt(chroms.size());
+			for (Chromosome chrom : chroms) {
+				out.writeLong(chrom.getId());
+				writeEvaluationData(out, chrom);
+			}
+			out.flush();
+			return bytes.toByteArray();
+		}
+	}
+
+	/**
+	 * Copy the overall fitness, fitness values, performance values and behaviours from one EvaluationData to another.
+	 */
+	static void copyEvaluationData(EvaluationData from, EvaluationData to) {
+		to.setFitnessValue(from.getFitnessValue());
+		to.setFitnessValues(from.getFitnessValues());
+		if (!from.getAllPerformanceValues().isEmpty()) {
+			to.setPerformanceValue(from.getPerformanceValue());
+		}
+		to.setPerformanceValues(from.getAllPerformanceValues());
+		to.behaviours = from.behaviours;
+	}
+
+	private static void writeEvaluationData(DataOutputStream out, EvaluationData data) throws IOException {
+		out.writeDouble(data.getFitnessValue());
+		double[] fitnessValues = data.getFitnessValues();
+		out.writeInt(fitnessValues.length);
+		for (double f : fitnessValues) {
+			out.writeDouble(f);
+		}
+		Map<String, Double> performanceValues = data.getAllPerformanceValues();
+		out.writeInt(performanceValues.size());
+		for (Map.Entry<String, Double> e : performanceValues.entrySet()) {
+			out.writeUTF(e.getKey());
+			out.writeDouble(e.getValue());
+		}
+		if (data.behaviours == null) {
+			out.writeInt(-1);
+		} else {
+			out.writeInt(data.behaviours.length);
+			for (Behaviour b : data.behaviours) {
+				if (b == null) {
+					out.writeByte(NULL_BEHAVIOUR);
+				} else if (b.getClass() == RealVectorBehaviour.class) {
+					out.writeByte(REAL_VECTOR_BEHAVIOUR);
+					double[] p = ((RealVectorBehaviour) b).p.getDataRef();
+					out.writeInt(p.length);
+					for (double v : p) {
+						out.writeDouble(v);
+					}
+				} else {
+					out.writeByte(SERIALISED_BEHAVIOUR);
+					writeSerialised(out, b);
+				}
+			}
+		}
+	}
+
+	private static EvaluationData readEvaluationData(DataInputStream in) throws IOException {
+		double fitness = in.readDouble();
+		double[] fitnessValues = new double[in.readInt()];
+		for (int i = 0; i < fitnessValues.length; i++) {
+			fitnessValues[i] = in.readDouble();
+		}
+		int performanceCount = in.readInt();
+		Map<String, Double> performanceValues = new HashMap<String, Double>();
+		for (int i = 0; i < performanceCount; i++) {
+			String key = in.readUTF();
+			performanceValues.put(key, in.readDouble());
+		}
+		int behaviourCount = in.readInt();
+		EvaluationData data = new EvaluationData(fitnessValues.length, 0);
+		data.setFitnessValue(fitness);
+		data.setFitnessValues(fitnessValues);
+		data.setPerformanceValues(performanceValues);
+		data.behaviours = behaviourCount == -1 ? null : new Behaviour[behaviourCount];
+		for (int i = 0; i < behaviourCount; i++) {
+			byte kind = in.readByte();
+			switch (kind) {
+			case NULL_BEHAVIOUR:
+				break;
+			case REAL_VECTOR_BEHAVIOUR:
+				double[] p = new double[in.readInt()];
+				for (int j = 0; j < p.length; j++) {
+					p[j] = in.readDouble();
+				}
+				data.behaviours[i] = new RealVectorBehaviour(new ArrayRealVector(p, false));
+				break;
+			case SERIALISED_BEHAVIOUR:
+				data.behaviours[i] = (Behaviour) readSerialised(in);
+				break;
+			default:
+				throw new IOException("Unknown kind of behaviour " + kind);
+			}
+		}
+		return data;
+	}
+
+	/**
+	 * Write a long in as few bytes as possible, 7 bits at a time, zig-zag encoded so small negative values are also
+	 * short.
+	 */
+	private static void writeVarLong(DataOutputStream out, long v) throws IOException {
+		v = (v << 1) ^ (v >> 63);
+		while ((v & ~0x7FL) != 0) {
+			out.writeByte((int) ((v & 0x7F) | 0x80));
+			v >>>= 7;
+		}
+		out.writeByte((int) v);
+	}
+
+	private static long readVarLong(DataInputStream in) throws IOException {
+		long v = 0;
+		for (int shift = 0; shift < 64; shift += 7) {
+			int b = in.readUnsignedByte();
+			v |= (long) (b & 0x7F) << shift;
+			if ((b & 0x80) == 0) {
+				return (v >>> 1) ^ -(v & 1);
+			}
+		}
+		throw new IOException("Malformed variable length long");
+	}
+
+	private static void writeSerialised(DataOutputStream out, Object o) throws IOException {
+		if (o == null) {
+			out.writeInt(0);
+			return;
+		}
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		ObjectOutputStream objectOut = new ObjectOutputStream(bytes);
+		objectOut.writeObject(o);
+		objectOut.close();
+		out.writeInt(bytes.size());
+		bytes.writeTo(out);
+	}
+
+	private static Object readSerialised(DataInputStream in) throws IOException {
+		int length = in.readInt();
+		if (length == 0) {
+			return null;
+		}
+		byte[] bytes = new byte[length];
+		in.readFully(bytes);
+		ObjectInputStream objectIn = new ObjectInputStream(new ByteArrayInputStream(bytes));
+		try {
+			return objectIn.readObject();
+		} catch (ClassNotFoundException e) {
+			throw new IOException(e);
+		} finally {
+			objectIn.close();
+		}
+	}
+}
@@ -0,0 +1,224 @@
+package com.ojcoleman.ahni.evaluation;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Random;
+
+import org.apache.commons.math3.linear.ArrayRealVector;
+import org.jgapcustomised.Allele;
+import org.jgapcustomised.Chromosome;
+import org.jgapcustomised.ChromosomeMaterial;
+import org.jgapcustomised.EvaluationData;
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.anji_ahni.neat.ConnectionAllele;
+import com.anji_ahni.neat.ConnectionGene;
+import com.anji_ahni.neat.NeuronAllele;
+import com.anji_ahni.neat.NeuronGene;
+import com.anji_ahni.neat.NeuronType;
+import com.anji_ahni.nn.activationfunction.SigmoidActivationFunction;
+import com.ojcoleman.ahni.evaluation.novelty.Behaviour;
+import com.ojcoleman.ahni.evaluation.novelty.RealVectorBehaviour;
+
+/**
+ * Checks that the {@link ChromosomeCodec.Sender} and {@link ChromosomeCodec.Receiver} for a connection stay in step
+ * over several batches and evaluations, as a mismatch between their caches would silently corrupt Chromosomes.
+ */
+public class ChromosomeCodecTest {
+	private final Random random = new Random(0);
+
+	/**
+	 * A Chromosome with 2 inputs, 1 output, the given hidden neurons and a connection from every input to every
+	 * non-input neuron. Hidden neurons and connections have innovation ids based on the hidden neuron ids, so
+	 * Chromosomes created with different hidden neurons share only some innovation ids.
+	 */
+	private Chromosome createChromosome(long id, Long primaryParent, long... hidden) {
+		List<Allele> alleles = new ArrayList<Allele>();
+		List<Long> targets = new ArrayList<Long>();
+		alleles.add(neuron(NeuronType.INPUT, 1));
+		alleles.add(neuron(NeuronType.INPUT, 2));
+		alleles.add(neuron(NeuronType.OUTPUT, 3));
+		targets.add(3L);
+		for (long h : hidden) {
+			alleles.add(neuron(NeuronType.HIDDEN, 100 * h));
+			targets.add(100 * h);
+		}
+		for (long target : targets) {
+			for (long source = 1; source <= 2; source++) {
+				ConnectionAllele conn = new ConnectionAllele(new ConnectionGene(target + source * 10, source, target));
+				conn.setWeight(random.nextGaussian());
+				alleles.add(conn);
+			}
+		}
+		return new Chromosome(new ChromosomeMaterial(alleles, primaryParent), id, 2, 1);
+	}
+
+	private NeuronAllele neuron(NeuronType type, long innovationId) {
+		return new NeuronAllele(new NeuronGene(type, innovationId, SigmoidActivationFunction.NAME), random.nextGaussian());
+	}
+
+	private void assertSameChromosome(Chromosome expected, Chromosome actual) {
+		Assert.assertEquals(expected.getId(), actual.getId());
+		Assert.assertEquals(expected.getPrimaryParentId(), actual.getPrimaryParentId());
+		Assert.assertEquals(expected.getSecondaryParentId(), actual.getSecondaryParentId());
+		Assert.assertEquals(expected.isElite, actual.isElite);
+		Assert.assertEquals(expected.getFitnessValues().length, actual.getFitnessValues().length);
+		Assert.assertEquals(expected.size(), actual.size());
+		Iterator<Allele> e = expected.getAlleles().iterator();
+		Iterator<Allele> a = actual.getAlleles().iterator();
+		while (e.hasNext()) {
+			Allele ea = e.next();
+			Allele aa = a.next();
+			Assert.assertEquals(ea.getClass(), aa.getClass());
+			Assert.assertEquals(ea.getInnovationId(), aa.getInnovationId());
+			Assert.assertEquals(ea.toString(), aa.toString());
+			Assert.assertEquals(Double.doubleToLongBits(ea.getValue()), Double.doubleToLongBits(aa.getValue()));
+		}
+	}
+
+	/**
+	 * Sends a batch and checks what the minion gets.
+	 *
+	 * @return The Chromosomes the minion got.
+	 */
+	private List<Chromosome> send(ChromosomeCodec.Sender sender, ChromosomeCodec.Receiver receiver, Chromosome... batch) throws IOException {
+		List<Chromosome> decoded = receiver.decode(sender.encode(Arrays.asList(batch)));
+		Assert.assertEquals(batch.length, decoded.size());
+		for (int i = 0; i < batch.length; i++) {
+			assertSameChromosome(batch[i], decoded.get(i));
+		}
+		return decoded;
+	}
+
+	@Test
+	public void testBatchesOverSeveralEvaluations() throws IOException {
+		ChromosomeCodec.Sender sender = new ChromosomeCodec.Sender();
+		ChromosomeCodec.Receiver receiver = new ChromosomeCodec.Receiver();
+
+		Chromosome c1 = createChromosome(1, null);
+		Chromosome c2 = createChromosome(2, null, 1);
+		Chromosome c3 = createChromosome(3, null, 2);
+		Chromosome c4 = createChromosome(4, 2L, 1, 2);
+		Chromosome c5 = createChromosome(5, 3L, 3);
+
+		// First evaluation, in two batches; the second only has some new innovation ids.
+		sender.startEvaluation();
+		receiver.startEvaluation();
+		List<Chromosome> first = send(sender, receiver, c1, c2, c3);
+		List<Chromosome> second = send(sender, receiver, c4, c5);
+
+		// Second evaluation: c1, c2 and c4 survive (c1 as an elite), c3 and c5 are not sent, c6 is new.
+		Chromosome c6 = createChromosome(6, 4L, 1, 4);
+		c1.isElite = true;
+		sender.startEvaluation();
+		receiver.startEvaluation();
+		List<Chromosome> third = send(sender, receiver, c1, c6, c4);
+		List<Chromosome> fourth = send(sender, receiver, c2);
+		// Chromosomes the minion already has are reused rather than sent again.
+		Assert.assertSame(first.get(0), third.get(0));
+		Assert.assertSame(second.get(0), third.get(2));
+		Assert.assertSame(first.get(1), fourth.get(0));
+
+		// Third evaluation: c3 and c5 weren't in the second evaluation, so they must be sent again in full.
+		c1.isElite = false;
+		sender.startEvaluation();
+		receiver.startEvaluation();
+		List<Chromosome> fifth = send(sender, receiver, c3, c1, c5, c6);
+		Assert.assertNotSame(first.get(2), fifth.get(0));
+		Assert.assertSame(first.get(0), fifth.get(1));
+		Assert.assertNotSame(second.get(1), fifth.get(2));
+		Assert.assertSame(third.get(1), fifth.get(3));
+	}
+
+	@Test
+	public void testCachedChromosomesAreSmaller() throws IOException {
+		ChromosomeCodec.Sender sender = new ChromosomeCodec.Sender();
+		ChromosomeCodec.Receiver receiver = new ChromosomeCodec.Receiver();
+		Chromosome c = createChromosome(1, null, 1, 2, 3);
+		sender.startEvaluation();
+		receiver.startEvaluation();
+		int full = sender.encode(Arrays.asList(c)).length;
+		sender.startEvaluation();
+		receiver.startEvaluation();
+		int cached = sender.encode(Arrays.asList(c)).length;
+		Assert.assertTrue("Cached Chromosome took " + cached + " bytes, full " + full, cached < full / 4);
+	}
+
+	@Test
+	public void testStableEvaluationData() throws IOException {
+		ChromosomeCodec.Sender sender = new ChromosomeCodec.Sender();
+		ChromosomeCodec.Receiver receiver = new ChromosomeCodec.Receiver();
+		Chromosome c = createChromosome(1, null, 1);
+		c.setFitnessValues(new double[] { 0.25, 0.5 });
+		c.setFitnessValue(0.375);
+		c.setPerformanceValue(0.75);
+		c.setEvaluationDataStable();
+
+		sender.startEvaluation();
+		receiver.startEvaluation();
+		Chromosome decoded = send(sender, receiver, c).get(0);
+		Assert.assertTrue(decoded.isEvaluationDataStable());
+		Assert.assertArrayEquals(c.getFitnessValues(), decoded.getFitnessValues(), 0);
+		Assert.assertEquals(c.getFitnessValue(), decoded.getFitnessValue(), 0);
+		Assert.assertEquals(c.getPerformanceValue(), decoded.getPerformanceValue(), 0);
+	}
+
+	@Test
+	public void testResults() throws IOException {
+		ChromosomeCodec.Sender sender = new ChromosomeCodec.Sender();
+		ChromosomeCodec.Receiver receiver = new ChromosomeCodec.Receiver();
+		List<Chromosome> batch = Arrays.asList(createChromosome(1, null), createChromosome(2, null, 1));
+		sender.startEvaluation();
+		receiver.startEvaluation();
+		List<Chromosome> decoded = receiver.decode(sender.encode(batch));
+		for (Chromosome c : decoded) {
+			c.setFitnessValues(new double[] { random.nextDouble(), random.nextDouble() });
+			c.setFitnessValue(random.nextDouble());
+			c.setPerformanceValue(random.nextDouble());
+			c.setPerformanceValue("other", random.nextDouble());
+			c.behaviours = new Behaviour[] { new RealVectorBehaviour(new ArrayRealVector(new double[] { random.nextDouble(), random.nextDouble() })) };
+		}
+		decoded.get(1).behaviours[0] = null;
+
+		List<EvaluationData> results = sender.decodeResults(receiver.encodeResults(decoded), batch);
+		Assert.assertEquals(decoded.size(), results.size());
+		for (int i = 0; i < decoded.size(); i++) {
+			Chromosome expected = decoded.get(i);
+			EvaluationData actual = results.get(i);
+			Assert.assertArrayEquals(expected.getFitnessValues(), actual.getFitnessValues(), 0);
+			Assert.assertEquals(expected.getFitnessValue(), actual.getFitnessValue(), 0);
+			Assert.assertEquals(expected.getAllPerformanceValues(), actual.getAllPerformanceValues());
+			Assert.assertEquals(1, actual.behaviours.length);
+			if (expected.behaviours[0] == null) {
+				Assert.assertNull(actual.behaviours[0]);
+			} else {
+				Assert.assertEquals(0, expected.behaviours[0].distanceFrom(actual.behaviours[0]), 0);
+			}
+		}
+	}
+
+	@Test
+	public void testMissingChromosomeIsDetected() throws IOException {
+		ChromosomeCodec.Sender sender = new ChromosomeCodec.Sender();
+		ChromosomeCodec.Receiver receiver = new ChromosomeCodec.Receiver();
+		Chromosome c = createChromosome(1, null, 1);
+		sender.startEvaluation();
+		receiver.startEvaluation();
+		receiver.decode(sender.encode(Arrays.asList(c)));
+
+		// A Receiver that missed the first batch, as if the connection had been replaced but not the Sender.
+		ChromosomeCodec.Receiver other = new ChromosomeCodec.Receiver();
+		sender.startEvaluation();
+		other.startEvaluation();
+		try {
+			other.decode(sender.encode(Arrays.asList(c)));
+			Assert.fail("Decoded a Chromosome that was never sent in full");
+		} catch (IOException e) {
+			// expected
+		}
+	}
+}
@@ -21,6 +21,8 @@ import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.Map.Entry;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
 
 import org.apache.log4j.PropertyConfigurator;
 import org.jgapcustomised.BulkFitnessFunction;
@@ -183,9 +185,18 @@ public class Minion {
 		System.out.println("\n--------------------------------------------\nMaximum restarts reached, terminating.");
 	}
 
+	/**
+	 * A request from the controller. Requests are processed one at a time in the order they are received, but the
+	 * controller may send more requests before the responses to earlier ones arrive (for example several EVALUATE
+	 * requests, so the Minion always has a batch of Chromosomes ready to evaluate).
+	 */
 	public static class Request implements Serializable {
 		private static final long serialVersionUID = 1L;
 
+		/**
+		 * The data for EVALUATE requests is a {@link Batch} of Chromosomes, and the response is a Batch with the same
+		 * id containing their evaluation results. See {@link ChromosomeCodec}.
+		 */
 		public enum Type {CONFIGURE, INITIALISE_EVALUATION, EVALUATE, TERMINATE};
 		
 		final Type type;
@@ -197,13 +208,32 @@ public class Minion {
 		}
 	}
 	
+	/**
+	 * Chromosomes to evaluate, sent with an EVALUATE request, or their evaluation results, encoded by a
+	 * {@link ChromosomeCodec}.
+	 */
+	public static class Batch implements Serializable {
+		private static final long serialVersionUID = 1L;
+		
+		/**
+		 * Identifies the batch to the controller, which may have several batches in flight.
+		 */
+		final long id;
+		final byte[] data;
+		
+		public Batch(long id, byte[] data) {
+			this.id = id;
+			this.data = data;
+		}
+	}
+	
 	private class RequestProcessor extends Thread {
 		volatile boolean active = true;
-		Request request;
+		final BlockingQueue<Request> requests = new LinkedBlockingQueue<Request>();
+		final ChromosomeCodec.Receiver codec = new ChromosomeCodec.Receiver();
 		
-		public synchronized void process(Request request) throws InterruptedException {
-			this.request = request;
-			notify();
+		public void process(Request request) throws InterruptedException {
+			requests.put(request);
 		}
 		
 		public void terminate() {
@@ -215,10 +245,8 @@ public class Minion {
 		public void run() {
 			while (active) {
 				try {
+					Request request = requests.take();
 					synchronized(this) {
-						while (request == null) {
-							wait();
-						}
 						switch (request.type) {
 						case CONFIGURE:
 							System.out.println("Receiving configuration from " + socket.getInetAddress().toString());
@@ -250,6 +278,7 @@ public class Minion {
 							break;
 							
 						case INITIALISE_EVALUATION:
+							codec.startEvaluation();
 							int newGeneration = (Integer) request.data;
 							// Make sure to call initialiseEvaluationOnAll() only once per generation.
 							// We use currentGeneration initialised to -1 rather than call properties.getEvolver().getGeneration() 
@@ -272,12 +301,15 @@ public class Minion {
 									out.writeObject(new IllegalStateException("Evaluate request sent when minion not configured"));
 								}
 							} else {
-								List<Chromosome> chroms = (List<Chromosome>) request.data;
+								Batch batch = (Batch) request.data;
+								List<Chromosome> chroms = codec.decode(batch.data);
 								fitnessFunc.evaluateFitnessMT(chroms);
 								
 								if (active) {
-									System.out.println("  Finished evaluation.");
-									out.writeObject(chroms);
+									System.out.println("  Finished evaluation of batch " + batch.id + ".");
+									out.writeObject(new Batch(batch.id, codec.encodeResults(chroms)));
+									// Don't keep references to every batch sent.
+									out.reset();
 								}
 							}
 							break;
@@ -291,6 +323,9 @@ public class Minion {
 						}
 					}
 				}
+				catch (InterruptedException e) {
+					// Terminated.
+				}
 				catch (Exception e) {
 					e.printStackTrace();
 					try {
@@ -301,7 +336,6 @@ public class Minion {
 						e1.printStackTrace();
 					}
 				}
-				request = null;
 			}
 		}
 	}
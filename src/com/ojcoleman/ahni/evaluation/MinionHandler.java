@@ -13,12 +13,12 @@ import java.net.SocketTimeoutException;
 import java.net.URI;
 import java.net.URISyntaxException;
 import java.net.UnknownHostException;
-import java.util.ArrayList;
-import java.util.Iterator;
+import java.util.LinkedList;
 import java.util.List;
 
 import org.apache.log4j.Logger;
 import org.jgapcustomised.Chromosome;
+import org.jgapcustomised.EvaluationData;
 
 import com.ojcoleman.ahni.hyperneat.HyperNEATConfiguration;
 import com.ojcoleman.ahni.util.Exec;
@@ -41,9 +41,11 @@ class MinionHandler extends Thread {
 	protected Socket socket;
 	protected ObjectInputStream in;
 	protected ObjectOutputStream out;
-	protected List<Chromosome> chromsToEval;
-	protected boolean lastEvalFailed = false;
+	protected ChromosomeCodec.Sender codec;
 	protected int failCount = 0;
+	// Ids of batches sent to the minion are increasing, so results of batches from earlier evaluations that are no longer
+	// wanted can be recognised and discarded.
+	protected long nextBatchId = 0;
 	protected int averageMinionEvalTimePerChrom = 0;
 	
 	protected volatile boolean finish = false;
@@ -147,6 +149,7 @@ class MinionHandler extends Thread {
 			if (socket != null) socket.close();
 			// Connect to the instance.
 			socket = new Socket(address, port);
+			codec = new ChromosomeCodec.Sender();
 			out = new ObjectOutputStream(socket.getOutputStream());
 			in = new ObjectInputStream(socket.getInputStream());
 			socket.setSoTimeout(Minion.DEFAULT_READ_TIMEOUT);
@@ -187,7 +190,14 @@ class MinionHandler extends Thread {
 	public synchronized boolean initialiseEvaluation() {
 		try {
 			out.writeObject(new Minion.Request(Minion.Request.Type.INITIALISE_EVALUATION, ff.props.getEvolver().getGeneration()));
-			return ((Boolean) readFromMinion()).booleanValue();
+			out.flush();
+			codec.startEvaluation();
+			Object response = readFromMinion();
+			// Discard the results of batches from a previous evaluation that were evaluated by another minion first.
+			while (response instanceof Minion.Batch) {
+				response = readFromMinion();
+			}
+			return ((Boolean) response).booleanValue();
 		} catch (Exception e) {
 			e.printStackTrace();
 		}
@@ -196,69 +206,111 @@ class MinionHandler extends Thread {
 		return false;
 	}
 	
-	public synchronized void setChromosomesToEvaluate(List<Chromosome> chroms) {
-		chromsToEval = chroms;
-	}
-	public List<Chromosome> getChromosomesToEvaluate() {
-		return chromsToEval;
-	}
-	
-	synchronized boolean evaluateChroms() {
+	/**
+	 * Evaluate Chromosomes taken from the given queue until all the Chromosomes in the queue have been evaluated or the
+	 * minion fails. Up to maxBatches batches are sent to the minion before waiting for a result, so that the minion
+	 * always has something to do. If the minion fails the Chromosomes it was evaluating are returned to the queue.
+	 * 
+	 * @param queue The queue to take Chromosomes from.
+	 * @param batchSize The maximum number of Chromosomes in a batch.
+	 * @param maxBatches The maximum number of batches the minion may have that it hasn't returned results for.
+	 * @return false if the minion failed.
+	 */
+	synchronized boolean evaluate(MinionWorkQueue queue, int batchSize, int maxBatches) {
+		// The batches sent and not yet returned, oldest first. The minion processes batches in the order they're sent.
+		LinkedList<SentBatch> inFlight = new LinkedList<SentBatch>();
+		int inFlightChromCount = 0;
 		try {
-			List<Chromosome> dummies = new ArrayList<Chromosome>();
-			// Create dummy chromosomes that don't reference a Species to avoid 
-			// serialisation of the Species and all the Chromosomes, etc that they contain.
-			for (Chromosome c : chromsToEval) {
-				Chromosome dummy = (Chromosome) c.clone();
-				dummy.resetSpecie();
-				dummies.add(dummy);
-			}
-			out.writeObject(new Minion.Request(Minion.Request.Type.EVALUATE, dummies));
-			
-			// Can take a while for evaluations to complete.
-			// Wait twice as long as the longest average time for this minion, or 10 minutes if this is first time.
-			int avgTimePerChrom = averageMinionEvalTimePerChrom == 0 ? 10 * 60 * 1000 : averageMinionEvalTimePerChrom;
-			socket.setSoTimeout(avgTimePerChrom * chromsToEval.size() * 2);
-			try {
-				long evalStart = System.currentTimeMillis();
-				Object response = readFromMinion();
-				long evalEnd = System.currentTimeMillis();
+			long lastResultTime = 0;
+			while (!queue.isFinished()) {
+				while (inFlight.size() < maxBatches) {
+					List<Chromosome> chroms = queue.take(this, batchSize);
+					if (chroms.isEmpty()) {
+						break;
+					}
+					if (inFlight.isEmpty()) {
+						lastResultTime = System.currentTimeMillis();
+					}
+					inFlight.add(send(chroms));
+					inFlightChromCount += chroms.size();
+				}
+				
+				if (inFlight.isEmpty()) {
+					// Nothing to do for now, but a Chromosome may be returned to the queue if another minion fails.
+					queue.await(1000);
+					continue;
+				}
+				
+				// Can take a while for evaluations to complete.
+				// Wait twice as long as the average time for this minion, or 10 minutes if this is first time.
+				int avgTimePerChrom = averageMinionEvalTimePerChrom == 0 ? 10 * 60 * 1000 : averageMinionEvalTimePerChrom;
+				socket.setSoTimeout((int) Math.min(Integer.MAX_VALUE, (long) avgTimePerChrom * inFlightChromCount * 2));
+				
+				SentBatch sent = inFlight.getFirst();
+				Minion.Batch result;
+				do {
+					result = (Minion.Batch) readFromMinion();
+				} while (result.id < sent.id);
+				long resultTime = System.currentTimeMillis();
 				socket.setSoTimeout(Minion.DEFAULT_READ_TIMEOUT);
+				assert result.id == sent.id : result.id + "==" + sent.id;
+				inFlight.removeFirst();
 				
-				Iterator<Chromosome> chromsEvaluated = ((List<Chromosome>) response).iterator();
-				for (Chromosome chrom : chromsToEval) {
-					Chromosome evaluated = chromsEvaluated.next();
-					assert ((long) chrom.getId() == (long) evaluated.getId()) : chrom.getId() + "==" + evaluated.getId(); 
-					chrom.setFitnessValue(evaluated.getFitnessValue());
-					chrom.setFitnessValues(evaluated.getFitnessValues());
-					chrom.setPerformanceValue(evaluated.getPerformanceValue());
-					chrom.setPerformanceValues(evaluated.getAllPerformanceValues());
-					chrom.behaviours = evaluated.behaviours;
+				List<EvaluationData> results = codec.decodeResults(result.data, sent.chroms);
+				for (int i = 0; i < sent.chroms.size(); i++) {
+					queue.evaluated(sent.chroms.get(i), results.get(i));
 				}
-				lastEvalFailed = false;
-				updateAverageMinionEvalTimePerChrom((int) (evalEnd - evalStart) / chromsToEval.size());
-				return true;
-			} catch (SocketTimeoutException e) {
-				lastEvalFailed = true;
+				inFlightChromCount -= sent.chroms.size();
+				// Batches are evaluated one after the other, so the time since the previous result arrived (or since this
+				// batch was sent if none were in flight) is the time taken to evaluate this batch.
+				updateAverageMinionEvalTimePerChrom((int) (resultTime - lastResultTime) / sent.chroms.size());
+				lastResultTime = resultTime;
+			}
+			// Any batches still in flight were evaluated by other minions, their results are discarded when they arrive.
+			return true;
+		} catch (SocketTimeoutException e) {
+			logger.error("Evaluation timed out on " + this);
+			// Perhaps the evaluation time has suddenly increased. The results of the batches in flight are discarded
+			// if they arrive later.
+			increaseAverageMinionEvalTime();
+			try {
 				socket.setSoTimeout(Minion.DEFAULT_READ_TIMEOUT);
-				return false;
+			} catch (IOException e1) {
+				connected = false;
 			}
 		} catch (Exception e) {
 			e.printStackTrace();
+			logger.error("Evaluation failed on " + this);
+			connected = false;
+			failCount++;
+		}
+		for (SentBatch batch : inFlight) {
+			queue.failed(this, batch.chroms);
 		}
-		lastEvalFailed = true;
-		connected = false;
-		failCount++;
-		logger.error("Evaluation failed on " + this);
 		return false;
 	}
 	
-	public String toString() {
-		return "Minion " + host + ":" + port + " (IP " + address.getHostAddress() + ")";
+	private SentBatch send(List<Chromosome> chroms) throws IOException {
+		SentBatch batch = new SentBatch(nextBatchId++, chroms);
+		out.writeObject(new Minion.Request(Minion.Request.Type.EVALUATE, new Minion.Batch(batch.id, codec.encode(chroms))));
+		// Don't keep references to every batch sent.
+		out.reset();
+		out.flush();
+		return batch;
 	}
 	
-	public synchronized boolean lastEvalFailed() {
-		return lastEvalFailed;
+	private static class SentBatch {
+		final long id;
+		final List<Chromosome> chroms;
+		
+		SentBatch(long id, List<Chromosome> chroms) {
+			this.id = id;
+			this.chroms = chroms;
+		}
+	}
+	
+	public String toString() {
+		return "Minion " + host + ":" + port + " (IP " + address.getHostAddress() + ")";
 	}
 	
 	public synchronized void dispose() {
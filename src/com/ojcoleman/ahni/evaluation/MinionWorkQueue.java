@@ -0,0 +1,163 @@
+package com.ojcoleman.ahni.evaluation;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Set;
+
+import org.jgapcustomised.Chromosome;
+import org.jgapcustomised.EvaluationData;
+
+/**
+ * The chromosomes of one generation that are to be evaluated by minions. Each {@link MinionHandler} pulls small batches
+ * from the queue for its minion as it has capacity for them, so faster minions evaluate more chromosomes. If a batch
+ * fails the chromosomes in it that have not been evaluated are put back at the front of the queue individually, to be
+ * retried by any minion. When no chromosomes are waiting a minion that is idle may "steal" chromosomes that are still
+ * being evaluated by other minions (it evaluates them as well, and whichever result arrives first is used), so a slow or
+ * stalled minion does not hold up the generation. See {@link BulkFitnessFunctionMT#MINION_BATCH_SIZE}.
+ *
+ * All methods are thread-safe.
+ */
+class MinionWorkQueue {
+	private final LinkedList<Chromosome> pending;
+	// The chromosomes being evaluated by at least one minion, in the order they were taken, with the minions evaluating them.
+	private final LinkedHashMap<Chromosome, List<MinionHandler>> inFlight;
+	private final Set<Chromosome> evaluated;
+	private final int size;
+	private final boolean steal;
+	private int retryCount = 0;
+	private int stolenCount = 0;
+
+	/**
+	 * @param chroms The chromosomes to evaluate.
+	 * @param steal Whether idle minions may evaluate chromosomes that are still being evaluated by other minions.
+	 */
+	public MinionWorkQueue(List<Chromosome> chroms, boolean steal) {
+		pending = new LinkedList<Chromosome>(chroms);
+		inFlight = new LinkedHashMap<Chromosome, List<MinionHandler>>();
+		evaluated = new HashSet<Chromosome>();
+		size = chroms.size();
+		this.steal = steal;
+	}
+
+	/**
+	 * Get the next chromosomes for a minion to evaluate. If none are waiting and stealing is enabled then chromosomes
+	 * being evaluated by other minions are returned.
+	 *
+	 * @param minion The minion that will evaluate the chromosomes.
+	 * @param max The maximum number of chromosomes to return.
+	 * @return The chromosomes, which may be an empty list if there are none available.
+	 */
+	public synchronized List<Chromosome> take(MinionHandler minion, int max) {
+		List<Chromosome> batch = new ArrayList<Chromosome>(max);
+		while (batch.size() < max && !pending.isEmpty()) {
+			Chromosome chrom = pending.removeFirst();
+			addInFlight(chrom, minion);
+			batch.add(chrom);
+		}
+		if (batch.isEmpty() && steal) {
+			// Steal the most recently taken first, as the minion evaluating them is likely to get to them last.
+			List<Chromosome> candidates = new ArrayList<Chromosome>(inFlight.keySet());
+			for (int i = candidates.size() - 1; i >= 0 && batch.size() < max; i--) {
+				List<MinionHandler> minions = inFlight.get(candidates.get(i));
+				// Only steal from one other minion at a time.
+				if (minions.size() == 1 && !minions.contains(minion)) {
+					batch.add(candidates.get(i));
+				}
+			}
+			for (Chromosome chrom : batch) {
+				addInFlight(chrom, minion);
+			}
+			stolenCount += batch.size();
+		}
+		return batch;
+	}
+
+	private void addInFlight(Chromosome chrom, MinionHandler minion) {
+		List<MinionHandler> minions = inFlight.get(chrom);
+		if (minions == null) {
+			minions = new ArrayList<MinionHandler>(2);
+			inFlight.put(chrom, minions);
+		}
+		minions.add(minion);
+	}
+
+	/**
+	 * Record that a minion has evaluated a chromosome.
+	 *
+	 * @param chrom The chromosome given to the minion.
+	 * @param result The evaluation results returned by the minion.
+	 * @return true if this is the first result for the chromosome, in which case its fitness, performance and behaviours
+	 *         have been copied from the result.
+	 */
+	public synchronized boolean evaluated(Chromosome chrom, EvaluationData result) {
+		inFlight.remove(chrom);
+		if (!evaluated.add(chrom)) {
+			return false;
+		}
+		ChromosomeCodec.copyEvaluationData(result, chrom);
+		if (isFinished()) {
+			notifyAll();
+		}
+		return true;
+	}
+
+	/**
+	 * Record that a minion failed to evaluate the given chromosomes. Those that have not been evaluated, and are not
+	 * being evaluated by another minion, are put back at the front of the queue.
+	 */
+	public synchronized void failed(MinionHandler minion, List<Chromosome> chroms) {
+		for (int i = chroms.size() - 1; i >= 0; i--) {
+			Chromosome chrom = chroms.get(i);
+			List<MinionHandler> minions = inFlight.get(chrom);
+			if (minions == null || !minions.remove(minion)) {
+				continue;
+			}
+			if (minions.isEmpty()) {
+				inFlight.remove(chrom);
+				pending.addFirst(chrom);
+				retryCount++;
+			}
+		}
+		notifyAll();
+	}
+
+	/**
+	 * @return true iff all the chromosomes have been evaluated.
+	 */
+	public synchronized boolean isFinished() {
+		return evaluated.size() == size;
+	}
+
+	/**
+	 * Wait until all the chromosomes have been evaluated, more work is available or the timeout expires.
+	 */
+	public synchronized void await(long timeout) throws InterruptedException {
+		if (!isFinished()) {
+			wait(timeout);
+		}
+	}
+
+	/**
+	 * Wake up threads waiting in {@link #await(long)}, for example because a minion has become available.
+	 */
+	public synchronized void wake() {
+		notifyAll();
+	}
+
+	/**
+	 * @return The number of times a chromosome was put back in the queue because a minion failed to evaluate it.
+	 */
+	public synchronized int getRetryCount() {
+		return retryCount;
+	}
+
+	/**
+	 * @return The number of times a chromosome was stolen by an idle minion.
+	 */
+	public synchronized int getStolenCount() {
+		return stolenCount;
+	}
+}
@@ -20,6 +20,15 @@ public abstract class Behaviour implements Serializable {
 	 */
 	public abstract double defaultThreshold();
 	
+	/**
+	 * Subclasses should override this method to return true if {@link #distanceFrom(Behaviour)} is a metric (in
+	 * particular if it satisfies the triangle inequality), which allows {@link NoveltySearch} to index the behaviours
+	 * to find the nearest ones quickly. Default is false.
+	 */
+	public boolean isMetric() {
+		return false;
+	}
+	
 	/**
 	 * Subclasses may override this method to render a list of behaviours as an image for logging/visualisation purposes.
 	 */
@@ -0,0 +1,199 @@
+package com.ojcoleman.ahni.evaluation.novelty;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * <p>
+ * A vantage-point tree of Behaviours, for finding the Behaviours near a given Behaviour without measuring the distance
+ * to all of them. Each internal node holds a vantage point and a radius: Behaviours closer to the vantage point than
+ * the radius are in the inside subtree and the rest are in the outside subtree, so whole subtrees can be skipped using
+ * the triangle inequality. The distances given by {@link Behaviour#distanceFrom(Behaviour)} must therefore be a metric,
+ * see {@link Behaviour#isMetric()}.
+ * </p>
+ * <p>
+ * Behaviours may be added at any time. A new Behaviour is put in the leaf it belongs in, and a leaf is split in two
+ * when it becomes too large. Searches may be performed by multiple threads at once, but not while Behaviours are being
+ * added.
+ * </p>
+ */
+class BehaviourIndex {
+	private static final int LEAF_SIZE = 16;
+	// Allowance for rounding error in the distances when skipping subtrees, so that no Behaviour that should be found
+	// is missed.
+	private static final double SLACK = 1e-9;
+
+	private static class Node {
+		// Only set for leaf nodes.
+		List<Behaviour> items = new ArrayList<Behaviour>();
+		// A leaf that couldn't be split (eg because it contains only copies of the same Behaviour) isn't split again
+		// until it has grown to this size.
+		int splitSize = LEAF_SIZE;
+
+		// Only set for internal nodes.
+		Behaviour vantage;
+		double radius;
+		Node inside, outside;
+	}
+
+	/**
+	 * The k smallest distances offered so far. Used to collect the nearest neighbours of a Behaviour over one or more
+	 * indexes and/or lists of Behaviours.
+	 */
+	static class Nearest {
+		// Max-heap of the distances.
+		private final double[] heap;
+		private int size;
+
+		Nearest(int k) {
+			heap = new double[k];
+		}
+
+		void offer(double d) {
+			assert (d >= 0 && d <= 1) : "Values returned by implementations of Behaviour.distanceFrom() must be in the range [0, 1] but a value of " + d + " was found.";
+			if (size < heap.length) {
+				int i = size++;
+				while (i > 0 && heap[(i - 1) / 2] < d) {
+					heap[i] = heap[(i - 1) / 2];
+					i = (i - 1) / 2;
+				}
+				heap[i] = d;
+			} else if (heap.length > 0 && d < heap[0]) {
+				int i = 0;
+				while (true) {
+					int child = 2 * i + 1;
+					if (child >= size)
+						break;
+					if (child + 1 < size && heap[child + 1] > heap[child])
+						child++;
+					if (heap[child] <= d)
+						break;
+					heap[i] = heap[child];
+					i = child;
+				}
+				heap[i] = d;
+			}
+		}
+
+		/**
+		 * @return The distance a Behaviour must be closer than to be one of the nearest.
+		 */
+		double bound() {
+			if (heap.length == 0)
+				return Double.NEGATIVE_INFINITY;
+			return size < heap.length ? Double.POSITIVE_INFINITY : heap[0];
+		}
+
+		/**
+		 * @return The distances, in ascending order.
+		 */
+		double[] getDistances() {
+			double[] distances = Arrays.copyOf(heap, size);
+			Arrays.sort(distances);
+			return distances;
+		}
+	}
+
+	private Node root = new Node();
+	private int size;
+
+	public void add(Behaviour b) {
+		Node node = root;
+		while (node.items == null) {
+			node = b.distanceFrom(node.vantage) < node.radius ? node.inside : node.outside;
+		}
+		node.items.add(b);
+		size++;
+		if (node.items.size() > node.splitSize) {
+			split(node);
+		}
+	}
+
+	public int size() {
+		return size;
+	}
+
+	private static void split(Node node) {
+		List<Behaviour> items = node.items;
+		Behaviour vantage = items.get(0);
+		double[] dist = new double[items.size()];
+		for (int i = 1; i < items.size(); i++) {
+			dist[i] = items.get(i).distanceFrom(vantage);
+		}
+		double[] sorted = Arrays.copyOfRange(dist, 1, dist.length);
+		Arrays.sort(sorted);
+		double radius = sorted[sorted.length / 2];
+
+		Node inside = new Node();
+		Node outside = new Node();
+		for (int i = 1; i < items.size(); i++) {
+			(dist[i] < radius ? inside : outside).items.add(items.get(i));
+		}
+		if (inside.items.isEmpty()) {
+			// Most of the Behaviours are the same distance from the vantage point, try again when there are more.
+			node.splitSize = items.size() * 2;
+			return;
+		}
+		node.vantage = vantage;
+		node.radius = radius;
+		node.inside = inside;
+		node.outside = outside;
+		node.items = null;
+	}
+
+	/**
+	 * Offer the distances from the given Behaviour to the Behaviours in this index to the given Nearest. Only the
+	 * distances that may be among the nearest are offered.
+	 */
+	public void nearest(Behaviour b, Nearest nearest) {
+		nearest(root, b, nearest);
+	}
+
+	private static void nearest(Node node, Behaviour b, Nearest nearest) {
+		if (node.items != null) {
+			for (Behaviour b2 : node.items) {
+				nearest.offer(b.distanceFrom(b2));
+			}
+			return;
+		}
+		double d = b.distanceFrom(node.vantage);
+		nearest.offer(d);
+		// Search the side b is on first, as it's more likely to contain the nearest Behaviours.
+		if (d < node.radius) {
+			nearest(node.inside, b, nearest);
+			if (d + nearest.bound() + SLACK > node.radius)
+				nearest(node.outside, b, nearest);
+		} else {
+			nearest(node.outside, b, nearest);
+			if (d - nearest.bound() - SLACK < node.radius)
+				nearest(node.inside, b, nearest);
+		}
+	}
+
+	/**
+	 * @return The number of Behaviours in this index that are closer to the given Behaviour than the given distance,
+	 *         counting no more than max.
+	 */
+	public int countWithin(Behaviour b, double distance, int max) {
+		return countWithin(root, b, distance, max, 0);
+	}
+
+	private static int countWithin(Node node, Behaviour b, double distance, int max, int count) {
+		if (node.items != null) {
+			for (int i = 0; i < node.items.size() && count < max; i++) {
+				if (b.distanceFrom(node.items.get(i)) < distance)
+					count++;
+			}
+			return count;
+		}
+		double d = b.distanceFrom(node.vantage);
+		if (d < distance)
+			count++;
+		if (count < max && d - distance - SLACK < node.radius)
+			count = countWithin(node.inside, b, distance, max, count);
+		if (count < max && d + distance + SLACK > node.radius)
+			count = countWithin(node.outside, b, distance, max, count);
+		return count;
+	}
+}
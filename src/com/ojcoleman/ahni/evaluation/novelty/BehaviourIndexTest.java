@@ -0,0 +1,160 @@
+package com.ojcoleman.ahni.evaluation.novelty;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import org.apache.commons.math3.linear.ArrayRealVector;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Checks that {@link BehaviourIndex} finds the same nearest distances and counts as measuring the distance to every
+ * Behaviour, as NoveltySearch did before the index was added.
+ */
+public class BehaviourIndexTest {
+	private final Random random = new Random(0);
+
+	/**
+	 * @param levels If greater than 0 each value is one of this many levels, so there are many duplicate Behaviours
+	 *            and equal distances.
+	 */
+	private RealVectorBehaviour randomBehaviour(int dimensions, int levels) {
+		double[] p = new double[dimensions];
+		for (int i = 0; i < dimensions; i++) {
+			p[i] = levels > 0 ? random.nextInt(levels) / (levels - 1.0) : random.nextDouble();
+		}
+		return new RealVectorBehaviour(new ArrayRealVector(p, false));
+	}
+
+	/**
+	 * @return The k smallest distances from b to the given Behaviours, in ascending order.
+	 */
+	private double[] linearNearest(Behaviour b, List<Behaviour> all, int k) {
+		double[] dist = new double[all.size()];
+		for (int i = 0; i < dist.length; i++) {
+			dist[i] = b.distanceFrom(all.get(i));
+		}
+		Arrays.sort(dist);
+		return Arrays.copyOf(dist, Math.min(k, dist.length));
+	}
+
+	private int linearCountWithin(Behaviour b, List<Behaviour> all, double distance, int max) {
+		int count = 0;
+		for (Behaviour b2 : all) {
+			if (b.distanceFrom(b2) < distance && count < max)
+				count++;
+		}
+		return count;
+	}
+
+	private void assertSameDistances(double[] expected, double[] actual) {
+		Assert.assertEquals(expected.length, actual.length);
+		for (int i = 0; i < expected.length; i++) {
+			// The index must give exactly the same values, so the novelty doesn't change.
+			Assert.assertEquals(Double.doubleToLongBits(expected[i]), Double.doubleToLongBits(actual[i]));
+		}
+	}
+
+	/**
+	 * Adds Behaviours to an index one at a time, querying it as it grows.
+	 */
+	private void checkIndex(int dimensions, int levels, int size) {
+		BehaviourIndex index = new BehaviourIndex();
+		List<Behaviour> all = new ArrayList<Behaviour>();
+		int[] ks = { 0, 1, 5, 30, size + 10 };
+		for (int i = 0; i < size; i++) {
+			Behaviour b = randomBehaviour(dimensions, levels);
+			index.add(b);
+			all.add(b);
+			Assert.assertEquals(all.size(), index.size());
+
+			if (i % 17 == 0 || i == size - 1) {
+				for (int q = 0; q < 10; q++) {
+					// Query with both new Behaviours and ones in the index.
+					Behaviour query = q % 2 == 0 ? randomBehaviour(dimensions, levels) : all.get(random.nextInt(all.size()));
+					for (int k : ks) {
+						BehaviourIndex.Nearest nearest = new BehaviourIndex.Nearest(k);
+						index.nearest(query, nearest);
+						assertSameDistances(linearNearest(query, all, k), nearest.getDistances());
+					}
+					double distance = random.nextDouble() * 0.3;
+					for (int max : new int[] { 1, 30, Integer.MAX_VALUE }) {
+						Assert.assertEquals(linearCountWithin(query, all, distance, max), index.countWithin(query, distance, max));
+						Assert.assertEquals(linearCountWithin(query, all, 0.0000001, max), index.countWithin(query, 0.0000001, max));
+					}
+				}
+			}
+		}
+	}
+
+	@Test
+	public void testContinuous() {
+		for (int dimensions = 1; dimensions <= 5; dimensions++) {
+			checkIndex(dimensions, 0, 500);
+		}
+	}
+
+	@Test
+	public void testDuplicates() {
+		// Few levels give many duplicate Behaviours and equal distances.
+		for (int dimensions = 1; dimensions <= 4; dimensions++) {
+			checkIndex(dimensions, 3, 400);
+		}
+	}
+
+	@Test
+	public void testAllIdentical() {
+		BehaviourIndex index = new BehaviourIndex();
+		List<Behaviour> all = new ArrayList<Behaviour>();
+		for (int i = 0; i < 200; i++) {
+			Behaviour b = new RealVectorBehaviour(new ArrayRealVector(new double[] { 0.5, 0.5 }));
+			index.add(b);
+			all.add(b);
+		}
+		Behaviour query = randomBehaviour(2, 0);
+		BehaviourIndex.Nearest nearest = new BehaviourIndex.Nearest(30);
+		index.nearest(query, nearest);
+		assertSameDistances(linearNearest(query, all, 30), nearest.getDistances());
+		Assert.assertEquals(all.size(), index.countWithin(all.get(0), 0.0000001, Integer.MAX_VALUE));
+	}
+
+	@Test
+	public void testKLargerThanIndex() {
+		BehaviourIndex index = new BehaviourIndex();
+		List<Behaviour> all = new ArrayList<Behaviour>();
+		Behaviour query = randomBehaviour(3, 0);
+		BehaviourIndex.Nearest nearest = new BehaviourIndex.Nearest(10);
+		index.nearest(query, nearest);
+		Assert.assertEquals(0, nearest.getDistances().length);
+		for (int i = 0; i < 4; i++) {
+			Behaviour b = randomBehaviour(3, 0);
+			index.add(b);
+			all.add(b);
+		}
+		nearest = new BehaviourIndex.Nearest(10);
+		index.nearest(query, nearest);
+		assertSameDistances(linearNearest(query, all, 10), nearest.getDistances());
+	}
+
+	@Test
+	public void testSeveralIndexes() {
+		// As NoveltySearch does, collect the nearest over the archive and the current population.
+		BehaviourIndex archive = new BehaviourIndex();
+		BehaviourIndex population = new BehaviourIndex();
+		List<Behaviour> all = new ArrayList<Behaviour>();
+		for (int i = 0; i < 1000; i++) {
+			Behaviour b = randomBehaviour(3, i % 2 == 0 ? 4 : 0);
+			(i % 3 == 0 ? population : archive).add(b);
+			all.add(b);
+		}
+		for (int q = 0; q < 50; q++) {
+			Behaviour query = randomBehaviour(3, q % 2 == 0 ? 4 : 0);
+			BehaviourIndex.Nearest nearest = new BehaviourIndex.Nearest(30);
+			archive.nearest(query, nearest);
+			population.nearest(query, nearest);
+			assertSameDistances(linearNearest(query, all, 30), nearest.getDistances());
+		}
+	}
+}
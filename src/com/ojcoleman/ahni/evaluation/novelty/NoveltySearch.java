@@ -1,7 +1,6 @@
 package com.ojcoleman.ahni.evaluation.novelty;
 
 import java.util.ArrayList;
-import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
 import java.util.Random;
@@ -52,6 +51,10 @@ public class NoveltySearch implements Configurable {
 	public List<Behaviour> archive;
 	List<Behaviour> currentPop;
 	List<Behaviour> toArchive;
+	// Indexes of the archive and current population, used to find the nearest behaviours if they are metric (see
+	// Behaviour.isMetric()). null if they contain a behaviour that isn't.
+	BehaviourIndex archiveIndex;
+	BehaviourIndex currentPopIndex;
 	int noNewArchiveCount; // count number of generations in a row for which no individual added to archive.
 	int noNewArchiveGenerationsThreshold = 10;
 	int tooManyArchiveAdditionsThreshold;
@@ -92,6 +95,8 @@ public class NoveltySearch implements Configurable {
 		archive = new ArrayList<Behaviour>(k);
 		toArchive = Collections.synchronizedList(new ArrayList<Behaviour>());
 		currentPop = new ArrayList<Behaviour>();
+		archiveIndex = new BehaviourIndex();
+		currentPopIndex = new BehaviourIndex();
 		noNewArchiveCount = 0;
 	}
 
@@ -104,25 +109,27 @@ public class NoveltySearch implements Configurable {
 	public double testNovelty(Behaviour b) {
 		// System.err.println(b);
 		int totalSize = archive.size() + currentPop.size();
-		double[] dist = new double[totalSize];
-		int i = 0;
-		int inArchiveCount = 0;
-		for (Behaviour b2 : archive) {
-			dist[i] = b.distanceFrom(b2);
-			assert (dist[i] >= 0 && dist[i] <= 1) : "Values returned by implementations of Behaviour.distanceFrom() must be in the range [0, 1] but a value of " + dist[i] + " was found.";
-			if (dist[i] < 0.0000001) inArchiveCount++;
-			i++;
-		}
 		assert currentPop.size() > 0 : "The current population in NoveltySearch has zero size.";
-		for (Behaviour b2 : currentPop) {
-			dist[i] = b.distanceFrom(b2);
-			assert (dist[i] >= 0 && dist[i] <= 1) : "Values returned by implementations of Behaviour.distanceFrom() must be in the range [0, 1] but a value of " + dist[i] + " was found.";
-			i++;
-		}
 		int kTemp = Math.min(totalSize, this.k);
-		Arrays.sort(dist);
+		BehaviourIndex.Nearest nearest = new BehaviourIndex.Nearest(kTemp);
+		int inArchiveCount = 0;
+		if (b.isMetric() && archiveIndex != null && currentPopIndex != null) {
+			archiveIndex.nearest(b, nearest);
+			currentPopIndex.nearest(b, nearest);
+			inArchiveCount = archiveIndex.countWithin(b, 0.0000001, k);
+		} else {
+			for (Behaviour b2 : archive) {
+				double d = b.distanceFrom(b2);
+				if (d < 0.0000001) inArchiveCount++;
+				nearest.offer(d);
+			}
+			for (Behaviour b2 : currentPop) {
+				nearest.offer(b.distanceFrom(b2));
+			}
+		}
+		double[] dist = nearest.getDistances();
 		double avgDist = 0;
-		for (i = 0; i < kTemp; i++) {
+		for (int i = 0; i < kTemp; i++) {
 			avgDist += dist[i];
 		}
 		avgDist /= kTemp;
@@ -143,7 +150,7 @@ public class NoveltySearch implements Configurable {
 	
 				}
 				// If the archive and toArchive queue don't contain a similar behaviour, add it to the archive.
-				if (!containsSimilar(toArchive, b, archiveThreshold) && !containsSimilar(archive, b, archiveThreshold)) {
+				if (!containsSimilar(toArchive, b, archiveThreshold) && !archiveContainsSimilar(b, archiveThreshold)) {
 					toArchive.add(b);
 				}
 			}
@@ -152,6 +159,13 @@ public class NoveltySearch implements Configurable {
 		return avgDist;
 	}
 
+	private boolean archiveContainsSimilar(Behaviour b, double threshold) {
+		if (b.isMetric() && archiveIndex != null) {
+			return archiveIndex.countWithin(b, threshold, 1) > 0;
+		}
+		return containsSimilar(archive, b, threshold);
+	}
+
 	private boolean containsSimilar(List<Behaviour> behaviours, Behaviour b, double threshold) {
 		if (behaviours.isEmpty())
 			return false;
@@ -170,6 +184,10 @@ public class NoveltySearch implements Configurable {
 	 */
 	public synchronized void setCurrentPopulation(List<Behaviour> behaviours) {
 		currentPop = behaviours;
+		currentPopIndex = new BehaviourIndex();
+		for (Behaviour b : behaviours) {
+			addToIndex(b, true);
+		}
 	}
 
 	/**
@@ -178,6 +196,20 @@ public class NoveltySearch implements Configurable {
 	 */
 	public synchronized void addToCurrentPopulation(Behaviour b) {
 		currentPop.add(b);
+		addToIndex(b, true);
+	}
+
+	private void addToIndex(Behaviour b, boolean currentPopulation) {
+		BehaviourIndex index = currentPopulation ? currentPopIndex : archiveIndex;
+		if (index != null) {
+			if (b.isMetric()) {
+				index.add(b);
+			} else if (currentPopulation) {
+				currentPopIndex = null;
+			} else {
+				archiveIndex = null;
+			}
+		}
 	}
 
 	/**
@@ -210,11 +242,15 @@ public class NoveltySearch implements Configurable {
 		}
 
 		archive.addAll(toArchive);
+		for (Behaviour b : toArchive) {
+			addToIndex(b, false);
+		}
 		if (properties.getEvolver().getGeneration() % 50 == 0)
 			logger.info("Novelty archive size is now " + archive.size() + (addProbability == 0 ? "  (archive threshold is " + archiveThreshold + ")." : "."));
 
 		toArchive.clear();
 		currentPop = new ArrayList<Behaviour>();
+		currentPopIndex = new BehaviourIndex();
 	}
 
 	public int getArchiveSize() {
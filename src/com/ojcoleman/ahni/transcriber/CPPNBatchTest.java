@@ -0,0 +1,186 @@
+package com.ojcoleman.ahni.transcriber;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.jgapcustomised.Allele;
+import org.jgapcustomised.BulkFitnessFunction;
+import org.jgapcustomised.Chromosome;
+import org.jgapcustomised.ChromosomeMaterial;
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.anji_ahni.neat.ConnectionAllele;
+import com.anji_ahni.neat.ConnectionGene;
+import com.anji_ahni.neat.NeuronAllele;
+import com.anji_ahni.neat.NeuronGene;
+import com.anji_ahni.neat.NeuronType;
+import com.ojcoleman.ahni.hyperneat.HyperNEATEvolver;
+import com.ojcoleman.ahni.hyperneat.Properties;
+
+/**
+ * Checks that queries performed together with {@link HyperNEATTranscriber.CPPN#queryBatch()} give exactly the same
+ * results as performing each one with {@link HyperNEATTranscriber.CPPN#query()}, for random CPPNs with biases, hidden
+ * neurons and, for the ones that can't be compiled, recurrent connections.
+ */
+public class CPPNBatchTest {
+	private static final String[] FUNCTIONS = { "sigmoid", "gaussian", "sine", "absolute", "tanh", "linear", "multiply" };
+
+	private final Random random = new Random(0);
+
+	/**
+	 * The transcriber needs a fitness function, but doesn't use it when the layer sizes are given.
+	 */
+	public static class NoFitness extends BulkFitnessFunction {
+		private static final long serialVersionUID = 1L;
+
+		@Override
+		public void evaluate(List<Chromosome> subjects) {
+		}
+
+		@Override
+		public boolean endRun() {
+			return false;
+		}
+
+		@Override
+		public void dispose() {
+		}
+
+		@Override
+		public void evolutionFinished(HyperNEATEvolver evolver) {
+		}
+	}
+
+	/**
+	 * @param recurrent The recurrency policy for the CPPNs, "disallowed" or "best_guess".
+	 */
+	private HyperNEATTranscriberBain createTranscriber(String recurrent, int cycles) {
+		Properties props = new Properties();
+		props.setProperty(HyperNEATEvolver.FITNESS_FUNCTION_CLASS_KEY + ".class", NoFitness.class.getName());
+		props.setProperty("ann.transcriber.neuron.model", "com.ojcoleman.bain.neuron.rate.SigmoidNeuronCollection");
+		props.setProperty("ann.transcriber.synapse.model", "com.ojcoleman.bain.synapse.rate.FixedSynapseCollection");
+		props.setProperty("ann.hyperneat.feedforward", "true");
+		props.setProperty("ann.hyperneat.enablebias", "true");
+		props.setProperty("ann.hyperneat.includedelta", "true");
+		props.setProperty("ann.hyperneat.includeangle", "true");
+		props.setProperty("ann.hyperneat.leo", "true");
+		props.setProperty("ann.hyperneat.leo.threshold.factordistance", "true");
+		props.setProperty("ann.hyperneat.connection.expression.threshold", "0");
+		props.setProperty("ann.transcriber.connection.weight.min", "-20");
+		props.setProperty("ann.transcriber.connection.weight.max", "20");
+		props.setProperty("ann.hyperneat.width", "3,3,1");
+		props.setProperty("ann.hyperneat.height", "3,3,1");
+		props.setProperty("recurrent", recurrent);
+		props.setProperty("recurrent.cycles", Integer.toString(cycles));
+		return (HyperNEATTranscriberBain) props.singletonObjectProperty(HyperNEATTranscriberBain.class);
+	}
+
+	/**
+	 * A random CPPN chromosome. Hidden neurons are numbered after the inputs and outputs; feed-forward chromosomes
+	 * only connect each neuron to outputs and to hidden neurons with a higher number, recurrent ones also connect
+	 * back to earlier neurons and to themselves.
+	 */
+	private Chromosome createChromosome(long id, int inputs, int outputs, int hidden, boolean recurrent) {
+		List<Allele> alleles = new ArrayList<Allele>();
+		long innovation = 0;
+		for (int i = 0; i < inputs; i++)
+			alleles.add(neuron(NeuronType.INPUT, innovation++, "linear"));
+		// The outputs must all have the same range.
+		String outputFunction = FUNCTIONS[random.nextInt(FUNCTIONS.length)];
+		for (int i = 0; i < outputs; i++)
+			alleles.add(neuron(NeuronType.OUTPUT, innovation++, outputFunction));
+		for (int i = 0; i < hidden; i++)
+			alleles.add(neuron(NeuronType.HIDDEN, innovation++, FUNCTIONS[random.nextInt(FUNCTIONS.length)]));
+
+		int neurons = inputs + outputs + hidden;
+		for (long dest = inputs; dest < neurons; dest++) {
+			boolean isOutput = dest < inputs + outputs;
+			for (long src = 0; src < neurons; src++) {
+				boolean srcIsOutput = src >= inputs && src < inputs + outputs;
+				boolean forward = src < inputs || (!srcIsOutput && (isOutput || src < dest));
+				if ((forward || recurrent) && random.nextDouble() < 0.4) {
+					ConnectionAllele conn = new ConnectionAllele(new ConnectionGene(innovation++, src, dest));
+					conn.setWeight(random.nextGaussian() * 2);
+					alleles.add(conn);
+				}
+			}
+		}
+		return new Chromosome(new ChromosomeMaterial(alleles, null), id, 1, 0);
+	}
+
+	private NeuronAllele neuron(NeuronType type, long innovationId, String function) {
+		return new NeuronAllele(new NeuronGene(type, innovationId, function), random.nextGaussian());
+	}
+
+	private void setRandomCoordinates(HyperNEATTranscriber.CPPN cppn) {
+		cppn.setSourceCoordinates(random.nextDouble(), random.nextDouble(), random.nextDouble());
+		cppn.setTargetCoordinates(random.nextDouble(), random.nextDouble(), random.nextDouble());
+	}
+
+	/**
+	 * Everything the usual get methods give after a query.
+	 */
+	private double[] results(HyperNEATTranscriber.CPPN cppn, int outputs) {
+		double[] result = new double[outputs + 3];
+		for (int o = 0; o < outputs; o++)
+			result[o] = cppn.getOutput(o);
+		result[outputs] = cppn.getRangedWeight();
+		result[outputs + 1] = cppn.getLEO() ? 1 : 0;
+		result[outputs + 2] = cppn.getSynapseLength();
+		return result;
+	}
+
+	private void assertSameResults(double[] expected, double[] actual) {
+		Assert.assertEquals(expected.length, actual.length);
+		for (int i = 0; i < expected.length; i++) {
+			// The batch must give exactly the same values, so the substrate doesn't change.
+			Assert.assertEquals(Double.doubleToLongBits(expected[i]), Double.doubleToLongBits(actual[i]));
+		}
+	}
+
+	/**
+	 * Queries each random CPPN on its own and in batches of several sizes, reusing the CPPN between batches.
+	 */
+	private void checkBatches(HyperNEATTranscriberBain transcriber, boolean recurrent) throws Exception {
+		int inputs = transcriber.getCPPNInputCount();
+		int outputs = transcriber.getCPPNOutputCount();
+		for (int n = 0; n < 30; n++) {
+			Chromosome chrom = createChromosome(n, inputs, outputs, random.nextInt(6), recurrent);
+			HyperNEATTranscriber.CPPN single = transcriber.getCPPN(chrom);
+			HyperNEATTranscriber.CPPN batch = transcriber.getCPPN(chrom);
+			for (int size : new int[] { 1, 7, 200, 0, 65 }) {
+				double[][] expected = new double[size][];
+				batch.clearBatch();
+				for (int q = 0; q < size; q++) {
+					setRandomCoordinates(batch);
+					Assert.assertEquals(q, batch.addToBatch());
+					// The same query on its own, with the coordinates the batch got.
+					for (int i = 0; i < inputs; i++)
+						single.cppnInput[i] = batch.cppnInput[i];
+					single.query();
+					expected[q] = results(single, outputs);
+				}
+				Assert.assertEquals(size, batch.queryBatch());
+				// In any order.
+				for (int q = size - 1; q >= 0; q--) {
+					batch.selectBatchResult(q);
+					assertSameResults(expected[q], results(batch, outputs));
+				}
+			}
+		}
+	}
+
+	@Test
+	public void testFeedForward() throws Exception {
+		checkBatches(createTranscriber("disallowed", 1), false);
+		checkBatches(createTranscriber("disallowed", 3), false);
+	}
+
+	@Test
+	public void testRecurrent() throws Exception {
+		checkBatches(createTranscriber("best_guess", 1), true);
+		checkBatches(createTranscriber("best_guess", 2), true);
+	}
+}
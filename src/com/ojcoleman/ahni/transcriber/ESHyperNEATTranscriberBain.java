@@ -4,13 +4,19 @@ import java.awt.image.BufferedImage;
 import java.io.File;
 import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
-import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
 
 import javax.imageio.ImageIO;
 
@@ -71,6 +77,20 @@ public class ESHyperNEATTranscriberBain extends HyperNEATTranscriberBainBase imp
 	 */
 	public static final String ES_HYPERNEAT_3D_PSEUDO = "ann.eshyperneat.3D.pseudo";
 	
+	/**
+	 * If true then the quadtrees for the neurons explored in each step of the search (the inputs, each iteration of
+	 * hidden neurons and the outputs) are built and pruned in parallel, each thread using its own copy of the CPPN.
+	 * The resulting substrate is the same as when this is false. This is most useful when few individuals are
+	 * evaluated at once (e.g. fitness.max_threads is small), otherwise the threads evaluating the population will
+	 * already keep the processors busy. Default is false.
+	 */
+	public static final String ES_HYPERNEAT_PARALLEL = "ann.eshyperneat.parallel";
+	/**
+	 * The number of threads to use if {@link #ES_HYPERNEAT_PARALLEL} is true. Default is the number of available
+	 * processors.
+	 */
+	public static final String ES_HYPERNEAT_PARALLEL_THREADS = "ann.eshyperneat.parallel.threads";
+	
 	private Properties properties;
 
 	List<Neuron> inputNeurons; // Coordinates are in unit ranges.
@@ -82,6 +102,9 @@ public class ESHyperNEATTranscriberBain extends HyperNEATTranscriberBainBase imp
 	double varianceThreshold = 0.03;
 	double bandThrehold = 0.3;
 	boolean pseudo3D = false;
+	boolean parallel = false;
+	int parallelThreads = 0;
+	ForkJoinPool quadTreePool;
 	
 	double runningAvgHiddenNeuronCount = 16;
 	double runningAvgSynapseCount = 160;
@@ -196,6 +219,13 @@ public class ESHyperNEATTranscriberBain extends HyperNEATTranscriberBainBase imp
 		
 		maxQuadTreeSize = (int) Math.pow(4, maxDepth+0.25);
 		
+		parallel = props.getBooleanProperty(ES_HYPERNEAT_PARALLEL, parallel);
+		if (parallel) {
+			parallelThreads = props.getIntProperty(ES_HYPERNEAT_PARALLEL_THREADS, Runtime.getRuntime().availableProcessors());
+			quadTreePool = new ForkJoinPool(parallelThreads);
+			logger.info("Building quadtrees with " + parallelThreads + " threads.");
+		}
+		
 		((Properties) props).getEvolver().addEventListener(this);
 	}
 
@@ -291,24 +321,21 @@ public class ESHyperNEATTranscriberBain extends HyperNEATTranscriberBainBase imp
 			outputNeuronPositionsCopy.add(new Neuron(output.x, output.y, output.z, output.type));
 		}
 		
-		// Use a hash map to be able to quickly find if a node already exists at a given location.
-		Map<Neuron, Neuron> hiddenNeurons = new HashMap<Neuron, Neuron>((int) runningAvgHiddenNeuronCount);
+		// Use a hash map to be able to quickly find if a node already exists at a given location. Neurons are iterated
+		// over in the order they were found, so that the substrate only depends on the genotype (many positions have the
+		// same hash code, and the order of those in a HashMap can depend on their identity hash codes).
+		Map<Neuron, Neuron> hiddenNeurons = new LinkedHashMap<Neuron, Neuron>((int) runningAvgHiddenNeuronCount);
 		List<Connection> connections = new ArrayList<Connection>((int) runningAvgSynapseCount);
-		List<TempConnection> tempConnections = new ArrayList<TempConnection>((int) runningAvgSynapseCount);
 		
-		// This list is passed to the quadTreeInitialisation and pruneAndExpress methods to be reused for performance reasons.
-		double[] tempStorageForCPPNValues = new double[maxQuadTreeSize];
+		// Each thread building quadtrees takes a workspace (CPPN and buffers) from here, so they are reused for performance reasons.
+		ConcurrentLinkedQueue<QuadTreeWorkspace> workspaces = new ConcurrentLinkedQueue<QuadTreeWorkspace>();
+		workspaces.add(new QuadTreeWorkspace(cppn));
 		
 		// Generate connections from input nodes.
-		for (Neuron input : inputNeuronPositionsCopy) {
-			// Analyse outgoing connectivity pattern from this input.		
-			QuadPoint root = quadTreeInitialisation(cppn, input, true, tempStorageForCPPNValues);
-			
-			// Traverse quad tree and retrieve connections.
-			tempConnections.clear();
-			pruneAndExpress(cppn, input, tempConnections, root, true, tempStorageForCPPNValues);
-			
-			for (TempConnection tempCon : tempConnections) {
+		List<List<TempConnection>> tempConnectionsForNeurons = findConnections(genotype, inputNeuronPositionsCopy, true, workspaces);
+		for (int i = 0; i < inputCount; i++) {
+			Neuron input = inputNeuronPositionsCopy.get(i);
+			for (TempConnection tempCon : tempConnectionsForNeurons.get(i)) {
 				Neuron newHidden = new Neuron(tempCon.targetPoint.x, tempCon.targetPoint.y, tempCon.targetPoint.z, Neuron.HIDDEN);
 				if (hiddenNeurons.containsKey(newHidden)) {
 					newHidden = hiddenNeurons.get(newHidden);
@@ -319,20 +346,16 @@ public class ESHyperNEATTranscriberBain extends HyperNEATTranscriberBainBase imp
 				connections.add(new Connection(input, newHidden, weight));
 			}
 		}
-		tempConnections.clear();
 		
 		// Iteratively search for hidden nodes from those already found.
-		Map<Neuron, Neuron> unexploredHiddenNodes = new HashMap<Neuron, Neuron>(hiddenNeurons); // Use a hash map to quickly be able to find and remove a node.
+		Map<Neuron, Neuron> unexploredHiddenNodes = new LinkedHashMap<Neuron, Neuron>(hiddenNeurons); // Use a hash map to quickly be able to find and remove a node.
 		for (int step = 0; step < esIterations; step++) {
-			for (Neuron hiddenNeuron : unexploredHiddenNodes.values()) {
-				// Analyse outgoing connectivity pattern from hidden neuron.
-				QuadPoint root = quadTreeInitialisation(cppn, hiddenNeuron, true, tempStorageForCPPNValues);
-				
-				// Traverse quad tree and retrieve connections.
-				tempConnections.clear();
-				pruneAndExpress(cppn, hiddenNeuron, tempConnections, root, true, tempStorageForCPPNValues);
-				
-				for (TempConnection tempCon : tempConnections) {
+			// Analyse outgoing connectivity pattern from each hidden neuron, and add the connections in the same order as the neurons were explored.
+			List<Neuron> exploring = new ArrayList<Neuron>(unexploredHiddenNodes.values());
+			tempConnectionsForNeurons = findConnections(genotype, exploring, true, workspaces);
+			for (int i = 0; i < exploring.size(); i++) {
+				Neuron hiddenNeuron = exploring.get(i);
+				for (TempConnection tempCon : tempConnectionsForNeurons.get(i)) {
 					Neuron newHidden = new Neuron(tempCon.targetPoint.x, tempCon.targetPoint.y, tempCon.targetPoint.z, Neuron.HIDDEN);
 					if (hiddenNeurons.containsKey(newHidden)) {
 						newHidden = hiddenNeurons.get(newHidden);
@@ -344,22 +367,18 @@ public class ESHyperNEATTranscriberBain extends HyperNEATTranscriberBainBase imp
 				}
 			}
 			// Remove the just explored nodes.
-			Map<Neuron, Neuron> temp = new HashMap<Neuron, Neuron>(hiddenNeurons);
+			Map<Neuron, Neuron> temp = new LinkedHashMap<Neuron, Neuron>(hiddenNeurons);
 			for (Neuron f : unexploredHiddenNodes.values())
 				temp.remove(f);
 
 			unexploredHiddenNodes = temp;
 		}
-		tempConnections.clear();
 		
 		// Connect discovered hidden neurons to output neurons.
-		for (Neuron outputPos : outputNeuronPositionsCopy) {
-			// Analyse incoming connectivity pattern to this output
-			QuadPoint root = quadTreeInitialisation(cppn, outputPos, false, tempStorageForCPPNValues);
-			tempConnections.clear();
-			pruneAndExpress(cppn, outputPos, tempConnections, root, false, tempStorageForCPPNValues);
-
-			for (TempConnection tempCon : tempConnections) {
+		tempConnectionsForNeurons = findConnections(genotype, outputNeuronPositionsCopy, false, workspaces);
+		for (int i = 0; i < outputCount; i++) {
+			Neuron outputPos = outputNeuronPositionsCopy.get(i);
+			for (TempConnection tempCon : tempConnectionsForNeurons.get(i)) {
 				Neuron source = new Neuron(tempCon.sourcePoint.x, tempCon.sourcePoint.y, tempCon.sourcePoint.z, Neuron.HIDDEN);
 				// New nodes not created here because all the hidden nodes that are connected to an input/hidden node
 				// are already expressed.
@@ -565,6 +584,80 @@ public class ESHyperNEATTranscriberBain extends HyperNEATTranscriberBainBase imp
 		}
 	}
 	
+	/**
+	 * Analyse the outgoing (or incoming) connectivity pattern of each of the given neurons by building and pruning a
+	 * quadtree for each. If {@link #ES_HYPERNEAT_PARALLEL} is enabled the neurons are analysed in parallel, otherwise
+	 * one after the other. Either way the result is the same.
+	 * 
+	 * @param genotype The genotype the CPPN was created from, used to create a CPPN for each additional thread.
+	 * @param neurons The source or target neurons.
+	 * @param outgoing Specifies whether the connections are from (outgoing = true) or to the neurons.
+	 * @param workspaces Idle workspaces to use, new ones are created and added as needed.
+	 * @return For each neuron, in the same order, the connections found.
+	 */
+	private List<List<TempConnection>> findConnections(final Chromosome genotype, final List<Neuron> neurons, final boolean outgoing, final ConcurrentLinkedQueue<QuadTreeWorkspace> workspaces) throws TranscriberException {
+		List<List<TempConnection>> result = new ArrayList<List<TempConnection>>(neurons.size());
+		if (!parallel || neurons.size() < 2) {
+			QuadTreeWorkspace workspace = workspaces.peek();
+			for (Neuron neuron : neurons) {
+				result.add(findConnections(workspace, neuron, outgoing));
+			}
+			return result;
+		}
+		
+		List<Callable<List<TempConnection>>> tasks = new ArrayList<Callable<List<TempConnection>>>(neurons.size());
+		for (final Neuron neuron : neurons) {
+			tasks.add(new Callable<List<TempConnection>>() {
+				@Override
+				public List<TempConnection> call() throws TranscriberException {
+					QuadTreeWorkspace workspace = workspaces.poll();
+					if (workspace == null) {
+						workspace = new QuadTreeWorkspace(new CPPN(genotype));
+					}
+					try {
+						return findConnections(workspace, neuron, outgoing);
+					} finally {
+						workspaces.add(workspace);
+					}
+				}
+			});
+		}
+		try {
+			for (Future<List<TempConnection>> f : quadTreePool.invokeAll(tasks)) {
+				result.add(f.get());
+			}
+		} catch (InterruptedException e) {
+			throw new TranscriberException("Interrupted while building quadtrees.", e);
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof TranscriberException) {
+				throw (TranscriberException) e.getCause();
+			}
+			throw new TranscriberException("Error building quadtrees.", e.getCause());
+		}
+		return result;
+	}
+	
+	private List<TempConnection> findConnections(QuadTreeWorkspace workspace, Neuron neuron, boolean outgoing) {
+		QuadPoint root = quadTreeInitialisation(workspace.cppn, neuron, outgoing, workspace.tempStorageForCPPNValues, workspace.quadPoints);
+		List<TempConnection> tempConnections = new ArrayList<TempConnection>();
+		pruneAndExpress(workspace.cppn, neuron, tempConnections, root, outgoing, workspace.tempStorageForCPPNValues);
+		return tempConnections;
+	}
+	
+	/**
+	 * The CPPN and buffers used by one thread to build and prune quadtrees.
+	 */
+	private class QuadTreeWorkspace {
+		public final CPPN cppn;
+		// Passed to the quadTreeInitialisation and pruneAndExpress methods to be reused for performance reasons.
+		public final double[] tempStorageForCPPNValues = new double[maxQuadTreeSize];
+		public final QuadPointPool quadPoints = new QuadPointPool();
+		
+		public QuadTreeWorkspace(CPPN cppn) {
+			this.cppn = cppn;
+		}
+	}
+	
 	private class Neuron extends Point {
 		public static final int INPUT = 1, HIDDEN = 2, OUTPUT = 3;
 		public int type;
@@ -592,6 +685,18 @@ public class ESHyperNEATTranscriberBain extends HyperNEATTranscriberBainBase imp
 			children = new QuadPoint[4];
 		}
 		
+		/**
+		 * Reinitialise this point as if newly constructed, see {@link QuadPointPool}.
+		 */
+		void set(double x, double y, double z, double width, int level) {
+			setCoordinates(x, y, z);
+			this.width = width;
+			this.level = level;
+			cppnValue = 0;
+			leo = false;
+			Arrays.fill(children, null);
+		}
+		
 		public String toString() {
 			return super.toString() + ": " + (float) cppnValue;
 		}
@@ -608,6 +713,37 @@ public class ESHyperNEATTranscriberBain extends HyperNEATTranscriberBainBase imp
 		}
 	}
 	
+	/**
+	 * Hands out QuadPoints for building a quadtree, reusing the points of the previous quadtree built with it instead
+	 * of allocating new ones. Not thread-safe.
+	 */
+	public class QuadPointPool {
+		private QuadPoint[] points = new QuadPoint[0];
+		private int used = 0;
+		
+		/**
+		 * Make all the points handed out so far available again. They must no longer be used.
+		 */
+		public void reset() {
+			used = 0;
+		}
+		
+		public QuadPoint get(double x, double y, double z, double width, int level) {
+			if (used == points.length) {
+				points = Arrays.copyOf(points, Math.max(64, used * 2));
+			}
+			QuadPoint p = points[used];
+			if (p == null) {
+				p = new QuadPoint(x, y, z, width, level);
+				points[used] = p;
+			} else {
+				p.set(x, y, z, width, level);
+			}
+			used++;
+			return p;
+		}
+	}
+	
 	public class Connection {
 		public Neuron source, target;
 		double weight;
@@ -650,7 +786,21 @@ public class ESHyperNEATTranscriberBain extends HyperNEATTranscriberBainBase imp
 	 * @return The root of the generated quadtree, each QuadPoint stores CPPN activation level for its position.
 	 */
 	public QuadPoint quadTreeInitialisation(CPPN cppn, Point n, boolean outgoing, double[] tempStorageForCPPNValues) {
-		QuadPoint root = new QuadPoint(0.5, 0.5, 0.5, 1, 1); // x, y, z, width, level
+		return quadTreeInitialisation(cppn, n, outgoing, tempStorageForCPPNValues, null);
+	}
+	
+	/**
+	 * Creates a quadtree as for {@link #quadTreeInitialisation(CPPN, Point, boolean, double[])}, taking the QuadPoints
+	 * from the given pool.
+	 * 
+	 * @param quadPoints The pool to take QuadPoints from, or null to allocate new ones. The pool is reset, so any
+	 *            quadtree previously built from it must no longer be used.
+	 */
+	public QuadPoint quadTreeInitialisation(CPPN cppn, Point n, boolean outgoing, double[] tempStorageForCPPNValues, QuadPointPool quadPoints) {
+		if (quadPoints != null) {
+			quadPoints.reset();
+		}
+		QuadPoint root = newQuadPoint(quadPoints, 0.5, 0.5, 0.5, 1, 1); // x, y, z, width, level
 		ArrayDeque<QuadPoint> queue = new ArrayDeque<QuadPoint>(maxQuadTreeSize);
 		queue.add(root);
 
@@ -673,17 +823,17 @@ public class ESHyperNEATTranscriberBain extends HyperNEATTranscriberBainBase imp
 			double offset = childWidth * 0.5;
 			if (pseudo3D ) {
 				// Hidden nodes located on XZ plane at y = 0.5.
-				parent.children[0] = new QuadPoint(parent.x - offset, 0.5, parent.z - offset, childWidth, childLevel);
-				parent.children[1] = new QuadPoint(parent.x - offset, 0.5, parent.z + offset, childWidth, childLevel);
-				parent.children[2] = new QuadPoint(parent.x + offset, 0.5, parent.z - offset, childWidth, childLevel);
-				parent.children[3] = new QuadPoint(parent.x + offset, 0.5, parent.z + offset, childWidth, childLevel);
+				parent.children[0] = newQuadPoint(quadPoints, parent.x - offset, 0.5, parent.z - offset, childWidth, childLevel);
+				parent.children[1] = newQuadPoint(quadPoints, parent.x - offset, 0.5, parent.z + offset, childWidth, childLevel);
+				parent.children[2] = newQuadPoint(quadPoints, parent.x + offset, 0.5, parent.z - offset, childWidth, childLevel);
+				parent.children[3] = newQuadPoint(quadPoints, parent.x + offset, 0.5, parent.z + offset, childWidth, childLevel);
 			}
 			else {
 				// Hidden nodes located on XY plane.
-				parent.children[0] = new QuadPoint(parent.x - offset, parent.y - offset, 0, childWidth, childLevel);
-				parent.children[1] = new QuadPoint(parent.x - offset, parent.y + offset, 0, childWidth, childLevel);
-				parent.children[2] = new QuadPoint(parent.x + offset, parent.y - offset, 0, childWidth, childLevel);
-				parent.children[3] = new QuadPoint(parent.x + offset, parent.y + offset, 0, childWidth, childLevel);
+				parent.children[0] = newQuadPoint(quadPoints, parent.x - offset, parent.y - offset, 0, childWidth, childLevel);
+				parent.children[1] = newQuadPoint(quadPoints, parent.x - offset, parent.y + offset, 0, childWidth, childLevel);
+				parent.children[2] = newQuadPoint(quadPoints, parent.x + offset, parent.y - offset, 0, childWidth, childLevel);
+				parent.children[3] = newQuadPoint(quadPoints, parent.x + offset, parent.y + offset, 0, childWidth, childLevel);
 			}
 			
 			// Get CPPN output for each child.
@@ -733,6 +883,10 @@ public class ESHyperNEATTranscriberBain extends HyperNEATTranscriberBainBase imp
 		return root;
 	}
 	//static boolean firstTime = true;
+	
+	private QuadPoint newQuadPoint(QuadPointPool quadPoints, double x, double y, double z, double width, int level) {
+		return quadPoints == null ? new QuadPoint(x, y, z, width, level) : quadPoints.get(x, y, z, width, level);
+	}
 
 	/**
 	 * The given quadtree is traversed depth-first until the current node's variance is smaller than the variance threshold
@@ -788,10 +942,12 @@ public class ESHyperNEATTranscriberBain extends HyperNEATTranscriberBainBase imp
 				
 				if (Math.max(Math.min(top, bottom), Math.min(left, right)) > bandThrehold) {
 					TempConnection tc;
+					// Copy the position of the child as the quadtree may be reused (see QuadPointPool).
+					Point childPoint = new Point(child.x, child.y, child.z);
 					if (outgoing) {
-						tc = new TempConnection(neuron, child, child.cppnValue);
+						tc = new TempConnection(neuron, childPoint, child.cppnValue);
 					} else {
-						tc = new TempConnection(child, neuron, child.cppnValue);
+						tc = new TempConnection(childPoint, neuron, child.cppnValue);
 					}
 					connections.add(tc);
 				}
@@ -730,6 +730,15 @@ public abstract class HyperNEATTranscriber<T extends Activator> extends Transcri
 		 * Squared length of the current synapse (set when query() called).
 		 */
 		protected double synapseLength = 0;
+		/**
+		 * Queued queries, see {@link #addToBatch()}: one column of values per CPPN input and output, and the synapse
+		 * length, for each query.
+		 */
+		protected double[][] batchInput;
+		protected double[][] batchOutput;
+		protected double[] batchSynapseLength;
+		protected double[] batchResult;
+		protected int batchSize = 0;
 
 		public CPPN(Chromosome genotype) throws TranscriberException {
 			cppnActivator = cppnTranscriber.transcribe(genotype);
@@ -940,6 +949,16 @@ public abstract class HyperNEATTranscriber<T extends Activator> extends Transcri
 		 * @return The value of the (first) weight output. Other outputs can be retrieved with the various get methods.
 		 */
 		public double query() {
+			prepareInput();
+			cppnActivator.reset();
+			cppnOutput = cppnActivator.next(cppnInput);
+			return getWeight();
+		}
+
+		/**
+		 * Set the inputs derived from the coordinates (deltas and angle) and the synapse length if it is needed.
+		 */
+		protected void prepareInput() {
 			synapseLength = -1; // Reset
 			if (includeDelta || leoThresholdFactorDistance) {
 				double dx = 0, dy = 0, dz = 0;
@@ -966,10 +985,90 @@ public abstract class HyperNEATTranscriber<T extends Activator> extends Transcri
 					angle += 1;
 				cppnInput[cppnIdxAn] = angle;
 			}
+		}
 
-			cppnActivator.reset();
-			cppnOutput = cppnActivator.next(cppnInput);
-			return getWeight();
+		/**
+		 * Queue a query for the current coordinates, to be performed with the other queued queries by
+		 * {@link #queryBatch()}. This is much faster than calling {@link #query()} for each query when many are needed,
+		 * e.g. for all the synapses to a target neuron, as the CPPN network is walked once for the whole batch.
+		 * 
+		 * @return The index of the query in the batch, see {@link #selectBatchResult(int)}.
+		 */
+		public int addToBatch() {
+			prepareInput();
+			if (batchInput == null || batchSize == batchInput[0].length) {
+				int capacity = batchInput == null ? 64 : batchSize * 2;
+				double[][] newInput = new double[cppnInputCount][capacity];
+				if (batchInput != null) {
+					for (int i = 0; i < cppnInputCount; i++)
+						System.arraycopy(batchInput[i], 0, newInput[i], 0, batchSize);
+					batchSynapseLength = Arrays.copyOf(batchSynapseLength, capacity);
+				} else {
+					batchSynapseLength = new double[capacity];
+				}
+				batchInput = newInput;
+			}
+			for (int i = 0; i < cppnInputCount; i++)
+				batchInput[i][batchSize] = cppnInput[i];
+			batchSynapseLength[batchSize] = synapseLength;
+			return batchSize++;
+		}
+
+		/**
+		 * Perform all the queries queued with {@link #addToBatch()}. The results of each are then retrieved by calling
+		 * {@link #selectBatchResult(int)} followed by the usual get methods. The results are the same as if
+		 * {@link #query()} had been called for each query.
+		 * 
+		 * @return The number of queries performed.
+		 */
+		public int queryBatch() {
+			int outputCount = cppnActivator.getOutputCount();
+			if (batchOutput == null || batchOutput.length < outputCount || batchOutput[0].length < batchSize)
+				batchOutput = new double[outputCount][batchInput == null ? 0 : batchInput[0].length];
+			if (cppnActivator instanceof AnjiActivator) {
+				((AnjiActivator) cppnActivator).nextBatch(batchInput, batchSize, batchOutput);
+			} else {
+				for (int k = 0; k < batchSize; k++) {
+					for (int i = 0; i < cppnInputCount; i++)
+						cppnInput[i] = batchInput[i][k];
+					cppnActivator.reset();
+					double[] output = cppnActivator.next(cppnInput);
+					for (int o = 0; o < outputCount; o++)
+						batchOutput[o][k] = output[o];
+				}
+			}
+			if (batchResult == null || batchResult.length != outputCount)
+				batchResult = new double[outputCount];
+			return batchSize;
+		}
+
+		/**
+		 * Make the results of a query performed by {@link #queryBatch()} the current results, so they can be retrieved
+		 * with the usual get methods as after {@link #query()}.
+		 * 
+		 * @param index The index of the query as returned by {@link #addToBatch()}.
+		 */
+		public void selectBatchResult(int index) {
+			for (int i = 0; i < cppnInputCount; i++)
+				cppnInput[i] = batchInput[i][index];
+			for (int o = 0; o < batchResult.length; o++)
+				batchResult[o] = batchOutput[o][index];
+			cppnOutput = batchResult;
+			synapseLength = batchSynapseLength[index];
+		}
+
+		/**
+		 * Remove all queued queries.
+		 */
+		public void clearBatch() {
+			batchSize = 0;
+		}
+
+		/**
+		 * @return The number of queries queued with {@link #addToBatch()}.
+		 */
+		public int getBatchSize() {
+			return batchSize;
 		}
 
 		/**
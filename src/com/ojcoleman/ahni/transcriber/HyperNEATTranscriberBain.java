@@ -214,14 +214,24 @@ public class HyperNEATTranscriberBain extends HyperNEATTranscriberBainBase {
 		
 		int synapseIndex = 0;
 		
-		// query CPPN for substrate neuron parameters.
+		// query CPPN for substrate neuron parameters, all neurons in one batch.
 		boolean[] neuronDisabled = new boolean[neuronCount];
+		cppn.clearBatch();
 		for (int z = 0; z < depth; z++) {
 			for (int y = 0; y < height[z]; y++) {
 				for (int x = 0; x < width[z]; x++) {
 					cppn.resetSourceCoordinates();
 					cppn.setTargetCoordinatesFromGridIndices(x, y, z);
-					cppn.query();
+					cppn.addToBatch();
+				}
+			}
+		}
+		cppn.queryBatch();
+		int batchIndex = 0;
+		for (int z = 0; z < depth; z++) {
+			for (int y = 0; y < height[z]; y++) {
+				for (int x = 0; x < width[z]; x++) {
+					cppn.selectBatchResult(batchIndex++);
 					
 					int bainNeuronIndex = getBainNeuronIndex(x, y, z);
 					int neuronType = 0;
@@ -263,14 +273,26 @@ public class HyperNEATTranscriberBain extends HyperNEATTranscriberBainBase {
 					int sz_start = substrateConnectAll ? 0 : (feedForward ? tz - 1 : 0);
 					int sz_end = substrateConnectAll ? tz : (feedForward ? tz : depth);
 					
+					// Query the synapses from all the source neurons to this target in one batch.
+					cppn.clearBatch();
+					for (int sz = sz_start; sz < sz_end; sz++) {
+						for (int sy = 0; sy < height[sz]; sy++) {
+							for (int sx = 0; sx < width[sz]; sx++) {
+								cppn.setSourceCoordinatesFromGridIndices(sx, sy, sz);
+								cppn.addToBatch();
+							}
+						}
+					}
+					cppn.queryBatch();
+					batchIndex = 0;
+					
 					// Iteration over layers for the source neuron is only used for recurrent networks.
 //					for (int sz = (feedForward ? tz - 1 : 0); sz < (feedForward ? tz : depth); sz++) {
 //					for (int sz = 0; sz < tz; sz++) {
 					for (int sz = sz_start; sz < sz_end; sz++) {
 						for (int sy = 0; sy < height[sz]; sy++) {
 							for (int sx = 0; sx < width[sz]; sx++) {
-								cppn.setSourceCoordinatesFromGridIndices(sx, sy, sz);
-								cppn.query();
+								cppn.selectBatchResult(batchIndex++);
 								int bainNeuronIndexSource = getBainNeuronIndex(sx, sy, sz);
 								int synapseType = 0;
 								if (synapseTypesEnabled) {
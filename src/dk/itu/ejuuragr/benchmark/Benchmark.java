@@ -0,0 +1,113 @@
+package dk.itu.ejuuragr.benchmark;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+
+/**
+ * A single micro benchmark: one operation on a hot path with
+ * one set of parameters. It is run repeatedly for a while to
+ * warm up the JIT, and then measured for the time and the
+ * number of bytes allocated per operation.
+ */
+public abstract class Benchmark {
+
+	private static final int BATCH = 10; // Operations between each look at the clock
+
+	private final String name;
+	private final String params;
+
+	/**
+	 * @param name What is being measured, e.g. "tm.graves".
+	 * @param params The parameters in a readable form, e.g. "n=20 m=4".
+	 */
+	public Benchmark(String name, String params) {
+		this.name = name;
+		this.params = params;
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	public String getParams() {
+		return params;
+	}
+
+	/**
+	 * Performs the operation once.
+	 * @return Something computed from the result, so the JIT
+	 * can not remove the operation.
+	 */
+	protected abstract double operation() throws Exception;
+
+	/**
+	 * Runs the operation for the warm up time and then again
+	 * for the measuring time.
+	 * @param warmupMillis How long to run before measuring.
+	 * @param measureMillis How long to measure for.
+	 * @return The time and allocation per operation.
+	 */
+	public Result run(long warmupMillis, long measureMillis) throws Exception {
+		double sink = 0;
+		long end = System.nanoTime() + warmupMillis * 1000000L;
+		while(System.nanoTime() < end) {
+			for(int i = 0; i < BATCH; i++)
+				sink += operation();
+		}
+
+		long operations = 0;
+		long allocated = allocatedBytes();
+		long start = System.nanoTime();
+		end = start + measureMillis * 1000000L;
+		long now;
+		do {
+			for(int i = 0; i < BATCH; i++)
+				sink += operation();
+			operations += BATCH;
+			now = System.nanoTime();
+		} while(now < end);
+		long time = now - start;
+		allocated = allocated < 0 ? -1 : allocatedBytes() - allocated;
+
+		return new Result(this, (double) time / operations, allocated < 0 ? -1 : (double) allocated / operations, sink);
+	}
+
+	/**
+	 * @return The bytes allocated by the current thread so far,
+	 * or -1 if the JVM can not tell.
+	 */
+	private static long allocatedBytes() {
+		ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+		if(bean instanceof com.sun.management.ThreadMXBean) {
+			com.sun.management.ThreadMXBean sunBean = (com.sun.management.ThreadMXBean) bean;
+			if(sunBean.isThreadAllocatedMemorySupported() && sunBean.isThreadAllocatedMemoryEnabled())
+				return sunBean.getThreadAllocatedBytes(Thread.currentThread().getId());
+		}
+		return -1;
+	}
+
+	/**
+	 * The measurements of one run of a Benchmark.
+	 */
+	public static class Result {
+		public final Benchmark benchmark;
+		public final double nanosPerOperation;
+		public final double bytesPerOperation; // -1 if unknown
+		private final double sink;
+
+		public Result(Benchmark benchmark, double nanosPerOperation, double bytesPerOperation, double sink) {
+			this.benchmark = benchmark;
+			this.nanosPerOperation = nanosPerOperation;
+			this.bytesPerOperation = bytesPerOperation;
+			this.sink = sink;
+		}
+
+		@Override
+		public String toString() {
+			return String.format("%-22s %-28s %14.1f ns/op %12s B/op%s",
+					benchmark.getName(), benchmark.getParams(), nanosPerOperation,
+					bytesPerOperation < 0 ? "n/a" : String.format("%.1f", bytesPerOperation),
+					Double.isNaN(sink) ? " (NaN)" : "");
+		}
+	}
+}
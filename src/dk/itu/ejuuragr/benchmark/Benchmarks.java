@@ -0,0 +1,259 @@
+package dk.itu.ejuuragr.benchmark;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Random;
+
+import org.jgap.Allele;
+import org.jgap.Chromosome;
+import org.jgap.ChromosomeMaterial;
+
+import com.anji.integration.Activator;
+import com.anji.integration.AnjiActivator;
+import com.anji.integration.AnjiNetTranscriber;
+import com.anji.integration.CompiledActivator;
+import com.anji.neat.ConnectionAllele;
+import com.anji.neat.NeatChromosomeUtility;
+import com.anji.neat.NeatConfiguration;
+import com.anji.util.Properties;
+
+import dk.itu.ejuuragr.domain.Simulator;
+import dk.itu.ejuuragr.domain.tmaze.TMaze;
+import dk.itu.ejuuragr.fitness.FitnessEvaluator;
+import dk.itu.ejuuragr.turing.FlatGravesTuringMachine;
+import dk.itu.ejuuragr.turing.GravesTuringMachine;
+import dk.itu.ejuuragr.turing.MinimalTuringMachine;
+import dk.itu.ejuuragr.turing.TuringController;
+import dk.itu.ejuuragr.turing.TuringMachine;
+
+/**
+ * Micro benchmarks of the hot paths of an evolution: the
+ * Turing Machines, activating and transcribing networks,
+ * the NEAT compatibility distance, the T-Maze and a whole
+ * Copy Task episode. Each is run over a range of sizes and
+ * reports the time and allocated bytes per operation, so
+ * optimizations can be compared and regressions caught.
+ *
+ * Run from the project root with the properties folder on
+ * the classpath:
+ *   Benchmarks [filter] [milliseconds per benchmark]
+ * where only the benchmarks whose name contains the filter
+ * are run.
+ */
+public class Benchmarks {
+
+	private static final int STEPS_PER_EPISODE = 25;
+	private static final int[] HIDDEN_NEURONS = new int[]{0, 20, 100};
+
+	public static void main(String[] args) throws Exception {
+		String filter = args.length > 0 ? args[0] : "";
+		long millis = args.length > 1 ? Long.parseLong(args[1]) : 1000;
+
+		List<Benchmark> benchmarks = new ArrayList<Benchmark>();
+		addTuringMachines(benchmarks);
+		addNetworks(benchmarks);
+		addTMaze(benchmarks);
+		addEpisodes(benchmarks);
+
+		for(Benchmark benchmark : benchmarks) {
+			if(benchmark.getName().contains(filter))
+				System.out.println(benchmark.run(millis / 2, millis));
+		}
+	}
+
+	// TURING MACHINES
+
+	private static void addTuringMachines(List<Benchmark> benchmarks) {
+		for(int n : new int[]{20, 128}) {
+			for(int m : new int[]{4, 16}) {
+				for(int heads : new int[]{1, 2}) {
+					String params = "n="+n+" m="+m+" heads="+heads;
+					benchmarks.add(new TuringMachineBenchmark("tm.graves", params, new GravesTuringMachine(n, m, heads, heads, 3)));
+					benchmarks.add(new TuringMachineBenchmark("tm.flatgraves", params, new FlatGravesTuringMachine(n, m, heads, heads, 3)));
+				}
+			}
+		}
+
+		// The minimal TM has an unbounded tape growing with each episode
+		for(int m : new int[]{4, 16}) {
+			for(int heads : new int[]{1, 2}) {
+				Properties props = new Properties();
+				props.setProperty("tm.m", String.valueOf(m));
+				props.setProperty("tm.shift.length", "3");
+				props.setProperty("tm.heads.readwrite", String.valueOf(heads));
+				benchmarks.add(new TuringMachineBenchmark("tm.minimal", "m="+m+" heads="+heads, new MinimalTuringMachine(props)));
+			}
+		}
+	}
+
+	/**
+	 * One step of a TM with random input, resetting it after
+	 * every STEPS_PER_EPISODE steps.
+	 */
+	private static class TuringMachineBenchmark extends Benchmark {
+		private final TuringMachine tm;
+		private final double[][] inputs;
+		private int step;
+
+		public TuringMachineBenchmark(String name, String params, TuringMachine tm) {
+			super(name, params);
+			this.tm = tm;
+			Random rand = new Random(0);
+			inputs = new double[256][tm.getInputCount()];
+			for(double[] input : inputs) {
+				for(int i = 0; i < input.length; i++)
+					input[i] = rand.nextDouble();
+			}
+		}
+
+		@Override
+		protected double operation() {
+			if(step % STEPS_PER_EPISODE == 0)
+				tm.reset();
+			double[][] read = tm.processInput(inputs[step++ % inputs.length]);
+			return read[0][0];
+		}
+	}
+
+	// NETWORKS
+
+	private static void addNetworks(List<Benchmark> benchmarks) throws Exception {
+		Properties props = loadProperties("copytask.properties");
+		final NeatConfiguration config = new NeatConfiguration(props);
+		final AnjiNetTranscriber transcriber = (AnjiNetTranscriber) props.singletonObjectProperty(AnjiNetTranscriber.class);
+		final short inputs = props.getShortProperty(NeatConfiguration.STIMULUS_SIZE_KEY);
+		final short outputs = props.getShortProperty(NeatConfiguration.RESPONSE_SIZE_KEY);
+		final Random rand = new Random(0);
+
+		for(int hidden : HIDDEN_NEURONS) {
+			String params = "in="+inputs+" hidden="+hidden+" out="+outputs;
+			final Chromosome chrom = randomChromosome(config, inputs, hidden, outputs, rand, 1L);
+			final Chromosome other = randomChromosome(config, inputs, hidden, outputs, rand, 2L);
+			final double[][] stimuli = new double[256][inputs];
+			for(double[] stimulus : stimuli) {
+				for(int i = 0; i < stimulus.length; i++)
+					stimulus[i] = rand.nextDouble();
+			}
+
+			benchmarks.add(new Benchmark("net.anji.next", params) {
+				private final Activator activator = new AnjiActivator(transcriber.newAnjiNet(chrom), 1);
+				private int step;
+
+				@Override
+				protected double operation() {
+					return activator.next(stimuli[step++ % stimuli.length])[0];
+				}
+			});
+			benchmarks.add(new Benchmark("net.compiled.next", params) {
+				private final Activator activator = new CompiledActivator(transcriber.newAnjiNet(chrom), 1);
+				private int step;
+
+				@Override
+				protected double operation() {
+					return activator.next(stimuli[step++ % stimuli.length])[0];
+				}
+			});
+			benchmarks.add(new Benchmark("transcribe.anji", params) {
+				@Override
+				protected double operation() throws Exception {
+					return transcriber.newAnjiNet(chrom).getOutputDimension();
+				}
+			});
+			benchmarks.add(new Benchmark("distance", params) {
+				@Override
+				protected double operation() {
+					return chrom.distance(other, config.getSpeciationParms());
+				}
+			});
+		}
+	}
+
+	private static Chromosome randomChromosome(NeatConfiguration config, short inputs, int hidden, short outputs, Random rand, Long id) {
+		ChromosomeMaterial material = NeatChromosomeUtility.newSampleChromosomeMaterial(inputs, (short) hidden, outputs, config, true, -1.0);
+		Iterator<?> it = material.getAlleles().iterator();
+		while(it.hasNext()) {
+			Allele allele = (Allele) it.next();
+			if(allele instanceof ConnectionAllele)
+				allele.setToRandomValue(rand);
+		}
+		return new Chromosome(material, id);
+	}
+
+	// DOMAINS
+
+	private static void addTMaze(List<Benchmark> benchmarks) throws Exception {
+		for(String map : new String[]{"tmaze.bmp", "doubletmaze.bmp"}) {
+			Properties props = loadProperties("tmaze.properties");
+			props.setProperty("simulator.tmaze.map", map);
+			final TMaze tmaze = new TMaze(props);
+			final Random rand = new Random(0);
+
+			benchmarks.add(new Benchmark("tmaze.performAction", "map="+map) {
+				@Override
+				protected double operation() {
+					if(tmaze.isTerminated()) {
+						tmaze.reset();
+						tmaze.restart();
+					}
+					double[] action = new double[tmaze.getInputCount()];
+					for(int i = 0; i < action.length; i++)
+						action[i] = rand.nextDouble();
+					return tmaze.performAction(action)[0];
+				}
+			});
+			tmaze.restart();
+		}
+	}
+
+	/**
+	 * One whole episode of the Copy Task through
+	 * BaseController.evaluate().
+	 */
+	private static void addEpisodes(List<Benchmark> benchmarks) throws Exception {
+		for(String type : new String[]{"anji", "anji-compiled"}) {
+			for(int hidden : new int[]{0, 20}) {
+				Properties props = loadProperties("copytask.properties");
+				props.setProperty("controller.iterations", "1");
+				final TuringController controller = FitnessEvaluator.loadController(props);
+				NeatConfiguration config = new NeatConfiguration(props);
+				AnjiNetTranscriber transcriber = (AnjiNetTranscriber) props.singletonObjectProperty(AnjiNetTranscriber.class);
+				Chromosome chrom = randomChromosome(config,
+						props.getShortProperty(NeatConfiguration.STIMULUS_SIZE_KEY), hidden,
+						props.getShortProperty(NeatConfiguration.RESPONSE_SIZE_KEY), new Random(0), 1L);
+				final Activator activator = type.equals("anji")
+						? new AnjiActivator(transcriber.newAnjiNet(chrom), 1)
+						: new CompiledActivator(transcriber.newAnjiNet(chrom), 1);
+
+				benchmarks.add(new Benchmark("episode.copytask", "ann="+type+" hidden="+hidden) {
+					@Override
+					protected double operation() {
+						activator.reset();
+						return controller.evaluate(activator);
+					}
+				});
+			}
+		}
+	}
+
+	/**
+	 * Loads the properties from the classpath and sets the
+	 * network size the same way as the Evolver, but without
+	 * persisting any IDs.
+	 */
+	private static Properties loadProperties(String resource) throws Exception {
+		java.util.Properties values = new java.util.Properties();
+		values.load(ClassLoader.getSystemResourceAsStream(resource));
+		values.remove(NeatConfiguration.ID_FACTORY_KEY);
+		values.remove("neat.id.file");
+		values.setProperty("log4j.rootLogger", "WARN, A1");
+		Properties props = new Properties(values);
+
+		TuringController controller = FitnessEvaluator.loadController(props);
+		Simulator sim = controller.getSimulator();
+		TuringMachine tm = controller.getTuringMachine();
+		props.setProperty("stimulus.size", String.valueOf(tm.getOutputCount() + sim.getOutputCount() + 1)); // Plus bias
+		props.setProperty("response.size", String.valueOf(tm.getInputCount() + sim.getInputCount()));
+		return props;
+	}
+}
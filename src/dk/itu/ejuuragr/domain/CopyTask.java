@@ -16,7 +16,7 @@ import dk.itu.ejuuragr.turing.TuringMachine;
  * @author Emil
  *
  */
-public class CopyTask extends BaseSimulator {
+public class CopyTask extends BaseSimulator implements SharedEpisodeSimulator {
 	
 	private static final boolean DEBUG = false; // True if it should print all input and output
 
@@ -57,7 +57,7 @@ public class CopyTask extends BaseSimulator {
 		}
 
 		// CREATE SEQUENCE
-		this.sequence = new double[length][];
+		double[][] sequence = new double[length][];
 		for (int i = 0; i < length; i++) {
 			sequence[i] = new double[preparedSize];
 			for (int j = 0; j < elementSize; j++) {
@@ -65,6 +65,24 @@ public class CopyTask extends BaseSimulator {
 			}
 		}
 		
+		startEpisode(sequence);
+	}
+
+	@Override
+	public void restartAs(Simulator leader) {
+		// The sequence is only ever read, so it can be shared
+		startEpisode(((CopyTask)leader).sequence);
+	}
+	
+	/**
+	 * Starts an episode with the given sequence. Called by both
+	 * restart() and restartAs(), so subclasses that keep their own
+	 * per-episode state should reset it here.
+	 * @param sequence The sequence to copy, which must not be modified.
+	 */
+	protected void startEpisode(double[][] sequence) {
+		this.sequence = sequence;
+		
 		if(DEBUG) System.out.print("CT: Restart: "+Utilities.toString(sequence, "%1.0f"));
 
 		// reset variables
@@ -2,8 +2,6 @@ package dk.itu.ejuuragr.domain;
 
 import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.Collections;
-import java.util.LinkedList;
 import java.util.List;
 
 import com.anji.util.Properties;
@@ -19,6 +17,11 @@ import dk.itu.ejuuragr.fitness.Utilities;
  * have the maximum nutritional value, and especially avoid
  * those who are poisonous (negative nutritional value).
  * 
+ * The world wraps around at the edges. The agent moves in it
+ * while the animals stay in place, kept in primitive arrays
+ * grouped by the grid cell they are in, so finding the closest
+ * animal only has to look at the cells around the agent.
+ * 
  * @author Emil
  *
  */
@@ -28,7 +31,8 @@ public class HuntingSimulator extends BaseSimulator {
 
 	private static final double EDIBLE_DISTANCE = 0.2; // How close you need to be to eat an animal
 	
-	private final int mapSize = 5;
+	private final int mapSize; // The world goes from -mapSize to mapSize in both directions
+	private final int worldSize; // 2 * mapSize
 	private final int numberOfFeatures;
 	private final double featureBlur;
 	private final int numberOfSpecies;
@@ -41,9 +45,18 @@ public class HuntingSimulator extends BaseSimulator {
 	private boolean lastEdible;
 	private double health;
 	private double angle;
+	private double agentX, agentY;
 	private double nutritionSum;
 	
-	private List<Animal> animals;
+	// The animals, grouped by cell
+	private int animalCount;
+	private double[] animalX, animalY;
+	private int[] animalSpecies;
+	private int[] animalCell;
+	private double[] animalFeatures; // numberOfFeatures values per animal
+	private int[] cellStart; // The first animal in each cell (cell = x * worldSize + y)
+	private int[] cellEnd; // After the last animal in each cell
+	
 	private List<Species> species;
 	private double speciesSum;
 	
@@ -61,6 +74,18 @@ public class HuntingSimulator extends BaseSimulator {
 		this.decayRate = props.getDoubleProperty("simulator.hunting.decay", 0.05);
 		
 		this.samePopulation = props.getBooleanProperty("simulator.hunting.populations.equal", true);
+		this.mapSize = props.getIntProperty("simulator.hunting.map.size", 5);
+		
+		// There is one animal in each cell of the world
+		this.worldSize = 2 * mapSize;
+		int cells = worldSize * worldSize;
+		this.animalX = new double[cells];
+		this.animalY = new double[cells];
+		this.animalSpecies = new int[cells];
+		this.animalCell = new int[cells];
+		this.animalFeatures = new double[cells * numberOfFeatures];
+		this.cellStart = new int[cells];
+		this.cellEnd = new int[cells];
 	}
 
 	@Override
@@ -78,9 +103,11 @@ public class HuntingSimulator extends BaseSimulator {
 		this.angle = 0.0;
 		this.health = startHealth;
 		this.nutritionSum = 0.0;
+		this.agentX = 0.0;
+		this.agentY = 0.0;
 		
 		// Create species;
-		animals = new LinkedList<Animal>();
+		animalCount = 0;
 		species = new ArrayList<Species>();
 		boolean hasPositive = false;
 		boolean hasNegative = false;
@@ -117,10 +144,13 @@ public class HuntingSimulator extends BaseSimulator {
 			speciesSum += newSpecies.getPopulation();
 		}
 		
-		// Create animals for the whole map (-5 to 5)
+		// Create animals for the whole map (-mapSize to mapSize)
 		for(int i = -mapSize; i < mapSize; i++) {
 			for(int j = -mapSize; j < mapSize; j++) {
-				addRandomAnimal(i,j);
+				int cell = getCell(i, j);
+				cellStart[cell] = animalCount;
+				addRandomAnimal(i,j,cell);
+				cellEnd[cell] = animalCount;
 			}
 		}
 		
@@ -128,10 +158,12 @@ public class HuntingSimulator extends BaseSimulator {
 		initialObservation = getObservation();
 		
 		maxScore = startHealth;
-		for(Animal a : animals) {
-			double curNut = a.getSpecies().getNutrition();
-			if(curNut > 0.0)
-				maxScore += curNut;
+		for(int cell = 0; cell < cellStart.length; cell++) {
+			for(int a = cellStart[cell]; a < cellEnd[cell]; a++) {
+				double curNut = species.get(animalSpecies[a]).getNutrition();
+				if(curNut > 0.0)
+					maxScore += curNut;
+			}
 		}
 		// Maximum score is if you had eaten all animals
 		// without spending any time at all
@@ -139,7 +171,9 @@ public class HuntingSimulator extends BaseSimulator {
 		if(DEBUG){
 			System.out.println(">>> Restart");
 			System.out.println(Arrays.toString(species.toArray()));
-			System.out.println(Arrays.toString(animals.toArray()));
+			for(int cell = 0; cell < cellStart.length; cell++)
+				for(int a = cellStart[cell]; a < cellEnd[cell]; a++)
+					System.out.println(animalToString(a));
 		}
 	}
 
@@ -156,20 +190,6 @@ public class HuntingSimulator extends BaseSimulator {
 		steer(action[0]);
 		moveAgent();
 		
-		// manipulate world
-		for(Animal a : animals) {
-			if(a.getX() < -mapSize) {
-				a.setX(2*mapSize + a.getX());
-			}else if(a.getX() >= mapSize) {
-				a.setX(-2*mapSize + a.getX());
-			}
-			if(a.getY() < -mapSize) {
-				a.setY(2*mapSize + a.getY());
-			}else if(a.getY() >= mapSize) {
-				a.setY(-2*mapSize + a.getY());
-			}
-		}
-		
 		// always lose health
 		health -= decayRate;
 		
@@ -193,7 +213,7 @@ public class HuntingSimulator extends BaseSimulator {
 	@SuppressWarnings("unused")
 	@Override
 	public boolean isTerminated() {
-		boolean result = health <= 0.0 || animals.size() == 0;
+		boolean result = health <= 0.0 || animalCount == 0;
 		
 		if(result && DEBUG) {
 			if(health <= 0.0) {
@@ -207,8 +227,11 @@ public class HuntingSimulator extends BaseSimulator {
 	
 	// PUBLIC GETTERS
 	
-	public List<Animal> getAnimals() {
-		return Collections.unmodifiableList(animals);
+	/**
+	 * @return The number of animals left to eat.
+	 */
+	public int getAnimalCount() {
+		return animalCount;
 	}
 	
 	public double getAngle() {
@@ -222,13 +245,8 @@ public class HuntingSimulator extends BaseSimulator {
 	// PRIVATE HELPER METHODS
 	
 	private void moveAgent() {
-		// Moving everything relative to the agent
-		double dx = Math.cos(angle) * -SPEED;
-		double dy = Math.sin(angle) * -SPEED;
-		
-		for(Animal a : animals) {
-			a.move(dx, dy);
-		}
+		agentX = wrap(agentX + Math.cos(angle) * SPEED);
+		agentY = wrap(agentY + Math.sin(angle) * SPEED);
 	}
 	
 	private void steer(double dir) {
@@ -242,32 +260,35 @@ public class HuntingSimulator extends BaseSimulator {
 		// angle to closest (as a value between 0 and 1,
 		// where 0 is to the right (or more) and 1 is to
 		// the left or more
-		if(animals.size() > 0) {
-			Animal closest = findClosestAnimal();
-			if(DEBUG) System.out.printf("Closest: %s\n",closest);
-			double angle = Math.atan2(closest.getY(), closest.getX());
+		if(animalCount > 0) {
+			int closest = findClosestAnimal();
+			if(DEBUG) System.out.printf("Closest: %s\n",animalToString(closest));
+			double closestX = wrap(animalX[closest] - agentX); // relative to agent
+			double closestY = wrap(animalY[closest] - agentY);
+			double angle = Math.atan2(closestY, closestX);
 			if(DEBUG) System.out.printf("Angle to closest: %.2f\n", angle);
 			angle -= this.angle; // relative to agent
 			if(DEBUG) System.out.printf("Adjusted angle: %.2f\n", angle);
 			result[0] = ( Utilities.clamp(angle, -Math.PI / 2, Math.PI / 2) + (Math.PI / 2) ) / Math.PI;
 			if(DEBUG) System.out.printf("Normalized angle: %.2f\n", result[0]);
 			
+			// closest animal's features
+			System.arraycopy(animalFeatures, closest * numberOfFeatures, result, 2, numberOfFeatures);
+			
 			// Current nutrition
 			if(lastEdible) {
-				double effect = closest.getSpecies().getNutrition() - (1.0 / 3.0);
+				double nutrition = species.get(animalSpecies[closest]).getNutrition();
+				double effect = nutrition - (1.0 / 3.0);
 				health += effect;
 				nutritionSum += effect;
-				result[1] = closest.getSpecies().getNutrition();
+				result[1] = nutrition;
 				
 				lastEdible = false;
-				animals.remove(closest);
+				removeAnimal(closest);
 			}
 			
-			// closest animal's features
-			Utilities.copy(closest.getFeatures(), result, 2);
-			
 			// Are we within range to eat?
-			double distance = Utilities.euclideanDistance(new double[2], closest.getPosition());
+			double distance = Math.sqrt(closestX * closestX + closestY * closestY);
 			if(distance < EDIBLE_DISTANCE) {
 				lastEdible = true;
 			}
@@ -280,35 +301,110 @@ public class HuntingSimulator extends BaseSimulator {
 		return result;
 	}
 	
-	private Animal findClosestAnimal() {
-		double[] origo = new double[2];
-		Animal result = null;
-		double dist = Double.MAX_VALUE;
+	/**
+	 * Searches the cells in growing squares around the agent,
+	 * until no animal in the next square can be closer than
+	 * the closest one found.
+	 * @return The index of the animal closest to the agent.
+	 */
+	private int findClosestAnimal() {
+		int agentCellX = (int) Math.floor(agentX);
+		int agentCellY = (int) Math.floor(agentY);
+		int result = -1;
+		double dist = Double.MAX_VALUE; // Squared
 		
-		for(Animal cur : animals) {
-			double curDist = Utilities.euclideanDistance(origo, cur.getPosition());
-			if(curDist < dist) {
-				result = cur;
-				dist = curDist;
+		for(int r = 0; r <= mapSize; r++) {
+			// Only go as far as to see every cell once
+			int fromX = Math.max(-r, -mapSize), toX = Math.min(r, mapSize - 1);
+			for(int dx = fromX; dx <= toX; dx++) {
+				boolean edgeX = dx == -r || dx == r;
+				for(int dy = Math.max(-r, -mapSize); dy <= Math.min(r, mapSize - 1); dy += (edgeX ? 1 : 2 * r)) {
+					int cell = getCell(agentCellX + dx, agentCellY + dy);
+					for(int a = cellStart[cell]; a < cellEnd[cell]; a++) {
+						double x = wrap(animalX[a] - agentX);
+						double y = wrap(animalY[a] - agentY);
+						double curDist = x * x + y * y;
+						if(curDist < dist) {
+							result = a;
+							dist = curDist;
+						}
+					}
+				}
 			}
+			
+			// Every animal further out is at least r away
+			if(result != -1 && dist <= r * r)
+				break;
 		}
 		return result;
 	}
+	
+	/**
+	 * Removes an animal by moving the last one in its
+	 * cell into its place.
+	 * @param animal The index of the animal to remove.
+	 */
+	private void removeAnimal(int animal) {
+		int last = --cellEnd[animalCell[animal]];
+		animalX[animal] = animalX[last];
+		animalY[animal] = animalY[last];
+		animalSpecies[animal] = animalSpecies[last];
+		animalCell[animal] = animalCell[last];
+		System.arraycopy(animalFeatures, last * numberOfFeatures, animalFeatures, animal * numberOfFeatures, numberOfFeatures);
+		animalCount--;
+	}
+	
+	/**
+	 * @return The index of the cell at the given coordinates
+	 * (which can be outside the world and will be wrapped).
+	 */
+	private int getCell(int x, int y) {
+		x = Math.floorMod(x + mapSize, worldSize);
+		y = Math.floorMod(y + mapSize, worldSize);
+		return x * worldSize + y;
+	}
+	
+	/**
+	 * @return The coordinate moved inside the world,
+	 * from -mapSize (inclusive) to mapSize (exclusive).
+	 */
+	private double wrap(double coordinate) {
+		if(coordinate < -mapSize) {
+			return worldSize + coordinate;
+		}else if(coordinate >= mapSize) {
+			return -worldSize + coordinate;
+		}
+		return coordinate;
+	}
 
-	private void addRandomAnimal(int x, int y) {
-		Species s = getRandomSpecies();
-		animals.add(new Animal(getRandom(x, x + 1.0), getRandom(y, y + 1.0), s));
+	private void addRandomAnimal(int x, int y, int cell) {
+		int s = getRandomSpecies();
+		animalSpecies[animalCount] = s;
+		animalCell[animalCount] = cell;
+		animalX[animalCount] = getRandom(x, x + 1.0);
+		animalY[animalCount] = getRandom(y, y + 1.0);
+		double[] features = species.get(s).getFeatures();
+		for(int i = 0; i < numberOfFeatures; i++) {
+			animalFeatures[animalCount * numberOfFeatures + i] = features[i] + getRandom().nextGaussian() * featureBlur;
+		}
+		animalCount++;
+	}
+	
+	private String animalToString(int animal) {
+		return "Animal [pos=" + Arrays.toString(new double[]{animalX[animal], animalY[animal]})
+				+ ", species_idx=" + animalSpecies[animal] + ", features="
+				+ Arrays.toString(Arrays.copyOfRange(animalFeatures, animal * numberOfFeatures, (animal + 1) * numberOfFeatures)) + "]";
 	}
 	
-	private Species getRandomSpecies() {
+	private int getRandomSpecies() {
 		double target = getRandom(0.0,speciesSum);
 		double value = 0.0;
-		for(Species s : species) {
-			value += s.population;
+		for(int i = 0; i < species.size(); i++) {
+			value += species.get(i).population;
 			if(value >= target)
-				return s;
+				return i;
 		}
-		return null;
+		return -1;
 	}
 
 	private double getRandom(double min, double max) {
@@ -321,72 +417,6 @@ public class HuntingSimulator extends BaseSimulator {
 	
 	// PRIVATE CLASSES
 	
-	private class Animal {
-		
-		private double[] pos;
-		private double direction;
-		private Species mySpecies;
-		private double[] features;
-		
-		public Animal(double x, double y, Species origin) {
-			this.mySpecies = origin;
-			this.pos = new double[]{x,y};
-			this.features = new double[origin.getFeatures().length];
-			for(int i = 0; i < features.length; i++) {
-				features[i] = origin.getFeatures()[i] + getRandom().nextGaussian() * featureBlur;
-			}
-		}
-		
-		public void move(double dx, double dy) {
-			pos[0] += dx;
-			pos[1] += dy;
-		}
-
-		public double[] getPosition() {
-			return pos;
-		}
-
-		public double getX() {
-			return pos[0];
-		}
-		
-		public void setX(double x) {
-			pos[0] = x;
-		}
-
-		public double getY() {
-			return pos[1];
-		}
-		
-		public void setY(double y) {
-			pos[1] = y;
-		}
-		
-		public double[] getFeatures() {
-			return features;
-		}
-
-		public double getDirection() {
-			return direction;
-		}
-
-		public Species getSpecies() {
-			return mySpecies;
-		}
-
-		public void act() {
-			// TODO: No movement in the beginning
-		}
-
-		@Override
-		public String toString() {
-			return "Animal [pos=" + Arrays.toString(pos) + ", direction="
-					+ direction + ", species_idx=" + species.indexOf(mySpecies) + ", features="
-					+ Arrays.toString(features) + "]";
-		}
-
-	}
-
 	private class Species {
 		
 		private double population;
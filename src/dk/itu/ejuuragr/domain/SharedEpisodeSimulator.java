@@ -0,0 +1,20 @@
+package dk.itu.ejuuragr.domain;
+
+/**
+ * A Simulator whose episodes are fully decided in restart(),
+ * so a batch of identically seeded Simulators can generate
+ * each episode once and share it instead of all generating
+ * the same data.
+ */
+public interface SharedEpisodeSimulator extends Simulator {
+
+	/**
+	 * Starts the same episode as the given Simulator started
+	 * in its last call to restart(), reusing its data (which
+	 * must never be modified). The random generator of this
+	 * Simulator is left untouched.
+	 * @param leader A Simulator of the same class and with the
+	 * same settings that has just been restarted.
+	 */
+	void restartAs(Simulator leader);
+}
@@ -8,6 +8,8 @@ import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashSet;
 import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 import static dk.itu.ejuuragr.domain.tmaze.TMaze.MAP_TYPE.*;
 
@@ -34,6 +36,9 @@ public class TMaze extends BaseSimulator {
 	
 	public static final boolean DEBUG = false; // If true the Simulator will print the state in each step
 	
+	// Every map file is only loaded once and then shared by all the TMazes in the process
+	private static final ConcurrentMap<String, LoadedMap> LOADED_MAPS = new ConcurrentHashMap<String, LoadedMap>();
+	
 	// Simulation specifics
 	public final double SPEED; // How many tiles you can move in one step
 	public final double SENSOR_CUTOFF; // The maximum distance of the sensors (wherefrom it will have a value of 1.0)
@@ -58,7 +63,7 @@ public class TMaze extends BaseSimulator {
 	private double[] initialObservation;
 	
 	// Distance helpers
-	private List<double[]> walls; // int[x1,y1,x2,y2]
+	private WallIndex walls; // Shared by all TMazes with the same map
 	
 	// Live fields
 	private double[] location;
@@ -91,8 +96,10 @@ public class TMaze extends BaseSimulator {
 		STEER_SINGLE = props.getProperty("simulator.tmaze.game.steer.mode", "single").toLowerCase().equals("single");
 	
 		String mapFile = props.getProperty("simulator.tmaze.map", "tmaze.bmp");
-		loadMap(mapFile);
-		loadWalls();
+		LoadedMap loaded = getLoadedMap(mapFile);
+		map = loaded.map;
+		startPos = loaded.startPos;
+		walls = loaded.walls;
 		moveGoal(true);
 		
 		if(START_DIRECTION == null) {
@@ -349,21 +356,6 @@ public class TMaze extends BaseSimulator {
 		}
 	}
 
-	private void loadWalls() {
-		walls = new ArrayList<double[]>();
-		
-		for(int x = -1; x < map.getWidth(); x++) {
-			for(int y = -1; y < map.getHeight(); y++) {
-				// Check upper and right side
-				MAP_TYPE cur = map.getType(x, y);
-				MAP_TYPE upper = map.getType(x,y+1);
-				MAP_TYPE right = map.getType(x+1,y);
-				if(cur != upper && (cur == wall || upper == wall)) walls.add(new double[]{x,y+1,x+1,y+1});
-				if(cur != right && (cur == wall || right == wall)) walls.add(new double[]{x+1,y,x+1,y+1});
-			}
-		}
-	}
-	
 	private void steer(double[] dir) {
 		double steer = 0.0;
 		if(STEER_SINGLE) {
@@ -397,11 +389,9 @@ public class TMaze extends BaseSimulator {
 		for(int i = 0; i < SENSOR_ANGLES.length; i++) {
 			double sensorAngle = angle + SENSOR_ANGLES[i];
 			
-			// calculate intersection to each 
-			List<double[]> wallIntersects = intersections(new double[]{location[0] ,location[1]
-							,location[0] + Math.cos(sensorAngle) * SENSOR_CUTOFF ,location[1] + Math.sin(sensorAngle) * SENSOR_CUTOFF}
-					,walls);
-			double closest = lowestDistance(location,wallIntersects);
+			// distance to the closest wall the sensor crosses
+			double closest = walls.castRay(location[0], location[1]
+					, location[0] + Math.cos(sensorAngle) * SENSOR_CUTOFF, location[1] + Math.sin(sensorAngle) * SENSOR_CUTOFF);
 			
 			result[i] = Math.min(SENSOR_CUTOFF, closest) / SENSOR_CUTOFF;
 		}
@@ -416,71 +406,22 @@ public class TMaze extends BaseSimulator {
 		return result;
 	}
 	
-	private double lowestDistance(double[] point,
-			List<double[]> points) {
-		double lowest = Double.MAX_VALUE;
-		for(double[] otherPoint : points) {
-			double dist = Math.pow(point[0] - otherPoint[0],2) + Math.pow(point[1] - otherPoint[1],2);
-			if(dist < lowest)
-				lowest = dist;
-		}
-		return Math.sqrt(lowest);
-	}
-
-	private List<double[]> intersections(double[] fromLine, List<double[]> toSegments) {
-		List<double[]> result = new ArrayList<>();
-		for(double[] seg : toSegments) {
-			double[] intersect = lineSegIntersect(fromLine,seg);
-			if(intersect != null)
-				result.add(intersect);
-		}
-		return result;
-	}
-
-	private double[] lineSegIntersect(double[] first, double[] second) {
-		double x1 = first[0];
-		double y1 = first[1];
-		double x2 = first[2];
-		double y2 = first[3];
-		double x3 = second[0];
-		double y3 = second[1];
-		double x4 = second[2];
-		double y4 = second[3];
-		double denom = (y4 - y3) * (x2 - x1) - (x4 - x3) * (y2 - y1);
-		if (denom == 0.0) { // Lines are parallel.
-			return null;
-		}
-		double ua = ((x4 - x3) * (y1 - y3) - (y4 - y3) * (x1 - x3)) / denom;
-		double ub = ((x2 - x1) * (y1 - y3) - (y2 - y1) * (x1 - x3)) / denom;
-		if (ua >= 0.0f && ua <= 1.0f && ub >= 0.0f && ub <= 1.0f) {
-			// Get the intersection point.
-			return new double[]{x1 + ua * (x2 - x1), y1 + ua * (y2 - y1)};
-		}
-
-		return null;
-	}
-
-
-	private void loadMap(String mapFile) {
-		try {
-			BufferedImage b = ImageIO.read(new File(mapFile));
-			map = new MazeMap(b.getWidth(),b.getHeight());
-			
-			// load map
-			for(int x = 0; x < b.getWidth(); x++) {
-				for(int y = 0; y < b.getHeight(); y++) {
-					int realY = b.getHeight()-1-y;
-					MAP_TYPE type = MAP_TYPE.valueOf(b.getRGB(x, y));
-					map.setType(x, realY, type);
-					
-					if(type == MAP_TYPE.start)
-						this.startPos = new int[]{x,realY};
-				}
-			}
-			
-		} catch (IOException e) {
-			throw new RuntimeException(e); // There is no recovery from this
+	/**
+	 * Gets the map and walls of the given file, loading them
+	 * the first time the file is requested.
+	 * @param mapFile The path to the BMP image of the maze.
+	 * @return The loaded map which is shared between all the
+	 * TMazes using the same file.
+	 */
+	private static LoadedMap getLoadedMap(String mapFile) {
+		LoadedMap loaded = LOADED_MAPS.get(mapFile);
+		if(loaded == null) {
+			// Two threads may both load it, but only the first is kept
+			LoadedMap created = new LoadedMap(mapFile);
+			LoadedMap previous = LOADED_MAPS.putIfAbsent(mapFile, created);
+			loaded = previous != null ? previous : created;
 		}
+		return loaded;
 	}
 	
 	private boolean isWithinGoal() {
@@ -539,7 +480,12 @@ public class TMaze extends BaseSimulator {
 		}
 	}
 	
-	public class MazeMap {
+	/**
+	 * The static layout of a maze. It can not be changed
+	 * once loaded, so it is safe to share between TMazes
+	 * and threads.
+	 */
+	public static class MazeMap {
 		
 		private MAP_TYPE[][] map;
 
@@ -597,4 +543,152 @@ public class TMaze extends BaseSimulator {
 			return result;
 		}
 	}
+	
+	/**
+	 * A map file read from disk along with everything that can
+	 * be computed from it before a simulation starts.
+	 */
+	private static class LoadedMap {
+		
+		private final MazeMap map;
+		private final int[] startPos;
+		private final WallIndex walls;
+		
+		private LoadedMap(String mapFile) {
+			try {
+				BufferedImage b = ImageIO.read(new File(mapFile));
+				MazeMap map = new MazeMap(b.getWidth(),b.getHeight());
+				int[] startPos = null;
+				
+				// load map
+				for(int x = 0; x < b.getWidth(); x++) {
+					for(int y = 0; y < b.getHeight(); y++) {
+						int realY = b.getHeight()-1-y;
+						MAP_TYPE type = MAP_TYPE.valueOf(b.getRGB(x, y));
+						map.setType(x, realY, type);
+						
+						if(type == MAP_TYPE.start)
+							startPos = new int[]{x,realY};
+					}
+				}
+				
+				this.map = map;
+				this.startPos = startPos;
+				this.walls = new WallIndex(loadWalls(map), map.getWidth(), map.getHeight());
+			} catch (IOException e) {
+				throw new RuntimeException(e); // There is no recovery from this
+			}
+		}
+		
+		private static List<double[]> loadWalls(MazeMap map) {
+			List<double[]> walls = new ArrayList<double[]>();
+			
+			for(int x = -1; x < map.getWidth(); x++) {
+				for(int y = -1; y < map.getHeight(); y++) {
+					// Check upper and right side
+					MAP_TYPE cur = map.getType(x, y);
+					MAP_TYPE upper = map.getType(x,y+1);
+					MAP_TYPE right = map.getType(x+1,y);
+					if(cur != upper && (cur == wall || upper == wall)) walls.add(new double[]{x,y+1,x+1,y+1});
+					if(cur != right && (cur == wall || right == wall)) walls.add(new double[]{x+1,y,x+1,y+1});
+				}
+			}
+			return walls;
+		}
+	}
+	
+	/**
+	 * The wall segments of a map, bucketed in a grid by their
+	 * lower left corner, so a ray only has to be tested against
+	 * the walls near it instead of all the walls in the map.
+	 * The walls are all one tile long and lie on the tile
+	 * borders, so a wall can only be crossed by a ray if its
+	 * corner is within the bounding box of the ray, extended
+	 * by one tile down and to the left.
+	 */
+	private static class WallIndex {
+		
+		private final int width, height; // In buckets, covering -1 to the map width/height (inclusive)
+		private final int[] bucketStart; // The first wall of each bucket in walls (the last is the total)
+		private final double[] walls; // x1,y1,x2,y2 of each wall, sorted by bucket
+		
+		private WallIndex(List<double[]> segments, int mapWidth, int mapHeight) {
+			width = mapWidth + 2;
+			height = mapHeight + 2;
+			
+			// Count the walls in each bucket and find where they start
+			bucketStart = new int[width * height + 1];
+			for(double[] seg : segments) {
+				bucketStart[bucket(seg) + 1]++;
+			}
+			for(int i = 0; i < width * height; i++) {
+				bucketStart[i + 1] += bucketStart[i];
+			}
+			
+			walls = new double[segments.size() * 4];
+			int[] next = Arrays.copyOf(bucketStart, width * height);
+			for(double[] seg : segments) {
+				System.arraycopy(seg, 0, walls, next[bucket(seg)]++ * 4, 4);
+			}
+		}
+		
+		private int bucket(double[] seg) {
+			return bucket((int) seg[0], (int) seg[1]);
+		}
+		
+		private int bucket(int x, int y) {
+			return (x + 1) * height + (y + 1);
+		}
+		
+		/**
+		 * Finds the distance along a ray to the closest wall.
+		 * @return The distance to the closest wall between the
+		 * two points, or the square root of Double.MAX_VALUE
+		 * if no wall is hit.
+		 */
+		private double castRay(double x1, double y1, double x2, double y2) {
+			int fromX = Math.max(-1, (int) Math.floor(Math.min(x1, x2)) - 1);
+			int toX = Math.min(width - 2, (int) Math.floor(Math.max(x1, x2)));
+			int fromY = Math.max(-1, (int) Math.floor(Math.min(y1, y2)) - 1);
+			int toY = Math.min(height - 2, (int) Math.floor(Math.max(y1, y2)));
+			
+			double lowest = Double.MAX_VALUE;
+			for(int x = fromX; x <= toX; x++) {
+				for(int y = fromY; y <= toY; y++) {
+					int b = bucket(x, y);
+					for(int i = bucketStart[b]; i < bucketStart[b + 1]; i++) {
+						double dist = intersectDistance(x1, y1, x2, y2, i * 4);
+						if(dist < lowest)
+							lowest = dist;
+					}
+				}
+			}
+			return Math.sqrt(lowest);
+		}
+		
+		/**
+		 * @return The squared distance from (x1,y1) to where the
+		 * ray crosses the wall, or Double.MAX_VALUE if it does not.
+		 */
+		private double intersectDistance(double x1, double y1, double x2, double y2, int wall) {
+			double x3 = walls[wall];
+			double y3 = walls[wall + 1];
+			double x4 = walls[wall + 2];
+			double y4 = walls[wall + 3];
+			double denom = (y4 - y3) * (x2 - x1) - (x4 - x3) * (y2 - y1);
+			if (denom == 0.0) { // Lines are parallel.
+				return Double.MAX_VALUE;
+			}
+			double ua = ((x4 - x3) * (y1 - y3) - (y4 - y3) * (x1 - x3)) / denom;
+			double ub = ((x2 - x1) * (y1 - y3) - (y2 - y1) * (x1 - x3)) / denom;
+			if (ua >= 0.0f && ua <= 1.0f && ub >= 0.0f && ub <= 1.0f) {
+				// Get the intersection point.
+				double dx = x1 - (x1 + ua * (x2 - x1));
+				double dy = y1 - (y1 + ua * (y2 - y1));
+				return dx * dx + dy * dy;
+			}
+			
+			return Double.MAX_VALUE;
+		}
+	}
 }
@@ -18,6 +18,7 @@ public abstract class BaseController implements Controller {
 	
 	protected Simulator sim;
 	protected int iterations;
+	protected PhaseTimer timer;
 
 	public BaseController(Properties props, Simulator sim){
 		this.sim = sim;
@@ -29,53 +30,71 @@ public abstract class BaseController implements Controller {
 		return sim;
 	}
 
+	/**
+	 * Sets the timer to add the time of each phase of the
+	 * steps to, or null to not time them.
+	 */
+	public void setPhaseTimer(PhaseTimer timer) {
+		this.timer = timer;
+	}
+	
+	public PhaseTimer getPhaseTimer() {
+		return timer;
+	}
+
 	@Override
 	public double evaluate(Activator nn) {
 		double totalScore = 0;
 		sim.reset();
-		int steps = 0;
-		
-		long time = System.currentTimeMillis();
-		long nnTime = 0;
-		long contTime = 0;
-		long simTime = 0;
 		
 		// For each iteration
 		for(int i = 0; i < iterations; i++) {
 			this.reset();
 			sim.restart();
 			
-			double[] controllerOutput = this.getInitialInput();
-			double[] simOutput = sim.getInitialObservation();
-			
-			while(!sim.isTerminated()){
-				time = System.currentTimeMillis();
-				
-				double[] nnOutput = this.activateNeuralNetwork(nn, simOutput, controllerOutput);
-				
-				nnTime += (System.currentTimeMillis() - time);
-				time = System.currentTimeMillis();
-				
-				// CopyTask can rely on the TM acting first
-				controllerOutput = this.getControllerResponse(Arrays.copyOfRange(nnOutput, sim.getInputCount(), nnOutput.length));
-				
-				contTime += (System.currentTimeMillis() - time);
-				time = System.currentTimeMillis();
-				
-				simOutput = this.getSimulationResponse(Arrays.copyOfRange(nnOutput, 0, sim.getInputCount()));
-				
-				simTime += (System.currentTimeMillis() - time);
-				time = System.currentTimeMillis();
-				steps++;
-			}
-
-			totalScore += sim.getCurrentScore();
+			totalScore += runEpisode(nn);
 		}
+		if (timer != null)
+			timer.evaluationDone();
 		
 		double result = Math.max(0.0, totalScore);
 		return result;
 	}
 	
+	/**
+	 * Steps the network, this Controller and the Simulator
+	 * through the episode the Simulator has just been
+	 * (re)started on, until it terminates.
+	 * @param nn The network to evaluate.
+	 * @return The score of the episode.
+	 */
+	protected double runEpisode(Activator nn) {
+		PhaseTimer timer = this.timer;
+		double[] controllerOutput = this.getInitialInput();
+		double[] simOutput = sim.getInitialObservation();
+		
+		while(!sim.isTerminated()){
+			boolean timed = timer != null && timer.sample();
+			long start = timed ? System.nanoTime() : 0;
+			
+			double[] nnOutput = this.activateNeuralNetwork(nn, simOutput, controllerOutput);
+			
+			long nnDone = timed ? System.nanoTime() : 0;
+			
+			// CopyTask can rely on the TM acting first
+			controllerOutput = this.getControllerResponse(Arrays.copyOfRange(nnOutput, sim.getInputCount(), nnOutput.length));
+			
+			long contDone = timed ? System.nanoTime() : 0;
+			
+			simOutput = this.getSimulationResponse(Arrays.copyOfRange(nnOutput, 0, sim.getInputCount()));
+			
+			if (timed)
+				timer.add(nnDone - start, contDone - nnDone, System.nanoTime() - contDone);
+		}
+		
+		return sim.getCurrentScore();
+	}
+	
 	@Override
 	public int getMaxScore() {
 		return sim.getMaxScore() * iterations;
@@ -0,0 +1,123 @@
+package dk.itu.ejuuragr.fitness;
+
+import com.anji.integration.Activator;
+import com.anji.util.Properties;
+
+import dk.itu.ejuuragr.domain.SharedEpisodeSimulator;
+import dk.itu.ejuuragr.domain.Simulator;
+import dk.itu.ejuuragr.turing.TuringController;
+
+/**
+ * Evaluates a batch of neural networks through the same
+ * episodes. When the Simulator is a SharedEpisodeSimulator
+ * each episode is generated once by a leader Simulator and
+ * then played by every network in turn, on one
+ * TuringController whose Simulator restarts as the leader.
+ * The networks are evolved separately and the TM is reset
+ * for every episode, so the episodes are all they share;
+ * other Simulators evaluate the networks one at a time.
+ *
+ * The scores are exactly the same as when evaluating each
+ * network on its own with BaseController.evaluate().
+ */
+public class BatchController {
+
+	private final int size;
+	private final TuringController controller;
+	private final Simulator leader;
+
+	/**
+	 * Creates a batch with the Controller and Simulator
+	 * given in the properties.
+	 * @param props The properties to load the Controller and
+	 * Simulators from.
+	 * @param size The maximum number of networks to evaluate
+	 * together.
+	 */
+	public BatchController(Properties props, int size) {
+		if(size < 1)
+			throw new IllegalArgumentException("The batch size must be at least 1, was "+size);
+
+		this.size = size;
+		controller = FitnessEvaluator.loadController(props);
+		leader = controller.getSimulator() instanceof SharedEpisodeSimulator
+				? FitnessEvaluator.loadController(props).getSimulator()
+				: null;
+	}
+
+	/**
+	 * @return The maximum number of networks to evaluate
+	 * together.
+	 */
+	public int getSize() {
+		return size;
+	}
+
+	/**
+	 * @return The Controller that plays the episodes.
+	 */
+	public TuringController getController() {
+		return controller;
+	}
+
+	/**
+	 * Sets the random offset of the Simulators.
+	 * @see Simulator#setRandomOffset(int)
+	 */
+	public void setRandomOffset(int offset) {
+		controller.getSimulator().setRandomOffset(offset);
+		if(leader != null)
+			leader.setRandomOffset(offset);
+	}
+
+	/**
+	 * Sets the timer to add the time of each phase of the
+	 * steps to, or null to not time them.
+	 */
+	public void setPhaseTimer(PhaseTimer timer) {
+		controller.setPhaseTimer(timer);
+	}
+
+	/**
+	 * Evaluates the networks together, episode by episode.
+	 * @param nns The networks to evaluate (at most getSize()).
+	 * @return The score of each network, in the same order.
+	 */
+	public double[] evaluate(Activator[] nns) {
+		int count = nns.length;
+		if(count > size)
+			throw new IllegalArgumentException("Can not evaluate "+count+" networks in a batch of "+size);
+
+		double[] result = new double[count];
+		if(leader == null) {
+			for(int j = 0; j < count; j++) {
+				result[j] = controller.evaluate(nns[j]);
+			}
+			return result;
+		}
+
+		Simulator sim = controller.getSimulator();
+		double[] totalScores = new double[count];
+		leader.reset();
+		sim.reset();
+
+		// For each iteration
+		for(int i = 0; i < controller.iterations; i++) {
+			leader.restart();
+			for(int j = 0; j < count; j++) {
+				controller.reset();
+				((SharedEpisodeSimulator)sim).restartAs(leader);
+
+				totalScores[j] += controller.runEpisode(nns[j]);
+			}
+		}
+
+		PhaseTimer timer = controller.getPhaseTimer();
+		for(int j = 0; j < count; j++) {
+			result[j] = Math.max(0.0, totalScores[j]);
+			if (timer != null)
+				timer.evaluationDone();
+		}
+		return result;
+	}
+}
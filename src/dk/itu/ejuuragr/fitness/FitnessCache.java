@@ -0,0 +1,150 @@
+package dk.itu.ejuuragr.fitness;
+
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.SortedSet;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.jgap.Allele;
+import org.jgap.Chromosome;
+
+import com.anji.neat.ConnectionAllele;
+
+/**
+ * A bounded cache of the fitness of already evaluated
+ * chromosomes, so the ones that survive into the next
+ * generation unchanged (e.g. through elitism) are not
+ * simulated again. Chromosomes are identified by their
+ * alleles (innovation IDs and connection weights) together
+ * with the random offset of the Simulator they were
+ * evaluated with, and the least recently used entries are
+ * evicted when it is full. It is safe to use from several
+ * threads.
+ */
+public class FitnessCache {
+
+	private final Map<Key, Integer> cache;
+	private final AtomicLong hits = new AtomicLong();
+	private final AtomicLong misses = new AtomicLong();
+
+	/**
+	 * @param capacity The maximum number of fitness values
+	 * to keep.
+	 */
+	public FitnessCache(final int capacity) {
+		if(capacity < 1)
+			throw new IllegalArgumentException("The capacity must be at least 1, was "+capacity);
+
+		// Access ordered, so the eldest entry is the least recently used
+		cache = new LinkedHashMap<Key, Integer>(16, 0.75f, true) {
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<Key, Integer> eldest) {
+				return size() > capacity;
+			}
+		};
+	}
+
+	/**
+	 * Creates the key to look the chromosome up by.
+	 * @param chrom The chromosome to identify.
+	 * @param randomOffset The random offset of the Simulator
+	 * it is evaluated with.
+	 */
+	public static Key keyOf(Chromosome chrom, int randomOffset) {
+		return new Key(chrom, randomOffset);
+	}
+
+	/**
+	 * @param key The key of the chromosome.
+	 * @return The cached fitness, or null if it has not been
+	 * evaluated (or has been evicted).
+	 */
+	public Integer get(Key key) {
+		Integer result;
+		synchronized (cache) {
+			result = cache.get(key);
+		}
+		if(result == null)
+			misses.incrementAndGet();
+		else
+			hits.incrementAndGet();
+		return result;
+	}
+
+	/**
+	 * @param key The key of the chromosome.
+	 * @param fitness The fitness the chromosome was given.
+	 */
+	public void put(Key key, int fitness) {
+		synchronized (cache) {
+			cache.put(key, fitness);
+		}
+	}
+
+	public int size() {
+		synchronized (cache) {
+			return cache.size();
+		}
+	}
+
+	/**
+	 * @return The number of lookups that found a fitness.
+	 */
+	public long getHits() {
+		return hits.get();
+	}
+
+	/**
+	 * @return The number of lookups that did not find a fitness.
+	 */
+	public long getMisses() {
+		return misses.get();
+	}
+
+	/**
+	 * The canonical form of a chromosome: the innovation ID of
+	 * every allele (in their sorted order) and the weight of
+	 * every connection, along with the random offset.
+	 */
+	public static class Key {
+		private final long[] innovationIds;
+		private final long[] weights; // The bits of the weights, 0 for neurons
+		private final int randomOffset;
+		private final int hash;
+
+		private Key(Chromosome chrom, int randomOffset) {
+			SortedSet<?> alleles = chrom.getAlleles();
+			innovationIds = new long[alleles.size()];
+			weights = new long[alleles.size()];
+			Iterator<?> it = alleles.iterator();
+			for(int i = 0; it.hasNext(); i++) {
+				Allele allele = (Allele) it.next();
+				innovationIds[i] = allele.getInnovationId();
+				if(allele instanceof ConnectionAllele)
+					weights[i] = Double.doubleToLongBits(((ConnectionAllele) allele).getWeight());
+			}
+			this.randomOffset = randomOffset;
+			this.hash = 31 * (31 * Arrays.hashCode(innovationIds) + Arrays.hashCode(weights)) + randomOffset;
+		}
+
+		@Override
+		public int hashCode() {
+			return hash;
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			if(!(obj instanceof Key))
+				return false;
+			Key other = (Key) obj;
+			return hash == other.hash
+					&& randomOffset == other.randomOffset
+					&& Arrays.equals(innovationIds, other.innovationIds)
+					&& Arrays.equals(weights, other.weights);
+		}
+	}
+}
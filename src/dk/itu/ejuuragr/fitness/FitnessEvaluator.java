@@ -1,15 +1,24 @@
 package dk.itu.ejuuragr.fitness;
 
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Iterator;
 import java.util.List;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
 
 import org.jgap.BulkFitnessFunction;
 import org.jgap.Chromosome;
 
+import com.anji.integration.Activator;
 import com.anji.integration.ActivatorTranscriber;
 import com.anji.integration.TranscriberException;
+import com.anji.util.Checkpointable;
 import com.anji.util.Configurable;
 import com.anji.util.Properties;
 
@@ -22,16 +31,37 @@ import dk.itu.ejuuragr.turing.TuringController;
  * file to load the chosen Controller and Simulator via
  * reflection and get our various properties for the
  * settings. The actual evaluations can be done multithreaded
- * (through setting a specific property).
+ * (through setting a specific property): "threading" splits
+ * the generation in one fixed slice per core, "thread.pooling"
+ * runs each chromosome as a task with its own new Controller and
+ * "thread.stealing" runs each chromosome as a task on a
+ * long-lived work-stealing pool where every worker thread reuses
+ * its own Controller. Except with "thread.pooling",
+ * "controller.batch.size" networks at a time can be evaluated
+ * together by a BatchController, sharing their episodes. Setting
+ * "fitness.cache.size" makes it remember the fitness of that
+ * many chromosomes, so unchanged survivors are not evaluated
+ * again. The generation counter, which decides the random
+ * offset given to the Simulators, is saved in checkpoints.
+ * With "controller.timing" every thread times the phases of
+ * one in "controller.timing.sample.interval" steps, and the
+ * times of each generation go to the PhaseTimingListeners (one
+ * can be given as "controller.timing.listener.class") and
+ * are printed every "controller.timing.log.interval" generations.
+ * The fitness cache hits and the load balance of
+ * "thread.stealing" are printed at the same interval, with or
+ * without "controller.timing".
  * 
  * @author Emil
  *
  */
-public class FitnessEvaluator implements BulkFitnessFunction, Configurable {
+public class FitnessEvaluator implements BulkFitnessFunction, Configurable, Checkpointable {
 	private static final long serialVersionUID = 1L;
 
 	ActivatorTranscriber activatorFactory;
 	private TuringController[] controllers;
+	private BatchController[] batches;
+	private int batchSize;
 
 	private int generation;
 	private int newSeedAfter = -1;
@@ -40,19 +70,124 @@ public class FitnessEvaluator implements BulkFitnessFunction, Configurable {
 	private boolean threadPooling;
 	ExecutorService threadPool;
 	private Controller cachedController;
+
+	private boolean threadStealing;
+	private ForkJoinPool stealingPool;
+	private ThreadLocal<Worker> workers;
+	private final List<Worker> allWorkers = new ArrayList<Worker>();
+
+	private FitnessCache fitnessCache;
+
+	private boolean timing;
+	private int timingSampleInterval;
+	private int timingLogInterval;
+	private final List<PhaseTimer> timers = new ArrayList<PhaseTimer>();
+	private PhaseTimer poolTimer;
+	private final List<PhaseTimingListener> timingListeners = new ArrayList<PhaseTimingListener>();
 	
 	@SuppressWarnings({ "unchecked", "rawtypes" })
 	@Override
 	final public void evaluate(List arg0) {
-		final List<Chromosome> list = (List<Chromosome>) arg0;
+		List<Chromosome> all = (List<Chromosome>) arg0;
+
+		if (fitnessCache == null) {
+			evaluateAll(all);
+		} else {
+			// Only evaluate the ones not seen before
+			int randomOffset = getRandomOffset();
+			List<Chromosome> misses = new ArrayList<Chromosome>();
+			List<FitnessCache.Key> missKeys = new ArrayList<FitnessCache.Key>();
+			for (Chromosome chrom : all) {
+				FitnessCache.Key key = FitnessCache.keyOf(chrom, randomOffset);
+				Integer fitness = fitnessCache.get(key);
+				if (fitness != null) {
+					chrom.setFitnessValue(fitness);
+				} else {
+					misses.add(chrom);
+					missKeys.add(key);
+				}
+			}
+
+			if (!misses.isEmpty())
+				evaluateAll(misses);
+			for (int i = 0; i < misses.size(); i++) {
+				fitnessCache.put(missKeys.get(i), misses.get(i).getFitnessValue());
+			}
+			if (isLogGeneration())
+				System.out.printf("Generation %d: fitness cache hits %d, misses %d (%d hits, %d misses in total)%n",
+							generation, all.size() - misses.size(), misses.size(), fitnessCache.getHits(), fitnessCache.getMisses());
+		}
+
+		if (timing)
+			reportTimings();
+		generation++;
+	}
+
+	/**
+	 * @param listener Is told the phase times of each generation
+	 * when "controller.timing" is on.
+	 */
+	public void addPhaseTimingListener(PhaseTimingListener listener) {
+		synchronized (timingListeners) {
+			timingListeners.add(listener);
+		}
+	}
+
+	private PhaseTimer newPhaseTimer(String name) {
+		PhaseTimer timer = new PhaseTimer(name, timingSampleInterval);
+		synchronized (timers) {
+			timers.add(timer);
+		}
+		return timer;
+	}
+
+	/**
+	 * Sums up the timers of all threads for the generation just
+	 * evaluated, tells the listeners and starts over.
+	 */
+	private void reportTimings() {
+		List<PhaseTimer> perThread;
+		synchronized (timers) {
+			perThread = new ArrayList<PhaseTimer>(timers);
+		}
+		PhaseTimer total = new PhaseTimer("all threads", timingSampleInterval);
+		for (PhaseTimer timer : perThread)
+			total.add(timer);
+
+		List<PhaseTimingListener> listeners;
+		synchronized (timingListeners) {
+			listeners = new ArrayList<PhaseTimingListener>(timingListeners);
+		}
+		for (PhaseTimingListener listener : listeners)
+			listener.generationTimed(generation, total, perThread);
+		if (isLogGeneration())
+			System.out.printf("Generation %d: %s%n", generation, total);
 
+		for (PhaseTimer timer : perThread)
+			timer.reset();
+	}
+
+	/**
+	 * @return True if the statistics of this generation should
+	 * be printed, which is every "controller.timing.log.interval"
+	 * generations.
+	 */
+	private boolean isLogGeneration() {
+		return timingLogInterval > 0 && generation % timingLogInterval == 0;
+	}
+
+	private void evaluateAll(final List<Chromosome> list) {
 		if (threading) {
 			int perThread = list.size() / cores;
 			final CountDownLatch latch = new CountDownLatch(cores);
 
 			for (int i = 0; i < cores; i++) {
-				if (newSeedAfter > 0)
-					controllers[i].getSimulator().setRandomOffset(generation / newSeedAfter);
+				if (newSeedAfter > 0) {
+					if (batches != null)
+						batches[i].setRandomOffset(generation / newSeedAfter);
+					else
+						controllers[i].getSimulator().setRandomOffset(generation / newSeedAfter);
+				}
 
 				final int finalI = i;
 				final int start = i * perThread;
@@ -84,17 +219,30 @@ public class FitnessEvaluator implements BulkFitnessFunction, Configurable {
 				threadPool.execute(new Runnable() {
 					@Override
 					public void run() {
-						Controller controller = loadController(cachedProps);
+						TuringController controller = loadController(cachedProps);
+						// The pool replaces its threads, so each task has
+						// its own timer which is added to the pool's one
+						PhaseTimer timer = null;
+						if (timing) {
+							timer = new PhaseTimer("task", timingSampleInterval);
+							controller.setPhaseTimer(timer);
+						}
 						if (newSeedAfter > 0)
 							controller.getSimulator().setRandomOffset(generation / newSeedAfter);
 						double score;
 						try {
 							score = controller.evaluate(activatorFactory.newActivator(ch));
 							ch.setFitnessValue((int)score);
-							latch.countDown();
 						} catch (TranscriberException e) {
 							throw new RuntimeException(e);
+						} finally {
+							if (timer != null) {
+								synchronized (poolTimer) {
+									poolTimer.add(timer);
+								}
+							}
 						}
+						latch.countDown();
 					}
 				});
 			};
@@ -103,15 +251,35 @@ public class FitnessEvaluator implements BulkFitnessFunction, Configurable {
 			} catch (InterruptedException e) {
 				e.printStackTrace();
 			}
+		} else if (threadStealing){
+			handleStealing(list);
 		}else {
 			handleSubset(list, 0, list.size(), 0);
 		}
+	}
 
-		generation++;
+	/**
+	 * @return The random offset given to the Simulators in this
+	 * generation (the single threaded mode never sets one).
+	 */
+	private int getRandomOffset() {
+		if (newSeedAfter > 0 && (threading || threadPooling || threadStealing))
+			return generation / newSeedAfter;
+		return 0;
 	}
 
 	private void handleSubset(List<Chromosome> list, int start, int end,
 			int myNumber) {
+		if (batches != null) {
+			for (int j = start; j < end; j += batchSize) {
+				try {
+					evaluateBatch(batches[myNumber], list, j, Math.min(j + batchSize, end));
+				} catch (TranscriberException e) {
+					e.printStackTrace();
+				}
+			}
+			return;
+		}
 		for (int j = start; j < end; j++) {
 			try {
 				double score = controllers[myNumber].evaluate(activatorFactory
@@ -130,10 +298,157 @@ public class FitnessEvaluator implements BulkFitnessFunction, Configurable {
 
 	
 	
+	private void evaluateBatch(BatchController batch, List<Chromosome> list, int start, int end) throws TranscriberException {
+		Activator[] nns = new Activator[end - start];
+		for (int j = start; j < end; j++) {
+			nns[j - start] = activatorFactory.newActivator(list.get(j));
+		}
+		double[] scores = batch.evaluate(nns);
+		for (int j = start; j < end; j++) {
+			list.get(j).setFitnessValue((int)scores[j - start]);
+		}
+	}
+
+	private void handleStealing(List<Chromosome> list) {
+		synchronized (allWorkers) {
+			// The pool ends idle threads and starts new ones, so
+			// forget the Workers of threads that have ended
+			for (Iterator<Worker> it = allWorkers.iterator(); it.hasNext();) {
+				Worker worker = it.next();
+				if (!worker.thread.isAlive()) {
+					it.remove();
+					if (worker.timer != null) {
+						synchronized (timers) {
+							timers.remove(worker.timer);
+						}
+					}
+				} else {
+					worker.startGeneration();
+				}
+			}
+		}
+		long steals = stealingPool.getStealCount();
+		long start = System.nanoTime();
+
+		stealingPool.invoke(new EvaluationTask(list, 0, list.size()));
+
+		long wallTime = System.nanoTime() - start;
+		steals = stealingPool.getStealCount() - steals;
+
+		if (!isLogGeneration())
+			return;
+		// Workers that evaluated nothing were idle the whole
+		// generation. While a worker waits on a join the pool may
+		// start a compensating thread, so more threads than the
+		// parallelism can have been busy.
+		int threads = stealingPool.getParallelism();
+		int busyThreads = 0;
+		long totalBusy = 0;
+		long maxBusy = 0;
+		synchronized (allWorkers) {
+			for (Worker worker : allWorkers) {
+				if (worker.busyTime > 0)
+					busyThreads++;
+				totalBusy += worker.busyTime;
+				maxBusy = Math.max(maxBusy, worker.busyTime);
+			}
+		}
+		threads = Math.max(threads, busyThreads);
+		double meanBusy = (double) totalBusy / threads;
+		double idle = 1.0 - (double) totalBusy / ((double) wallTime * threads);
+		System.out.printf("Generation %d: %d chromosomes in %d ms, %.1f%% idle, imbalance %.2f (max/mean busy), %d steals%n",
+				generation, list.size(), wallTime / 1000000, Math.max(0.0, idle) * 100,
+				meanBusy > 0 ? maxBusy / meanBusy : 1.0, steals);
+	}
+
+	/**
+	 * Evaluates a range of chromosomes by splitting it in halves
+	 * until each task is a single chromosome (or batch), so idle
+	 * workers can steal whatever is left instead of waiting on a
+	 * fixed slice.
+	 */
+	private class EvaluationTask extends RecursiveAction {
+		private static final long serialVersionUID = 1L;
+
+		private final List<Chromosome> list;
+		private final int start;
+		private final int end;
+
+		public EvaluationTask(List<Chromosome> list, int start, int end) {
+			this.list = list;
+			this.start = start;
+			this.end = end;
+		}
+
+		@Override
+		protected void compute() {
+			if (end - start > batchSize) {
+				int middle = (start + end) >>> 1;
+				invokeAll(new EvaluationTask(list, start, middle), new EvaluationTask(list, middle, end));
+			} else if (end > start) {
+				workers.get().evaluate(list, start, end);
+			}
+		}
+	}
+
+	/**
+	 * The Controller (or BatchController) owned by one worker
+	 * thread, along with how long that thread has spent
+	 * evaluating in this generation.
+	 */
+	private class Worker {
+		private final Thread thread = Thread.currentThread();
+		private final TuringController controller;
+		private final BatchController batch;
+		private PhaseTimer timer;
+		private long busyTime;
+
+		public Worker(TuringController controller, BatchController batch) {
+			this.controller = controller;
+			this.batch = batch;
+		}
+
+		public void startGeneration() {
+			busyTime = 0;
+		}
+
+		public void evaluate(List<Chromosome> list, int start, int end) {
+			long time = System.nanoTime();
+			try {
+				if (batch != null) {
+					if (newSeedAfter > 0)
+						batch.setRandomOffset(generation / newSeedAfter);
+					evaluateBatch(batch, list, start, end);
+				} else {
+					if (newSeedAfter > 0)
+						controller.getSimulator().setRandomOffset(generation / newSeedAfter);
+					for (int j = start; j < end; j++) {
+						double score = controller.evaluate(activatorFactory.newActivator(list.get(j)));
+						list.get(j).setFitnessValue((int)score);
+					}
+				}
+			} catch (TranscriberException e) {
+				throw new RuntimeException(e);
+			} finally {
+				busyTime += System.nanoTime() - time;
+			}
+		}
+	}
+
+	@Override
+	public void writeState(DataOutput out) throws IOException {
+		out.writeInt(generation);
+	}
+
+	@Override
+	public void readState(DataInput in) throws IOException {
+		generation = in.readInt();
+	}
+
 	@Override
 	public int getMaxFitnessValue() {
 		int result;
-		if (threadPooling){
+		if (threadPooling || threadStealing){
 			result = cachedController.getMaxScore();
 		}
 		else {
@@ -152,10 +467,27 @@ public class FitnessEvaluator implements BulkFitnessFunction, Configurable {
 				.getIntProperty("simulate.generations.identical", -1);
 		threading = properties.getBooleanProperty("threading", false);
 		threadPooling = properties.getBooleanProperty("thread.pooling", false);
+		threadStealing = properties.getBooleanProperty("thread.stealing", false);
+		batchSize = properties.getIntProperty("controller.batch.size", 1);
+		int cacheSize = properties.getIntProperty("fitness.cache.size", 0);
+		if (cacheSize > 0)
+			fitnessCache = new FitnessCache(cacheSize);
+		timing = properties.getBooleanProperty("controller.timing", false);
+		timingSampleInterval = properties.getIntProperty("controller.timing.sample.interval", 16);
+		timingLogInterval = properties.getIntProperty("controller.timing.log.interval", 1);
+		if (timing && properties.getProperty("controller.timing.listener.class", null) != null) {
+			addPhaseTimingListener((PhaseTimingListener) properties.newObjectProperty("controller.timing.listener"));
+		}
 		
 		if (threading && threadPooling){
 			throw new RuntimeException("Cannot have both threading and thread pooling!");
 		}
+		if (threadStealing && (threading || threadPooling)){
+			throw new RuntimeException("Cannot have thread stealing together with threading or thread pooling!");
+		}
+		if (batchSize < 1 || (batchSize > 1 && threadPooling)){
+			throw new RuntimeException("Batch size must be at least 1 and cannot be used with thread pooling!");
+		}
 
 		if (threading) {
 			// Prepare for multi-threading
@@ -163,6 +495,31 @@ public class FitnessEvaluator implements BulkFitnessFunction, Configurable {
 			controllers = new TuringController[cores];
 		} else if (threadPooling){
 			threadPool = Executors.newCachedThreadPool();
+			if (timing)
+				poolTimer = newPhaseTimer("thread pool");
+			cachedController = loadController(properties);
+		} else if (threadStealing){
+			final Properties props = properties;
+			stealingPool = new ForkJoinPool(Runtime.getRuntime().availableProcessors());
+			workers = new ThreadLocal<Worker>() {
+				@Override
+				protected Worker initialValue() {
+					Worker worker = batchSize > 1
+							? new Worker(null, new BatchController(props, batchSize))
+							: new Worker(loadController(props), null);
+					if (timing) {
+						worker.timer = newPhaseTimer(Thread.currentThread().getName());
+						if (worker.batch != null)
+							worker.batch.setPhaseTimer(worker.timer);
+						else
+							worker.controller.setPhaseTimer(worker.timer);
+					}
+					synchronized (allWorkers) {
+						allWorkers.add(worker);
+					}
+					return worker;
+				}
+			};
 			cachedController = loadController(properties);
 		} else {
 			cores = 1;
@@ -172,8 +529,22 @@ public class FitnessEvaluator implements BulkFitnessFunction, Configurable {
 		generation = 0;
 		cachedProps = properties;
 
+		if (batchSize > 1 && controllers != null)
+			batches = new BatchController[cores];
 		for (int i = 0; i < cores; i++) {
-			controllers[i] = FitnessEvaluator.loadController(properties);
+			// A batch plays its episodes on its own Controller
+			if (batches != null) {
+				batches[i] = new BatchController(properties, batchSize);
+				controllers[i] = batches[i].getController();
+			} else {
+				controllers[i] = FitnessEvaluator.loadController(properties);
+			}
+		}
+		if (timing && controllers != null) {
+			// One timer for each fixed slice, whichever thread runs it
+			for (int i = 0; i < cores; i++) {
+				controllers[i].setPhaseTimer(newPhaseTimer("slice " + i));
+			}
 		}
 	}
 	
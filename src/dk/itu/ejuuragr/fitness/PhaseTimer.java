@@ -0,0 +1,144 @@
+package dk.itu.ejuuragr.fitness;
+
+/**
+ * Accumulates how long the steps of a Controller spend in
+ * each phase: activating the network, processing the outputs
+ * in the controller (the TM) and stepping the simulation.
+ * Only every sampleInterval'th step is timed (with
+ * System.nanoTime()); the totals are estimated by scaling the
+ * sampled times to all the steps taken.
+ *
+ * A timer is only used by one thread at a time, so it is not
+ * synchronized.
+ */
+public class PhaseTimer {
+
+	private final String name;
+	private final int sampleInterval;
+	private int untilSample;
+
+	private long steps;
+	private long sampledSteps;
+	private long evaluations;
+	private long networkTime;
+	private long controllerTime;
+	private long simulationTime;
+
+	/**
+	 * @param name Where the time was spent, e.g. the thread.
+	 * @param sampleInterval Time one in this many steps.
+	 */
+	public PhaseTimer(String name, int sampleInterval) {
+		if (sampleInterval < 1)
+			throw new IllegalArgumentException("The sample interval must be at least 1, was " + sampleInterval);
+		this.name = name;
+		this.sampleInterval = sampleInterval;
+		this.untilSample = sampleInterval;
+	}
+
+	/**
+	 * Counts a step.
+	 * @return True if the step should be timed.
+	 */
+	public boolean sample() {
+		steps++;
+		if (--untilSample > 0)
+			return false;
+		untilSample = sampleInterval;
+		sampledSteps++;
+		return true;
+	}
+
+	/**
+	 * Adds the times of a sampled step, in nanoseconds.
+	 */
+	public void add(long network, long controller, long simulation) {
+		networkTime += network;
+		controllerTime += controller;
+		simulationTime += simulation;
+	}
+
+	public void evaluationDone() {
+		evaluations++;
+	}
+
+	/**
+	 * Adds the counts and times of another timer to this one.
+	 */
+	public void add(PhaseTimer other) {
+		steps += other.steps;
+		sampledSteps += other.sampledSteps;
+		evaluations += other.evaluations;
+		networkTime += other.networkTime;
+		controllerTime += other.controllerTime;
+		simulationTime += other.simulationTime;
+	}
+
+	public void reset() {
+		steps = sampledSteps = evaluations = 0;
+		networkTime = controllerTime = simulationTime = 0;
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	public long getSteps() {
+		return steps;
+	}
+
+	public long getSampledSteps() {
+		return sampledSteps;
+	}
+
+	public long getEvaluations() {
+		return evaluations;
+	}
+
+	/**
+	 * @return The estimated nanoseconds spent activating the
+	 * network in all the steps.
+	 */
+	public long getNetworkTime() {
+		return estimate(networkTime);
+	}
+
+	/**
+	 * @return The estimated nanoseconds spent in the controller
+	 * (i.e. the TM) in all the steps.
+	 */
+	public long getControllerTime() {
+		return estimate(controllerTime);
+	}
+
+	/**
+	 * @return The estimated nanoseconds spent in the simulation
+	 * in all the steps.
+	 */
+	public long getSimulationTime() {
+		return estimate(simulationTime);
+	}
+
+	public long getTotalTime() {
+		return getNetworkTime() + getControllerTime() + getSimulationTime();
+	}
+
+	private long estimate(long sampledTime) {
+		if (sampledSteps == 0)
+			return 0;
+		return (long) ((double) sampledTime * steps / sampledSteps);
+	}
+
+	@Override
+	public String toString() {
+		long total = getTotalTime();
+		return String.format("%s: %d evaluations, %d steps (%d timed), network %.1f%%, TM %.1f%%, simulation %.1f%% of %d ms (%d ns/step)",
+				name, evaluations, steps, sampledSteps,
+				percent(getNetworkTime(), total), percent(getControllerTime(), total), percent(getSimulationTime(), total),
+				total / 1000000, steps > 0 ? total / steps : 0);
+	}
+
+	private static double percent(long part, long total) {
+		return total > 0 ? 100.0 * part / total : 0;
+	}
+}
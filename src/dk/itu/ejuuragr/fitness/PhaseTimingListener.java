@@ -0,0 +1,20 @@
+package dk.itu.ejuuragr.fitness;
+
+import java.util.List;
+
+/**
+ * Is told how the time of each generation evaluated by a
+ * FitnessEvaluator was spent, when "controller.timing" is on.
+ *
+ * @see FitnessEvaluator#addPhaseTimingListener(PhaseTimingListener)
+ */
+public interface PhaseTimingListener {
+
+	/**
+	 * @param generation The generation that was evaluated.
+	 * @param total The sum of all the threads.
+	 * @param perThread One timer for each thread that evaluated.
+	 * They are reset when this returns, so copy what is kept.
+	 */
+	public void generationTimed(int generation, PhaseTimer total, List<PhaseTimer> perThread);
+}
@@ -8,12 +8,14 @@ import java.awt.event.KeyListener;
 import java.awt.image.BufferedImage;
 import java.io.File;
 import java.io.IOException;
+import java.util.List;
 
 import javax.imageio.ImageIO;
 import javax.swing.JComponent;
 import javax.swing.JFrame;
 
-import dk.itu.ejuuragr.replay.Recording;
+import dk.itu.ejuuragr.replay.TimeStep;
+import dk.itu.ejuuragr.turing.GravesTuringMachine.GravesTuringMachineTimeStep;
 
 /**
  * Basic functioanlity for visualizing a replay of
@@ -26,10 +28,10 @@ public abstract class AbstractReplayVisualizer {
 
 	public static int pixelSize = 25;
 	protected final JFrame frame;
-	protected Recording<?> recording;
+	protected List<? extends TimeStep<?>> recording;
 	private RecordingComponent component;
 	
-	public AbstractReplayVisualizer(Recording<?> recording){
+	public AbstractReplayVisualizer(List<? extends TimeStep<?>> recording){
 		frame = new JFrame();
 		frame.setSize(800, 800);
 		this.recording = recording;
@@ -82,6 +84,17 @@ public abstract class AbstractReplayVisualizer {
 		frame.setVisible(true);
 	}
 	
+	/**
+	 * @return The tape after the given step, reconstructed from
+	 * the tape deltas if the step does not hold a copy of it.
+	 */
+	protected double[][] getTape(int index){
+		double[][] tape = recording.get(index).getTuringMachineContent();
+		if (tape == null)
+			tape = GravesTuringMachineTimeStep.reconstructTape(recording, index);
+		return tape;
+	}
+	
 	protected abstract void paint(Graphics2D g);
 	protected void repaint(){
 		if (component != null) component.repaint();
@@ -24,8 +24,8 @@ public class CopyTaskResultGrabber extends CopyTask {
 	}
 	
 	@Override
-	public void restart() {
-		super.restart();
+	protected void startEpisode(double[][] sequence) {
+		super.startEpisode(sequence);
 		received = new double[sequence.length][];
 		i = 0;
 	}
@@ -2,8 +2,8 @@ package dk.itu.ejuuragr.graph;
 
 import java.awt.Color;
 import java.awt.Graphics2D;
+import java.util.List;
 
-import dk.itu.ejuuragr.replay.Recording;
 import dk.itu.ejuuragr.replay.TimeStep;
 import dk.itu.ejuuragr.replay.TuringTimeStep;
 import dk.itu.ejuuragr.turing.GravesTuringMachine.GravesTuringMachineTimeStep;
@@ -19,7 +19,7 @@ import dk.itu.ejuuragr.turing.MinimalTuringMachine.MinimalTuringMachineTimeStep;
 public class StaticMemoryFocusVisualizer extends AbstractReplayVisualizer {
 
 	
-	public StaticMemoryFocusVisualizer(Recording<?> recording) {
+	public StaticMemoryFocusVisualizer(List<? extends TimeStep<?>> recording) {
 		super(recording);
 		frame.setSize(3000, 1500);
 	}
@@ -2,8 +2,8 @@ package dk.itu.ejuuragr.graph;
 
 import java.awt.Color;
 import java.awt.Graphics2D;
+import java.util.List;
 
-import dk.itu.ejuuragr.replay.Recording;
 import dk.itu.ejuuragr.replay.TimeStep;
 import dk.itu.ejuuragr.turing.GravesTuringMachine.GravesTuringMachineTimeStep;
 import dk.itu.ejuuragr.turing.GravesTuringMachine.HeadTimeStep;
@@ -21,7 +21,7 @@ import dk.itu.ejuuragr.turing.GravesTuringMachine.HeadTimeStep;
 
 public class StaticReplayVisualizer extends AbstractReplayVisualizer{
 	
-	public StaticReplayVisualizer(Recording<?> recording) {
+	public StaticReplayVisualizer(List<? extends TimeStep<?>> recording) {
 		super(recording);
 	}
 
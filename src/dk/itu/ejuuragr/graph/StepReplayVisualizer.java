@@ -5,8 +5,8 @@ import java.awt.Font;
 import java.awt.Graphics2D;
 import java.awt.event.KeyEvent;
 import java.awt.event.KeyListener;
+import java.util.List;
 
-import dk.itu.ejuuragr.replay.Recording;
 import dk.itu.ejuuragr.replay.TimeStep;
 import dk.itu.ejuuragr.replay.TuringTimeStep;
 import dk.itu.ejuuragr.turing.GravesTuringMachine.GravesTuringMachineTimeStep;
@@ -23,7 +23,7 @@ public class StepReplayVisualizer extends AbstractReplayVisualizer {
 
 	protected int stepIndex = 0;
 
-	public StepReplayVisualizer(final Recording<?> recording) {
+	public StepReplayVisualizer(final List<? extends TimeStep<?>> recording) {
 		super(recording);
 		frame.addKeyListener(new KeyListener() {
 			@Override
@@ -56,12 +56,12 @@ public class StepReplayVisualizer extends AbstractReplayVisualizer {
 		TimeStep<?> step = recording.get(stepIndex);
 		TuringTimeStep turingStep = step.getTuringStep();
 
-		double[][] tmContent = step.getTuringMachineContent();
+		double[][] tmContent = getTape(stepIndex);
 		M = tmContent[0].length;
 		N = tmContent.length;
 
 		// Memory content
-		drawMemoryContent(g, step);
+		drawMemoryContent(g, tmContent);
 
 		double[] writeWeights = null;
 		double[] readWeights = null;
@@ -116,8 +116,7 @@ public class StepReplayVisualizer extends AbstractReplayVisualizer {
 	}
 
 	
-	private void drawMemoryContent(Graphics2D g, TimeStep<?> timeStep) {
-		double[][] tmContent = timeStep.getTuringMachineContent();
+	private void drawMemoryContent(Graphics2D g, double[][] tmContent) {
 
 		// Memory content
 		for (int n = 0; n < N; n++) {
@@ -1,6 +1,8 @@
 package dk.itu.ejuuragr.graph;
 
-import dk.itu.ejuuragr.replay.Recording;
+import java.util.List;
+
+import dk.itu.ejuuragr.replay.TimeStep;
 import dk.itu.ejuuragr.replay.TuringTimeStep;
 
 /**
@@ -11,7 +13,7 @@ import dk.itu.ejuuragr.replay.TuringTimeStep;
  */
 public class TMazeStepReplayVisualizer extends StepReplayVisualizer {
 
-	public TMazeStepReplayVisualizer(Recording<TuringTimeStep> recording){
+	public TMazeStepReplayVisualizer(List<? extends TimeStep<?>> recording){
 		super (recording);
 	}
 	
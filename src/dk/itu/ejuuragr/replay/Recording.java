@@ -3,12 +3,22 @@ package dk.itu.ejuuragr.replay;
 import java.util.ArrayList;
 
 /**
- * A specific list for storing time steps.
+ * A specific list for storing time steps in memory. For long
+ * replays use a RecordingWriter and a RecordingReader instead.
  * 
  * @author Rasmus
  *
  * @param <T> The TuringTimeStep to store for each step.
  */
-public class Recording<T extends TuringTimeStep> extends ArrayList<TimeStep<T>> {
+public class Recording<T extends TuringTimeStep> extends ArrayList<TimeStep<T>> implements RecordingSink<T> {
 	private static final long serialVersionUID = 1L;
+
+	@Override
+	public void record(TimeStep<T> step) {
+		add(step);
+	}
+
+	@Override
+	public void close() {
+	}
 }
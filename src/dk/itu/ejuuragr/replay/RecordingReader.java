@@ -0,0 +1,252 @@
+package dk.itu.ejuuragr.replay;
+
+import java.io.ByteArrayInputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.RandomAccess;
+
+import dk.itu.ejuuragr.turing.GravesTuringMachine.GravesTuringMachineTimeStep;
+import dk.itu.ejuuragr.turing.GravesTuringMachine.HeadTimeStep;
+import dk.itu.ejuuragr.turing.GravesTuringMachine.TapeDelta;
+import dk.itu.ejuuragr.turing.MinimalTuringMachine.MinimalTuringMachineTimeStep;
+
+/**
+ * A read-only list of the time steps in a file written by a
+ * RecordingWriter. Steps are read from the file when they are
+ * asked for and only the most recently used ones are kept in
+ * memory, so it can be given to the visualizers in place of a
+ * Recording no matter how long the replay is.
+ */
+public class RecordingReader<T extends TuringTimeStep> extends AbstractList<TimeStep<T>> implements RandomAccess, Closeable {
+
+	private static final int DEFAULT_CACHE_SIZE = 256;
+
+	private final RandomAccessFile file;
+	private final FileChannel channel;
+	private final int version;
+	private final long[] offsets;
+	private final Map<Integer, TimeStep<T>> cache;
+
+	public RecordingReader(File file) throws IOException {
+		this(file, DEFAULT_CACHE_SIZE);
+	}
+
+	public RecordingReader(File file, final int cacheSize) throws IOException {
+		this.file = new RandomAccessFile(file, "r");
+		this.channel = this.file.getChannel();
+		try {
+			byte[] header = readBytes(0, RecordingWriter.HEADER_LENGTH);
+			if (!Arrays.equals(Arrays.copyOf(header, RecordingWriter.MAGIC.length), RecordingWriter.MAGIC))
+				throw new IOException(file + " is not a recording");
+			version = header[RecordingWriter.MAGIC.length];
+			if (version < 1 || version > RecordingWriter.VERSION)
+				throw new IOException("Unsupported recording version " + version);
+
+			long[] index = readIndex();
+			offsets = index != null ? index : scanRecords();
+		} catch (IOException e) {
+			this.file.close();
+			throw e;
+		}
+		cache = new LinkedHashMap<Integer, TimeStep<T>>(16, 0.75f, true) {
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<Integer, TimeStep<T>> eldest) {
+				return size() > cacheSize;
+			}
+		};
+	}
+
+	@Override
+	public int size() {
+		return offsets.length;
+	}
+
+	@Override
+	public synchronized TimeStep<T> get(int index) {
+		if (index < 0 || index >= offsets.length)
+			throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + offsets.length);
+		TimeStep<T> step = cache.get(index);
+		if (step == null) {
+			try {
+				step = readStep(offsets[index]);
+			} catch (IOException e) {
+				throw new RuntimeException("Could not read time step " + index, e);
+			}
+			cache.put(index, step);
+		}
+		return step;
+	}
+
+	@Override
+	public void close() throws IOException {
+		file.close();
+	}
+
+	/**
+	 * @return The offsets stored by RecordingWriter.close(), or
+	 * null if the file has no index.
+	 */
+	private long[] readIndex() throws IOException {
+		long length = channel.size();
+		int footer = 8 + 8 + RecordingWriter.INDEX_MAGIC.length;
+		if (length < RecordingWriter.HEADER_LENGTH + 4 + footer)
+			return null;
+		ByteBuffer tail = ByteBuffer.wrap(readBytes(length - footer, footer));
+		long count = tail.getLong();
+		long indexStart = tail.getLong();
+		byte[] magic = new byte[RecordingWriter.INDEX_MAGIC.length];
+		tail.get(magic);
+		if (!Arrays.equals(magic, RecordingWriter.INDEX_MAGIC) || count < 0 || count > Integer.MAX_VALUE
+				|| indexStart + count * 8 != length - footer)
+			return null;
+
+		long[] result = new long[(int) count];
+		ByteBuffer index = ByteBuffer.allocate(1 << 16);
+		long position = indexStart;
+		int i = 0;
+		while (i < result.length) {
+			index.clear();
+			index.limit((int) Math.min(index.capacity(), (result.length - i) * 8L));
+			readFully(index, position);
+			position += index.limit();
+			index.flip();
+			while (index.hasRemaining())
+				result[i++] = index.getLong();
+		}
+		return result;
+	}
+
+	/**
+	 * Finds the records of a file that was not closed, ignoring
+	 * a last record that was only partly written.
+	 */
+	private long[] scanRecords() throws IOException {
+		long length = channel.size();
+		long[] result = new long[1024];
+		int count = 0;
+		long position = RecordingWriter.HEADER_LENGTH;
+		ByteBuffer lengthBuffer = ByteBuffer.allocate(4);
+		while (position + 4 <= length) {
+			lengthBuffer.clear();
+			readFully(lengthBuffer, position);
+			int recordLength = lengthBuffer.getInt(0);
+			if (recordLength < 0 || position + 4 + recordLength > length)
+				break;
+			if (count == result.length)
+				result = Arrays.copyOf(result, count * 2);
+			result[count++] = position;
+			position += 4 + recordLength;
+		}
+		return Arrays.copyOf(result, count);
+	}
+
+	private TimeStep<T> readStep(long offset) throws IOException {
+		int length = ByteBuffer.wrap(readBytes(offset, 4)).getInt();
+		DataInputStream in = new DataInputStream(new ByteArrayInputStream(readBytes(offset + 4, length)));
+		return readStep(in, version);
+	}
+
+	private byte[] readBytes(long position, int length) throws IOException {
+		ByteBuffer buffer = ByteBuffer.allocate(length);
+		readFully(buffer, position);
+		return buffer.array();
+	}
+
+	private void readFully(ByteBuffer buffer, long position) throws IOException {
+		while (buffer.hasRemaining()) {
+			int n = channel.read(buffer, position);
+			if (n < 0)
+				throw new IOException("Unexpected end of recording");
+			position += n;
+		}
+	}
+
+	// DECODING
+
+	@SuppressWarnings("unchecked")
+	static <T extends TuringTimeStep> TimeStep<T> readStep(DataInputStream in, int version) throws IOException {
+		int flags = in.readUnsignedByte();
+		TimeStep<T> step = new TimeStep<T>();
+		if ((flags & RecordingWriter.HAS_DOMAIN_INPUT) != 0)
+			step.setDomainInput(readArray(in));
+		if ((flags & RecordingWriter.HAS_DOMAIN_OUTPUT) != 0)
+			step.setDomainOutput(readArray(in));
+		if ((flags & RecordingWriter.HAS_TAPE) != 0) {
+			double[][] tape = new double[in.readInt()][];
+			for (int i = 0; i < tape.length; i++)
+				tape[i] = readArray(in);
+			step.setTuringMachineContent(tape);
+		}
+		if ((flags & RecordingWriter.HAS_TURING_STEP) != 0)
+			step.setTuringStep((T) readTuringStep(in, version));
+		return step;
+	}
+
+	private static TuringTimeStep readTuringStep(DataInputStream in, int version) throws IOException {
+		byte kind = in.readByte();
+		switch (kind) {
+		case RecordingWriter.GRAVES_STEP:
+			GravesTuringMachineTimeStep graves = new GravesTuringMachineTimeStep();
+			readHeads(in, graves.getWriteHeads());
+			readHeads(in, graves.getReadHeads());
+			if (version >= 2)
+				graves.setTapeDelta(readTapeDelta(in));
+			return graves;
+		case RecordingWriter.MINIMAL_STEP:
+			double[] key = readArray(in);
+			double write = in.readDouble();
+			double jump = in.readDouble();
+			double[] shift = readArray(in);
+			double[] read = readArray(in);
+			return new MinimalTuringMachineTimeStep(key, write, jump, shift, read,
+					in.readInt(), in.readInt(), in.readInt(), in.readInt(), in.readInt(), in.readInt());
+		default:
+			throw new IOException("Unknown kind of time step " + kind);
+		}
+	}
+
+	private static void readHeads(DataInputStream in, List<HeadTimeStep> heads) throws IOException {
+		int count = in.readInt();
+		for (int i = 0; i < count; i++) {
+			double[] weights = readArray(in);
+			double[] value = readArray(in);
+			double[] key = readArray(in);
+			heads.add(new HeadTimeStep(weights, value, key, in.readDouble(), in.readDouble()));
+		}
+	}
+
+	private static TapeDelta readTapeDelta(DataInputStream in) throws IOException {
+		byte kind = in.readByte();
+		if (kind == 0)
+			return null;
+		int[] rows = null;
+		if (kind != 2) {
+			rows = new int[in.readInt()];
+			for (int i = 0; i < rows.length; i++)
+				rows[i] = in.readInt();
+		}
+		double[][] values = new double[in.readInt()][];
+		for (int i = 0; i < values.length; i++)
+			values[i] = readArray(in);
+		return new TapeDelta(kind == 2, rows, values);
+	}
+
+	private static double[] readArray(DataInputStream in) throws IOException {
+		double[] result = new double[in.readInt()];
+		for (int i = 0; i < result.length; i++)
+			result[i] = in.readDouble();
+		return result;
+	}
+}
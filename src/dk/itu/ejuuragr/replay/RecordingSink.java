@@ -0,0 +1,18 @@
+package dk.itu.ejuuragr.replay;
+
+import java.io.Closeable;
+
+/**
+ * Where a TuringControllerRecorder puts the time steps it
+ * records: either a Recording kept in memory or a
+ * RecordingWriter streaming them to a file.
+ * 
+ * @param <T> The TuringTimeStep stored for each step.
+ */
+public interface RecordingSink<T extends TuringTimeStep> extends Closeable {
+
+	/**
+	 * Stores the next time step. It is not changed afterwards.
+	 */
+	public void record(TimeStep<T> step);
+}
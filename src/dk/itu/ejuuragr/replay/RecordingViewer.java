@@ -0,0 +1,37 @@
+package dk.itu.ejuuragr.replay;
+
+import java.io.File;
+
+import dk.itu.ejuuragr.graph.AbstractReplayVisualizer;
+import dk.itu.ejuuragr.graph.StaticMemoryFocusVisualizer;
+import dk.itu.ejuuragr.graph.StaticReplayVisualizer;
+import dk.itu.ejuuragr.graph.StepReplayVisualizer;
+
+/**
+ * Shows a recording written by Replay to a file, reading the
+ * time steps from the file as they are drawn.
+ *
+ * Usage: RecordingViewer recording-file [step|static|focus]
+ */
+public class RecordingViewer {
+
+	public static void main(String[] args) throws Exception {
+		if (args.length == 0){
+			System.err.println("Usage: RecordingViewer recording-file [step|static|focus]");
+			System.exit(-1);
+		}
+
+		RecordingReader<TuringTimeStep> recording = new RecordingReader<TuringTimeStep>(new File(args[0]));
+		System.out.println("Loaded " + recording.size() + " steps from " + args[0]);
+
+		String type = args.length > 1 ? args[1] : "step";
+		AbstractReplayVisualizer viz;
+		if (type.equals("static"))
+			viz = new StaticReplayVisualizer(recording);
+		else if (type.equals("focus"))
+			viz = new StaticMemoryFocusVisualizer(recording);
+		else
+			viz = new StepReplayVisualizer(recording);
+		viz.show();
+	}
+}
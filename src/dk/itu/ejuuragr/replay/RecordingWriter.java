@@ -0,0 +1,190 @@
+package dk.itu.ejuuragr.replay;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+
+import dk.itu.ejuuragr.turing.GravesTuringMachine.GravesTuringMachineTimeStep;
+import dk.itu.ejuuragr.turing.GravesTuringMachine.HeadTimeStep;
+import dk.itu.ejuuragr.turing.GravesTuringMachine.TapeDelta;
+import dk.itu.ejuuragr.turing.MinimalTuringMachine.MinimalTuringMachineTimeStep;
+
+/**
+ * Streams the time steps of a replay to a file as they are
+ * recorded, so only the step being written is in memory. The
+ * file is read back with a RecordingReader.
+ *
+ * The file starts with MAGIC and VERSION, followed by one
+ * record per step: its length and then the domain input and
+ * output, the tape and the TuringTimeStep with its tape delta,
+ * all doubles stored exactly. close() appends an index of where
+ * each record starts; without it (e.g. after a crash) the reader
+ * finds the records by scanning the file.
+ */
+public class RecordingWriter<T extends TuringTimeStep> implements RecordingSink<T> {
+
+	static final byte[] MAGIC = new byte[]{'T', 'M', 'R', 'C'};
+	static final byte[] INDEX_MAGIC = new byte[]{'T', 'M', 'R', 'I'};
+	static final byte VERSION = 2; // 2 added tape deltas
+	static final int HEADER_LENGTH = MAGIC.length + 1;
+	static final int END_OF_RECORDS = -1;
+
+	// Flags for the parts of a step that are present
+	static final int HAS_DOMAIN_INPUT = 1;
+	static final int HAS_DOMAIN_OUTPUT = 2;
+	static final int HAS_TAPE = 4;
+	static final int HAS_TURING_STEP = 8;
+
+	// Kinds of TuringTimeStep
+	static final byte GRAVES_STEP = 1;
+	static final byte MINIMAL_STEP = 2;
+
+	private final DataOutputStream out;
+	private final ByteArrayOutputStream recordBytes = new ByteArrayOutputStream();
+	private final DataOutputStream record = new DataOutputStream(recordBytes);
+	private long[] offsets = new long[1024];
+	private int count;
+	private long position;
+	private boolean closed;
+
+	public RecordingWriter(File file) throws IOException {
+		out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file), 1 << 16));
+		out.write(MAGIC);
+		out.writeByte(VERSION);
+		position = HEADER_LENGTH;
+	}
+
+	@Override
+	public void record(TimeStep<T> step) {
+		try {
+			recordBytes.reset();
+			writeStep(record, step);
+			record.flush();
+
+			if (count == offsets.length)
+				offsets = Arrays.copyOf(offsets, count * 2);
+			offsets[count++] = position;
+			out.writeInt(recordBytes.size());
+			recordBytes.writeTo(out);
+			position += 4 + recordBytes.size();
+		} catch (IOException e) {
+			throw new RuntimeException("Could not write time step " + count, e);
+		}
+	}
+
+	/**
+	 * @return The number of steps recorded so far.
+	 */
+	public int size() {
+		return count;
+	}
+
+	/**
+	 * Writes the index and closes the file.
+	 */
+	@Override
+	public void close() throws IOException {
+		if (closed)
+			return;
+		closed = true;
+		try {
+			out.writeInt(END_OF_RECORDS);
+			long indexStart = position + 4;
+			for (int i = 0; i < count; i++)
+				out.writeLong(offsets[i]);
+			out.writeLong(count);
+			out.writeLong(indexStart);
+			out.write(INDEX_MAGIC);
+		} finally {
+			out.close();
+		}
+	}
+
+	// ENCODING
+
+	static void writeStep(DataOutputStream out, TimeStep<?> step) throws IOException {
+		int flags = 0;
+		if (step.getDomainInput() != null) flags |= HAS_DOMAIN_INPUT;
+		if (step.getDomainOutput() != null) flags |= HAS_DOMAIN_OUTPUT;
+		if (step.getTuringMachineContent() != null) flags |= HAS_TAPE;
+		if (step.getTuringStep() != null) flags |= HAS_TURING_STEP;
+		out.writeByte(flags);
+
+		if (step.getDomainInput() != null)
+			writeArray(out, step.getDomainInput());
+		if (step.getDomainOutput() != null)
+			writeArray(out, step.getDomainOutput());
+		if (step.getTuringMachineContent() != null) {
+			double[][] tape = step.getTuringMachineContent();
+			out.writeInt(tape.length);
+			for (double[] location : tape)
+				writeArray(out, location);
+		}
+		if (step.getTuringStep() != null)
+			writeTuringStep(out, step.getTuringStep());
+	}
+
+	private static void writeTuringStep(DataOutputStream out, TuringTimeStep turingStep) throws IOException {
+		if (turingStep instanceof GravesTuringMachineTimeStep) {
+			GravesTuringMachineTimeStep graves = (GravesTuringMachineTimeStep) turingStep;
+			out.writeByte(GRAVES_STEP);
+			writeHeads(out, graves.getWriteHeads());
+			writeHeads(out, graves.getReadHeads());
+			writeTapeDelta(out, graves.getTapeDelta());
+		} else if (turingStep instanceof MinimalTuringMachineTimeStep) {
+			MinimalTuringMachineTimeStep minimal = (MinimalTuringMachineTimeStep) turingStep;
+			out.writeByte(MINIMAL_STEP);
+			writeArray(out, minimal.key);
+			out.writeDouble(minimal.writeInterpolation);
+			out.writeDouble(minimal.contentJump);
+			writeArray(out, minimal.shift);
+			writeArray(out, minimal.read);
+			out.writeInt(minimal.writePosition);
+			out.writeInt(minimal.readPosition);
+			out.writeInt(minimal.writeZeroPosition);
+			out.writeInt(minimal.readZeroPosition);
+			out.writeInt(minimal.correctedWritePosition);
+			out.writeInt(minimal.correctedReadPosition);
+		} else {
+			throw new IllegalArgumentException("Can not record " + turingStep.getClass().getName());
+		}
+	}
+
+	private static void writeHeads(DataOutputStream out, List<HeadTimeStep> heads) throws IOException {
+		out.writeInt(heads.size());
+		for (HeadTimeStep head : heads) {
+			writeArray(out, head.weights);
+			writeArray(out, head.value);
+			writeArray(out, head.key);
+			out.writeDouble(head.keyStrength);
+			out.writeDouble(head.interpolation);
+		}
+	}
+
+	private static void writeTapeDelta(DataOutputStream out, TapeDelta delta) throws IOException {
+		if (delta == null) {
+			out.writeByte(0);
+			return;
+		}
+		out.writeByte(delta.isKeyframe() ? 2 : 1);
+		if (!delta.isKeyframe()) {
+			out.writeInt(delta.getRows().length);
+			for (int row : delta.getRows())
+				out.writeInt(row);
+		}
+		out.writeInt(delta.getValues().length);
+		for (double[] values : delta.getValues())
+			writeArray(out, values);
+	}
+
+	private static void writeArray(DataOutputStream out, double[] array) throws IOException {
+		out.writeInt(array.length);
+		for (double d : array)
+			out.writeDouble(d);
+	}
+}
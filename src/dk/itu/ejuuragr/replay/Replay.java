@@ -102,8 +102,10 @@ public class Replay {
 		
 		Controller controller = (Controller) Utilities.instantiateObject(props.getProperty("controller.class"),new Object[]{props,stepSim}, new Class<?>[]{Properties.class,Simulator.class});
 	
+		//Optionally stream the recording to a file instead of keeping it in memory
+		RecordingWriter<TuringTimeStep> writer = args.length > 2 ? new RecordingWriter<TuringTimeStep>(new File(args[2])) : null;
 		if (controller instanceof TuringController){
-			controller = new TuringControllerRecorder(props, stepSim);
+			controller = writer != null ? new TuringControllerRecorder(props, stepSim, writer) : new TuringControllerRecorder(props, stepSim);
 		}
 		
 		//In the TMaze we want to be able to step through the simulation
@@ -112,10 +114,11 @@ public class Replay {
 			final TMaze tmaze = (TMaze)simulator;
 			final TMazeVisualizer mazeViz = new TMazeVisualizer(tmaze, false);
 			final TMazeStepReplayVisualizer memViz = 
-					(controller instanceof TuringControllerRecorder) ? 
+					(controller instanceof TuringControllerRecorder && ((TuringControllerRecorder)controller).getRecording() != null) ? 
 							new TMazeStepReplayVisualizer(((TuringControllerRecorder)controller).getRecording())
 							:null;
-			memViz.show();
+			if (memViz != null)
+				memViz.show();
 			stepSim.setStepper(new Stepper(){
 
 				@Override
@@ -137,6 +140,10 @@ public class Replay {
 
 		double fitness = controller.evaluate(activator);
 		System.out.println("FINAL FITNESS: "+fitness + " / " + controller.getMaxScore());
+		if (writer != null){
+			writer.close();
+			System.out.println("Recorded " + writer.size() + " steps to " + args[2]);
+		}
 		if (controller instanceof TuringControllerRecorder){
 			//new ReplayVisualizer().show(((TuringControllerMemoryVizProxy)controller).getSteps());
 			
@@ -6,6 +6,7 @@ import com.anji.integration.Activator;
 import com.anji.util.Properties;
 
 import dk.itu.ejuuragr.domain.Simulator;
+import dk.itu.ejuuragr.turing.GravesTuringMachine;
 import dk.itu.ejuuragr.turing.TuringController;
 
 /**
@@ -18,13 +19,25 @@ import dk.itu.ejuuragr.turing.TuringController;
  */
 public class TuringControllerRecorder extends TuringController{
 
-	Recording recording = new Recording();
+	Recording recording;
+	RecordingSink sink;
 	
 	@SuppressWarnings("rawtypes")
 	TimeStep currentTimeStep = new TimeStep<>();
 	
 	public TuringControllerRecorder(Properties props, Simulator sim) {
+		this(props, sim, new Recording());
+	}
+	
+	/**
+	 * Records the time steps to the given sink instead of keeping
+	 * them in memory, e.g. a RecordingWriter for long replays.
+	 */
+	public TuringControllerRecorder(Properties props, Simulator sim, RecordingSink sink) {
 		super(props, sim);
+		this.sink = sink;
+		if (sink instanceof Recording)
+			recording = (Recording) sink;
 		iterations = 1; //Overwrite iteration count when replaying, since we don't care about properties
 		
 		if (tm instanceof Replayable<?>)
@@ -37,6 +50,10 @@ public class TuringControllerRecorder extends TuringController{
 		}
 	}
 	
+	/**
+	 * @return The recorded time steps, or null if they are
+	 * recorded to a sink other than a Recording.
+	 */
 	public Recording getRecording(){
 		return recording;
 	}
@@ -50,9 +67,11 @@ public class TuringControllerRecorder extends TuringController{
 			currentTimeStep.setTuringStep(((Replayable<?>) tm).getLastTimeStep());
 		}
 			
-		currentTimeStep.setTuringMachineContent(tm.getTapeValues());
+		//The tape is in the TM step when it records tape deltas
+		if (!(tm instanceof GravesTuringMachine && ((GravesTuringMachine) tm).isRecordingTape()))
+			currentTimeStep.setTuringMachineContent(tm.getTapeValues());
 		//Store and get ready for next step
-		recording.add(currentTimeStep);
+		sink.record(currentTimeStep);
 		currentTimeStep = new TimeStep();
 		
 		return result;
@@ -3,6 +3,7 @@ package dk.itu.ejuuragr.run;
 import java.io.BufferedReader;
 import java.io.FileInputStream;
 import java.io.InputStreamReader;
+import java.util.Arrays;
 import java.util.Random;
 
 import com.anji.util.Properties;
@@ -16,14 +17,21 @@ import dk.itu.ejuuragr.turing.TuringMachine;
  * Our version of the ANJI evolver which will
  * calculate the number of stimulus and response
  * neurons in the ANN based on the domain and TM
- * defined in properties.
+ * defined in properties. Given RESUME_ARG before the
+ * properties it continues the run from its checkpoint.
  * 
  * @author Rasmus
  *
  */
 public class Evolver {
 
+	public static final String RESUME_ARG = "--resume";
+
 	public static void main(String[] args) throws Throwable {
+		boolean resume = args.length > 0 && args[0].equals(RESUME_ARG);
+		if (resume)
+			args = Arrays.copyOfRange(args, 1, args.length);
+
 		java.util.Properties p1 = new java.util.Properties();
 		p1.load(ClassLoader.getSystemResourceAsStream( args[0] ));
 		String seedFromStdIn = (args.length < 2) ? null : args[1];
@@ -44,6 +52,8 @@ public class Evolver {
 			p1.setProperty("log4j.appender.A1.File", "./db/log" + seed + ".txt");
 			p1.setProperty("persistence.base.dir", "./db"+seed);
 		}
+		if (resume)
+			p1.setProperty(com.anji.neat.Evolver.CHECKPOINT_RESUME_KEY, "true");
 		Properties props = new Properties(p1);
 		
 		com.anji.neat.Evolver evolver = new com.anji.neat.Evolver();
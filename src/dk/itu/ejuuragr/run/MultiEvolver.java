@@ -5,6 +5,7 @@ import java.io.File;
 import java.io.FileReader;
 import java.io.IOException;
 import java.io.InputStreamReader;
+import java.util.Arrays;
 import java.util.Random;
 
 import com.anji.util.Properties;
@@ -18,7 +19,8 @@ import dk.itu.ejuuragr.turing.TuringMachine;
  * Our version of the ANJI evolver which is capable
  * of querying for missing properties so it is easy
  * to de deploy the evolutions on multiple systems
- * with different properties.
+ * with different properties. Like the Evolver it takes
+ * Evolver.RESUME_ARG first to continue from a checkpoint.
  * 
  * @author Emil
  *
@@ -26,6 +28,10 @@ import dk.itu.ejuuragr.turing.TuringMachine;
 public class MultiEvolver {
 
 	public static void main(String[] args) throws Throwable {
+		boolean resume = args.length > 0 && args[0].equals(Evolver.RESUME_ARG);
+		if (resume)
+			args = Arrays.copyOfRange(args, 1, args.length);
+
 		final java.util.Properties props = new java.util.Properties();
 		File file = new File(args[0]);
 		if (!file.exists())
@@ -45,6 +51,8 @@ public class MultiEvolver {
 		ask(props,br,"controller.iterations");
 		ask(props,br,"weight.mutation.std.dev");
 		ask(props,br,"random.seed");
+		if (resume)
+			props.setProperty(com.anji.neat.Evolver.CHECKPOINT_RESUME_KEY, "true");
 		
 		runEvolution(new Properties(props));
 	}
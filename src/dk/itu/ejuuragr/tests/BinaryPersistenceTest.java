@@ -0,0 +1,268 @@
+package dk.itu.ejuuragr.tests;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+
+import org.jgap.Allele;
+import org.jgap.BulkFitnessFunction;
+import org.jgap.Chromosome;
+import org.jgap.Genotype;
+import org.jgap.Specie;
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.anji.neat.ConnectionAllele;
+import com.anji.neat.NeatConfiguration;
+import com.anji.neat.NeuronAllele;
+import com.anji.persistence.BinaryChromosome;
+import com.anji.persistence.EvolutionCheckpoint;
+import com.anji.persistence.GenerationArchive;
+import com.anji.util.Properties;
+
+public class BinaryPersistenceTest {
+
+	/**
+	 * Gives each chromosome a fitness from its size, so the run
+	 * is the same every time.
+	 */
+	private static class SizeFitness implements BulkFitnessFunction {
+		private static final long serialVersionUID = 1L;
+
+		@Override
+		public void evaluate(List subjects) {
+			for (Object o : subjects) {
+				Chromosome c = (Chromosome) o;
+				c.setFitnessValue(1 + c.size() % 7);
+			}
+		}
+
+		@Override
+		public int getMaxFitnessValue() {
+			return 10;
+		}
+	}
+
+	private NeatConfiguration config;
+
+	/**
+	 * A population that has evolved for a few generations, so
+	 * there are hidden neurons, recurrent connections and parents.
+	 */
+	private Genotype createGenotype() throws Exception {
+		Properties props = new Properties();
+		props.setProperty("stimulus.size", "3");
+		props.setProperty("response.size", "2");
+		props.setProperty("popul.size", "20");
+		props.setProperty("random.seed", "0");
+		props.setProperty("add.neuron.mutation.rate", "0.2");
+		props.setProperty("add.connection.mutation.rate", "0.3");
+		props.setProperty("recurrent", "best_guess");
+		config = new NeatConfiguration(props);
+		config.setBulkFitnessFunction(new SizeFitness());
+		Genotype genotype = Genotype.randomInitialGenotype(config);
+		for (int i = 0; i < 3; i++) {
+			genotype.evolve();
+		}
+		return genotype;
+	}
+
+	private void assertSameChromosome(Chromosome expected, Chromosome actual) {
+		Assert.assertEquals(expected.getId(), actual.getId());
+		Assert.assertEquals(expected.getPrimaryParentId(), actual.getPrimaryParentId());
+		Assert.assertEquals(expected.getSecondaryParentId(), actual.getSecondaryParentId());
+		Assert.assertEquals(expected.size(), actual.size());
+		Iterator<?> e = expected.getAlleles().iterator();
+		Iterator<?> a = actual.getAlleles().iterator();
+		while (e.hasNext()) {
+			Allele ea = (Allele) e.next();
+			Allele aa = (Allele) a.next();
+			Assert.assertEquals(ea.getClass(), aa.getClass());
+			Assert.assertEquals(ea.getInnovationId(), aa.getInnovationId());
+			if (ea instanceof ConnectionAllele) {
+				ConnectionAllele ec = (ConnectionAllele) ea;
+				ConnectionAllele ac = (ConnectionAllele) aa;
+				Assert.assertEquals(ec.getSrcNeuronId(), ac.getSrcNeuronId());
+				Assert.assertEquals(ec.getDestNeuronId(), ac.getDestNeuronId());
+				// Weights must be exact
+				Assert.assertEquals(Double.doubleToLongBits(ec.getWeight()), Double.doubleToLongBits(ac.getWeight()));
+			} else {
+				NeuronAllele en = (NeuronAllele) ea;
+				NeuronAllele an = (NeuronAllele) aa;
+				Assert.assertEquals(en.getType(), an.getType());
+				Assert.assertEquals(en.getActivationType(), an.getActivationType());
+			}
+		}
+	}
+
+	private byte[] toBytes(Chromosome c, boolean compress) throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		BinaryChromosome.write(c, bytes, compress);
+		return bytes.toByteArray();
+	}
+
+	@Test
+	public void testChromosomeRoundTrip() throws Exception {
+		Genotype genotype = createGenotype();
+		for (Object o : genotype.getChromosomes()) {
+			Chromosome c = (Chromosome) o;
+			for (boolean compress : new boolean[] { false, true }) {
+				Chromosome read = BinaryChromosome.read(config, new ByteArrayInputStream(toBytes(c, compress)));
+				assertSameChromosome(c, read);
+			}
+		}
+	}
+
+	@Test
+	public void testTruncatedChromosome() throws Exception {
+		Chromosome c = (Chromosome) createGenotype().getChromosomes().get(0);
+		byte[] bytes = toBytes(c, false);
+		byte[] truncated = new byte[bytes.length - 3];
+		System.arraycopy(bytes, 0, truncated, 0, truncated.length);
+		try {
+			BinaryChromosome.read(config, new ByteArrayInputStream(truncated));
+			Assert.fail("Read a truncated chromosome");
+		} catch (EOFException e) {
+			// expected
+		}
+
+		bytes[0] = 'X';
+		try {
+			BinaryChromosome.read(config, new ByteArrayInputStream(bytes));
+			Assert.fail("Read a chromosome with the wrong magic number");
+		} catch (IOException e) {
+			// expected
+		}
+	}
+
+	@Test
+	public void testGenerationArchiveRoundTrip() throws Exception {
+		List<?> chroms = createGenotype().getChromosomes();
+		File file = File.createTempFile("generation", ".bin");
+		try {
+			// Two appends, as when a generation is written in parts
+			GenerationArchive.append(file, chroms.subList(0, 5), true);
+			GenerationArchive.append(file, chroms.subList(5, chroms.size()), true);
+
+			List<?> ids = GenerationArchive.readIds(file);
+			List<?> all = GenerationArchive.readAll(file, config);
+			Assert.assertEquals(chroms.size(), ids.size());
+			Assert.assertEquals(chroms.size(), all.size());
+			for (int i = 0; i < chroms.size(); i++) {
+				Chromosome c = (Chromosome) chroms.get(i);
+				Assert.assertEquals(c.getId(), ids.get(i));
+				assertSameChromosome(c, (Chromosome) all.get(i));
+			}
+
+			Chromosome last = (Chromosome) chroms.get(chroms.size() - 1);
+			assertSameChromosome(last, GenerationArchive.read(file, last.getId(), config));
+			Assert.assertNull(GenerationArchive.read(file, Long.valueOf(-1), config));
+		} finally {
+			file.delete();
+		}
+	}
+
+	@Test
+	public void testTruncatedGenerationArchive() throws Exception {
+		List<?> chroms = createGenotype().getChromosomes();
+		File file = File.createTempFile("generation", ".bin");
+		try {
+			GenerationArchive.append(file, chroms, false);
+			RandomAccessFile raf = new RandomAccessFile(file, "rw");
+			try {
+				raf.setLength(raf.length() - 10);
+			} finally {
+				raf.close();
+			}
+			// Only the incomplete last record is lost.
+			List<?> all = GenerationArchive.readAll(file, config);
+			Assert.assertEquals(chroms.size() - 1, all.size());
+			for (int i = 0; i < all.size(); i++) {
+				assertSameChromosome((Chromosome) chroms.get(i), (Chromosome) all.get(i));
+			}
+			Assert.assertEquals(chroms.size() - 1, GenerationArchive.readIds(file).size());
+			Chromosome first = (Chromosome) chroms.get(0);
+			assertSameChromosome(first, GenerationArchive.read(file, first.getId(), config));
+			Chromosome last = (Chromosome) chroms.get(chroms.size() - 1);
+			Assert.assertNull(GenerationArchive.read(file, last.getId(), config));
+
+			// A record cut inside its id.
+			file.delete();
+			GenerationArchive.append(file, chroms.subList(0, 3), false);
+			raf = new RandomAccessFile(file, "rw");
+			try {
+				raf.seek(raf.length());
+				raf.write(new byte[] { 0, 0, 0 });
+			} finally {
+				raf.close();
+			}
+			Assert.assertEquals(3, GenerationArchive.readIds(file).size());
+			Assert.assertEquals(3, GenerationArchive.readAll(file, config).size());
+		} finally {
+			file.delete();
+		}
+	}
+
+	@Test
+	public void testCheckpointRoundTrip() throws Exception {
+		Genotype genotype = createGenotype();
+		List<Object> parts = Collections.emptyList();
+		EvolutionCheckpoint checkpoint = EvolutionCheckpoint.capture(config, genotype, 3, parts);
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		checkpoint.write(bytes);
+
+		EvolutionCheckpoint read = EvolutionCheckpoint.read(new ByteArrayInputStream(bytes.toByteArray()), config);
+		Assert.assertEquals(3, read.getGeneration());
+		Genotype restored = read.restore(config, parts);
+
+		List<?> expected = genotype.getChromosomes();
+		List<?> actual = restored.getChromosomes();
+		Assert.assertEquals(expected.size(), actual.size());
+		for (int i = 0; i < expected.size(); i++) {
+			Chromosome e = (Chromosome) expected.get(i);
+			Chromosome a = (Chromosome) actual.get(i);
+			assertSameChromosome(e, a);
+			Assert.assertEquals(e.getFitnessValue(), a.getFitnessValue());
+		}
+
+		List<?> expectedSpecies = genotype.getSpecies();
+		List<?> actualSpecies = restored.getSpecies();
+		Assert.assertEquals(expectedSpecies.size(), actualSpecies.size());
+		for (int i = 0; i < expectedSpecies.size(); i++) {
+			Specie e = (Specie) expectedSpecies.get(i);
+			Specie a = (Specie) actualSpecies.get(i);
+			Assert.assertEquals(e.getRepresentative().getId(), a.getRepresentative().getId());
+			List<Long> expectedIds = new ArrayList<Long>();
+			for (Object o : e.getChromosomes())
+				expectedIds.add(((Chromosome) o).getId());
+			List<Long> actualIds = new ArrayList<Long>();
+			for (Object o : a.getChromosomes())
+				actualIds.add(((Chromosome) o).getId());
+			Assert.assertEquals(expectedIds, actualIds);
+		}
+	}
+
+	@Test
+	public void testTruncatedCheckpoint() throws Exception {
+		Genotype genotype = createGenotype();
+		List<Object> parts = Collections.emptyList();
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		EvolutionCheckpoint.capture(config, genotype, 3, parts).write(bytes);
+		byte[] all = bytes.toByteArray();
+		byte[] truncated = new byte[all.length / 2];
+		System.arraycopy(all, 0, truncated, 0, truncated.length);
+		try {
+			EvolutionCheckpoint.read(new ByteArrayInputStream(truncated), config);
+			Assert.fail("Read a truncated checkpoint");
+		} catch (IOException e) {
+			// expected
+		}
+	}
+}
@@ -0,0 +1,110 @@
+package dk.itu.ejuuragr.tests;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.anji.integration.AnjiActivator;
+import com.anji.integration.CompiledActivator;
+import com.anji.nn.ActivationFunctionFactory;
+import com.anji.nn.AnjiNet;
+import com.anji.nn.CacheNeuronConnection;
+import com.anji.nn.CompiledNet;
+import com.anji.nn.Neuron;
+import com.anji.nn.NeuronConnection;
+
+public class CompiledActivatorTest {
+
+	/**
+	 * 2 inputs, 2 hidden and 1 output, where the output feeds back
+	 * into the first hidden neuron and the second hidden neuron
+	 * feeds back into itself.
+	 */
+	private AnjiNet createNet(){
+		return createNet(new double[]{-1.5, 0.7, 0.8, -2.1, 1.3, 3.2, -0.4});
+	}
+
+	/**
+	 * The same net with the given weights for connections 0 to 6.
+	 */
+	private AnjiNet createNet(double[] weights){
+		ActivationFunctionFactory functions = ActivationFunctionFactory.getInstance();
+		Neuron in1 = new Neuron(functions.getLinear());
+		Neuron in2 = new Neuron(functions.getLinear());
+		Neuron h1 = new Neuron(functions.getTanh());
+		Neuron h2 = new Neuron(functions.getSigmoid());
+		Neuron out = new Neuron(functions.getSigmoid());
+
+		List<Object> recurrent = new ArrayList<Object>();
+		NeuronConnection[] conns = new NeuronConnection[]{
+				new CacheNeuronConnection(out, weights[0]),
+				new CacheNeuronConnection(h2, weights[1]),
+				new NeuronConnection(in1, weights[2]),
+				new NeuronConnection(in2, weights[3]),
+				new NeuronConnection(h1, weights[4]),
+				new NeuronConnection(h2, weights[5]),
+				new NeuronConnection(in1, weights[6])};
+		for (int i = 0; i < conns.length; i++){
+			conns[i].setId(i);
+		}
+		recurrent.add(conns[0]);
+		recurrent.add(conns[1]);
+
+		h1.addIncomingConnection(conns[2]);
+		h1.addIncomingConnection(conns[0]);
+		h2.addIncomingConnection(conns[3]);
+		h2.addIncomingConnection(conns[4]);
+		h2.addIncomingConnection(conns[1]);
+		out.addIncomingConnection(conns[5]);
+		out.addIncomingConnection(conns[6]);
+
+		// Deliberately not in topological order
+		List<Neuron> all = Arrays.asList(out, h2, in1, h1, in2);
+		return new AnjiNet(all, Arrays.asList(in1, in2), Arrays.asList(out), recurrent, "test");
+	}
+
+	@Test
+	public void testSameAsAnjiActivator(){
+		for (int cycles = 1; cycles <= 3; cycles++){
+			AnjiActivator expected = new AnjiActivator(createNet(), cycles);
+			CompiledActivator actual = new CompiledActivator(createNet(), cycles);
+
+			for (int step = 0; step < 20; step++){
+				if (step == 10){
+					expected.reset();
+					actual.reset();
+				}
+				double[] input = new double[]{Math.sin(step), Math.cos(step * 0.5)};
+				Assert.assertArrayEquals(expected.next(input.clone()), actual.next(input.clone()), 0.0);
+			}
+		}
+	}
+
+	@Test
+	public void testCopyWithNewWeights(){
+		double[] weights = new double[]{0.3, -1.1, 2.4, 0.5, -0.9, 1.7, 0.2};
+		AnjiActivator expected = new AnjiActivator(createNet(weights), 2);
+
+		CompiledNet template = new CompiledNet(createNet());
+		CompiledNet copy = template.copy("copy");
+		int[] slots = copy.getWeightSlots(new long[]{0, 1, 2, 3, 4, 5, 6, 7});
+		Assert.assertEquals(CompiledNet.NO_WEIGHT_SLOT, slots[7]);
+		for (int i = 0; i < weights.length; i++){
+			copy.setWeight(slots[i], weights[i]);
+		}
+		CompiledActivator actual = new CompiledActivator(copy, 2, null, null);
+		CompiledActivator original = new CompiledActivator(template, 2, null, null);
+		CompiledActivator originalExpected = new CompiledActivator(createNet(), 2);
+
+		for (int step = 0; step < 10; step++){
+			double[] input = new double[]{Math.sin(step), Math.cos(step * 0.5)};
+			Assert.assertArrayEquals(expected.next(input.clone()), actual.next(input.clone()), 0.0);
+			// The template keeps its own weights
+			Assert.assertArrayEquals(originalExpected.next(input.clone()), original.next(input.clone()), 0.0);
+		}
+	}
+
+}
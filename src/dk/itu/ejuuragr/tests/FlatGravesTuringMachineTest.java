@@ -0,0 +1,41 @@
+package dk.itu.ejuuragr.tests;
+
+import java.util.Random;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import dk.itu.ejuuragr.turing.FlatGravesTuringMachine;
+import dk.itu.ejuuragr.turing.GravesTuringMachine;
+
+public class FlatGravesTuringMachineTest {
+
+	@Test
+	public void testSameAsGraves(){
+		compare(10, 3, 1, 1, 3);
+		compare(20, 4, 2, 2, 5);
+	}
+
+	private void compare(int n, int m, int readHeads, int writeHeads, int shiftLength){
+		GravesTuringMachine expected = new GravesTuringMachine(n, m, readHeads, writeHeads, shiftLength);
+		FlatGravesTuringMachine actual = new FlatGravesTuringMachine(n, m, readHeads, writeHeads, shiftLength);
+		Random rand = new Random(0);
+
+		for (int step = 0; step < 50; step++){
+			double[] input = new double[expected.getInputCount()];
+			for (int i = 0; i < input.length; i++)
+				input[i] = rand.nextDouble();
+
+			double[][] expectedRead = expected.processInput(input);
+			double[][] actualRead = actual.processInput(input);
+			for (int i = 0; i < readHeads; i++)
+				Assert.assertArrayEquals(expectedRead[i], actualRead[i], 0.0);
+
+			double[][] expectedTape = expected.getTapeValues();
+			double[][] actualTape = actual.getTapeValues();
+			for (int i = 0; i < n; i++)
+				Assert.assertArrayEquals(expectedTape[i], actualTape[i], 0.0);
+		}
+	}
+
+}
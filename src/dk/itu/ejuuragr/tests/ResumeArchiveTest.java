@@ -0,0 +1,105 @@
+package dk.itu.ejuuragr.tests;
+
+import java.io.File;
+import java.util.List;
+
+import org.jgap.BulkFitnessFunction;
+import org.jgap.Chromosome;
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.anji.neat.Evolver;
+import com.anji.persistence.GenerationArchive;
+import com.anji.util.Properties;
+
+public class ResumeArchiveTest {
+
+	/**
+	 * Gives each chromosome a fitness from its size, as in
+	 * BinaryPersistenceTest. Public so Evolver can create it.
+	 */
+	public static class SizeFitness implements BulkFitnessFunction {
+		private static final long serialVersionUID = 1L;
+
+		@Override
+		public void evaluate(List subjects) {
+			for (Object o : subjects) {
+				Chromosome c = (Chromosome) o;
+				c.setFitnessValue(1 + c.size() % 7);
+			}
+		}
+
+		@Override
+		public int getMaxFitnessValue() {
+			return 100;
+		}
+	}
+
+	private static final int POPULATION = 20;
+
+	private Properties createProperties(File dir, int generations, boolean resume) {
+		Properties props = new Properties();
+		props.setProperty("run.name", "resume");
+		props.setProperty("num.generations", Integer.toString(generations));
+		props.setProperty("stimulus.size", "3");
+		props.setProperty("response.size", "2");
+		props.setProperty("popul.size", Integer.toString(POPULATION));
+		props.setProperty("random.seed", "0");
+		props.setProperty("add.neuron.mutation.rate", "0.2");
+		props.setProperty("add.connection.mutation.rate", "0.3");
+		props.setProperty("fitness_function.class", SizeFitness.class.getName());
+		props.setProperty("persistence.class", "com.anji.persistence.FilePersistence");
+		props.setProperty("persistence.base.dir", new File(dir, "db").getPath());
+		props.setProperty("presentation.dir", new File(dir, "presentation").getPath());
+		props.setProperty("persist.all", "true");
+		props.setProperty("persist.champions", "false");
+		props.setProperty("persist.last", "false");
+		props.setProperty("persist.async", "true");
+		props.setProperty("checkpoint.interval", "3");
+		props.setProperty("checkpoint.resume", Boolean.toString(resume));
+		return props;
+	}
+
+	private void evolve(Properties props) throws Exception {
+		Evolver evolver = new Evolver();
+		evolver.init(props);
+		evolver.run();
+	}
+
+	private void delete(File f) {
+		File[] children = f.listFiles();
+		if (children != null) {
+			for (File child : children)
+				delete(child);
+		}
+		f.delete();
+	}
+
+	@Test
+	public void testResumedArchives() throws Exception {
+		File dir = File.createTempFile("resume", "");
+		dir.delete();
+		try {
+			// Checkpoint after generation 3, but the archives of
+			// generations 3 and 4 are written before the run stops.
+			evolve(createProperties(dir, 5, false));
+			File archives = new File(dir, "db" + File.separator + "generation");
+			Assert.assertEquals(5, archives.list().length);
+			List<?> before = GenerationArchive.readIds(new File(archives, "generation2.bin"));
+
+			evolve(createProperties(dir, 7, true));
+			String[] names = archives.list();
+			Assert.assertEquals(7, names.length);
+			for (int i = 0; i < 7; i++) {
+				File archive = new File(archives, "generation" + i + ".bin");
+				Assert.assertTrue(archive + " is missing", archive.exists());
+				// Each archive holds one generation only.
+				Assert.assertEquals(archive.getName(), POPULATION, GenerationArchive.readIds(archive).size());
+			}
+			// The generations before the checkpoint are kept as they were.
+			Assert.assertEquals(before, GenerationArchive.readIds(new File(archives, "generation2.bin")));
+		} finally {
+			delete(dir);
+		}
+	}
+}
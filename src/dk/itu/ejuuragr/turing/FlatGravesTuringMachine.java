@@ -0,0 +1,327 @@
+package dk.itu.ejuuragr.turing;
+
+import java.util.Arrays;
+
+import com.anji.util.Properties;
+
+import dk.itu.ejuuragr.replay.Replayable;
+import dk.itu.ejuuragr.turing.GravesTuringMachine.GravesTuringMachineTimeStep;
+import dk.itu.ejuuragr.turing.GravesTuringMachine.HeadTimeStep;
+
+/**
+ * A preallocated version of the GravesTuringMachine which
+ * gives the exact same results, but does not allocate
+ * anything per step (unless recording time steps).
+ * The tape is one contiguous array of n*m values, the head
+ * parameters are read directly from the flat NN output by
+ * offset and all temporary weightings are kept in scratch
+ * buffers between calls.
+ *
+ * NOTE: The arrays returned by processInput are reused in
+ * the next call, so copy them if they must be kept.
+ */
+public class FlatGravesTuringMachine implements TuringMachine, Replayable<GravesTuringMachineTimeStep> {
+
+	private double[] tape; // n*m values, location k starts at k*m
+	private int m;
+	private int n;
+	private double[][] readWeightings;
+	private double[][] writeWeightings;
+	private int shiftLength;
+	private int readHeads;
+	private int writeHeads;
+	private int readHeadOutputs;
+	private int writeHeadOutputs;
+
+	private double sharpeningFactor = 1;
+
+	private boolean recordTimeSteps = false;
+	private GravesTuringMachineTimeStep currentStep;
+	private boolean enabled = true;
+
+	// Scratch buffers
+	private double[] contentWeight; // length: N
+	private double[] normalizedShift; // length: shiftLength
+	private double[][] result; // readHeads * M
+	private double[][] defaultRead; // readHeads * M, always zero
+
+	/**
+	 * The required constructur for automatic instantiation
+	 * of the TM through reflection
+	 * @param props The properties to take attributes for.
+	 */
+	public FlatGravesTuringMachine(Properties props) {
+		this(	props.getIntProperty("tm.n", 10),
+				props.getIntProperty("tm.m", 3),
+				props.getIntProperty("tm.heads.read", 1),
+				props.getIntProperty("tm.heads.write", 1),
+				props.getIntProperty("tm.shift.length" , 3));
+		this.sharpeningFactor = props.getDoubleProperty("tm.sharpening.factor", sharpeningFactor);
+		this.enabled = props.getBooleanProperty("tm.enabled", true);
+	}
+
+	/**
+	 * Instantiating the TM with the necessary parameters.
+	 * @param n The number of memory locations in the FINITE tape.
+	 * @param m The length of the memory at each location.
+	 * @param readHeads The number of read heads in the TM.
+	 * @param writeHeads The number of write heads in the TM.
+	 * @param shiftLength The maximum distance you can jump with shifting.
+	 */
+	public FlatGravesTuringMachine(int n, int m, int readHeads, int writeHeads, int shiftLength){
+		this.n = n;
+		this.m = m;
+		this.readHeads = readHeads;
+		this.writeHeads = writeHeads;
+		this.shiftLength = shiftLength;
+
+		// sizes for array handling
+		this.readHeadOutputs = 3 + m + shiftLength;
+		this.writeHeadOutputs = 3 + 3 * m + shiftLength;
+
+		this.tape = new double[n * m];
+		this.readWeightings = new double[readHeads][n];
+		this.writeWeightings = new double[writeHeads][n];
+		this.contentWeight = new double[n];
+		this.normalizedShift = new double[shiftLength];
+		this.result = new double[readHeads][m];
+		this.defaultRead = new double[readHeads][m];
+
+		this.reset();
+	}
+
+	@Override
+	public void setRecordTimeSteps(boolean recordTimeSteps){
+		this.recordTimeSteps = recordTimeSteps;
+	}
+
+	/**
+	 * Reset the TM to its default state.
+	 */
+	@Override
+	public void reset() {
+		Arrays.fill(tape, 0.0);
+
+		for (int i = 0; i < readHeads; i++){
+			Arrays.fill(readWeightings[i], 0.0);
+			readWeightings[i][0] = 1.0; // ASSUMING THAT HEAD IS AT FIRST ELEMENT AT BEGINNING
+		}
+		for (int i = 0; i < writeHeads; i++) {
+			Arrays.fill(writeWeightings[i], 0.0);
+			writeWeightings[i][0] = 1.0; // ASSUMING THAT HEAD IS AT FIRST ELEMENT AT BEGINNING
+		}
+	}
+
+	@Override
+	public int getReadHeadCount() {
+		return readHeads;
+	}
+
+	@Override
+	public int getWriteHeadCount() {
+		return writeHeads;
+	}
+
+	@Override
+	public int getInputCount() {
+		return this.getReadHeadCount() * this.readHeadOutputs + this.getWriteHeadCount() * this.writeHeadOutputs;
+	}
+
+	@Override
+	public int getOutputCount() {
+		return this.getReadHeadCount() * this.m;
+	}
+
+	@Override
+	public double[][] getTapeValues() {
+		double[][] copy = new double[n][];
+		for(int k = 0; k < n; k++)
+			copy[k] = Arrays.copyOfRange(tape, k * m, (k + 1) * m);
+		return copy;
+	}
+
+	/**
+	 * Gets the read of the default state.
+	 * @return An array for each read head
+	 * with an array of the memory location size (M).
+	 */
+	@Override
+	public double[][] getDefaultRead() {
+		return defaultRead;
+	}
+
+	/**
+	 * Processes the input for the TM and gets all the
+	 * reads out. The layout of the input is the same as
+	 * for the GravesTuringMachine: first all the read heads
+	 * and then all the write heads in order.
+	 * @param flatVars The flat 1d array version of the
+	 * inputs for the TM (i.e. directly from a NN)
+	 * @return An array for each read head with the m
+	 * elements read from the TM (reused between calls).
+	 */
+	@Override
+	public double[][] processInput(double[] flatVars) {
+		if(!enabled)
+			return getDefaultRead();
+
+		int varsNeeded = getInputCount();
+		if(flatVars.length != varsNeeded)
+			throw new IllegalArgumentException("The number of elements ("+flatVars.length+") to the TM doesn't match the needed ("+varsNeeded+")");
+
+		int writeStart = readHeads * readHeadOutputs;
+
+		// First all WRITES
+
+		// Erase
+		for(int i = 0; i < writeHeads; i++){
+			int offset = writeStart + i * writeHeadOutputs;
+			weighting(flatVars, offset + 2*m, writeWeightings[i]);
+
+			double[] weights = writeWeightings[i];
+			for(int k = 0; k < n; k++){
+				int row = k * m;
+				for(int j = 0; j < m; j++){
+					tape[row + j] *= (1.0 - weights[k] * flatVars[offset + j]);
+				}
+			}
+		}
+
+		// Add
+		for(int i = 0; i < writeHeads; i++){
+			int offset = writeStart + i * writeHeadOutputs;
+
+			double[] weights = writeWeightings[i];
+			for(int k = 0; k < n; k++){
+				int row = k * m;
+				for(int j = 0; j < m; j++){
+					tape[row + j] += weights[k] * flatVars[offset + m + j];
+				}
+			}
+		}
+
+		// perform READS and get result
+		for(int i = 0; i < readHeads; i++){
+			int offset = i * readHeadOutputs;
+			weighting(flatVars, offset, readWeightings[i]);
+
+			double[] weights = readWeightings[i];
+			double[] readM = result[i];
+			for(int j = 0; j < m; j++){
+				double sum = 0.0;
+				for(int k = 0; k < n; k++){
+					sum += weights[k] * tape[k * m + j];
+				}
+				readM[j] = sum;
+			}
+		}
+
+		if (recordTimeSteps){
+			currentStep = new GravesTuringMachineTimeStep();
+			for (int i = 0; i < writeHeads; i++){
+				int offset = writeStart + i * writeHeadOutputs;
+				currentStep.getWriteHeads().add(new HeadTimeStep(
+						writeWeightings[i],
+						Arrays.copyOfRange(flatVars, offset + m, offset + 2*m),
+						Arrays.copyOfRange(flatVars, offset + 2*m, offset + 3*m),
+						flatVars[offset + 3*m],
+						flatVars[offset + 3*m + 1]));
+			}
+
+			for (int i = 0; i < readHeads; i++){
+				int offset = i * readHeadOutputs;
+				currentStep.getReadHeads().add(new HeadTimeStep(
+						readWeightings[i],
+						result[i],
+						Arrays.copyOfRange(flatVars, offset, offset + m),
+						flatVars[offset + m],
+						flatVars[offset + m + 1]));
+			}
+		}
+
+		return result;
+	}
+
+	@Override
+	public GravesTuringMachineTimeStep getLastTimeStep(){
+		return currentStep;
+	}
+
+	@Override
+	public GravesTuringMachineTimeStep getInitialTimeStep(){
+		GravesTuringMachineTimeStep timeStep = new GravesTuringMachineTimeStep();
+
+		for (int i = 0; i < getWriteHeadCount(); i++){
+			timeStep.getWriteHeads().add(new HeadTimeStep(writeWeightings[i], new double[m], new double[m], 0, 1));
+		}
+		for (int i = 0; i < getReadHeadCount(); i++){
+			timeStep.getReadHeads().add(new HeadTimeStep(readWeightings[i], defaultRead[i], new double[m], 0, 1));
+		}
+
+		return timeStep;
+	}
+
+	// PRIVATE HELPER METHODS
+
+	/**
+	 * Calculates the new weighting of a head in place.
+	 * @param vars The flat input from the NN.
+	 * @param keyOffset Where the key of the head starts in vars,
+	 * it is followed by key strength, interpolation, shift and
+	 * sharpening.
+	 * @param weight The old weighting which will be overwritten
+	 * with the new one.
+	 */
+	private void weighting(double[] vars, int keyOffset, double[] weight) {
+		double keyStrength = vars[keyOffset + m];
+		double interpolation = vars[keyOffset + m + 1];
+		int shiftOffset = keyOffset + m + 2;
+		double sharp = 1 + this.sharpeningFactor * vars[shiftOffset + shiftLength];
+
+		// Focusing by Content
+		double sum = 0.0;
+		for(int i = 0; i < n; i++){
+			double numerator = 0;
+			int row = i * m;
+			for(int j = 0; j < m; j++)
+				numerator += Math.abs(vars[keyOffset + j] - tape[row + j]);
+			double similarity = 1.0 - (numerator / m); // Utilities.emilarity
+			contentWeight[i] = Math.exp(keyStrength * similarity);
+			sum += contentWeight[i];
+		}
+		for(int i = 0; i < n; i++){
+			contentWeight[i] /= sum;
+		}
+
+		// Interpolation Gate
+		for(int i = 0; i < n; i++){
+			contentWeight[i] = interpolation * contentWeight[i] + (1 - interpolation) * weight[i];
+		}
+
+		// Focusing by Location
+		sum = 0.0;
+		for(int j = 0; j < shiftLength; j++)
+			sum += vars[shiftOffset + j];
+		for(int j = 0; j < shiftLength; j++)
+			normalizedShift[j] = vars[shiftOffset + j] / sum; // Utilities.normalize
+
+		for(int i = 0; i < n; i++) {
+			double shifted = 0.0;
+			for(int j = 0; j < shiftLength; j++) {
+				int k = (i - shiftLength/2 + j +n) % n;
+				shifted += contentWeight[k] * normalizedShift[j];
+			}
+			weight[i] = shifted;
+		}
+
+		// Sharpening
+		sum = 0.0;
+		for(int i = 0; i < n; i++){
+			weight[i] = Math.pow(weight[i], sharp);
+			sum += weight[i];
+		}
+		for(int i = 0; i < n; i++){
+			weight[i] /= sum;
+		}
+	}
+}
@@ -8,6 +8,7 @@ import com.anji.util.Properties;
 
 import dk.itu.ejuuragr.fitness.Utilities;
 import dk.itu.ejuuragr.replay.Replayable;
+import dk.itu.ejuuragr.replay.TimeStep;
 import dk.itu.ejuuragr.replay.TuringTimeStep;
 import dk.itu.ejuuragr.turing.GravesTuringMachine.HeadVariables.Head;
 import dk.itu.ejuuragr.turing.GravesTuringMachine.GravesTuringMachineTimeStep;
@@ -37,6 +38,13 @@ public class GravesTuringMachine implements TuringMachine, Replayable<GravesTuri
 	private boolean recordTimeSteps = false;
 	private GravesTuringMachineTimeStep currentStep;
 	private boolean enabled = true;
+	
+	// Tape snapshots stored with the recorded time steps
+	private boolean recordTape = false;
+	private double recordTapeThreshold = 0;
+	private int recordTapeKeyframeInterval = 100;
+	private double[][] recordedTape; // the tape as it can be reconstructed from the recorded steps
+	private int stepsSinceKeyframe;
 
 	
 	/**
@@ -52,6 +60,9 @@ public class GravesTuringMachine implements TuringMachine, Replayable<GravesTuri
 				props.getIntProperty("tm.shift.length" , 3));
 		this.sharpeningFactor = props.getDoubleProperty("tm.sharpening.factor", sharpeningFactor);
 		this.enabled = props.getBooleanProperty("tm.enabled", true);
+		setRecordTape(props.getBooleanProperty("tm.record.tape", recordTape),
+				props.getDoubleProperty("tm.record.tape.threshold", recordTapeThreshold),
+				props.getIntProperty("tm.record.tape.keyframe.interval", recordTapeKeyframeInterval));
 	}
 
 	/**
@@ -80,6 +91,32 @@ public class GravesTuringMachine implements TuringMachine, Replayable<GravesTuri
 		this.recordTimeSteps = true;
 	}
 	
+	/**
+	 * Stores a TapeDelta with each recorded time step, so the tape can
+	 * be reconstructed at any step without copying all of it every time.
+	 * @param recordTape True to store the tape with the time steps.
+	 * @param threshold Rows are only stored when some value differs more
+	 * than this from the reconstructed tape, so reconstructing is exact
+	 * to within the threshold (0 is exact).
+	 * @param keyframeInterval The number of steps between storing the
+	 * entire tape.
+	 */
+	public void setRecordTape(boolean recordTape, double threshold, int keyframeInterval){
+		if (keyframeInterval < 1)
+			throw new IllegalArgumentException("The keyframe interval must be at least 1");
+		this.recordTape = recordTape;
+		this.recordTapeThreshold = threshold;
+		this.recordTapeKeyframeInterval = keyframeInterval;
+		this.recordedTape = null;
+	}
+	
+	/**
+	 * @return True if the recorded time steps hold the tape.
+	 */
+	public boolean isRecordingTape(){
+		return recordTimeSteps && recordTape;
+	}
+	
 	/**
 	 * Reset the TM to its default state.
 	 */
@@ -101,6 +138,9 @@ public class GravesTuringMachine implements TuringMachine, Replayable<GravesTuri
 			writeWeightings[i] = new double[n];
 			writeWeightings[i][0] = 1.0; // ASSUMING THAT HEAD IS AT FIRST ELEMENT AT BEGINNING
 		}
+		
+		// The next recorded step starts with a keyframe
+		recordedTape = null;
 	}
 	
 	/**
@@ -240,16 +280,51 @@ public class GravesTuringMachine implements TuringMachine, Replayable<GravesTuri
 						vars.getRead().get(i).getKeyStrength(),
 						vars.getRead().get(i).getInterpolation()));
 			}
+			
+			if (recordTape)
+				currentStep.setTapeDelta(recordTapeDelta());
 		}
 		
 		return result;
 	}
 
+	/**
+	 * Compares the tape to the one that can be reconstructed from
+	 * the steps recorded so far and gets the rows that differ, or
+	 * the entire tape every keyframe interval.
+	 */
+	private TapeDelta recordTapeDelta(){
+		if (recordedTape == null || recordedTape.length != tape.size() || ++stepsSinceKeyframe >= recordTapeKeyframeInterval){
+			recordedTape = getTapeValues();
+			stepsSinceKeyframe = 0;
+			return new TapeDelta(true, null, Utilities.deepCopy(recordedTape));
+		}
+		
+		int[] rows = new int[tape.size()];
+		int changed = 0;
+		for (int k = 0; k < tape.size(); k++){
+			double[] current = tape.get(k);
+			double[] recorded = recordedTape[k];
+			for (int j = 0; j < m; j++){
+				if (Math.abs(current[j] - recorded[j]) > recordTapeThreshold){
+					System.arraycopy(current, 0, recorded, 0, m);
+					rows[changed++] = k;
+					break;
+				}
+			}
+		}
+		
+		double[][] values = new double[changed][];
+		for (int i = 0; i < changed; i++)
+			values[i] = Arrays.copyOf(recordedTape[rows[i]], m);
+		return new TapeDelta(false, Arrays.copyOf(rows, changed), values);
+	}
+	
 	public static class GravesTuringMachineTimeStep implements TuringTimeStep{
 		
 		List<HeadTimeStep> writeHeads = new ArrayList<HeadTimeStep>();
 		List<HeadTimeStep> readHeads = new ArrayList<HeadTimeStep>();
-		//TODO: Possible store a snapshot of the tape
+		TapeDelta tapeDelta;
 		
 		public GravesTuringMachineTimeStep(){}
 
@@ -261,7 +336,93 @@ public class GravesTuringMachine implements TuringMachine, Replayable<GravesTuri
 			return readHeads;
 		}
 		
+		/**
+		 * @return The tape after this step as a change to the previous
+		 * step, or null if the tape was not recorded.
+		 */
+		public TapeDelta getTapeDelta() {
+			return tapeDelta;
+		}
 		
+		public void setTapeDelta(TapeDelta tapeDelta) {
+			this.tapeDelta = tapeDelta;
+		}
+		
+		/**
+		 * Reconstructs the tape after a step from the TapeDeltas of the
+		 * steps since the keyframe before it.
+		 * @param steps Recorded steps of a GravesTuringMachine.
+		 * @param index The step to get the tape after.
+		 * @return The tape, or null if the tape was not recorded.
+		 */
+		public static double[][] reconstructTape(List<? extends TimeStep<?>> steps, int index){
+			int keyframe = index;
+			while (true){
+				TapeDelta delta = getTapeDelta(steps, keyframe);
+				if (delta == null)
+					return null;
+				if (delta.isKeyframe())
+					break;
+				keyframe--;
+			}
+			
+			double[][] result = null;
+			for (int i = keyframe; i <= index; i++)
+				result = getTapeDelta(steps, i).applyTo(result);
+			return result;
+		}
+		
+		private static TapeDelta getTapeDelta(List<? extends TimeStep<?>> steps, int index){
+			if (index < 0)
+				return null;
+			TuringTimeStep step = steps.get(index).getTuringStep();
+			return step instanceof GravesTuringMachineTimeStep ? ((GravesTuringMachineTimeStep) step).getTapeDelta() : null;
+		}
+	}
+	
+	/**
+	 * The rows of the tape that changed in a step. A keyframe holds
+	 * all the rows.
+	 */
+	public static class TapeDelta{
+		private final boolean keyframe;
+		private final int[] rows; // null for keyframes
+		private final double[][] values;
+		
+		public TapeDelta(boolean keyframe, int[] rows, double[][] values){
+			this.keyframe = keyframe;
+			this.rows = rows;
+			this.values = values;
+		}
+		
+		public boolean isKeyframe() {
+			return keyframe;
+		}
+		
+		/**
+		 * @return The changed rows in the order of getValues(), or null
+		 * for a keyframe.
+		 */
+		public int[] getRows() {
+			return rows;
+		}
+		
+		public double[][] getValues() {
+			return values;
+		}
+		
+		/**
+		 * @param tape The tape before this step, which is changed. Can be
+		 * null for a keyframe.
+		 * @return The tape after this step.
+		 */
+		public double[][] applyTo(double[][] tape){
+			if (keyframe)
+				return Utilities.deepCopy(values);
+			for (int i = 0; i < rows.length; i++)
+				tape[rows[i]] = Arrays.copyOf(values[i], values[i].length);
+			return tape;
+		}
 	}
 	
 	public static class HeadTimeStep{
@@ -1,8 +1,6 @@
 package dk.itu.ejuuragr.turing;
 
 import java.util.Arrays;
-import java.util.LinkedList;
-import java.util.Queue;
 
 import com.anji.util.Properties;
 
@@ -24,7 +22,7 @@ public class MinimalTuringMachine implements TuringMachine, Replayable<MinimalTu
 
 	private static final boolean DEBUG = false;
 
-	private LinkedList<double[]> tape;
+	private Tape tape;
 	private int[] pointers;
 	private int m;
 	private int n;
@@ -41,6 +39,10 @@ public class MinimalTuringMachine implements TuringMachine, Replayable<MinimalTu
 
 	private double[][] initialRead;
 
+	// Per head values decoded from the NN, reused between steps
+	private double[] interps;
+	private double[] contents;
+
 	public MinimalTuringMachine(Properties props) {
 		this.m = props.getIntProperty("tm.m");
 		this.n = props.getIntProperty("tm.n", -1);
@@ -49,7 +51,9 @@ public class MinimalTuringMachine implements TuringMachine, Replayable<MinimalTu
 		this.enabled = props.getBooleanProperty("tm.enabled", true);
 		this.heads = props.getIntProperty("tm.heads.readwrite", 1);
 
-		tape = new LinkedList<double[]>();
+		tape = new Tape(m);
+		interps = new double[heads];
+		contents = new double[heads];
 		
 		this.reset();
 		initialRead = new double[heads][];
@@ -61,7 +65,7 @@ public class MinimalTuringMachine implements TuringMachine, Replayable<MinimalTu
 	@Override
 	public void reset() {
 		tape.clear();
-		tape.add(new double[m]);
+		tape.addLast();
 		pointers = new int[heads];
 
 		if (recordTimeSteps){
@@ -77,49 +81,43 @@ public class MinimalTuringMachine implements TuringMachine, Replayable<MinimalTu
 	 *	jump
 	 *	shift
 	 *	read
+	 *
+	 * The input is decoded in place: each head owns M + 2 + S
+	 * consecutive elements of fromNN (write key, interpolation,
+	 * content jump and shift), which are read by offset.
 	 */
 	@Override
 	public double[][] processInput(double[] fromNN) {
 		if(!enabled)
 			return initialRead;
 		
-		Queue<Double> queue = new LinkedList<Double>();
-		for(double d : fromNN) queue.add(d);
-		
 		double[][] result = new double[heads][];
 		
-		double[][] writeKeys = new double[heads][];
-		double[] interps = new double[heads];
-		double[] contents = new double[heads];
-		double[][] shifts = new double[heads][];
-		
 		// First all writes
 		for(int i = 0; i < heads; i++) {
-			// Should be M + 2 + S elements
-			writeKeys[i] = take(queue,this.m);
-			interps[i] = queue.poll();
-			contents[i] = queue.poll();
-			shifts[i] = take(queue,getShiftInputs());
+			int keyOffset = getKeyOffset(i);
+			interps[i] = fromNN[keyOffset + m];
+			contents[i] = fromNN[keyOffset + m + 1];
 			
 			if (DEBUG) {
 				System.out.println("------------------- MINIMAL TURING MACHINE (HEAD "+(i+1)+") -------------------");
-				System.out.println("Write="+Utilities.toString(writeKeys[i], "%.4f")+" Interp="+interps[i]);
-				System.out.println("Content?="+contents[i]+" Shift="+Utilities.toString(shifts[i],"%.4f"));
+				System.out.println("Write="+Utilities.toString(Arrays.copyOfRange(fromNN, keyOffset, keyOffset + m), "%.4f")+" Interp="+interps[i]);
+				System.out.println("Content?="+contents[i]+" Shift="+Utilities.toString(Arrays.copyOfRange(fromNN, keyOffset + m + 2, keyOffset + m + 2 + getShiftInputs()),"%.4f"));
 			}
 			
-			write(i, writeKeys[i], interps[i]);
+			write(i, fromNN, keyOffset, interps[i]);
 		}
 		
 		// Perform content jump
 		for(int i = 0; i < heads; i++) {
-			performContentJump(i, contents[i], writeKeys[i]);
+			performContentJump(i, contents[i], fromNN, getKeyOffset(i));
 		}
 		
 		// Shift and read (no interaction)
 		for(int i = 0; i < heads; i++) {
 			int writePosition = pointers[i];
 			increasedSizeDown = false;
-			moveHead(i, shifts[i]);
+			moveHead(i, fromNN, getKeyOffset(i) + m + 2);
 			
 			double[] headResult = getRead(i); // Show me what you've got! \cite{rickEtAl2014}
 			result[i] = headResult;
@@ -133,12 +131,15 @@ public class MinimalTuringMachine implements TuringMachine, Replayable<MinimalTu
 					zeroPosition++;
 				}
 				int correctedReadPosition = readPosition - zeroPosition;
-				lastTimeStep = new MinimalTuringMachineTimeStep(writeKeys[i], interps[i]  , contents[i], shifts[i]     , headResult, writePosition    , readPosition    , zeroPosition         , zeroPosition          , correctedWritePosition, correctedReadPosition);
+				int keyOffset = getKeyOffset(i);
+				double[] key = Arrays.copyOfRange(fromNN, keyOffset, keyOffset + m);
+				double[] shift = Arrays.copyOfRange(fromNN, keyOffset + m + 2, keyOffset + m + 2 + getShiftInputs());
+				lastTimeStep = new MinimalTuringMachineTimeStep(key, interps[i]  , contents[i], shift     , headResult, writePosition    , readPosition    , zeroPosition         , zeroPosition          , correctedWritePosition, correctedReadPosition);
 //				                                               (double[] key, double write, double jump, double[] shift, double[] read, int writePosition, int readPosition, int writeZeroPosition, int readZeroPosition  , int correctedWritePosition, int correctedReadPosition){
 			
 //				correctedReadPosition = readPosition - zeroPosition;
-				lastTimeStep =         new MinimalTuringMachineTimeStep(writeKeys[i], interps[i], contents[i], shifts[i], headResult, writePosition    , readPosition    , zeroPosition, zeroPosition, correctedWritePosition, correctedReadPosition);
-				internalLastTimeStep = new MinimalTuringMachineTimeStep(writeKeys[i], interps[i], contents[i], shifts[i], headResult, writePosition    , readPosition    , zeroPosition, zeroPosition, correctedWritePosition, correctedReadPosition);
+				lastTimeStep =         new MinimalTuringMachineTimeStep(key, interps[i], contents[i], shift, headResult, writePosition    , readPosition    , zeroPosition, zeroPosition, correctedWritePosition, correctedReadPosition);
+				internalLastTimeStep = new MinimalTuringMachineTimeStep(key, interps[i], contents[i], shift, headResult, writePosition    , readPosition    , zeroPosition, zeroPosition, correctedWritePosition, correctedReadPosition);
 			}
 		}
 		
@@ -223,13 +224,13 @@ public class MinimalTuringMachine implements TuringMachine, Replayable<MinimalTu
 	
 	@Override
 	public double[][] getTapeValues() {
-		return Utilities.deepCopy(tape.toArray(new double[tape.size()][]));
+		return tape.toArray();
 	}
 	
 	@Override
 	public String toString() {
 		StringBuilder b = new StringBuilder();
-		b.append(Utilities.toString(tape.toArray(new double[tape.size()][])));
+		b.append(Utilities.toString(tape.toArray()));
 		b.append("\n");
 		b.append("Pointers=");
 		b.append(Arrays.toString(pointers));
@@ -238,11 +239,13 @@ public class MinimalTuringMachine implements TuringMachine, Replayable<MinimalTu
 
 	// PRIVATE HELPER METHODS
 	
-	private static double[] take(Queue<Double> coll, int amount) {
-		double[] result = new double[amount];
-		for(int i = 0; i < amount; i++)
-			result[i] = coll.poll();
-		return result;
+	/**
+	 * @param head The head to get the inputs of.
+	 * @return Where the write key of the head starts in the
+	 * input from the NN.
+	 */
+	private int getKeyOffset(int head) {
+		return head * (this.m + 2 + getShiftInputs());
 	}
 	
 	private int getShiftInputs() {
@@ -253,28 +256,25 @@ public class MinimalTuringMachine implements TuringMachine, Replayable<MinimalTu
 	}
 
 	private void printState() {
-		System.out.println("TM: " + Utilities.toString(tape.toArray(new double[tape.size()][]))+" pointers="+Arrays.toString(pointers));
+		System.out.println("TM: " + Utilities.toString(tape.toArray())+" pointers="+Arrays.toString(pointers));
 	}
 
-	private void write(int head, double[] content, double interp) {
-		tape.set(pointers[head], interpolate(content, tape.get(pointers[head]), interp));
-	}
-
-	private double[] interpolate(double[] first, double[] second, double interp) {
-		double[] result = new double[first.length];
-		for (int i = 0; i < result.length; i++) {
-			result[i] = interp * first[i] + (1 - interp) * second[i];
+	private void write(int head, double[] content, int contentOffset, double interp) {
+		// Interpolate in place
+		double[] values = tape.values();
+		int offset = tape.offset(pointers[head]);
+		for (int i = 0; i < m; i++) {
+			values[offset + i] = interp * content[contentOffset + i] + (1 - interp) * values[offset + i];
 		}
-		return result;
 	}
 	
-	private void performContentJump(int head, double contentJump, double[] key) {
+	private void performContentJump(int head, double contentJump, double[] key, int keyOffset) {
 		if(contentJump >= 0.5) {
 			// JUMPING POINTER TO BEST MATCH
 			int bestPos = 0;
 			double similarity = -1d;
 			for(int i = 0; i < tape.size(); i++) {				
-				double curSim = Utilities.emilarity(key, tape.get(i));
+				double curSim = tape.emilarity(key, keyOffset, i);
 				if(DEBUG) System.out.println("Pos "+i+": sim ="+curSim+(curSim > similarity ? " better" : ""));
 				if(curSim > similarity) {
 					similarity = curSim;
@@ -289,12 +289,12 @@ public class MinimalTuringMachine implements TuringMachine, Replayable<MinimalTu
 		}
 	}
 
-	private void moveHead(int head, double[] shift) {
+	private void moveHead(int head, double[] shift, int shiftOffset) {
 		// SHIFTING
 		int highest;
 		switch(shiftMode){
-			case "single": highest = (int) (shift[0] * this.shiftLength); break; // single
-			default: highest = Utilities.maxPos(shift); break; // multiple
+			case "single": highest = (int) (shift[shiftOffset] * this.shiftLength); break; // single
+			default: highest = maxPos(shift, shiftOffset, this.shiftLength); break; // multiple
 		}
 		
 		int offset = highest - (this.shiftLength / 2);
@@ -310,7 +310,7 @@ public class MinimalTuringMachine implements TuringMachine, Replayable<MinimalTu
 					pointers[head] = pointers[head] + 1;
 					
 					if (pointers[head] >= tape.size()) {
-						tape.addLast(new double[this.m]);
+						tape.addLast();
 					}
 				}
 	
@@ -320,7 +320,7 @@ public class MinimalTuringMachine implements TuringMachine, Replayable<MinimalTu
 				} else {
 					pointers[head] = pointers[head] - 1;
 					if (pointers[head] < 0) {
-						tape.addFirst(new double[this.m]);
+						tape.addFirst();
 						pointers[head] = 0;
 						
 						// Moving all other heads accordingly
@@ -339,8 +339,133 @@ public class MinimalTuringMachine implements TuringMachine, Replayable<MinimalTu
 		}
 	}
 
+	/**
+	 * Same as Utilities.maxPos(array) on the given range.
+	 */
+	private static int maxPos(double[] array, int offset, int length) {
+		int maxpos = 0;
+		double value = Double.MIN_VALUE;
+		for(int i = 0; i < length; i++) {
+			if(array[offset + i] > value) {
+				maxpos = i;
+				value = array[offset + i];
+			}
+		}
+		return maxpos;
+	}
+
 	private double[] getRead(int head) {
-		return tape.get(pointers[head]).clone();
+		return tape.copy(pointers[head]);
+	}
+
+	/**
+	 * A growable double-ended tape of locations with M
+	 * elements each. All locations are kept in one contiguous
+	 * ring buffer, so a location is found in O(1) and the tape
+	 * grows in amortised O(1) at both ends. Positions are
+	 * counted from the current first location, exactly like
+	 * the indices of a list that is added to at both ends.
+	 */
+	private static class Tape {
+
+		private final int m;
+		private double[] values; // capacity * m elements
+		private int capacity; // number of locations, always a power of two
+		private int first; // the location in the buffer of position 0
+		private int size;
+
+		public Tape(int m) {
+			this.m = m;
+			this.capacity = 16;
+			this.values = new double[capacity * m];
+		}
+
+		public int size() {
+			return size;
+		}
+
+		/**
+		 * Removes all locations (without releasing the buffer).
+		 */
+		public void clear() {
+			first = 0;
+			size = 0;
+		}
+
+		/**
+		 * @return The live buffer, only valid until the tape grows.
+		 */
+		public double[] values() {
+			return values;
+		}
+
+		/**
+		 * @param position The position on the tape (0 to size - 1).
+		 * @return The index in values() of the first element at that
+		 * position.
+		 */
+		public int offset(int position) {
+			return ((first + position) & (capacity - 1)) * m;
+		}
+
+		public void addLast() {
+			ensureCapacity();
+			Arrays.fill(values, offset(size), offset(size) + m, 0.0);
+			size++;
+		}
+
+		public void addFirst() {
+			ensureCapacity();
+			first = (first - 1) & (capacity - 1);
+			Arrays.fill(values, offset(0), offset(0) + m, 0.0);
+			size++;
+		}
+
+		public double[] copy(int position) {
+			double[] result = new double[m];
+			System.arraycopy(values, offset(position), result, 0, m);
+			return result;
+		}
+
+		public double[][] toArray() {
+			double[][] result = new double[size][];
+			for(int i = 0; i < size; i++)
+				result[i] = copy(i);
+			return result;
+		}
+
+		/**
+		 * Same as Utilities.emilarity(key, location) without
+		 * copying the key or the location into their own arrays.
+		 * @param key The array holding the key.
+		 * @param keyOffset Where the M elements of the key start.
+		 * @param position The position on the tape to compare to.
+		 */
+		public double emilarity(double[] key, int keyOffset, int position) {
+			if(key.length < keyOffset + m)
+				throw new IllegalArgumentException("The key must have M elements");
+
+			int offset = offset(position);
+			double numerator = 0;
+			for(int i = 0; i < m; i++)
+				numerator += Math.abs(key[keyOffset + i] - values[offset + i]);
+
+			return 1.0 - (numerator / m);
+		}
+
+		private void ensureCapacity() {
+			if(size < capacity)
+				return;
+
+			// Double the buffer and unwrap the locations to start at 0
+			double[] larger = new double[2 * capacity * m];
+			int firstPart = Math.min(size, capacity - first);
+			System.arraycopy(values, first * m, larger, 0, firstPart * m);
+			System.arraycopy(values, 0, larger, firstPart * m, (size - firstPart) * m);
+			values = larger;
+			capacity *= 2;
+			first = 0;
+		}
 	}
 
 }
@@ -41,6 +41,11 @@ private Long secondaryParentId = null;
 
 private SortedSet m_alleles = null;
 
+/**
+ * primitive view of <code>m_alleles</code>, built the first time the distance is computed
+ */
+private transient SortedAlleles sortedAlleles = null;
+
 /**
  * Create chromosome with two parents. Used for crossover.
  * 
@@ -301,38 +306,6 @@ public void setSecondaryParentId( Long id ) {
 	secondaryParentId = id;
 }
 
-private static long getMaxInnovationId( Collection someAlleles ) {
-	long result = -1;
-	Iterator iter = someAlleles.iterator();
-	while ( iter.hasNext() ) {
-		Allele allele = (Allele) iter.next();
-		if ( allele.getInnovationId().longValue() > result )
-			result = allele.getInnovationId().longValue();
-	}
-	return result;
-}
-
-/**
- * returns excess alleles, defined as those alleles whose innovation ID is greater than
- * <code>threshold</code>; also, removes excess alleles from <code>alleles</code>
- * 
- * @param alleles <code>List</code> contains <code>Allele</code> objects
- * @param threshold
- * @return excess alleles, <code>List</code> contains <code>Allele</code> objects
- */
-private List extractExcessAlleles( Collection alleles, long threshold ) {
-	List result = new ArrayList();
-	Iterator iter = alleles.iterator();
-	while ( iter.hasNext() ) {
-		Allele allele = (Allele) iter.next();
-		if ( allele.getInnovationId().longValue() > threshold ) {
-			iter.remove();
-			result.add( allele );
-		}
-	}
-	return result;
-}
-
 /**
  * Calculates compatibility distance between this and <code>target</code> according to <a
  * href="http://nn.cs.utexas.edu/downloads/papers/stanley.ec02.pdf">NEAT </a> speciation
@@ -344,79 +317,123 @@ private List extractExcessAlleles( Collection alleles, long threshold ) {
  * @see Allele#distance(Allele)
  */
 public double distance( ChromosomeMaterial target, SpeciationParms speciationParms ) {
-	// get genes I have target does not
-	List myUnmatchedAlleles = new ArrayList( m_alleles );
-	myUnmatchedAlleles.removeAll( target.getAlleles() );
-
-	// get genes target has I do not
-	List targetUnmatchedAlleles = new ArrayList( target.getAlleles() );
-	targetUnmatchedAlleles.removeAll( m_alleles );
-
-	// extract excess genes
-	long targetMax = getMaxInnovationId( target.getAlleles() );
-	long thisMax = getMaxInnovationId( m_alleles );
-	List excessAlleles = ( targetMax > thisMax ) ? extractExcessAlleles( targetUnmatchedAlleles,
-			thisMax ) : extractExcessAlleles( myUnmatchedAlleles, targetMax );
-
-	// all other extras are disjoint
-	List disjointAlleles = new ArrayList( myUnmatchedAlleles );
-	disjointAlleles.addAll( targetUnmatchedAlleles );
-
-	// get common connection genes
-	List myCommonAlleles = new ArrayList( this.getAlleles() );
-	myCommonAlleles.retainAll( target.getAlleles() );
-	List targetCommonAlleles = new ArrayList( target.getAlleles() );
-	targetCommonAlleles.retainAll( this.getAlleles() );
-
-	// sanity test
-	if ( myCommonAlleles.size() != targetCommonAlleles.size() )
-		throw new IllegalStateException( "sizes of my common genes and target common genes differ" );
-
-	// calculate distance for common genes
-	double avgCommonDiff = 0;
+	SortedAlleles mine = getSortedAlleles();
+	SortedAlleles theirs = target.getSortedAlleles();
+	long[] myIds = mine.innovationIds;
+	long[] targetIds = theirs.innovationIds;
+	Allele[] myAlleles = mine.alleles;
+	Allele[] targetAlleles = theirs.alleles;
+
+	// unmatched genes above the max innovation ID of the other chromosome are excess
+	long thisMax = ( myIds.length > 0 ) ? myIds[ myIds.length - 1 ] : -1;
+	long targetMax = ( targetIds.length > 0 ) ? targetIds[ targetIds.length - 1 ] : -1;
+
+	// walk both sorted chromosomes at once, counting unmatched genes and comparing common genes
+	int numExcessAlleles = 0;
+	int numDisjointAlleles = 0;
+	double totalCommonDiff = 0.0;
 	int numComparableCommonAlleles = 0;
-	if ( myCommonAlleles.size() > 0 ) {
-		double totalCommonDiff = 0.0;
-		Iterator myIter = myCommonAlleles.iterator();
-		Iterator targetIter = targetCommonAlleles.iterator();
-		while ( myIter.hasNext() && targetIter.hasNext() && totalCommonDiff < Double.MAX_VALUE ) {
-			Allele myAllele = (Allele) myIter.next();
-			Allele targetAllele = (Allele) targetIter.next();
-			if ( myAllele.getInnovationId().equals( targetAllele.getInnovationId() ) == false )
-				throw new IllegalStateException( "corresponding genes do not have same innovation ids" );
-			try {
-				double aDistance = myAllele.distance( targetAllele );
-				if ( totalCommonDiff + aDistance > Double.MAX_VALUE )
-					totalCommonDiff = Double.MAX_VALUE;
-				else
-					totalCommonDiff += aDistance;
-				++numComparableCommonAlleles;
-			}
-			catch ( UnsupportedOperationException/*|ClassCastException*/ e ) {
-				e.printStackTrace();
+	int i = 0;
+	int j = 0;
+	while ( i < myIds.length || j < targetIds.length ) {
+		if ( j == targetIds.length || ( i < myIds.length && myIds[ i ] < targetIds[ j ] ) ) {
+			// gene I have target does not
+			if ( myIds[ i++ ] > targetMax )
+				++numExcessAlleles;
+			else
+				++numDisjointAlleles;
+		}
+		else if ( i == myIds.length || targetIds[ j ] < myIds[ i ] ) {
+			// gene target has I do not
+			if ( targetIds[ j++ ] > thisMax )
+				++numExcessAlleles;
+			else
+				++numDisjointAlleles;
+		}
+		else {
+			// common gene
+			if ( totalCommonDiff < Double.MAX_VALUE ) {
+				try {
+					double aDistance = myAlleles[ i ].distance( targetAlleles[ j ] );
+					if ( totalCommonDiff + aDistance > Double.MAX_VALUE )
+						totalCommonDiff = Double.MAX_VALUE;
+					else
+						totalCommonDiff += aDistance;
+					++numComparableCommonAlleles;
+				}
+				catch ( UnsupportedOperationException/*|ClassCastException*/ e ) {
+					e.printStackTrace();
+				}
 			}
+			++i;
+			++j;
 		}
-		avgCommonDiff = totalCommonDiff / numComparableCommonAlleles;
 	}
 
+	// calculate distance for common genes
+	double avgCommonDiff = 0;
+	if ( numComparableCommonAlleles > 0 )
+		avgCommonDiff = totalCommonDiff / numComparableCommonAlleles;
+
 	// formula from "Evolving Neural Networks Through Augmenting Topologies",
 	// Stanley/Miikkulainen
-	long maxChromSize = Math.max( this.getAlleles().size(), target.getAlleles().size() );
+	long maxChromSize = Math.max( myIds.length, targetIds.length );
 	double result = 0.0d;
 	if ( maxChromSize > 0 )
 		// should never be 0
-		result = ( ( speciationParms.getSpecieCompatExcessCoeff() * excessAlleles.size() ) / maxChromSize )
-				+ ( ( speciationParms.getSpecieCompatDisjointCoeff() * disjointAlleles.size() ) / maxChromSize )
+		result = ( ( speciationParms.getSpecieCompatExcessCoeff() * numExcessAlleles ) / maxChromSize )
+				+ ( ( speciationParms.getSpecieCompatDisjointCoeff() * numDisjointAlleles ) / maxChromSize )
 				+ ( speciationParms.getSpecieCompatCommonCoeff() * avgCommonDiff );
 	return result;
 }
 
+/**
+ * Builds the sorted view of the alleles used by <code>distance()</code> the first time it is
+ * needed. The alleles must not be changed after this, as is the case for the material of a
+ * <code>Chromosome</code>.
+ * 
+ * @return alleles and their innovation IDs in ascending order
+ * @see ChromosomeMaterial#distance(ChromosomeMaterial, SpeciationParms)
+ */
+private SortedAlleles getSortedAlleles() {
+	SortedAlleles result = sortedAlleles;
+	if ( result == null ) {
+		// several threads may build it at once, but they all build the same
+		result = new SortedAlleles( m_alleles );
+		sortedAlleles = result;
+	}
+	return result;
+}
+
 /**
  * for hibernate
  * @param aAlleles
  */
 void setAlleles( SortedSet aAlleles ) {
 	m_alleles = aAlleles;
+	sortedAlleles = null;
+}
+
+/**
+ * Innovation IDs and alleles in the same order, so genes of two chromosomes can be matched in
+ * one pass without looking at the <code>SortedSet</code>. Fields are final so it is safe to
+ * share between threads.
+ */
+private static class SortedAlleles {
+
+private final long[] innovationIds;
+
+private final Allele[] alleles;
+
+/**
+ * @param someAlleles already sorted by innovation ID
+ */
+private SortedAlleles( SortedSet someAlleles ) {
+	alleles = (Allele[]) someAlleles.toArray( new Allele[ someAlleles.size() ] );
+	innovationIds = new long[ alleles.length ];
+	for ( int i = 0; i < alleles.length; ++i )
+		innovationIds[ i ] = alleles[ i ].getInnovationId().longValue();
+}
 }
 
 }
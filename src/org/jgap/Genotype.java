@@ -25,6 +25,8 @@ import java.util.Collection;
 import java.util.Collections;
 import java.util.Iterator;
 import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
 
 import org.jgap.event.GeneticEvent;
 
@@ -59,6 +61,12 @@ protected List m_species = new ArrayList();
  */
 protected List m_chromosomes = new ArrayList();
 
+/**
+ * Threads matching new chromosomes against species, created when first needed if
+ * <code>SpeciationParms.getSpeciationThreads()</code> is more than 1.
+ */
+private transient ForkJoinPool speciationPool = null;
+
 /**
  * This constructor is used for random initial Genotypes. Note that the Configuration object
  * must be in a valid state when this method is invoked, or a InvalidconfigurationException will
@@ -100,6 +108,26 @@ public Genotype( Configuration a_activeConfiguration, List a_initialChromosomes
 	addChromosomes( a_initialChromosomes );
 }
 
+/**
+ * Recreate a population exactly as it was, with its species, e.g. when resuming a run from a
+ * checkpoint. Unlike the other constructor the chromosomes are not speciated again.
+ * 
+ * @param a_activeConfiguration
+ * @param someChromosomes <code>List</code> contains <code>Chromosome</code> objects, all
+ * members of <code>someSpecies</code>
+ * @param someSpecies <code>List</code> contains <code>Specie</code> objects
+ * @throws InvalidConfigurationException
+ */
+public Genotype( Configuration a_activeConfiguration, List someChromosomes, List someSpecies )
+		throws InvalidConfigurationException {
+	if ( a_activeConfiguration == null )
+		throw new IllegalArgumentException( "The Configuration instance may not be null." );
+	a_activeConfiguration.lockSettings();
+	m_activeConfiguration = a_activeConfiguration;
+	m_chromosomes = new ArrayList( someChromosomes );
+	m_species = new ArrayList( someSpecies );
+}
+
 /**
  * adjust chromosome list to fit population size; first, clone population (starting at beginning
  * of list) until we reach or exceed pop. size or trim excess (from end of list)
@@ -127,6 +155,11 @@ private void adjustChromosomeList( List chroms, int targetSize ) {
  * @see Genotype#addChromosome(Chromosome)
  */
 protected void addChromosomes( Collection chromosomes ) {
+	if ( m_activeConfiguration.getSpeciationParms().getSpeciationThreads() > 1 ) {
+		addChromosomesInParallel( chromosomes );
+		return;
+	}
+
 	Iterator iter = chromosomes.iterator();
 	while ( iter.hasNext() ) {
 		Chromosome c = (Chromosome) iter.next();
@@ -139,6 +172,18 @@ protected void addChromosomes( Collection chromosomes ) {
  * @see Genotype#addChromosomeFromMaterial(ChromosomeMaterial)
  */
 protected void addChromosomesFromMaterial( Collection chromosomeMaterial ) {
+	if ( m_activeConfiguration.getSpeciationParms().getSpeciationThreads() > 1 ) {
+		// IDs are assigned in the same order as when adding one at a time
+		List chroms = new ArrayList( chromosomeMaterial.size() );
+		Iterator iter = chromosomeMaterial.iterator();
+		while ( iter.hasNext() ) {
+			ChromosomeMaterial cMat = (ChromosomeMaterial) iter.next();
+			chroms.add( new Chromosome( cMat, m_activeConfiguration.nextChromosomeId() ) );
+		}
+		addChromosomesInParallel( chroms );
+		return;
+	}
+
 	Iterator iter = chromosomeMaterial.iterator();
 	while ( iter.hasNext() ) {
 		ChromosomeMaterial cMat = (ChromosomeMaterial) iter.next();
@@ -146,6 +191,52 @@ protected void addChromosomesFromMaterial( Collection chromosomeMaterial ) {
 	}
 }
 
+/**
+ * Adds chromosomes to the population and to species with the same result as calling
+ * <code>addChromosome()</code> for each in order. Representatives of species do not change
+ * while adding, so the first existing specie each chromosome matches is found concurrently.
+ * Then, in order, each chromosome is added to that specie, or else matched against the species
+ * created by the chromosomes before it, or else starts its own specie.
+ * 
+ * @param chromosomes <code>Collection</code> contains Chromosome objects
+ * @see Genotype#addChromosome(Chromosome)
+ */
+private void addChromosomesInParallel( Collection chromosomes ) {
+	Specie[] existing = (Specie[]) m_species.toArray( new Specie[ m_species.size() ] );
+	Chromosome[] chroms = (Chromosome[]) chromosomes.toArray( new Chromosome[ chromosomes.size() ] );
+	int[] matches = new int[ chroms.length ];
+
+	if ( speciationPool == null )
+		speciationPool = new ForkJoinPool( m_activeConfiguration.getSpeciationParms()
+				.getSpeciationThreads() );
+	speciationPool.invoke( new MatchTask( existing, chroms, matches, 0, chroms.length ) );
+
+	for ( int i = 0; i < chroms.length; ++i ) {
+		Chromosome chrom = chroms[ i ];
+		m_chromosomes.add( chrom );
+
+		if ( matches[ i ] >= 0 ) {
+			existing[ matches[ i ] ].add( chrom );
+			continue;
+		}
+
+		// species created during this call come after all the existing ones
+		boolean added = false;
+		Specie specie = null;
+		for ( int j = existing.length; j < m_species.size() && !added; ++j ) {
+			specie = (Specie) m_species.get( j );
+			if ( specie.match( chrom ) ) {
+				specie.add( chrom );
+				added = true;
+			}
+		}
+		if ( !added ) {
+			specie = new Specie( m_activeConfiguration.getSpeciationParms(), chrom );
+			m_species.add( specie );
+		}
+	}
+}
+
 /**
  * @param cMat chromosome material from which to construct new chromosome object
  * @see Genotype#addChromosome(Chromosome)
@@ -449,4 +540,64 @@ public boolean equals( Object other ) {
 	}
 }
 
+/**
+ * Finds the first specie each of a range of chromosomes matches, splitting the range until it is
+ * small enough to do on one thread.
+ */
+private static class MatchTask extends RecursiveAction {
+
+private static final long serialVersionUID = 1L;
+
+private static final int MAX_CHROMOSOMES_PER_TASK = 8;
+
+private final Specie[] species;
+
+private final Chromosome[] chroms;
+
+private final int[] matches;
+
+private final int from;
+
+private final int to;
+
+/**
+ * @param someSpecies species to match against, in order
+ * @param someChroms chromosomes to match
+ * @param someMatches index in <code>someSpecies</code> of the first match of each chromosome, or
+ * -1 if it matches none
+ * @param aFrom first chromosome to match
+ * @param aTo index after the last chromosome to match
+ */
+private MatchTask( Specie[] someSpecies, Chromosome[] someChroms, int[] someMatches, int aFrom,
+		int aTo ) {
+	species = someSpecies;
+	chroms = someChroms;
+	matches = someMatches;
+	from = aFrom;
+	to = aTo;
+}
+
+/**
+ * @see java.util.concurrent.RecursiveAction#compute()
+ */
+protected void compute() {
+	if ( to - from > MAX_CHROMOSOMES_PER_TASK ) {
+		int middle = ( from + to ) / 2;
+		invokeAll( new MatchTask( species, chroms, matches, from, middle ), new MatchTask( species,
+				chroms, matches, middle, to ) );
+		return;
+	}
+
+	for ( int i = from; i < to; ++i ) {
+		matches[ i ] = -1;
+		for ( int j = 0; j < species.length; ++j ) {
+			if ( species[ j ].match( chroms[ i ] ) ) {
+				matches[ i ] = j;
+				break;
+			}
+		}
+	}
+}
+}
+
 }
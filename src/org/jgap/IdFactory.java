@@ -59,6 +59,21 @@ private String fileName = null;
 	return nextId++;
  }
 
+/**
+ * @return long ID that <code>next()</code> will return, without using it
+ */
+public long peek() {
+	return nextId;
+}
+
+/**
+ * Continue from <code>aNextId</code>, e.g. when resuming a run from a checkpoint.
+ * @param aNextId
+ */
+public void setNextId( long aNextId ) {
+	nextId = aNextId;
+}
+
 /**
  * construct new factory with default values
  */
@@ -42,6 +42,11 @@ private final static double DEFAULT_COMPATIBILITY_COMMON_COEFF = 0.4d;
  */
 public final static double DEFAULT_SPECIATION_THRESHOLD = 3.0d;
 
+/**
+ * default number of threads assigning chromosomes to species
+ */
+public final static int DEFAULT_SPECIATION_THREADS = 1;
+
 private double compatExcessCoeff = DEFAULT_COMPATIBILITY_EXCESS_COEFF;
 
 private double compatDisjointCoeff = DEFAULT_COMPATIBILITY_DISJOINT_COEFF;
@@ -50,6 +55,8 @@ private double compatCommonCoeff = DEFAULT_COMPATIBILITY_COMMON_COEFF;
 
 private double speciationThreshold = DEFAULT_SPECIATION_THRESHOLD;
 
+private int speciationThreads = DEFAULT_SPECIATION_THREADS;
+
 /**
  * @return double coefficient for species compatibility based on common genes; see <a
  * href="http://nn.cs.utexas.edu/downloads/papers/stanley.ec02.pdf">section 3.3 of primary NEAT
@@ -122,4 +129,22 @@ public void setSpeciationThreshold( double d ) {
 	speciationThreshold = d;
 }
 
+/**
+ * @return number of threads computing the distances of new chromosomes to the species; 1 means
+ * everything is done on the calling thread
+ * @see Genotype#addChromosomes(java.util.Collection)
+ */
+public int getSpeciationThreads() {
+	return speciationThreads;
+}
+
+/**
+ * @param i number of threads computing the distances of new chromosomes to the species
+ */
+public void setSpeciationThreads( int i ) {
+	if ( i < 1 )
+		throw new IllegalArgumentException( "speciation threads must be at least 1: " + i );
+	speciationThreads = i;
+}
+
 }
@@ -113,10 +113,31 @@ public Specie( SpeciationParms aSpeciationParms, Chromosome aRepresentative ) {
 	speciationParms = aSpeciationParms;
 }
 
+/**
+ * Recreate specie with <code>members</code> in the given order, e.g. when resuming a run from
+ * a checkpoint. <code>aRepresentative</code> need not be one of <code>members</code> if it has
+ * died from the population.
+ * @param aSpeciationParms
+ * @param aRepresentative
+ * @param members <code>List</code> contains <code>Chromosome</code> objects
+ */
+public Specie( SpeciationParms aSpeciationParms, Chromosome aRepresentative, List members ) {
+	representative = aRepresentative;
+	aRepresentative.setSpecie( this );
+	speciationParms = aSpeciationParms;
+	Iterator iter = members.iterator();
+	while ( iter.hasNext() ) {
+		Chromosome c = (Chromosome) iter.next();
+		if ( c != aRepresentative )
+			c.setSpecie( this );
+		chromosomes.add( c );
+	}
+}
+
 /**
  * @return representative chromosome
  */
-protected Chromosome getRepresentative() {
+public Chromosome getRepresentative() {
 	return representative;
 }
 